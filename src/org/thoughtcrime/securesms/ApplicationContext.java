@@ -52,13 +52,14 @@ import org.signal.aesgcmprovider.AesGcmProvider;
 import org.thoughtcrime.securesms.components.TypingStatusRepository;
 import org.thoughtcrime.securesms.components.TypingStatusSender;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencyProvider;
 import org.thoughtcrime.securesms.gcm.FcmJobService;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.JobMigrator;
-import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.impl.BinaryDataSerializer;
 import org.thoughtcrime.securesms.jobs.CreateSignedPreKeyJob;
 import org.thoughtcrime.securesms.jobs.FastJobStorage;
 import org.thoughtcrime.securesms.jobs.FcmRefreshJob;
@@ -66,6 +67,8 @@ import org.thoughtcrime.securesms.jobs.JobManagerFactories;
 import org.thoughtcrime.securesms.jobs.MultiDeviceContactUpdateJob;
 import org.thoughtcrime.securesms.jobs.PushNotificationReceiveJob;
 import org.thoughtcrime.securesms.jobs.RefreshUnidentifiedDeliveryAbilityJob;
+import org.thoughtcrime.securesms.jobs.SearchIndexJob;
+import org.thoughtcrime.securesms.jobs.WriteBehindJobJournal;
 import org.thoughtcrime.securesms.logging.AndroidLogger;
 import org.thoughtcrime.securesms.logging.CustomSignalProtocolLogger;
 import org.thoughtcrime.securesms.logging.Log;
@@ -149,6 +152,7 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
     initializeTypingStatusSender();
     initializeGcmCheck();
     initializeSignedPreKeyCheck();
+    initializeSearchIndex();
     initializePeriodicTasks();
     initializeCircumvention();
     initializeWebRtc();
@@ -242,12 +246,15 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
   }
 
   private void initializeJobManager() {
+    JobDatabase           jobDatabase = DatabaseFactory.getJobDatabase(this);
+    WriteBehindJobJournal journal     = new WriteBehindJobJournal(jobDatabase, 250, 100);
+
     this.jobManager = new JobManager(this, new JobManager.Configuration.Builder()
-                                                                       .setDataSerializer(new JsonDataSerializer())
+                                                                       .setDataSerializer(new BinaryDataSerializer())
                                                                        .setJobFactories(JobManagerFactories.getJobFactories(this))
                                                                        .setConstraintFactories(JobManagerFactories.getConstraintFactories(this))
                                                                        .setConstraintObservers(JobManagerFactories.getConstraintObservers(this))
-                                                                       .setJobStorage(new FastJobStorage(DatabaseFactory.getJobDatabase(this)))
+                                                                       .setJobStorage(new FastJobStorage(jobDatabase, journal))
                                                                        .setJobMigrator(new JobMigrator(TextSecurePreferences.getJobManagerVersion(this), JobManager.CURRENT_VERSION, JobManagerFactories.getJobMigrations(this)))
                                                                        .build());
   }
@@ -294,6 +301,10 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
     }
   }
 
+  private void initializeSearchIndex() {
+    jobManager.add(new SearchIndexJob());
+  }
+
   private void initializeExpiringMessageManager() {
     this.expiringMessageManager = new ExpiringMessageManager(this);
   }
@@ -7,9 +7,10 @@ import androidx.annotation.NonNull;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
-import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobs.DirectoryRefreshJob;
 import org.thoughtcrime.securesms.jobs.PushDecryptJob;
@@ -17,59 +18,85 @@ import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
-import java.io.Closeable;
 import java.util.Locale;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The central entry point for all envelopes that have been retrieved. Envelopes must be processed
  * here to guarantee proper ordering.
+ *
+ * {@link #processEnvelope(SignalServiceEnvelope)} only excludes other envelopes from the same
+ * sender, so envelopes from different senders that arrive on different threads (e.g. the
+ * websocket and an FCM-triggered fetch) don't wait on each other. Envelopes from the same sender
+ * are still processed one at a time, in the order they're handed to us. Receipts only bump
+ * counters on messages we've sent, so they take no lock at all.
+ *
+ * Processing an envelope only stores it and schedules a {@link PushDecryptJob}, which keeps
+ * envelopes from the same sender in order once it has decrypted them.
  */
 public class IncomingMessageProcessor {
 
   private static final String TAG = Log.tag(IncomingMessageProcessor.class);
 
-  private final Context       context;
-  private final ReentrantLock lock;
+  private static final int SENDER_LOCK_COUNT = 16;
+
+  private final Context         context;
+  private final ReentrantLock[] senderLocks;
 
   public IncomingMessageProcessor(@NonNull Context context) {
-    this.context = context;
-    this.lock    = new ReentrantLock();
+    this.context     = context;
+    this.senderLocks = new ReentrantLock[SENDER_LOCK_COUNT];
+
+    for (int i = 0; i < senderLocks.length; i++) {
+      senderLocks[i] = new ReentrantLock();
+    }
   }
 
   /**
-   * @return An instance of a Processor that will allow you to process messages in a thread safe
-   * way. Must be closed.
+   * Processes a single envelope, only waiting on envelopes from the same sender that are being
+   * processed on other threads.
    */
-  public Processor acquire() {
-    lock.lock();
+  public void processEnvelope(@NonNull SignalServiceEnvelope envelope) {
+    if (envelope.isReceipt()) {
+      new Processor(context).processEnvelope(envelope);
+      return;
+    }
+
+    ReentrantLock senderLock = getSenderLock(envelope);
 
-    Thread current = Thread.currentThread();
-    Log.d(TAG, "Lock acquired by thread " + current.getId() + " (" + current.getName() + ")");
+    senderLock.lock();
 
-    return new Processor(context);
+    try {
+      new Processor(context).processEnvelope(envelope);
+    } finally {
+      senderLock.unlock();
+    }
   }
 
-  private void release() {
-    Thread current = Thread.currentThread();
-    Log.d(TAG, "Lock about to be released by thread " + current.getId() + " (" + current.getName() + ")");
+  /**
+   * Sealed sender envelopes don't reveal their sender until they're decrypted, so they're spread
+   * over the locks by timestamp instead. Their order is kept by {@link PushDecryptJob}.
+   */
+  private @NonNull ReentrantLock getSenderLock(@NonNull SignalServiceEnvelope envelope) {
+    int hash  = envelope.hasSource() ? envelope.getSource().hashCode() : Long.valueOf(envelope.getTimestamp()).hashCode();
+    int index = (hash & 0x7FFFFFFF) % senderLocks.length;
 
-    lock.unlock();
+    return senderLocks[index];
   }
 
-  public class Processor implements Closeable {
+  private static class Processor {
 
     private final Context           context;
     private final RecipientDatabase recipientDatabase;
     private final PushDatabase      pushDatabase;
-    private final MmsSmsDatabase    mmsSmsDatabase;
+    private final ReceiptAggregator receiptAggregator;
     private final JobManager        jobManager;
 
     private Processor(@NonNull Context context) {
       this.context           = context;
       this.recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
       this.pushDatabase      = DatabaseFactory.getPushDatabase(context);
-      this.mmsSmsDatabase    = DatabaseFactory.getMmsSmsDatabase(context);
+      this.receiptAggregator = ApplicationDependencies.getReceiptAggregator();
       this.jobManager        = ApplicationContext.getInstance(context).getJobManager();
     }
 
@@ -100,17 +127,12 @@ public class IncomingMessageProcessor {
 
     private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, String.format(Locale.ENGLISH, "Received receipt: (XXXXX, %d)", envelope.getTimestamp()));
-      mmsSmsDatabase.incrementDeliveryReceiptCount(new SyncMessageId(Recipient.external(context, envelope.getSource()).getId(), envelope.getTimestamp()),
-                                                   System.currentTimeMillis());
+      receiptAggregator.addDeliveryReceipt(new SyncMessageId(Recipient.external(context, envelope.getSource()).getId(), envelope.getTimestamp()),
+                                           System.currentTimeMillis());
     }
 
     private boolean isActiveNumber(@NonNull Recipient recipient) {
       return recipient.resolve().getRegistered() == RecipientDatabase.RegisteredState.REGISTERED;
     }
-
-    @Override
-    public void close() {
-      release();
-    }
   }
 }
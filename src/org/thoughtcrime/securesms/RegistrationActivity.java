@@ -67,6 +67,7 @@ import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.gcm.FcmUtil;
 import org.thoughtcrime.securesms.jobs.DirectoryRefreshJob;
 import org.thoughtcrime.securesms.jobs.RotateCertificateJob;
+import org.thoughtcrime.securesms.jobs.SearchIndexJob;
 import org.thoughtcrime.securesms.lock.RegistrationLockReminders;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
@@ -385,6 +386,7 @@ public class RegistrationActivity extends BaseActionBarActivity implements Verif
                                               database, backup.getFile(), passphrase);
 
                 DatabaseFactory.upgradeRestored(context, database);
+                ApplicationContext.getInstance(context).getJobManager().add(new SearchIndexJob());
                 NotificationChannels.restoreContactNotificationChannels(context);
 
                 TextSecurePreferences.setBackupEnabled(context, true);
@@ -999,8 +1001,9 @@ public class RegistrationActivity extends BaseActionBarActivity implements Verif
 
   @Subscribe(threadMode = ThreadMode.MAIN)
   public void onEvent(FullBackupBase.BackupEvent event) {
-    if (event.getCount() == 0) restoreBackupProgress.setText(R.string.RegistrationActivity_checking);
-    else                       restoreBackupProgress.setText(getString(R.string.RegistrationActivity_d_messages_so_far, event.getCount()));
+    if      (event.getCount() == 0)     restoreBackupProgress.setText(R.string.RegistrationActivity_checking);
+    else if (event.getTotalBytes() > 0) restoreBackupProgress.setText(getString(R.string.RegistrationActivity_d_percent_restored, (int) (event.getBytes() * 100 / event.getTotalBytes())));
+    else                                restoreBackupProgress.setText(getString(R.string.RegistrationActivity_d_messages_so_far, event.getCount()));
   }
 
   private class SmsRetrieverReceiver extends BroadcastReceiver {
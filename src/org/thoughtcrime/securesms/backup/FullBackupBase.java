@@ -46,11 +46,19 @@ public abstract class FullBackupBase {
     }
 
     private final Type type;
-    private final int count;
+    private final int  count;
+    private final long bytes;
+    private final long totalBytes;
 
     BackupEvent(Type type, int count) {
-      this.type  = type;
-      this.count = count;
+      this(type, count, 0, 0);
+    }
+
+    BackupEvent(Type type, int count, long bytes, long totalBytes) {
+      this.type       = type;
+      this.count      = count;
+      this.bytes      = bytes;
+      this.totalBytes = totalBytes;
     }
 
     public Type getType() {
@@ -60,6 +68,20 @@ public abstract class FullBackupBase {
     public int getCount() {
       return count;
     }
+
+    /**
+     * @return How many bytes of the backup file have been processed, or 0 if unknown.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return The size of the backup file, or 0 if it isn't known yet (e.g. while exporting).
+     */
+    public long getTotalBytes() {
+      return totalBytes;
+    }
   }
 
 }
@@ -35,6 +35,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -44,8 +45,12 @@ import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -60,6 +65,21 @@ public class FullBackupExporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupExporter.class.getSimpleName();
 
+  private static final int  MAX_ROWS_PER_INSERT       = 100;
+  private static final int  MAX_PARAMETERS_PER_INSERT = 999;
+  private static final int  MAX_BYTES_PER_INSERT      = 256 * 1024;
+  private static final int  ROW_QUEUE_CAPACITY        = 1000;
+  private static final int  FRAME_QUEUE_CAPACITY      = 32;
+  private static final long PROGRESS_INTERVAL_MS      = 250;
+
+  private static final String NON_EXPIRING_MESSAGE_IDS = "SELECT " + MmsDatabase.ID + " FROM " + MmsDatabase.TABLE_NAME + " " +
+                                                         "WHERE IFNULL(" + MmsDatabase.EXPIRES_IN + ", 0) = 0 AND IFNULL(" + MmsDatabase.VIEW_ONCE + ", 0) = 0";
+
+  /**
+   * Export runs as a three stage pipeline. The calling thread reads rows out of the database, a
+   * second thread batches them into multi-row INSERT statements and serializes frames, and a third
+   * thread encrypts and writes frames to disk.
+   */
   public static void export(@NonNull Context context,
                             @NonNull AttachmentSecret attachmentSecret,
                             @NonNull SQLiteDatabase input,
@@ -68,47 +88,56 @@ public class FullBackupExporter extends FullBackupBase {
       throws IOException
   {
     BackupFrameOutputStream outputStream = new BackupFrameOutputStream(output, passphrase);
-    outputStream.writeDatabaseVersion(input.getVersion());
-
-    List<String> tables = exportSchema(input, outputStream);
-    int          count  = 0;
-
-    for (String table : tables) {
-      if (table.equals(MmsDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, FullBackupExporter::isNonExpiringMessage, null, count);
-      } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count);
-      } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream), count);
-      } else if (table.equals(StickerDatabase.TABLE_NAME)) {
-        count = exportTable(table, input, outputStream, cursor -> true, cursor -> exportSticker(attachmentSecret, cursor, outputStream), count);
-      } else if (!table.equals(SignedPreKeyDatabase.TABLE_NAME)       &&
-                 !table.equals(OneTimePreKeyDatabase.TABLE_NAME)      &&
-                 !table.equals(SessionDatabase.TABLE_NAME)            &&
-                 !table.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME) &&
-                 !table.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME) &&
-                 !table.startsWith("sqlite_"))
-      {
-        count = exportTable(table, input, outputStream, null, null, count);
+    ExportPipeline          pipeline     = new ExportPipeline(outputStream);
+    ProgressReporter        progress     = new ProgressReporter();
+
+    try {
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(input.getVersion()))
+                                             .build());
+
+      List<String> tables = exportSchema(input, pipeline);
+
+      for (String table : tables) {
+        if (table.equals(MmsDatabase.TABLE_NAME)) {
+          exportTable(table, null, input, pipeline, progress, FullBackupExporter::isNonExpiringMessage, null);
+        } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
+          exportTable(table, GroupReceiptDatabase.MMS_ID + " IN (" + NON_EXPIRING_MESSAGE_IDS + ")", input, pipeline, progress, null, null);
+        } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
+          exportTable(table, AttachmentDatabase.MMS_ID + " IN (" + NON_EXPIRING_MESSAGE_IDS + ")", input, pipeline, progress, null, cursor -> exportAttachment(attachmentSecret, cursor, pipeline));
+        } else if (table.equals(StickerDatabase.TABLE_NAME)) {
+          exportTable(table, null, input, pipeline, progress, null, cursor -> exportSticker(attachmentSecret, cursor, pipeline));
+        } else if (!table.equals(SignedPreKeyDatabase.TABLE_NAME)           &&
+                   !table.equals(OneTimePreKeyDatabase.TABLE_NAME)          &&
+                   !table.equals(SessionDatabase.TABLE_NAME)                &&
+                   !table.equals(SearchDatabase.QUEUE_TABLE_NAME)           &&
+                   !table.startsWith(SearchDatabase.MESSAGE_FTS_TABLE_NAME) &&
+                   !table.startsWith("sqlite_"))
+        {
+          exportTable(table, null, input, pipeline, progress, null, null);
+        }
       }
-    }
 
-    for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-      outputStream.write(preference);
-    }
+      for (BackupProtos.SharedPreference preference : IdentityKeyUtil.getBackupRecord(context)) {
+        progress.increment();
+        pipeline.write(BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
+      }
+
+      for (File avatar : AvatarHelper.getAvatarFiles(context)) {
+        progress.increment();
+        pipeline.write(out -> out.write(avatar.getName(), new FileInputStream(avatar), avatar.length()));
+      }
 
-    for (File avatar : AvatarHelper.getAvatarFiles(context)) {
-      EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
-      outputStream.write(avatar.getName(), new FileInputStream(avatar), avatar.length());
+      pipeline.write(BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      pipeline.finish();
+    } finally {
+      pipeline.cancel();
     }
 
-    outputStream.writeEnd();
-    outputStream.close();
-    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, progress.getCount()));
   }
 
-  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream)
+  private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull ExportPipeline pipeline)
       throws IOException
   {
     List<String> tables = new LinkedList<>();
@@ -121,15 +150,16 @@ public class FullBackupExporter extends FullBackupBase {
 
         if (sql != null) {
 
-          boolean isSmsFtsSecretTable = name != null && !name.equals(SearchDatabase.SMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME);
-          boolean isMmsFtsSecretTable = name != null && !name.equals(SearchDatabase.MMS_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME);
+          boolean isFtsSecretTable = name != null && !name.equals(SearchDatabase.MESSAGE_FTS_TABLE_NAME) && name.startsWith(SearchDatabase.MESSAGE_FTS_TABLE_NAME);
 
-          if (!isSmsFtsSecretTable && !isMmsFtsSecretTable) {
+          if (!isFtsSecretTable) {
             if ("table".equals(type)) {
               tables.add(name);
             }
 
-            outputStream.write(BackupProtos.SqlStatement.newBuilder().setStatement(cursor.getString(0)).build());
+            pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                                   .setStatement(BackupProtos.SqlStatement.newBuilder().setStatement(cursor.getString(0)))
+                                                   .build());
           }
         }
       }
@@ -138,98 +168,95 @@ public class FullBackupExporter extends FullBackupBase {
     return tables;
   }
 
-  private static int exportTable(@NonNull   String table,
-                                 @NonNull   SQLiteDatabase input,
-                                 @NonNull   BackupFrameOutputStream outputStream,
-                                 @Nullable  Predicate<Cursor> predicate,
-                                 @Nullable  Consumer<Cursor> postProcess,
-                                            int count)
+  private static void exportTable(@NonNull   String table,
+                                  @Nullable  String where,
+                                  @NonNull   SQLiteDatabase input,
+                                  @NonNull   ExportPipeline pipeline,
+                                  @NonNull   ProgressReporter progress,
+                                  @Nullable  Predicate<Cursor> predicate,
+                                  @Nullable  Consumer<Cursor> postProcess)
       throws IOException
   {
-    String template = "INSERT INTO " + table + " VALUES ";
+    String query = "SELECT * FROM " + table + (where != null ? " WHERE " + where : "");
 
-    try (Cursor cursor = input.rawQuery("SELECT * FROM " + table, null)) {
+    try (Cursor cursor = input.rawQuery(query, null)) {
       while (cursor != null && cursor.moveToNext()) {
-        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, ++count));
+        progress.increment();
 
         if (predicate == null || predicate.test(cursor)) {
-          StringBuilder                     statement        = new StringBuilder(template);
-          BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder();
-
-          statement.append('(');
-
-          for (int i=0;i<cursor.getColumnCount();i++) {
-            statement.append('?');
-
-            if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setStringParamter(cursor.getString(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setDoubleParameter(cursor.getDouble(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(i)));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_BLOB) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setBlobParameter(ByteString.copyFrom(cursor.getBlob(i))));
-            } else if (cursor.getType(i) == Cursor.FIELD_TYPE_NULL) {
-              statementBuilder.addParameters(BackupProtos.SqlStatement.SqlParameter.newBuilder().setNullparameter(true));
-            } else {
-              throw new AssertionError("unknown type?"  + cursor.getType(i));
-            }
-
-            if (i < cursor.getColumnCount()-1) {
-              statement.append(',');
+          Object[] values = new Object[cursor.getColumnCount()];
+
+          for (int i = 0; i < values.length; i++) {
+            switch (cursor.getType(i)) {
+              case Cursor.FIELD_TYPE_STRING:  values[i] = cursor.getString(i); break;
+              case Cursor.FIELD_TYPE_FLOAT:   values[i] = cursor.getDouble(i); break;
+              case Cursor.FIELD_TYPE_INTEGER: values[i] = cursor.getLong(i);   break;
+              case Cursor.FIELD_TYPE_BLOB:    values[i] = cursor.getBlob(i);   break;
+              case Cursor.FIELD_TYPE_NULL:    values[i] = null;                break;
+              default:                        throw new AssertionError("unknown type?"  + cursor.getType(i));
             }
           }
 
-          statement.append(')');
-
-          outputStream.write(statementBuilder.setStatement(statement.toString()).build());
+          pipeline.write(new Row(table, values));
 
           if (postProcess != null) postProcess.accept(cursor);
         }
       }
     }
-
-    return count;
   }
 
-  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
-      long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull ExportPipeline pipeline) {
+    long   rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
+    long   uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
+    long   size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
+    String data     = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
+    byte[] random   = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM));
+    if (TextUtils.isEmpty(data)) {
+      return;
+    }
 
-      if (!TextUtils.isEmpty(data) && size <= 0) {
-        size = calculateVeryOldStreamLength(attachmentSecret, random, data);
-      }
+    try {
+      pipeline.write(outputStream -> {
+        try {
+          long length = size > 0 ? size : calculateVeryOldStreamLength(attachmentSecret, random, data);
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream;
+          if (length > 0) {
+            InputStream inputStream;
 
-        if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
+            if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
+            else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
 
-        outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
-      }
+            outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, length);
+          }
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      });
     } catch (IOException e) {
       Log.w(TAG, e);
     }
   }
 
-  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull ExportPipeline pipeline) {
+    long   rowId  = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
+    long   size   = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+    String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
+    byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
 
-      String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
-      byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
+    if (TextUtils.isEmpty(data) || size <= 0) {
+      return;
+    }
 
-      if (!TextUtils.isEmpty(data) && size > 0) {
-        InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
-        outputStream.writeSticker(rowId, inputStream, size);
-      }
+    try {
+      pipeline.write(outputStream -> {
+        try {
+          InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
+          outputStream.writeSticker(rowId, inputStream, size);
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      });
     } catch (IOException e) {
       Log.w(TAG, e);
     }
@@ -257,30 +284,309 @@ public class FullBackupExporter extends FullBackupBase {
            cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE))    <= 0;
   }
 
-  private static boolean isForNonExpiringMessage(@NonNull SQLiteDatabase db, long mmsId) {
-    String[] columns = new String[] { MmsDatabase.EXPIRES_IN, MmsDatabase.VIEW_ONCE};
-    String   where   = MmsDatabase.ID + " = ?";
-    String[] args    = new String[] { String.valueOf(mmsId) };
+  private interface OutputTask {
+    void write(@NonNull BackupFrameOutputStream outputStream) throws IOException;
+  }
+
+  private static final class Row {
+
+    private final String   table;
+    private final Object[] values;
+
+    private Row(@NonNull String table, @NonNull Object[] values) {
+      this.table  = table;
+      this.values = values;
+    }
+
+    private int estimateSize() {
+      int size = 0;
 
-    try (Cursor mmsCursor = db.query(MmsDatabase.TABLE_NAME, columns, where, args, null, null, null)) {
-      if (mmsCursor != null && mmsCursor.moveToFirst()) {
-        return mmsCursor.getLong(mmsCursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN)) == 0 &&
-               mmsCursor.getLong(mmsCursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE))  == 0;
+      for (Object value : values) {
+        if      (value instanceof String) size += ((String) value).length();
+        else if (value instanceof byte[]) size += ((byte[]) value).length;
+        else                              size += 8;
       }
+
+      return size;
     }
+  }
+
+  /**
+   * Collects consecutive rows of a table into a single multi-row INSERT, bounded so that it stays
+   * under SQLite's default host parameter limit and doesn't make for an oversized frame.
+   */
+  private static final class RowBatch {
+
+    private final List<Row> rows = new ArrayList<>(MAX_ROWS_PER_INSERT);
+
+    private int size;
+
+    boolean canAdd(@NonNull Row row) {
+      if (rows.isEmpty()) {
+        return true;
+      }
 
-    return false;
+      Row first = rows.get(0);
+
+      return first.table.equals(row.table)                                       &&
+             first.values.length == row.values.length                            &&
+             rows.size() < MAX_ROWS_PER_INSERT                                   &&
+             (rows.size() + 1) * row.values.length <= MAX_PARAMETERS_PER_INSERT &&
+             size + row.estimateSize() <= MAX_BYTES_PER_INSERT;
+    }
+
+    void add(@NonNull Row row) {
+      rows.add(row);
+      size += row.estimateSize();
+    }
+
+    boolean isEmpty() {
+      return rows.isEmpty();
+    }
+
+    @NonNull byte[] buildFrame() {
+      StringBuilder                     statement        = new StringBuilder("INSERT INTO ").append(rows.get(0).table).append(" VALUES ");
+      BackupProtos.SqlStatement.Builder statementBuilder = BackupProtos.SqlStatement.newBuilder();
+
+      for (int r = 0; r < rows.size(); r++) {
+        Object[] values = rows.get(r).values;
+
+        if (r > 0) statement.append(',');
+        statement.append('(');
+
+        for (int i = 0; i < values.length; i++) {
+          statement.append('?');
+          statementBuilder.addParameters(toParameter(values[i]));
+
+          if (i < values.length - 1) {
+            statement.append(',');
+          }
+        }
+
+        statement.append(')');
+      }
+
+      rows.clear();
+      size = 0;
+
+      return BackupProtos.BackupFrame.newBuilder()
+                                     .setStatement(statementBuilder.setStatement(statement.toString()))
+                                     .build()
+                                     .toByteArray();
+    }
+
+    private static @NonNull BackupProtos.SqlStatement.SqlParameter.Builder toParameter(@Nullable Object value) {
+      BackupProtos.SqlStatement.SqlParameter.Builder parameter = BackupProtos.SqlStatement.SqlParameter.newBuilder();
+
+      if      (value instanceof String) return parameter.setStringParamter((String) value);
+      else if (value instanceof Double) return parameter.setDoubleParameter((Double) value);
+      else if (value instanceof Long)   return parameter.setIntegerParameter((Long) value);
+      else if (value instanceof byte[]) return parameter.setBlobParameter(ByteString.copyFrom((byte[]) value));
+      else                              return parameter.setNullparameter(true);
+    }
+  }
+
+  /**
+   * Posts a progress event at most once every {@link #PROGRESS_INTERVAL_MS}.
+   */
+  private static final class ProgressReporter {
+
+    private int  count;
+    private long lastPostTime;
+
+    void increment() {
+      count++;
+
+      long now = System.currentTimeMillis();
+
+      if (now - lastPostTime >= PROGRESS_INTERVAL_MS) {
+        lastPostTime = now;
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+      }
+    }
+
+    int getCount() {
+      return count;
+    }
   }
 
+  /**
+   * Connects the export stages with bounded queues. Rows written to the pipeline are batched into
+   * INSERT frames on the frame thread, and everything else stays in order behind them, so that an
+   * attachment is always written after the row it belongs to. Frames are encrypted and written out
+   * on the output thread.
+   *
+   * If any stage fails, the others stop at their next queue operation, and the failure is rethrown
+   * to the exporting thread.
+   */
+  private static final class ExportPipeline {
+
+    private static final Object END          = new Object();
+    private static final long   POLL_TIME_MS = 100;
+
+    private final BlockingQueue<Object>   rowQueue   = new ArrayBlockingQueue<>(ROW_QUEUE_CAPACITY);
+    private final BlockingQueue<Object>   frameQueue = new ArrayBlockingQueue<>(FRAME_QUEUE_CAPACITY);
+    private final BackupFrameOutputStream outputStream;
+    private final Thread                  frameThread;
+    private final Thread                  outputThread;
+
+    private volatile Throwable failure;
+    private          boolean   finished;
+
+    ExportPipeline(@NonNull BackupFrameOutputStream outputStream) {
+      this.outputStream = outputStream;
+      this.frameThread  = new Thread(this::runFrameStage, "signal-backup-frames");
+      this.outputThread = new Thread(this::runOutputStage, "signal-backup-output");
+
+      frameThread.start();
+      outputThread.start();
+    }
+
+    void write(@NonNull Row row) throws IOException {
+      put(rowQueue, row);
+    }
+
+    void write(@NonNull BackupProtos.BackupFrame frame) throws IOException {
+      put(rowQueue, frame);
+    }
+
+    void write(@NonNull OutputTask task) throws IOException {
+      put(rowQueue, task);
+    }
+
+    /**
+     * Waits until everything written so far is in the output file, and closes it.
+     */
+    void finish() throws IOException {
+      put(rowQueue, END);
+      join();
+      finished = true;
+      rethrowFailure();
+    }
+
+    /**
+     * Stops all stages and closes the output file, unless {@link #finish()} already did.
+     */
+    void cancel() {
+      if (!finished) {
+        fail(new IOException("Export cancelled."));
+        join();
+        finished = true;
+      }
+    }
+
+    private void runFrameStage() {
+      try {
+        RowBatch batch = new RowBatch();
+        Object   item;
+
+        while ((item = take(rowQueue)) != END) {
+          if (item instanceof Row) {
+            Row row = (Row) item;
+
+            if (!batch.canAdd(row)) {
+              put(frameQueue, batch.buildFrame());
+            }
+
+            batch.add(row);
+          } else {
+            if (!batch.isEmpty()) {
+              put(frameQueue, batch.buildFrame());
+            }
+
+            put(frameQueue, item instanceof BackupProtos.BackupFrame ? ((BackupProtos.BackupFrame) item).toByteArray() : item);
+          }
+        }
+
+        if (!batch.isEmpty()) {
+          put(frameQueue, batch.buildFrame());
+        }
+
+        put(frameQueue, END);
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    private void runOutputStage() {
+      try {
+        Object item;
+
+        while ((item = take(frameQueue)) != END) {
+          if (item instanceof byte[]) outputStream.write((byte[]) item);
+          else                        ((OutputTask) item).write(outputStream);
+        }
+      } catch (Throwable t) {
+        fail(t);
+      } finally {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          fail(e);
+        }
+      }
+    }
+
+    private void put(@NonNull BlockingQueue<Object> queue, @NonNull Object item) throws IOException {
+      try {
+        do {
+          rethrowFailure();
+        } while (!queue.offer(item, POLL_TIME_MS, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private @NonNull Object take(@NonNull BlockingQueue<Object> queue) throws IOException {
+      try {
+        Object item;
+
+        while ((item = queue.poll(POLL_TIME_MS, TimeUnit.MILLISECONDS)) == null) {
+          rethrowFailure();
+        }
+
+        return item;
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private synchronized void fail(@NonNull Throwable t) {
+      if (failure == null) {
+        failure = t;
+      }
+    }
+
+    private void rethrowFailure() throws IOException {
+      Throwable failure = this.failure;
+
+      if      (failure == null)                     return;
+      else if (failure instanceof IOException)      throw (IOException) failure;
+      else if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+      else if (failure instanceof Error)            throw (Error) failure;
+      else                                          throw new IOException(failure);
+    }
+
+    private void join() {
+      try {
+        frameThread.join();
+        outputThread.join();
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted while waiting for backup export to finish.", e);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 
   private static class BackupFrameOutputStream extends BackupStream {
 
-    private final OutputStream outputStream;
-    private final Cipher       cipher;
-    private final Mac          mac;
+    private final OutputStream  outputStream;
+    private final Cipher        cipher;
+    private final Mac           mac;
+    private final byte[]        lengthBuffer = new byte[4];
 
-    private final byte[]       cipherKey;
-    private final byte[]       macKey;
+    private final SecretKeySpec cipherKeySpec;
+    private final byte[]        macKey;
 
     private byte[] iv;
     private int    counter;
@@ -292,12 +598,12 @@ public class FullBackupExporter extends FullBackupBase {
         byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
         byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-        this.cipherKey = split[0];
-        this.macKey    = split[1];
+        this.cipherKeySpec = new SecretKeySpec(split[0], "AES");
+        this.macKey        = split[1];
 
         this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
         this.mac          = Mac.getInstance("HmacSHA256");
-        this.outputStream = new FileOutputStream(output);
+        this.outputStream = new BufferedOutputStream(new FileOutputStream(output), 64 * 1024);
         this.iv           = Util.getSecretBytes(16);
         this.counter      = Conversions.byteArrayToInt(iv);
 
@@ -315,62 +621,65 @@ public class FullBackupExporter extends FullBackupBase {
       }
     }
 
-    public void write(BackupProtos.SharedPreference preference) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
-    }
+    /**
+     * @param frame A serialized {@link BackupProtos.BackupFrame}.
+     */
+    public void write(@NonNull byte[] frame) throws IOException {
+      try {
+        Conversions.intToByteArray(iv, 0, counter++);
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKeySpec, new IvParameterSpec(iv));
 
-    public void write(BackupProtos.SqlStatement statement) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
+        byte[] frameCiphertext = cipher.doFinal(frame);
+        byte[] frameMac        = mac.doFinal(frameCiphertext);
+
+        Conversions.intToByteArray(lengthBuffer, 0, frameCiphertext.length + 10);
+
+        outputStream.write(lengthBuffer);
+        outputStream.write(frameCiphertext);
+        outputStream.write(frameMac, 0, 10);
+      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+        throw new AssertionError(e);
+      }
     }
 
     public void write(@NonNull String avatarName, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAvatar(BackupProtos.Avatar.newBuilder()
-                                                                                .setName(avatarName)
-                                                                                .setLength(Util.toIntExact(size))
-                                                                                .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setAvatar(BackupProtos.Avatar.newBuilder()
+                                                                  .setName(avatarName)
+                                                                  .setLength(Util.toIntExact(size))
+                                                                  .build())
+                                    .build());
 
       writeStream(in);
     }
 
     public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAttachment(BackupProtos.Attachment.newBuilder()
-                                                                                        .setRowId(attachmentId.getRowId())
-                                                                                        .setAttachmentId(attachmentId.getUniqueId())
-                                                                                        .setLength(Util.toIntExact(size))
-                                                                                        .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setAttachment(BackupProtos.Attachment.newBuilder()
+                                                                          .setRowId(attachmentId.getRowId())
+                                                                          .setAttachmentId(attachmentId.getUniqueId())
+                                                                          .setLength(Util.toIntExact(size))
+                                                                          .build())
+                                    .build());
 
       writeStream(in);
     }
 
     public void writeSticker(long rowId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setSticker(BackupProtos.Sticker.newBuilder()
-                                                                                  .setRowId(rowId)
-                                                                                  .setLength(Util.toIntExact(size))
-                                                                                  .build())
-                                                  .build());
+      write(BackupProtos.BackupFrame.newBuilder()
+                                    .setSticker(BackupProtos.Sticker.newBuilder()
+                                                                    .setRowId(rowId)
+                                                                    .setLength(Util.toIntExact(size))
+                                                                    .build())
+                                    .build());
 
       writeStream(in);
     }
 
-    void writeDatabaseVersion(int version) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
-                                                  .build());
-    }
-
-    void writeEnd() throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
-    }
-
     private void writeStream(@NonNull InputStream inputStream) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKeySpec, new IvParameterSpec(iv));
         mac.update(iv);
 
         byte[] buffer = new byte[8192];
@@ -396,21 +705,8 @@ public class FullBackupExporter extends FullBackupBase {
       }
     }
 
-    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
-      try {
-        Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
-
-        byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
-        byte[] frameMac        = mac.doFinal(frameCiphertext);
-        byte[] length          = Conversions.intToByteArray(frameCiphertext.length + 10);
-
-        out.write(length);
-        out.write(frameCiphertext);
-        out.write(frameMac, 0, 10);
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-        throw new AssertionError(e);
-      }
+    private void write(@NonNull BackupProtos.BackupFrame frame) throws IOException {
+      write(frame.toByteArray());
     }
 
 
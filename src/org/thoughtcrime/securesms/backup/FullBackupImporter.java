@@ -10,6 +10,7 @@ import androidx.annotation.NonNull;
 import android.util.Pair;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.backup.BackupProtos.Attachment;
@@ -32,6 +33,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.kdf.HKDFv3;
 import org.whispersystems.libsignal.util.ByteUtil;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -42,8 +44,11 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -58,37 +63,57 @@ public class FullBackupImporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupImporter.class.getSimpleName();
 
+  private static final int  READ_BUFFER_SIZE      = 64 * 1024;
+  private static final int  FRAME_QUEUE_CAPACITY  = 32;
+  private static final int  MAX_CACHED_STATEMENTS = 16;
+  private static final long PROGRESS_INTERVAL_MS  = 250;
+
+  /**
+   * Import runs as a two stage pipeline. A reader thread decrypts and verifies frames ahead of the
+   * database, and streams attachment, sticker and avatar data straight into their files, so they're
+   * written while the calling thread is still inserting earlier rows. The calling thread applies
+   * everything else in order, in a single transaction, reusing compiled statements.
+   */
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull File file, @NonNull String passphrase)
       throws IOException
   {
     BackupRecordInputStream inputStream = new BackupRecordInputStream(file, passphrase);
-    int                     count       = 0;
+    ImportPipeline          pipeline    = new ImportPipeline(context, attachmentSecret, inputStream);
+    StatementCache          statements  = new StatementCache(db);
+    ProgressReporter        progress    = new ProgressReporter(file.length());
 
     try {
       db.beginTransaction();
 
       dropAllTables(db);
 
-      BackupFrame frame;
+      Object item;
 
-      while (!(frame = inputStream.readFrame()).getEnd()) {
-        if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+      while ((item = pipeline.take()) != ImportPipeline.END) {
+        progress.update(inputStream.getBytesRead());
 
-        if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
-        else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, frame.getAvatar(), inputStream);
+        if (item instanceof BackupFrame) {
+          BackupFrame frame = (BackupFrame) item;
+
+          if      (frame.hasVersion())    processVersion(db, frame.getVersion());
+          else if (frame.hasStatement())  processStatement(statements, frame.getStatement());
+          else if (frame.hasPreference()) processPreference(context, frame.getPreference());
+        } else if (item instanceof RestoredAttachment) {
+          processAttachment(db, (RestoredAttachment) item);
+        } else if (item instanceof RestoredSticker) {
+          processSticker(db, (RestoredSticker) item);
+        }
       }
 
       db.setTransactionSuccessful();
     } finally {
+      statements.close();
       db.endTransaction();
+      pipeline.close();
     }
 
-    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, progress.getCount(), progress.getTotalBytes(), progress.getTotalBytes()));
   }
 
   private static void processVersion(@NonNull SQLiteDatabase db, DatabaseVersion version) throws IOException {
@@ -99,71 +124,39 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.getVersion());
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  private static void processStatement(@NonNull StatementCache statements, SqlStatement statement) {
     boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
     boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
+    boolean isForFtsSecretTable    = statement.getStatement().contains(SearchDatabase.MESSAGE_FTS_TABLE_NAME + "_");
     boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
 
-    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
+    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForFtsSecretTable || isForSqliteSecretTable) {
       Log.i(TAG, "Ignoring import for statement: " + statement.getStatement());
       return;
     }
 
-    List<Object> parameters = new LinkedList<>();
-
-    for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
-      if      (parameter.hasStringParamter())   parameters.add(parameter.getStringParamter());
-      else if (parameter.hasDoubleParameter())  parameters.add(parameter.getDoubleParameter());
-      else if (parameter.hasIntegerParameter()) parameters.add(parameter.getIntegerParameter());
-      else if (parameter.hasBlobParameter())    parameters.add(parameter.getBlobParameter().toByteArray());
-      else if (parameter.hasNullparameter())    parameters.add(null);
-    }
-
-    if (parameters.size() > 0) db.execSQL(statement.getStatement(), parameters.toArray());
-    else                       db.execSQL(statement.getStatement());
+    statements.execute(statement);
   }
 
-  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
-      throws IOException
-  {
-    File partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
-    File dataFile       = File.createTempFile("part", ".mms", partsDirectory);
-
-    Pair<byte[], OutputStream> output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
-
-    inputStream.readAttachmentTo(output.second, attachment.getLength());
-
+  private static void processAttachment(@NonNull SQLiteDatabase db, @NonNull RestoredAttachment attachment) {
     ContentValues contentValues = new ContentValues();
-    contentValues.put(AttachmentDatabase.DATA, dataFile.getAbsolutePath());
+    contentValues.put(AttachmentDatabase.DATA, attachment.file.getAbsolutePath());
     contentValues.put(AttachmentDatabase.THUMBNAIL, (String)null);
-    contentValues.put(AttachmentDatabase.DATA_RANDOM, output.first);
+    contentValues.put(AttachmentDatabase.DATA_RANDOM, attachment.random);
 
     db.update(AttachmentDatabase.TABLE_NAME, contentValues,
               AttachmentDatabase.ROW_ID + " = ? AND " + AttachmentDatabase.UNIQUE_ID + " = ?",
-              new String[] {String.valueOf(attachment.getRowId()), String.valueOf(attachment.getAttachmentId())});
+              new String[] {String.valueOf(attachment.rowId), String.valueOf(attachment.attachmentId)});
   }
 
-  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream)
-      throws IOException
-  {
-    File stickerDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
-    File dataFile         = File.createTempFile("sticker", ".mms", stickerDirectory);
-
-    Pair<byte[], OutputStream> output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
-
-    inputStream.readAttachmentTo(output.second, sticker.getLength());
-
+  private static void processSticker(@NonNull SQLiteDatabase db, @NonNull RestoredSticker sticker) {
     ContentValues contentValues = new ContentValues();
-    contentValues.put(StickerDatabase.FILE_PATH, dataFile.getAbsolutePath());
-    contentValues.put(StickerDatabase.FILE_RANDOM, output.first);
+    contentValues.put(StickerDatabase.FILE_PATH, sticker.file.getAbsolutePath());
+    contentValues.put(StickerDatabase.FILE_RANDOM, sticker.random);
 
     db.update(StickerDatabase.TABLE_NAME, contentValues,
               StickerDatabase._ID + " = ?",
-              new String[] {String.valueOf(sticker.getRowId())});
-  }
-
-  private static void processAvatar(@NonNull Context context, @NonNull BackupProtos.Avatar avatar, @NonNull BackupRecordInputStream inputStream) throws IOException {
-    inputStream.readAttachmentTo(new FileOutputStream(AvatarHelper.getAvatarFile(context, Address.fromSerialized(PhoneNumberFormatter.get(context).format(avatar.getName())))), avatar.getLength());
+              new String[] {String.valueOf(sticker.rowId)});
   }
 
   @SuppressLint("ApplySharedPref")
@@ -185,21 +178,289 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  private static final class RestoredAttachment {
+
+    private final long   rowId;
+    private final long   attachmentId;
+    private final File   file;
+    private final byte[] random;
+
+    private RestoredAttachment(long rowId, long attachmentId, @NonNull File file, @NonNull byte[] random) {
+      this.rowId        = rowId;
+      this.attachmentId = attachmentId;
+      this.file         = file;
+      this.random       = random;
+    }
+  }
+
+  private static final class RestoredSticker {
+
+    private final long   rowId;
+    private final File   file;
+    private final byte[] random;
+
+    private RestoredSticker(long rowId, @NonNull File file, @NonNull byte[] random) {
+      this.rowId  = rowId;
+      this.file   = file;
+      this.random = random;
+    }
+  }
+
+  /**
+   * Keeps recently used statements compiled, so they only need new bindings. The exporter inserts
+   * rows in batches of a fixed size, so nearly every statement for a table has the same SQL.
+   */
+  private static final class StatementCache {
+
+    private final SQLiteDatabase db;
+
+    private final Map<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(MAX_CACHED_STATEMENTS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+        if (size() > MAX_CACHED_STATEMENTS) {
+          eldest.getValue().close();
+          return true;
+        }
+
+        return false;
+      }
+    };
+
+    private StatementCache(@NonNull SQLiteDatabase db) {
+      this.db = db;
+    }
+
+    void execute(@NonNull SqlStatement statement) {
+      if (statement.getParametersCount() == 0) {
+        close();
+        db.execSQL(statement.getStatement());
+        return;
+      }
+
+      SQLiteStatement compiled = statements.get(statement.getStatement());
+
+      if (compiled == null) {
+        compiled = db.compileStatement(statement.getStatement());
+        statements.put(statement.getStatement(), compiled);
+      }
+
+      compiled.clearBindings();
+
+      for (int i = 0; i < statement.getParametersCount(); i++) {
+        SqlStatement.SqlParameter parameter = statement.getParameters(i);
+
+        if      (parameter.hasStringParamter())   compiled.bindString(i + 1, parameter.getStringParamter());
+        else if (parameter.hasDoubleParameter())  compiled.bindDouble(i + 1, parameter.getDoubleParameter());
+        else if (parameter.hasIntegerParameter()) compiled.bindLong(i + 1, parameter.getIntegerParameter());
+        else if (parameter.hasBlobParameter())    compiled.bindBlob(i + 1, parameter.getBlobParameter().toByteArray());
+        else                                      compiled.bindNull(i + 1);
+      }
+
+      compiled.execute();
+    }
+
+    /**
+     * Releases every compiled statement. Also used before schema changes, which would invalidate them.
+     */
+    void close() {
+      for (SQLiteStatement compiled : statements.values()) {
+        compiled.close();
+      }
+
+      statements.clear();
+    }
+  }
+
+  /**
+   * Posts a progress event at most once every {@link #PROGRESS_INTERVAL_MS}. Progress is measured
+   * in bytes of the backup file, since frames vary too much in size to say how far along we are.
+   */
+  private static final class ProgressReporter {
+
+    private final long totalBytes;
+
+    private int  count;
+    private long lastPostTime;
+
+    ProgressReporter(long totalBytes) {
+      this.totalBytes = totalBytes;
+    }
+
+    void update(long bytesRead) {
+      count++;
+
+      long now = System.currentTimeMillis();
+
+      if (now - lastPostTime >= PROGRESS_INTERVAL_MS) {
+        lastPostTime = now;
+        EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count, Math.min(bytesRead, totalBytes), totalBytes));
+      }
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    long getTotalBytes() {
+      return totalBytes;
+    }
+  }
+
+  /**
+   * Reads and decrypts the backup on its own thread, ahead of the database. Attachment, sticker and
+   * avatar data is streamed straight into its file on that thread; only a bounded number of frames
+   * is ever queued for the importing thread, so memory use doesn't grow with the backup.
+   *
+   * If either side fails, the other stops at its next queue operation, and a read failure is
+   * rethrown to the importing thread.
+   */
+  private static final class ImportPipeline {
+
+    static final Object END = new Object();
+
+    private static final long POLL_TIME_MS = 100;
+
+    private final BlockingQueue<Object>   queue = new ArrayBlockingQueue<>(FRAME_QUEUE_CAPACITY);
+    private final Context                 context;
+    private final AttachmentSecret        attachmentSecret;
+    private final BackupRecordInputStream inputStream;
+    private final File                    partsDirectory;
+    private final Thread                  readerThread;
+
+    private volatile Throwable failure;
+
+    ImportPipeline(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull BackupRecordInputStream inputStream) {
+      this.context          = context;
+      this.attachmentSecret = attachmentSecret;
+      this.inputStream      = inputStream;
+      this.partsDirectory   = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
+      this.readerThread     = new Thread(this::runReadStage, "signal-backup-reader");
+
+      readerThread.start();
+    }
+
+    /**
+     * @return The next item to apply: a {@link BackupFrame}, a {@link RestoredAttachment}, a
+     *         {@link RestoredSticker}, or {@link #END} once the whole backup has been read.
+     */
+    @NonNull Object take() throws IOException {
+      try {
+        Object item;
+
+        while ((item = queue.poll(POLL_TIME_MS, TimeUnit.MILLISECONDS)) == null) {
+          rethrowFailure();
+        }
+
+        return item;
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * Stops the reader if it's still running, and closes the backup file.
+     */
+    void close() {
+      fail(new IOException("Import closed."));
+
+      try {
+        readerThread.join();
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted while waiting for backup reader to stop.", e);
+        Thread.currentThread().interrupt();
+      }
+
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+    }
+
+    private void runReadStage() {
+      try {
+        BackupFrame frame;
+
+        while (!(frame = inputStream.readFrame()).getEnd()) {
+          if      (frame.hasAttachment()) put(readAttachment(frame.getAttachment()));
+          else if (frame.hasSticker())    put(readSticker(frame.getSticker()));
+          else if (frame.hasAvatar())     readAvatar(frame.getAvatar());
+          else                            put(frame);
+        }
+
+        put(END);
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    private @NonNull RestoredAttachment readAttachment(@NonNull Attachment attachment) throws IOException {
+      File                       dataFile = File.createTempFile("part", ".mms", partsDirectory);
+      Pair<byte[], OutputStream> output   = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
+
+      inputStream.readAttachmentTo(output.second, attachment.getLength());
+
+      return new RestoredAttachment(attachment.getRowId(), attachment.getAttachmentId(), dataFile, output.first);
+    }
+
+    private @NonNull RestoredSticker readSticker(@NonNull Sticker sticker) throws IOException {
+      File                       dataFile = File.createTempFile("sticker", ".mms", partsDirectory);
+      Pair<byte[], OutputStream> output   = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
+
+      inputStream.readAttachmentTo(output.second, sticker.getLength());
+
+      return new RestoredSticker(sticker.getRowId(), dataFile, output.first);
+    }
+
+    private void readAvatar(@NonNull BackupProtos.Avatar avatar) throws IOException {
+      inputStream.readAttachmentTo(new FileOutputStream(AvatarHelper.getAvatarFile(context, Address.fromSerialized(PhoneNumberFormatter.get(context).format(avatar.getName())))), avatar.getLength());
+    }
+
+    private void put(@NonNull Object item) throws IOException {
+      try {
+        do {
+          rethrowFailure();
+        } while (!queue.offer(item, POLL_TIME_MS, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    private synchronized void fail(@NonNull Throwable t) {
+      if (failure == null) {
+        failure = t;
+      }
+    }
+
+    private void rethrowFailure() throws IOException {
+      Throwable failure = this.failure;
+
+      if      (failure == null)                     return;
+      else if (failure instanceof IOException)      throw (IOException) failure;
+      else if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+      else if (failure instanceof Error)            throw (Error) failure;
+      else                                          throw new IOException(failure);
+    }
+  }
+
   private static class BackupRecordInputStream extends BackupStream {
 
-    private final InputStream in;
-    private final Cipher      cipher;
-    private final Mac         mac;
+    private final InputStream   in;
+    private final Cipher        cipher;
+    private final Mac           mac;
 
-    private final byte[] cipherKey;
-    private final byte[] macKey;
+    private final SecretKeySpec cipherKeySpec;
+    private final byte[]        macKey;
+    private final byte[]        lengthBuffer = new byte[4];
 
     private byte[] iv;
     private int    counter;
 
+    private volatile long bytesRead;
+
     private BackupRecordInputStream(@NonNull File file, @NonNull String passphrase) throws IOException {
       try {
-        this.in     = new FileInputStream(file);
+        this.in     = new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE);
 
         byte[] headerLengthBytes = new byte[4];
         Util.readFully(in, headerLengthBytes);
@@ -226,14 +487,15 @@ public class FullBackupImporter extends FullBackupBase {
         byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
         byte[][] split   = ByteUtil.split(derived, 32, 32);
 
-        this.cipherKey = split[0];
-        this.macKey    = split[1];
+        this.cipherKeySpec = new SecretKeySpec(split[0], "AES");
+        this.macKey        = split[1];
 
         this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
         this.mac    = Mac.getInstance("HmacSHA256");
         this.mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
 
-        this.counter = Conversions.byteArrayToInt(iv);
+        this.counter   = Conversions.byteArrayToInt(iv);
+        this.bytesRead = 4 + headerLength;
       } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
         throw new AssertionError(e);
       }
@@ -243,12 +505,25 @@ public class FullBackupImporter extends FullBackupBase {
       return readFrame(in);
     }
 
+    /**
+     * @return How much of the backup file has been read so far. Safe to call from any thread.
+     */
+    long getBytesRead() {
+      return bytesRead;
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+
     void readAttachmentTo(OutputStream out, int length) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.DECRYPT_MODE, cipherKeySpec, new IvParameterSpec(iv));
         mac.update(iv);
 
+        bytesRead += length + 10;
+
         byte[] buffer = new byte[8192];
 
         while (length > 0) {
@@ -295,12 +570,13 @@ public class FullBackupImporter extends FullBackupBase {
 
     private BackupFrame readFrame(InputStream in) throws IOException {
       try {
-        byte[] length = new byte[4];
-        Util.readFully(in, length);
+        Util.readFully(in, lengthBuffer);
 
-        byte[] frame = new byte[Conversions.byteArrayToInt(length)];
+        byte[] frame = new byte[Conversions.byteArrayToInt(lengthBuffer)];
         Util.readFully(in, frame);
 
+        bytesRead += lengthBuffer.length + frame.length;
+
         byte[] theirMac = new byte[10];
         System.arraycopy(frame, frame.length - 10, theirMac, 0, theirMac.length);
 
@@ -312,7 +588,7 @@ public class FullBackupImporter extends FullBackupBase {
         }
 
         Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
+        cipher.init(Cipher.DECRYPT_MODE, cipherKeySpec, new IvParameterSpec(iv));
 
         byte[] plaintext = cipher.doFinal(frame, 0, frame.length - 10);
 
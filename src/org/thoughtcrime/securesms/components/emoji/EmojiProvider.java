@@ -36,7 +36,8 @@ class EmojiProvider {
   private static volatile EmojiProvider instance = null;
   private static final    Paint         paint    = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
-  private final EmojiTree emojiTree = new EmojiTree();
+  private final EmojiTree   emojiTree;
+  private final EmojiParser emojiParser;
 
   private static final int EMOJI_RAW_HEIGHT = 64;
   private static final int EMOJI_RAW_WIDTH  = 64;
@@ -61,25 +62,39 @@ class EmojiProvider {
     this.decodeScale = Math.min(1f, context.getResources().getDimension(R.dimen.emoji_drawer_size) / EMOJI_RAW_HEIGHT);
     this.verticalPad = EMOJI_VERT_PAD * this.decodeScale;
 
+    EmojiTree.Builder builder = new EmojiTree.Builder();
+
     for (EmojiPageModel page : EmojiPages.DATA_PAGES) {
       if (page.hasSpriteMap()) {
         EmojiPageBitmap pageBitmap = new EmojiPageBitmap(context, page, decodeScale);
 
         List<String> emojis = page.getEmoji();
         for (int i = 0; i < emojis.size(); i++) {
-          emojiTree.add(emojis.get(i), new EmojiDrawInfo(pageBitmap, i));
+          builder.add(emojis.get(i), new EmojiDrawInfo(pageBitmap, i));
         }
       }
     }
 
     for (Pair<String,String> obsolete : EmojiPages.OBSOLETE) {
-      emojiTree.add(obsolete.first(), emojiTree.getEmoji(obsolete.second(), 0, obsolete.second().length()));
+      builder.add(obsolete.first(), builder.getEmoji(obsolete.second()));
     }
+
+    this.emojiTree   = builder.build();
+    this.emojiParser = new EmojiParser(emojiTree);
   }
 
   @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
-    return new EmojiParser(emojiTree).findCandidates(text);
+    return emojiParser.findCandidates(text);
+  }
+
+  /**
+   * Like {@link #getCandidates(CharSequence)}, but reuses the given list instead of allocating a
+   * new one. Anything previously in it is overwritten.
+   */
+  @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text, @NonNull EmojiParser.CandidateList reuse) {
+    if (text == null) return null;
+    return emojiParser.findCandidates(text, reuse);
   }
 
   @Nullable Spannable emojify(@Nullable CharSequence text, @NonNull TextView tv) {
@@ -92,11 +107,11 @@ class EmojiProvider {
     if (matches == null || text == null) return null;
     SpannableStringBuilder      builder = new SpannableStringBuilder(text);
 
-    for (EmojiParser.Candidate candidate : matches) {
-      Drawable drawable = getEmojiDrawable(candidate.getDrawInfo());
+    for (int i = 0; i < matches.size(); i++) {
+      Drawable drawable = getEmojiDrawable(matches.getDrawInfo(i));
 
       if (drawable != null) {
-        builder.setSpan(new EmojiSpan(drawable, tv), candidate.getStartIndex(), candidate.getEndIndex(),
+        builder.setSpan(new EmojiSpan(drawable, tv), matches.getStartIndex(i), matches.getEndIndex(i),
                         Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
       }
     }
@@ -35,6 +35,12 @@ public class EmojiTextView extends AppCompatTextView {
   private CharSequence overflowText;
   private CharSequence previousOverflowText;
 
+  /**
+   * Reused by every parse in this view. Created lazily, as {@link #setText} is first called from the
+   * super constructor, before field initializers run.
+   */
+  private EmojiParser.CandidateList candidatesBuffer;
+
   public EmojiTextView(Context context) {
     this(context, null);
   }
@@ -58,9 +64,9 @@ public class EmojiTextView extends AppCompatTextView {
 
   @Override public void setText(@Nullable CharSequence text, BufferType type) {
     EmojiProvider             provider   = EmojiProvider.getInstance(getContext());
-    EmojiParser.CandidateList candidates = provider.getCandidates(text);
+    EmojiParser.CandidateList candidates = provider.getCandidates(text, getCandidatesBuffer());
 
-    if (scaleEmojis && candidates != null && candidates.allEmojis) {
+    if (scaleEmojis && candidates != null && candidates.isAllEmojis()) {
       int   emojis = candidates.size();
       float scale  = 1.0f;
 
@@ -115,7 +121,7 @@ public class EmojiTextView extends AppCompatTextView {
       SpannableStringBuilder newContent = new SpannableStringBuilder();
       newContent.append(getText().subSequence(0, maxLength)).append(ELLIPSIS).append(Optional.fromNullable(overflowText).or(""));
 
-      EmojiParser.CandidateList newCandidates = EmojiProvider.getInstance(getContext()).getCandidates(newContent);
+      EmojiParser.CandidateList newCandidates = EmojiProvider.getInstance(getContext()).getCandidates(newContent, getCandidatesBuffer());
 
       if (useSystemEmoji || newCandidates == null || newCandidates.size() == 0) {
         super.setText(newContent, BufferType.NORMAL);
@@ -149,7 +155,7 @@ public class EmojiTextView extends AppCompatTextView {
                   .append(ellipsized.subSequence(0, ellipsized.length()))
                   .append(Optional.fromNullable(overflowText).or(""));
 
-        EmojiParser.CandidateList newCandidates = EmojiProvider.getInstance(getContext()).getCandidates(newContent);
+        EmojiParser.CandidateList newCandidates = EmojiProvider.getInstance(getContext()).getCandidates(newContent, getCandidatesBuffer());
         CharSequence              emojified     = EmojiProvider.getInstance(getContext()).emojify(newCandidates, newContent, this);
 
         super.setText(emojified, BufferType.SPANNABLE);
@@ -157,6 +163,14 @@ public class EmojiTextView extends AppCompatTextView {
     });
   }
 
+  private @NonNull EmojiParser.CandidateList getCandidatesBuffer() {
+    if (candidatesBuffer == null) {
+      candidatesBuffer = new EmojiParser.CandidateList();
+    }
+
+    return candidatesBuffer;
+  }
+
   private boolean unchanged(CharSequence text, CharSequence overflowText, BufferType bufferType) {
     return Util.equals(previousText, text)                 &&
            Util.equals(previousOverflowText, overflowText) &&
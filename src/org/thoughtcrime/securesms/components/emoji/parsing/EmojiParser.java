@@ -24,112 +24,150 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * Finds the longest emoji starting at each position in a single forward walk of the
+ * {@link EmojiTree}, writing matches into a {@link CandidateList} that callers can reuse.
  */
 public class EmojiParser {
 
+  private static final char FITZPATRICK_HIGH_SURROGATE = '\uD83C';
+  private static final char FITZPATRICK_LOW_FIRST      = '\uDFFB';
+  private static final char FITZPATRICK_LOW_LAST       = '\uDFFF';
+
   private final EmojiTree emojiTree;
 
-  public EmojiParser(EmojiTree emojiTree) {
+  public EmojiParser(@NonNull EmojiTree emojiTree) {
     this.emojiTree = emojiTree;
   }
 
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    return findCandidates(text, new CandidateList());
+  }
+
+  /**
+   * Clears candidates and fills it with the emoji in text. Does not allocate unless candidates
+   * has to grow.
+   *
+   * @return candidates
+   */
+  public @NonNull CandidateList findCandidates(@Nullable CharSequence text, @NonNull CandidateList candidates) {
+    candidates.clear();
 
     if (text == null) {
-      return new CandidateList(results, false);
+      return candidates;
     }
 
-    boolean allEmojis = text.length() > 0;
+    int     length    = text.length();
+    boolean allEmojis = length > 0;
 
-    for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+    for (int i = 0; i < length; i++) {
+      EmojiDrawInfo drawInfo = null;
+      int           emojiEnd = -1;
+      int           node     = EmojiTree.ROOT;
 
-      if (emojiEnd != -1) {
-        EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
+      for (int j = i; j < length; j++) {
+        char c = text.charAt(j);
+
+        node = emojiTree.getChild(node, c);
 
-        if (emojiEnd + 2 <= text.length()) {
-          if (Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
-            emojiEnd += 2;
-          }
+        if (node == EmojiTree.NO_NODE) {
+          break;
+        }
+
+        EmojiDrawInfo match = emojiTree.getEmojiOrTerminated(node, c);
+
+        if (match != null) {
+          drawInfo = match;
+          emojiEnd = j + 1;
+        }
+      }
+
+      if (emojiEnd != -1) {
+        if (isFitzpatrickModifier(text, emojiEnd)) {
+          emojiEnd += 2;
         }
 
-        results.add(new Candidate(i, emojiEnd, drawInfo));
+        candidates.add(i, emojiEnd, drawInfo);
 
         i = emojiEnd - 1;
-      } else if (text.charAt(i) != ' '){
+      } else if (text.charAt(i) != ' ') {
         allEmojis = false;
       }
     }
 
-    allEmojis &= !results.isEmpty();
+    candidates.allEmojis = allEmojis && candidates.size() > 0;
 
-    return new CandidateList(results, allEmojis);
+    return candidates;
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+  private static boolean isFitzpatrickModifier(@NonNull CharSequence text, int index) {
+    if (index + 2 > text.length() || text.charAt(index) != FITZPATRICK_HIGH_SURROGATE) {
+      return false;
     }
 
-    return best;
+    char low = text.charAt(index + 1);
+
+    return low >= FITZPATRICK_LOW_FIRST && low <= FITZPATRICK_LOW_LAST;
   }
 
-  public static class Candidate {
+  /**
+   * The emoji found in a piece of text, as parallel arrays of start index, end index and draw info.
+   */
+  public static class CandidateList {
 
-    private final int           startIndex;
-    private final int           endIndex;
-    private final EmojiDrawInfo drawInfo;
+    private static final int INITIAL_CAPACITY = 8;
 
-    Candidate(int startIndex, int endIndex, EmojiDrawInfo drawInfo) {
-      this.startIndex = startIndex;
-      this.endIndex = endIndex;
-      this.drawInfo = drawInfo;
-    }
+    private int[]           startIndexes = new int[INITIAL_CAPACITY];
+    private int[]           endIndexes   = new int[INITIAL_CAPACITY];
+    private EmojiDrawInfo[] drawInfos    = new EmojiDrawInfo[INITIAL_CAPACITY];
+
+    private int     size;
+    private boolean allEmojis;
 
-    public EmojiDrawInfo getDrawInfo() {
-      return drawInfo;
+    public int size() {
+      return size;
     }
 
-    public int getEndIndex() {
-      return endIndex;
+    /**
+     * @return True if the text was made up of nothing but emoji and spaces, and had at least one emoji.
+     */
+    public boolean isAllEmojis() {
+      return allEmojis;
     }
 
-    public int getStartIndex() {
-      return startIndex;
+    public int getStartIndex(int index) {
+      return startIndexes[index];
     }
-  }
 
-  public static class CandidateList implements Iterable<Candidate> {
-    public final List<EmojiParser.Candidate> list;
-    public final boolean                     allEmojis;
+    public int getEndIndex(int index) {
+      return endIndexes[index];
+    }
 
-    public CandidateList(List<EmojiParser.Candidate> candidates, boolean allEmojis) {
-      this.list = candidates;
-      this.allEmojis = allEmojis;
+    public EmojiDrawInfo getDrawInfo(int index) {
+      return drawInfos[index];
     }
 
-    public int size() {
-      return list.size();
+    private void clear() {
+      Arrays.fill(drawInfos, 0, size, null);
+      size      = 0;
+      allEmojis = false;
     }
 
-    @Override
-    public @NonNull Iterator<Candidate> iterator() {
-      return list.iterator();
+    private void add(int startIndex, int endIndex, EmojiDrawInfo drawInfo) {
+      if (size == startIndexes.length) {
+        startIndexes = Arrays.copyOf(startIndexes, size * 2);
+        endIndexes   = Arrays.copyOf(endIndexes, size * 2);
+        drawInfos    = Arrays.copyOf(drawInfos, size * 2);
+      }
+
+      startIndexes[size] = startIndex;
+      endIndexes[size]   = endIndex;
+      drawInfos[size]    = drawInfo;
+      size++;
     }
   }
 
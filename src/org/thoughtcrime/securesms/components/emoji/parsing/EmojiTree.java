@@ -20,119 +20,188 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * An immutable trie over the UTF-16 encodings of every emoji we can draw, stored in flat arrays.
+ * Nodes are numbered breadth first, so the children of a node are a contiguous, sorted range of
+ * node numbers, and finding a child is a binary search over {@link #labels} with no boxing.
  */
-public class EmojiTree {
+public final class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
+  static final int  ROOT       = 0;
+  static final int  NO_NODE    = -1;
+  static final char TERMINATOR = '\ufe0f';
 
-  private static final char TERMINATOR = '\ufe0f';
+  private final char[]          labels;
+  private final int[]           firstChild;
+  private final EmojiDrawInfo[] emoji;
 
-  public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+  private EmojiTree(@NonNull char[] labels, @NonNull int[] firstChild, @NonNull EmojiDrawInfo[] emoji) {
+    this.labels     = labels;
+    this.firstChild = firstChild;
+    this.emoji      = emoji;
+  }
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
-      }
+  /**
+   * @return The child of node along the edge labeled c, or {@link #NO_NODE}.
+   */
+  int getChild(int node, char c) {
+    int low  = firstChild[node];
+    int high = firstChild[node + 1] - 1;
 
-      tree = tree.getChild(c);
+    while (low <= high) {
+      int  middle = (low + high) >>> 1;
+      char label  = labels[middle];
+
+      if      (label < c) low  = middle + 1;
+      else if (label > c) high = middle - 1;
+      else                return middle;
     }
 
-    tree.setEmoji(emoji);
+    return NO_NODE;
   }
 
-  public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
-    if (sequence == null) {
-      return Matches.POSSIBLY;
-    }
+  /**
+   * @return The emoji that ends at node, or null if node is only a prefix of other emoji.
+   */
+  @Nullable EmojiDrawInfo getEmoji(int node) {
+    return emoji[node];
+  }
 
-    EmojiTreeNode tree = root;
+  /**
+   * Like {@link #getEmoji(int)}, but also matches an emoji whose encoding continues with a
+   * trailing {@link #TERMINATOR}, as the variation selector is commonly left out.
+   *
+   * @param lastChar The label of the edge into node.
+   */
+  @Nullable EmojiDrawInfo getEmojiOrTerminated(int node, char lastChar) {
+    EmojiDrawInfo drawInfo = emoji[node];
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
+    if (drawInfo == null && lastChar != TERMINATOR) {
+      int terminated = getChild(node, TERMINATOR);
 
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
+      if (terminated != NO_NODE) {
+        drawInfo = emoji[terminated];
       }
-
-      tree = tree.getChild(character);
     }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else {
-      return Matches.POSSIBLY;
-    }
+    return drawInfo;
   }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+  public @Nullable EmojiDrawInfo getEmoji(@NonNull CharSequence unicode, int startPosition, int endPosition) {
+    int node = ROOT;
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+    for (int i = startPosition; i < endPosition; i++) {
+      node = getChild(node, unicode.charAt(i));
 
-      if (!tree.hasChild(character)) {
+      if (node == NO_NODE) {
         return null;
       }
+    }
 
-      tree = tree.getChild(character);
+    if (endPosition <= startPosition) {
+      return null;
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return getEmojiOrTerminated(node, unicode.charAt(endPosition - 1));
   }
 
+  /**
+   * Collects emoji into a mutable tree, then flattens it into an {@link EmojiTree}.
+   */
+  public static final class Builder {
 
-  private static class EmojiTreeNode {
+    private final BuilderNode root = new BuilderNode();
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    private int nodeCount = 1;
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
-    }
+    public @NonNull Builder add(@NonNull String emojiEncoding, @Nullable EmojiDrawInfo emoji) {
+      BuilderNode node = root;
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+      for (int i = 0; i < emojiEncoding.length(); i++) {
+        char        c     = emojiEncoding.charAt(i);
+        BuilderNode child = node.children.get(c);
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+        if (child == null) {
+          child = new BuilderNode();
+          node.children.put(c, child);
+          nodeCount++;
+        }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
-    }
+        node = child;
+      }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
-    }
+      node.emoji = emoji;
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+      return this;
     }
-  }
 
-  public enum Matches {
-    EXACTLY, POSSIBLY, IMPOSSIBLE;
+    /**
+     * @return The emoji added with exactly this encoding, or one that only adds a trailing
+     *         {@link #TERMINATOR}.
+     */
+    public @Nullable EmojiDrawInfo getEmoji(@NonNull String emojiEncoding) {
+      BuilderNode node = root;
 
-    public boolean exactMatch() {
-      return this == EXACTLY;
+      for (int i = 0; i < emojiEncoding.length(); i++) {
+        node = node.children.get(emojiEncoding.charAt(i));
+
+        if (node == null) {
+          return null;
+        }
+      }
+
+      if (node.emoji == null && !emojiEncoding.isEmpty() && emojiEncoding.charAt(emojiEncoding.length() - 1) != TERMINATOR) {
+        BuilderNode terminated = node.children.get(TERMINATOR);
+        return terminated != null ? terminated.emoji : null;
+      }
+
+      return node.emoji;
     }
 
-    public boolean impossibleMatch() {
-      return this == IMPOSSIBLE;
+    public @NonNull EmojiTree build() {
+      char[]          labels     = new char[nodeCount];
+      int[]           firstChild = new int[nodeCount + 1];
+      EmojiDrawInfo[] emoji      = new EmojiDrawInfo[nodeCount];
+
+      Queue<BuilderNode> queue = new ArrayDeque<>(nodeCount);
+      int                index = 0;
+      int                next  = 1;
+
+      queue.add(root);
+
+      while (!queue.isEmpty()) {
+        BuilderNode node = queue.remove();
+
+        emoji[index]      = node.emoji;
+        firstChild[index] = next;
+
+        for (Map.Entry<Character, BuilderNode> child : node.children.entrySet()) {
+          labels[next++] = child.getKey();
+          queue.add(child.getValue());
+        }
+
+        index++;
+      }
+
+      firstChild[nodeCount] = next;
+
+      return new EmojiTree(labels, firstChild, emoji);
     }
   }
 
+  private static final class BuilderNode {
+    private final TreeMap<Character, BuilderNode> children = new TreeMap<>();
+
+    private EmojiDrawInfo emoji;
+  }
 }
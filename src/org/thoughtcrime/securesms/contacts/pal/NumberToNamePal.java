@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.ResultReceiver;
+import android.privatedata.DataRequest;
+import android.privatedata.PrivateDataManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.Phonenumber;
+
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asks the NumberToName µPAL for the name a phone number is saved under in the user's contacts.
+ * The PAL takes one number per {@link DataRequest}, so this only accepts batches of one, and
+ * leaves it to {@link PalRequestScheduler} to keep several requests in flight.
+ */
+public class NumberToNamePal implements PalNameClient {
+
+  private static final String TAG = Log.tag(NumberToNamePal.class);
+
+  private static final String PAL_NAME = "com.twosixlabs.exampleupals.NumberToNamePAL";
+
+  private final Context context;
+
+  public NumberToNamePal(@NonNull Context context) {
+    this.context = context.getApplicationContext();
+  }
+
+  @Override
+  public int getMaxBatchSize() {
+    return 1;
+  }
+
+  @WorkerThread
+  @Override
+  public void requestNames(@NonNull List<String> e164s, @NonNull Callback callback) {
+    PrivateDataManager pdm = PrivateDataManager.getInstance();
+
+    if (!pdm.getInstalledPALProviders(DataRequest.DataType.CONTACTS).contains(PAL_NAME)) {
+      Log.w(TAG, "µPAL " + PAL_NAME + " not found");
+
+      Map<String, PalNameResult> results = new HashMap<>(e164s.size());
+
+      for (String e164 : e164s) {
+        results.put(e164, PalNameResult.notFound());
+      }
+
+      callback.onResult(results);
+      return;
+    }
+
+    Map<String, PalNameResult> results   = new ConcurrentHashMap<>(e164s.size());
+    AtomicInteger              remaining = new AtomicInteger(e164s.size());
+
+    for (String e164 : e164s) {
+      ResultReceiver receiver = new ResultReceiver(null) {
+        @Override
+        protected void onReceiveResult(int resultCode, Bundle resultData) {
+          if (resultCode == PrivateDataManager.RESULT_SUCCESS) {
+            Object name = resultData != null ? resultData.get("name") : null;
+            results.put(e164, name != null ? PalNameResult.found(name.toString()) : PalNameResult.notFound());
+          } else {
+            Log.w(TAG, "µPAL request failed with result code " + resultCode);
+            results.put(e164, PalNameResult.failed());
+          }
+
+          if (remaining.decrementAndGet() == 0) {
+            callback.onResult(results);
+          }
+        }
+      };
+
+      pdm.requestData(new DataRequest(context, DataRequest.DataType.CONTACTS, null, PAL_NAME,
+                                      getRequestParams(e164), DataRequest.Purpose.TEST("Test"), receiver));
+    }
+  }
+
+  private static @NonNull Bundle getRequestParams(@NonNull String e164) {
+    String searchNumber = e164;
+    String countryCode  = "";
+
+    try {
+      Phonenumber.PhoneNumber phoneNumber = PhoneNumberUtil.getInstance().parse(e164, "");
+
+      searchNumber = String.valueOf(phoneNumber.getNationalNumber());
+      countryCode  = String.valueOf(phoneNumber.getCountryCode());
+    } catch (NumberParseException e) {
+      Log.w(TAG, e);
+    }
+
+    Bundle params = new Bundle();
+    params.putString("phone", searchNumber);
+    params.putString("country", countryCode);
+
+    return params;
+  }
+}
@@ -0,0 +1,64 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.util.LRUCache;
+
+/**
+ * Remembers recent µPAL name lookups by phone number, including the ones that came back without a
+ * name, so the same number isn't asked about over and over. Names are kept longer than misses,
+ * since a miss goes stale as soon as the user saves the contact. Failed lookups aren't kept at all.
+ */
+final class PalNameCache {
+
+  private final LRUCache<String, Entry> entries;
+  private final long                    foundTtlMs;
+  private final long                    notFoundTtlMs;
+
+  PalNameCache(int maxSize, long foundTtlMs, long notFoundTtlMs) {
+    this.entries       = new LRUCache<>(maxSize);
+    this.foundTtlMs    = foundTtlMs;
+    this.notFoundTtlMs = notFoundTtlMs;
+  }
+
+  /**
+   * @return The cached result for the number, or null if there isn't one or it has expired.
+   */
+  synchronized @Nullable PalNameResult get(@NonNull String e164, long now) {
+    Entry entry = entries.get(e164);
+
+    if (entry == null) {
+      return null;
+    }
+
+    if (now >= entry.expiresAt) {
+      entries.remove(e164);
+      return null;
+    }
+
+    return entry.result;
+  }
+
+  synchronized void put(@NonNull String e164, @NonNull PalNameResult result, long now) {
+    if (result.isFailed()) {
+      return;
+    }
+
+    entries.put(e164, new Entry(result, now + (result.isFound() ? foundTtlMs : notFoundTtlMs)));
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private static final class Entry {
+    private final PalNameResult result;
+    private final long          expiresAt;
+
+    private Entry(@NonNull PalNameResult result, long expiresAt) {
+      this.result    = result;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Something that can be asked for the names that go with phone numbers, normally a µPAL reached
+ * through the PrivateDataManager. Requests are asynchronous, and {@link PalRequestScheduler} takes
+ * care of coalescing, concurrency and deadlines, so implementations only have to make the call.
+ */
+public interface PalNameClient {
+
+  /**
+   * @return The most numbers that can be sent in a single request.
+   */
+  int getMaxBatchSize();
+
+  /**
+   * Asks for the names of the given numbers. The callback must be called at most once, from any
+   * thread, with a result for each number. A number without a result is treated as a failure.
+   */
+  void requestNames(@NonNull List<String> e164s, @NonNull Callback callback);
+
+  interface Callback {
+    void onResult(@NonNull Map<String, PalNameResult> results);
+  }
+}
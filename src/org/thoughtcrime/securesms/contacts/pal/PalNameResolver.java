@@ -0,0 +1,107 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills in names for recipients that don't have one yet from the NumberToName µPAL, in the
+ * background, so that looking up or creating a recipient never waits on the PAL. Lookups go
+ * through a {@link PalRequestScheduler}, which caches them, misses included. A lookup that fails
+ * is retried a few times with backoff. Names that come back are written to the database in
+ * batches, and only where the recipient doesn't have a name yet.
+ */
+public class PalNameResolver {
+
+  private static final String TAG = Log.tag(PalNameResolver.class);
+
+  private static final int  MAX_CACHE_SIZE          = 1000;
+  private static final long FOUND_TTL_MS            = TimeUnit.DAYS.toMillis(1);
+  private static final long NOT_FOUND_TTL_MS        = TimeUnit.HOURS.toMillis(1);
+  private static final int  MAX_CONCURRENT_REQUESTS = 4;
+  private static final long BATCH_WINDOW_MS         = 50;
+  private static final long REQUEST_DEADLINE_MS     = TimeUnit.SECONDS.toMillis(2);
+  private static final int  MAX_ATTEMPTS            = 5;
+  private static final long RETRY_BACKOFF_MS        = TimeUnit.SECONDS.toMillis(30);
+  private static final long WRITE_DELAY_MS          = 500;
+  private static final int  MAX_PENDING_WRITES      = 100;
+
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
+  private final PalRequestScheduler      scheduler;
+
+  /** Only touched on the executor thread. */
+  private final Map<RecipientId, String> pendingNames = new LinkedHashMap<>();
+
+  private boolean writeScheduled;
+
+  public PalNameResolver(@NonNull Context context) {
+    this.context   = context.getApplicationContext();
+    this.executor  = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-pal-names"));
+    this.scheduler = new PalRequestScheduler(new NumberToNamePal(context),
+                                             new PalNameCache(MAX_CACHE_SIZE, FOUND_TTL_MS, NOT_FOUND_TTL_MS),
+                                             executor,
+                                             MAX_CONCURRENT_REQUESTS,
+                                             BATCH_WINDOW_MS,
+                                             REQUEST_DEADLINE_MS);
+  }
+
+  /**
+   * Queues a name lookup for a recipient with the given number that has no name yet, and returns
+   * immediately.
+   */
+  public void resolve(@NonNull RecipientId recipientId, @NonNull String e164) {
+    executor.execute(() -> request(recipientId, e164, 1));
+  }
+
+  public @NonNull PalRequestScheduler.Metrics getMetrics() {
+    return scheduler.getMetrics();
+  }
+
+  private void request(@NonNull RecipientId recipientId, @NonNull String e164, int attempt) {
+    scheduler.request(e164, result -> {
+      if (result.isFound()) {
+        executor.execute(() -> enqueueWrite(recipientId, result.getName()));
+      } else if (result.isFailed() && attempt < MAX_ATTEMPTS) {
+        long delay = RETRY_BACKOFF_MS << (attempt - 1);
+
+        Log.w(TAG, "Name lookup failed on attempt " + attempt + ". Retrying in " + delay + " ms.");
+        executor.schedule(() -> request(recipientId, e164, attempt + 1), delay, TimeUnit.MILLISECONDS);
+      }
+    });
+  }
+
+  private void enqueueWrite(@NonNull RecipientId recipientId, @NonNull String name) {
+    pendingNames.put(recipientId, name);
+
+    if (pendingNames.size() >= MAX_PENDING_WRITES) {
+      writePendingNames();
+    } else if (!writeScheduled) {
+      writeScheduled = true;
+      executor.schedule(this::writePendingNames, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void writePendingNames() {
+    writeScheduled = false;
+
+    if (pendingNames.isEmpty()) {
+      return;
+    }
+
+    Log.i(TAG, "Writing " + pendingNames.size() + " names from the µPAL. Requests: " + scheduler.getMetrics());
+
+    DatabaseFactory.getRecipientDatabase(context).setProfileNamesIfMissing(pendingNames);
+    pendingNames.clear();
+  }
+}
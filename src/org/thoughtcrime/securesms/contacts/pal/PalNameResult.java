@@ -0,0 +1,54 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The outcome of asking the µPAL for the name that goes with a phone number. A number the PAL has
+ * no name for is a definite answer, and can be cached like a name. A failed request (timeout,
+ * error) says nothing about the number, and is worth retrying later.
+ */
+public final class PalNameResult {
+
+  private static final PalNameResult NOT_FOUND = new PalNameResult(Status.NOT_FOUND, null);
+  private static final PalNameResult FAILED    = new PalNameResult(Status.FAILED, null);
+
+  enum Status {
+    FOUND, NOT_FOUND, FAILED
+  }
+
+  private final Status status;
+  private final String name;
+
+  private PalNameResult(@NonNull Status status, @Nullable String name) {
+    this.status = status;
+    this.name   = name;
+  }
+
+  public static @NonNull PalNameResult found(@NonNull String name) {
+    return new PalNameResult(Status.FOUND, name);
+  }
+
+  public static @NonNull PalNameResult notFound() {
+    return NOT_FOUND;
+  }
+
+  public static @NonNull PalNameResult failed() {
+    return FAILED;
+  }
+
+  public boolean isFound() {
+    return status == Status.FOUND;
+  }
+
+  public boolean isFailed() {
+    return status == Status.FAILED;
+  }
+
+  /**
+   * @return The name, or null unless {@link #isFound()}.
+   */
+  public @Nullable String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,284 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends name lookups to a {@link PalNameClient} without ever blocking the caller.
+ *
+ * Answers are served from the cache where possible. A number that is already queued or in flight
+ * is not asked for twice; the new caller just waits on the same answer. Queued numbers are
+ * collected for a short window and sent in batches as large as the client allows, with at most
+ * a fixed number of requests in flight. A request that hasn't been answered by its deadline is
+ * failed, and its slot given to the next batch.
+ *
+ * Listeners are called on whichever thread produced the answer, and should hand any real work off.
+ */
+public class PalRequestScheduler {
+
+  private static final String TAG = Log.tag(PalRequestScheduler.class);
+
+  private final PalNameClient            client;
+  private final PalNameCache             cache;
+  private final ScheduledExecutorService executor;
+  private final int                      maxConcurrentRequests;
+  private final long                     batchWindowMs;
+  private final long                     deadlineMs;
+
+  private final Map<String, List<Listener>> waiting = new HashMap<>();
+  private final LinkedHashSet<String>       queued  = new LinkedHashSet<>();
+
+  private int     inFlight;
+  private boolean dispatchScheduled;
+
+  private long cacheHits;
+  private long cacheMisses;
+  private long coalesced;
+  private long requests;
+  private long timeouts;
+  private long answered;
+  private long totalLatencyMs;
+  private long maxLatencyMs;
+
+  PalRequestScheduler(@NonNull PalNameClient client,
+                      @NonNull PalNameCache cache,
+                      @NonNull ScheduledExecutorService executor,
+                      int maxConcurrentRequests,
+                      long batchWindowMs,
+                      long deadlineMs)
+  {
+    this.client                = client;
+    this.cache                 = cache;
+    this.executor              = executor;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.batchWindowMs         = batchWindowMs;
+    this.deadlineMs            = deadlineMs;
+  }
+
+  public void request(@NonNull String e164, @NonNull Listener listener) {
+    PalNameResult cached = cache.get(e164, System.currentTimeMillis());
+
+    if (cached != null) {
+      synchronized (this) {
+        cacheHits++;
+      }
+
+      listener.onResult(cached);
+      return;
+    }
+
+    synchronized (this) {
+      cacheMisses++;
+
+      List<Listener> listeners = waiting.get(e164);
+
+      if (listeners != null) {
+        coalesced++;
+        listeners.add(listener);
+        return;
+      }
+
+      listeners = new LinkedList<>();
+      listeners.add(listener);
+
+      waiting.put(e164, listeners);
+      queued.add(e164);
+
+      if (queued.size() >= client.getMaxBatchSize()) {
+        executor.execute(this::dispatch);
+      } else if (!dispatchScheduled) {
+        dispatchScheduled = true;
+        executor.schedule(this::dispatch, batchWindowMs, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  public synchronized @NonNull Metrics getMetrics() {
+    return new Metrics(cacheHits, cacheMisses, coalesced, requests, timeouts,
+                       answered > 0 ? totalLatencyMs / answered : 0, maxLatencyMs);
+  }
+
+  private void dispatch() {
+    List<List<String>> batches = new LinkedList<>();
+
+    synchronized (this) {
+      dispatchScheduled = false;
+
+      while (inFlight < maxConcurrentRequests && !queued.isEmpty()) {
+        batches.add(takeBatch());
+        inFlight++;
+        requests++;
+      }
+    }
+
+    for (List<String> batch : batches) {
+      send(batch);
+    }
+  }
+
+  private @NonNull List<String> takeBatch() {
+    List<String>     batch    = new LinkedList<>();
+    Iterator<String> iterator = queued.iterator();
+
+    while (iterator.hasNext() && batch.size() < client.getMaxBatchSize()) {
+      batch.add(iterator.next());
+      iterator.remove();
+    }
+
+    return batch;
+  }
+
+  private void send(@NonNull List<String> batch) {
+    long               startTime = System.currentTimeMillis();
+    AtomicBoolean      finished  = new AtomicBoolean(false);
+    ScheduledFuture<?> deadline  = executor.schedule(() -> {
+      if (finished.compareAndSet(false, true)) {
+        Log.w(TAG, "Request for " + batch.size() + " numbers timed out after " + deadlineMs + " ms.");
+        complete(batch, Collections.emptyMap(), startTime, true);
+      }
+    }, deadlineMs, TimeUnit.MILLISECONDS);
+
+    try {
+      client.requestNames(batch, results -> {
+        if (finished.compareAndSet(false, true)) {
+          deadline.cancel(false);
+          complete(batch, results, startTime, false);
+        }
+      });
+    } catch (RuntimeException e) {
+      Log.w(TAG, e);
+
+      if (finished.compareAndSet(false, true)) {
+        deadline.cancel(false);
+        complete(batch, Collections.emptyMap(), startTime, false);
+      }
+    }
+  }
+
+  private void complete(@NonNull List<String> batch, @NonNull Map<String, PalNameResult> results, long startTime, boolean timedOut) {
+    long                        now       = System.currentTimeMillis();
+    Map<String, PalNameResult>  answers   = new HashMap<>(batch.size());
+    Map<String, List<Listener>> listeners = new HashMap<>(batch.size());
+
+    for (String e164 : batch) {
+      PalNameResult result = results.get(e164);
+
+      if (result == null) {
+        result = PalNameResult.failed();
+      }
+
+      cache.put(e164, result, now);
+      answers.put(e164, result);
+    }
+
+    synchronized (this) {
+      inFlight--;
+
+      if (timedOut) {
+        timeouts++;
+      } else {
+        long latency = now - startTime;
+
+        answered++;
+        totalLatencyMs += latency;
+        maxLatencyMs    = Math.max(maxLatencyMs, latency);
+      }
+
+      for (String e164 : batch) {
+        listeners.put(e164, waiting.remove(e164));
+      }
+
+      if (!queued.isEmpty()) {
+        executor.execute(this::dispatch);
+      }
+    }
+
+    for (Map.Entry<String, List<Listener>> entry : listeners.entrySet()) {
+      PalNameResult result = answers.get(entry.getKey());
+
+      for (Listener listener : entry.getValue()) {
+        listener.onResult(result);
+      }
+    }
+  }
+
+  public interface Listener {
+    void onResult(@NonNull PalNameResult result);
+  }
+
+  public static final class Metrics {
+    private final long cacheHits;
+    private final long cacheMisses;
+    private final long coalesced;
+    private final long requests;
+    private final long timeouts;
+    private final long averageLatencyMs;
+    private final long maxLatencyMs;
+
+    private Metrics(long cacheHits, long cacheMisses, long coalesced, long requests, long timeouts, long averageLatencyMs, long maxLatencyMs) {
+      this.cacheHits        = cacheHits;
+      this.cacheMisses      = cacheMisses;
+      this.coalesced        = coalesced;
+      this.requests         = requests;
+      this.timeouts         = timeouts;
+      this.averageLatencyMs = averageLatencyMs;
+      this.maxLatencyMs     = maxLatencyMs;
+    }
+
+    public long getCacheHits() {
+      return cacheHits;
+    }
+
+    public long getCacheMisses() {
+      return cacheMisses;
+    }
+
+    /**
+     * @return The misses that joined a lookup already queued or in flight for the same number.
+     */
+    public long getCoalesced() {
+      return coalesced;
+    }
+
+    /**
+     * @return The number of requests actually sent to the client.
+     */
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getTimeouts() {
+      return timeouts;
+    }
+
+    /**
+     * @return The average time a request took to be answered, not counting timeouts.
+     */
+    public long getAverageLatencyMs() {
+      return averageLatencyMs;
+    }
+
+    public long getMaxLatencyMs() {
+      return maxLatencyMs;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "[hits: " + cacheHits + ", misses: " + cacheMisses + ", coalesced: " + coalesced + ", requests: " + requests +
+             ", timeouts: " + timeouts + ", avgLatency: " + averageLatencyMs + " ms, maxLatency: " + maxLatencyMs + " ms]";
+    }
+  }
+}
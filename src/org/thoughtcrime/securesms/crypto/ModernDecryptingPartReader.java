@@ -0,0 +1,179 @@
+package org.thoughtcrime.securesms.crypto;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random access counterpart to {@link ModernDecryptingPartInputStream}, for callers that make many
+ * small reads at arbitrary positions, like media players and metadata retrievers.
+ *
+ * The key is derived and the file is opened once. Since the file is encrypted with AES/CTR, the
+ * counter for any position can be computed directly, so a read only has to decrypt the blocks it
+ * touches. Decrypted blocks are kept in a small LRU cache, as reads tend to cluster.
+ */
+public final class ModernDecryptingPartReader implements Closeable {
+
+  private static final int BLOCK_SIZE  = 32 * 1024;
+  private static final int BLOCK_COUNT = 8;
+
+  private final FileChannel   channel;
+  private final SecretKeySpec key;
+  private final Cipher        cipher;
+  private final byte[]        iv;
+  private final Block[]       blocks;
+  private final int           blockSize;
+
+  private long clock;
+
+  public ModernDecryptingPartReader(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file)
+      throws IOException
+  {
+    this(attachmentSecret, random, file, BLOCK_SIZE, BLOCK_COUNT);
+  }
+
+  @VisibleForTesting
+  ModernDecryptingPartReader(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file, int blockSize, int blockCount)
+      throws IOException
+  {
+    if (blockSize <= 0 || blockSize % 16 != 0) {
+      throw new IllegalArgumentException("Block size must be a positive multiple of 16: " + blockSize);
+    }
+
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      this.key    = new SecretKeySpec(mac.doFinal(random), "AES");
+      this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+
+    this.channel   = new FileInputStream(file).getChannel();
+    this.iv        = new byte[16];
+    this.blockSize = blockSize;
+    this.blocks    = new Block[blockCount];
+
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = new Block(blockSize);
+    }
+  }
+
+  /**
+   * Reads up to length bytes of plaintext starting at position.
+   *
+   * @return The number of bytes read, which is only less than length at the end of the file, or -1
+   *         if position is at or past the end of the file.
+   */
+  public synchronized int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+    int totalRead = 0;
+
+    while (totalRead < length) {
+      long  blockIndex  = (position + totalRead) / blockSize;
+      int   blockOffset = (int) ((position + totalRead) % blockSize);
+      Block block       = getBlock(blockIndex);
+
+      if (blockOffset >= block.length) {
+        break;
+      }
+
+      int count = Math.min(block.length - blockOffset, length - totalRead);
+
+      System.arraycopy(block.data, blockOffset, buffer, offset + totalRead, count);
+      totalRead += count;
+
+      if (block.length < blockSize) {
+        break;
+      }
+    }
+
+    return totalRead == 0 && length > 0 ? -1 : totalRead;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  private @NonNull Block getBlock(long index) throws IOException {
+    Block leastRecentlyUsed = blocks[0];
+
+    for (Block block : blocks) {
+      if (block.index == index) {
+        block.lastUsed = ++clock;
+        return block;
+      }
+
+      if (block.lastUsed < leastRecentlyUsed.lastUsed) {
+        leastRecentlyUsed = block;
+      }
+    }
+
+    load(leastRecentlyUsed, index);
+    leastRecentlyUsed.lastUsed = ++clock;
+
+    return leastRecentlyUsed;
+  }
+
+  private void load(@NonNull Block block, long index) throws IOException {
+    long position = index * blockSize;
+
+    block.index = -1;
+    block.buffer.clear();
+
+    while (block.buffer.hasRemaining()) {
+      int read = channel.read(block.buffer, position + block.buffer.position());
+      if (read == -1) break;
+    }
+
+    block.length = block.buffer.position();
+
+    Conversions.longTo4ByteArray(iv, 12, position / 16);
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+      cipher.doFinal(block.data, 0, block.length, block.data, 0);
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    }
+
+    block.index = index;
+  }
+
+  private static final class Block {
+
+    private final byte[]     data;
+    private final ByteBuffer buffer;
+
+    private long index = -1;
+    private int  length;
+    private long lastUsed;
+
+    private Block(int size) {
+      this.data   = new byte[size];
+      this.buffer = ByteBuffer.wrap(data);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.thoughtcrime.securesms.crypto.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.whispersystems.libsignal.SignalProtocolAddress;
+import org.whispersystems.libsignal.state.SessionRecord;
+import org.whispersystems.libsignal.state.SessionState;
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed {@link SessionRecord}s, keyed by {@link SignalProtocolAddress}. A
+ * cached absent value means we know there is no session stored for the address.
+ *
+ * Callers of the session store mutate the records they're handed and don't always store them
+ * afterwards (e.g. an encrypt that fails the identity check), so records are copied on the way in
+ * and on the way out. Copying the session states is a protobuf builder copy, which is much cheaper
+ * than re-parsing the serialized record.
+ */
+final class SessionCache {
+
+  private final Map<SignalProtocolAddress, Optional<SessionRecord>> cache;
+
+  SessionCache(int maxSize) {
+    this.cache = new LRUCache<>(maxSize);
+  }
+
+  /**
+   * @return Null if nothing is cached for the address, absent if we know there is no session, or
+   *         a private copy of the cached record.
+   */
+  synchronized @Nullable Optional<SessionRecord> get(@NonNull SignalProtocolAddress address) {
+    Optional<SessionRecord> cached = cache.get(address);
+
+    if (cached == null)      return null;
+    if (!cached.isPresent()) return cached;
+
+    return Optional.of(copy(cached.get()));
+  }
+
+  synchronized void put(@NonNull SignalProtocolAddress address, @Nullable SessionRecord record) {
+    cache.put(address, record != null ? Optional.of(copy(record)) : Optional.absent());
+  }
+
+  synchronized void remove(@NonNull SignalProtocolAddress address) {
+    cache.remove(address);
+  }
+
+  synchronized void removeAllFor(@NonNull String name) {
+    Iterator<SignalProtocolAddress> iterator = cache.keySet().iterator();
+
+    while (iterator.hasNext()) {
+      if (iterator.next().getName().equals(name)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  synchronized void clear() {
+    cache.clear();
+  }
+
+  synchronized int size() {
+    return cache.size();
+  }
+
+  private static @NonNull SessionRecord copy(@NonNull SessionRecord record) {
+    SessionRecord copy = new SessionRecord(new SessionState(record.getSessionState()));
+
+    for (SessionState previous : record.getPreviousSessionStates()) {
+      copy.getPreviousSessionStates().add(new SessionState(previous));
+    }
+
+    return copy;
+  }
+}
@@ -28,7 +28,15 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
   private static final int TIMESTAMP_THRESHOLD_SECONDS = 5;
 
   private static final String TAG = TextSecureIdentityKeyStore.class.getSimpleName();
-  private static final Object LOCK = new Object();
+
+  private static final int      LOCK_COUNT = 32;
+  private static final Object[] LOCKS      = new Object[LOCK_COUNT];
+
+  static {
+    for (int i = 0; i < LOCKS.length; i++) {
+      LOCKS[i] = new Object();
+    }
+  }
 
   private final Context context;
 
@@ -47,7 +55,7 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
   }
 
   public boolean saveIdentity(SignalProtocolAddress address, IdentityKey identityKey, boolean nonBlockingApproval) {
-    synchronized (LOCK) {
+    synchronized (getLock(address)) {
       IdentityDatabase         identityDatabase = DatabaseFactory.getIdentityDatabase(context);
       Recipient                recipient        = Recipient.external(context, address.getName());
       Optional<IdentityRecord> identityRecord   = identityDatabase.getIdentity(recipient.getId());
@@ -93,7 +101,7 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
 
   @Override
   public boolean isTrustedIdentity(SignalProtocolAddress address, IdentityKey identityKey, Direction direction) {
-    synchronized (LOCK) {
+    synchronized (getLock(address)) {
       IdentityDatabase identityDatabase = DatabaseFactory.getIdentityDatabase(context);
       RecipientId      ourRecipientId   = Recipient.self().getId();
       RecipientId      theirRecipientId = Recipient.external(context, address.getName()).getId();
@@ -122,6 +130,13 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
     }
   }
 
+  /**
+   * Identities are stored per name, so every device of a recipient shares a lock stripe.
+   */
+  private static Object getLock(SignalProtocolAddress address) {
+    return LOCKS[(address.getName().hashCode() & 0x7FFFFFFF) % LOCKS.length];
+  }
+
   private boolean isTrustedForSending(IdentityKey identityKey, Optional<IdentityRecord> identityRecord) {
     if (!identityRecord.isPresent()) {
       Log.w(TAG, "Nothing here, returning true...");
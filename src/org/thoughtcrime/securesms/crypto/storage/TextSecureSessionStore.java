@@ -2,6 +2,7 @@ package org.thoughtcrime.securesms.crypto.storage;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
@@ -13,14 +14,28 @@ import org.whispersystems.libsignal.SignalProtocolAddress;
 import org.whispersystems.libsignal.protocol.CiphertextMessage;
 import org.whispersystems.libsignal.state.SessionRecord;
 import org.whispersystems.libsignal.state.SessionStore;
+import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class TextSecureSessionStore implements SessionStore {
 
   private static final String TAG = TextSecureSessionStore.class.getSimpleName();
 
-  private static final Object FILE_LOCK = new Object();
+  private static final int CACHE_SIZE = 500;
+  private static final int LOCK_COUNT = 32;
+
+  private static final SessionCache           CACHE      = new SessionCache(CACHE_SIZE);
+  private static final ReentrantReadWriteLock STORE_LOCK = new ReentrantReadWriteLock();
+  private static final ReentrantLock[]        LOCKS      = new ReentrantLock[LOCK_COUNT];
+
+  static {
+    for (int i = 0; i < LOCKS.length; i++) {
+      LOCKS[i] = new ReentrantLock();
+    }
+  }
 
   @NonNull  private final Context context;
 
@@ -30,9 +45,9 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public SessionRecord loadSession(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
-      SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
+    lock(address);
+    try {
+      SessionRecord sessionRecord = loadCached(address);
 
       if (sessionRecord == null) {
         Log.w(TAG, "No existing session information found.");
@@ -40,55 +55,75 @@ public class TextSecureSessionStore implements SessionStore {
       }
 
       return sessionRecord;
+    } finally {
+      unlock(address);
     }
   }
 
   @Override
   public void storeSession(@NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
-    synchronized (FILE_LOCK) {
+    lock(address);
+    try {
       RecipientId id = Recipient.external(context, address.getName()).getId();
       DatabaseFactory.getSessionDatabase(context).store(id, address.getDeviceId(), record);
+      CACHE.put(address, record);
+    } finally {
+      unlock(address);
     }
   }
 
   @Override
   public boolean containsSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
-      SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
+    lock(address);
+    try {
+      SessionRecord sessionRecord = loadCached(address);
 
       return sessionRecord != null &&
              sessionRecord.getSessionState().hasSenderChain() &&
              sessionRecord.getSessionState().getSessionVersion() == CiphertextMessage.CURRENT_VERSION;
+    } finally {
+      unlock(address);
     }
   }
 
   @Override
   public void deleteSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
+    lock(address);
+    try {
       RecipientId recipientId = Recipient.external(context, address.getName()).getId();
       DatabaseFactory.getSessionDatabase(context).delete(recipientId, address.getDeviceId());
+      CACHE.put(address, null);
+    } finally {
+      unlock(address);
     }
   }
 
   @Override
   public void deleteAllSessions(String name) {
-    synchronized (FILE_LOCK) {
+    STORE_LOCK.writeLock().lock();
+    try {
       RecipientId recipientId = Recipient.external(context, name).getId();
       DatabaseFactory.getSessionDatabase(context).deleteAllFor(recipientId);
+      CACHE.removeAllFor(name);
+    } finally {
+      STORE_LOCK.writeLock().unlock();
     }
   }
 
   @Override
   public List<Integer> getSubDeviceSessions(String name) {
-    synchronized (FILE_LOCK) {
+    STORE_LOCK.readLock().lock();
+    try {
       RecipientId recipientId = Recipient.external(context, name).getId();
       return DatabaseFactory.getSessionDatabase(context).getSubDevices(recipientId);
+    } finally {
+      STORE_LOCK.readLock().unlock();
     }
   }
 
   public void archiveSiblingSessions(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
+    STORE_LOCK.writeLock().lock();
+    try {
       RecipientId                      recipientId = Recipient.external(context, address.getName()).getId();
       List<SessionDatabase.SessionRow> sessions    = DatabaseFactory.getSessionDatabase(context).getAllFor(recipientId);
 
@@ -98,17 +133,72 @@ public class TextSecureSessionStore implements SessionStore {
           storeSession(new SignalProtocolAddress(Recipient.resolved(row.getRecipientId()).requireAddress().serialize(), row.getDeviceId()), row.getRecord());
         }
       }
+    } finally {
+      STORE_LOCK.writeLock().unlock();
     }
   }
 
   public void archiveAllSessions() {
-    synchronized (FILE_LOCK) {
+    STORE_LOCK.writeLock().lock();
+    try {
       List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAll();
 
       for (SessionDatabase.SessionRow row : sessions) {
         row.getRecord().archiveCurrentState();
         storeSession(new SignalProtocolAddress(Recipient.resolved(row.getRecipientId()).requireAddress().serialize(), row.getDeviceId()), row.getRecord());
       }
+    } finally {
+      STORE_LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Drops every cached session. Needed after the session table has been written behind our back,
+   * e.g. by a backup restore.
+   */
+  public static void clearCache() {
+    STORE_LOCK.writeLock().lock();
+    try {
+      CACHE.clear();
+    } finally {
+      STORE_LOCK.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Must be called while holding the lock for the address. Returns a record the caller is free to
+   * mutate, or null if there is no stored session.
+   */
+  private @Nullable SessionRecord loadCached(@NonNull SignalProtocolAddress address) {
+    Optional<SessionRecord> cached = CACHE.get(address);
+
+    if (cached != null) {
+      return cached.orNull();
     }
+
+    RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
+    SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
+
+    CACHE.put(address, sessionRecord);
+
+    return sessionRecord;
+  }
+
+  /**
+   * Single-address operations only exclude each other per lock stripe. Operations that touch every
+   * session for a name (or all sessions) take the store-wide write lock instead.
+   */
+  private static void lock(@NonNull SignalProtocolAddress address) {
+    STORE_LOCK.readLock().lock();
+    getLock(address).lock();
+  }
+
+  private static void unlock(@NonNull SignalProtocolAddress address) {
+    getLock(address).unlock();
+    STORE_LOCK.readLock().unlock();
+  }
+
+  private static @NonNull ReentrantLock getLock(@NonNull SignalProtocolAddress address) {
+    return LOCKS[(address.hashCode() & 0x7FFFFFFF) % LOCKS.length];
   }
 }
@@ -50,7 +50,9 @@ import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.mms.MediaStream;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.PartAuthority;
+import org.thoughtcrime.securesms.mms.PartUriParser;
 import org.thoughtcrime.securesms.stickers.StickerLocator;
+import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.BitmapUtil;
 import org.thoughtcrime.securesms.util.JsonUtils;
@@ -65,6 +67,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -102,6 +107,7 @@ public class AttachmentDatabase extends Database {
           static final String FAST_PREFLIGHT_ID      = "fast_preflight_id";
   public  static final String DATA_RANDOM            = "data_random";
   private static final String THUMBNAIL_RANDOM       = "thumbnail_random";
+  private static final String DATA_HASH              = "data_hash";
           static final String WIDTH                  = "width";
           static final String HEIGHT                 = "height";
           static final String CAPTION                = "caption";
@@ -135,12 +141,15 @@ public class AttachmentDatabase extends Database {
     VOICE_NOTE + " INTEGER DEFAULT 0, " + DATA_RANDOM + " BLOB, " + THUMBNAIL_RANDOM + " BLOB, " +
     QUOTE + " INTEGER DEFAULT 0, " + WIDTH + " INTEGER DEFAULT 0, " + HEIGHT + " INTEGER DEFAULT 0, " +
     CAPTION + " TEXT DEFAULT NULL, " + STICKER_PACK_ID + " TEXT DEFAULT NULL, " +
-    STICKER_PACK_KEY + " DEFAULT NULL, " + STICKER_ID + " INTEGER DEFAULT -1);";
+    STICKER_PACK_KEY + " DEFAULT NULL, " + STICKER_ID + " INTEGER DEFAULT -1, " +
+    DATA_HASH + " TEXT DEFAULT NULL);";
 
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS part_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
     "CREATE INDEX IF NOT EXISTS part_sticker_pack_id_index ON " + TABLE_NAME + " (" + STICKER_PACK_ID + ");",
+    "CREATE INDEX IF NOT EXISTS part_data_hash_index ON " + TABLE_NAME + " (" + DATA_HASH + ");",
+    "CREATE INDEX IF NOT EXISTS part_data_index ON " + TABLE_NAME + " (" + DATA + ");",
   };
 
   private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
@@ -273,46 +282,27 @@ public class AttachmentDatabase extends Database {
     return attachments;
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   public void deleteAttachmentsForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
+    SQLiteDatabase        database = databaseHelper.getWritableDatabase();
+    List<AttachmentFiles> files    = getAttachmentFilesForMessage(mmsId);
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " = ?",
-                              new String[] {mmsId+""}, null, null, null);
+    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
 
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1), cursor.getString(2));
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    for (AttachmentFiles file : files) {
+      deleteAttachmentOnDisk(file.data, file.thumbnail, file.contentType);
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
     notifyAttachmentListeners();
   }
 
   public void deleteAttachmentFilesForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
-
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " = ?",
-          new String[] {mmsId+""}, null, null, null);
-
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1), cursor.getString(2));
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
+    SQLiteDatabase        database = databaseHelper.getWritableDatabase();
+    List<AttachmentFiles> files    = getAttachmentFilesForMessage(mmsId);
 
     ContentValues values = new ContentValues();
     values.put(DATA, (String) null);
     values.put(DATA_RANDOM, (byte[]) null);
+    values.put(DATA_HASH, (String) null);
     values.put(THUMBNAIL, (String) null);
     values.put(THUMBNAIL_RANDOM, (byte[]) null);
     values.put(FILE_NAME, (String) null);
@@ -323,6 +313,11 @@ public class AttachmentDatabase extends Database {
     values.put(TRANSFER_STATE, TRANSFER_PROGRESS_DONE);
 
     database.update(TABLE_NAME, values, MMS_ID + " = ?", new String[] {mmsId + ""});
+
+    for (AttachmentFiles file : files) {
+      deleteAttachmentOnDisk(file.data, file.thumbnail, file.contentType);
+    }
+
     notifyAttachmentListeners();
 
     long threadId = DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId);
@@ -372,10 +367,29 @@ public class AttachmentDatabase extends Database {
     notifyAttachmentListeners();
   }
 
+  private @NonNull List<AttachmentFiles> getAttachmentFilesForMessage(long mmsId) {
+    SQLiteDatabase        database = databaseHelper.getReadableDatabase();
+    List<AttachmentFiles> files    = new LinkedList<>();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " = ?",
+                                        new String[] {mmsId+""}, null, null, null))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        files.add(new AttachmentFiles(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
+      }
+    }
+
+    return files;
+  }
+
+  /**
+   * Must be called after the rows referencing these files have been removed or updated, since data
+   * files can be shared between attachments and are only deleted once nothing references them.
+   */
   @SuppressWarnings("ResultOfMethodCallIgnored")
   private void deleteAttachmentOnDisk(@Nullable String data, @Nullable String thumbnail, @Nullable String contentType) {
     if (!TextUtils.isEmpty(data)) {
-      new File(data).delete();
+      deleteDataFileIfUnused(data);
     }
 
     if (!TextUtils.isEmpty(thumbnail)) {
@@ -394,26 +408,37 @@ public class AttachmentDatabase extends Database {
     SQLiteDatabase     database    = databaseHelper.getWritableDatabase();
     ContentValues      values      = new ContentValues();
     DataInfo           dataInfo    = setAttachmentData(inputStream);
+    boolean            updated;
 
-    if (placeholder != null && placeholder.isQuote() && !placeholder.getContentType().startsWith("image")) {
-      values.put(THUMBNAIL, dataInfo.file.getAbsolutePath());
-      values.put(THUMBNAIL_RANDOM, dataInfo.random);
-    } else {
-      values.put(DATA, dataInfo.file.getAbsolutePath());
-      values.put(SIZE, dataInfo.length);
-      values.put(DATA_RANDOM, dataInfo.random);
+    database.beginTransaction();
+    try {
+      if (placeholder != null && placeholder.isQuote() && !placeholder.getContentType().startsWith("image")) {
+        values.put(THUMBNAIL, dataInfo.file.getAbsolutePath());
+        values.put(THUMBNAIL_RANDOM, dataInfo.random);
+      } else {
+        dataInfo = deduplicateAttachmentData(database, dataInfo);
+
+        values.put(DATA, dataInfo.file.getAbsolutePath());
+        values.put(SIZE, dataInfo.length);
+        values.put(DATA_RANDOM, dataInfo.random);
+        values.put(DATA_HASH, dataInfo.hash);
+      }
+
+      values.put(TRANSFER_STATE, TRANSFER_PROGRESS_DONE);
+      values.put(CONTENT_LOCATION, (String)null);
+      values.put(CONTENT_DISPOSITION, (String)null);
+      values.put(DIGEST, (byte[])null);
+      values.put(NAME, (String) null);
+      values.put(FAST_PREFLIGHT_ID, (String)null);
+
+      updated = database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings()) > 0;
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
 
-    values.put(TRANSFER_STATE, TRANSFER_PROGRESS_DONE);
-    values.put(CONTENT_LOCATION, (String)null);
-    values.put(CONTENT_DISPOSITION, (String)null);
-    values.put(DIGEST, (byte[])null);
-    values.put(NAME, (String) null);
-    values.put(FAST_PREFLIGHT_ID, (String)null);
-
-    if (database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings()) == 0) {
-      //noinspection ResultOfMethodCallIgnored
-      dataInfo.file.delete();
+    if (!updated) {
+      deleteDataFileIfUnused(dataInfo.file.getAbsolutePath());
     } else {
       notifyConversationListeners(DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId));
       notifyConversationListListeners();
@@ -422,8 +447,12 @@ public class AttachmentDatabase extends Database {
     thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
   }
 
+  /**
+   * Points the destination at the source's data file rather than writing a copy of it. The
+   * destination's previous data file is deleted if nothing else references it.
+   */
   public void copyAttachmentData(@NonNull AttachmentId sourceId, @NonNull AttachmentId destinationId)
-      throws MmsException, IOException
+      throws MmsException
   {
     DatabaseAttachment sourceAttachment = getAttachment(sourceId);
 
@@ -431,33 +460,49 @@ public class AttachmentDatabase extends Database {
       throw new MmsException("Cannot find attachment for source!");
     }
 
-    SQLiteDatabase database       = databaseHelper.getWritableDatabase();
-    DataInfo       copyToDataInfo = getAttachmentDataFileInfo(destinationId, DATA);
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    DataInfo       previousDataInfo;
 
-    if (copyToDataInfo == null) {
-      throw new MmsException("No attachment data found for destination!");
-    }
+    database.beginTransaction();
+    try {
+      DataInfo sourceDataInfo = getAttachmentDataFileInfo(sourceId, DATA);
 
-    copyToDataInfo = setAttachmentData(copyToDataInfo.file, getAttachmentStream(sourceId, 0));
+      if (sourceDataInfo == null) {
+        throw new MmsException("No attachment data found for source!");
+      }
 
-    ContentValues contentValues = new ContentValues();
+      requireDataFileExists(sourceDataInfo);
 
-    contentValues.put(SIZE, copyToDataInfo.length);
-    contentValues.put(DATA_RANDOM, copyToDataInfo.random);
+      previousDataInfo = getAttachmentDataFileInfo(destinationId, DATA);
 
-    contentValues.put(TRANSFER_STATE, sourceAttachment.getTransferState());
-    contentValues.put(CONTENT_LOCATION, sourceAttachment.getLocation());
-    contentValues.put(DIGEST, sourceAttachment.getDigest());
-    contentValues.put(CONTENT_DISPOSITION, sourceAttachment.getKey());
-    contentValues.put(NAME, sourceAttachment.getRelay());
-    contentValues.put(SIZE, sourceAttachment.getSize());
-    contentValues.put(FAST_PREFLIGHT_ID, sourceAttachment.getFastPreflightId());
-    contentValues.put(WIDTH, sourceAttachment.getWidth());
-    contentValues.put(HEIGHT, sourceAttachment.getHeight());
-    contentValues.put(CONTENT_TYPE, sourceAttachment.getContentType());
+      if (previousDataInfo == null) {
+        throw new MmsException("No attachment data found for destination!");
+      }
 
+      ContentValues contentValues = new ContentValues();
+
+      contentValues.put(DATA, sourceDataInfo.file.getAbsolutePath());
+      contentValues.put(DATA_RANDOM, sourceDataInfo.random);
+      contentValues.put(DATA_HASH, sourceDataInfo.hash);
+
+      contentValues.put(TRANSFER_STATE, sourceAttachment.getTransferState());
+      contentValues.put(CONTENT_LOCATION, sourceAttachment.getLocation());
+      contentValues.put(DIGEST, sourceAttachment.getDigest());
+      contentValues.put(CONTENT_DISPOSITION, sourceAttachment.getKey());
+      contentValues.put(NAME, sourceAttachment.getRelay());
+      contentValues.put(SIZE, sourceAttachment.getSize());
+      contentValues.put(FAST_PREFLIGHT_ID, sourceAttachment.getFastPreflightId());
+      contentValues.put(WIDTH, sourceAttachment.getWidth());
+      contentValues.put(HEIGHT, sourceAttachment.getHeight());
+      contentValues.put(CONTENT_TYPE, sourceAttachment.getContentType());
+
+      database.update(TABLE_NAME, contentValues, PART_ID_WHERE, destinationId.toStrings());
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
-    database.update(TABLE_NAME, contentValues, PART_ID_WHERE, destinationId.toStrings());
+    deleteDataFileIfUnused(previousDataInfo.file.getAbsolutePath());
   }
 
   public void updateAttachmentAfterUpload(@NonNull AttachmentId id, @NonNull Attachment attachment) {
@@ -501,23 +546,35 @@ public class AttachmentDatabase extends Database {
                                    @NonNull MediaStream mediaStream)
       throws MmsException
   {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    DataInfo       dataInfo = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
+    SQLiteDatabase database         = databaseHelper.getWritableDatabase();
+    DataInfo       previousDataInfo = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
 
-    if (dataInfo == null) {
+    if (previousDataInfo == null) {
       throw new MmsException("No attachment data found!");
     }
 
-    dataInfo = setAttachmentData(dataInfo.file, mediaStream.getStream());
+    DataInfo dataInfo = setAttachmentData(mediaStream.getStream());
 
-    ContentValues contentValues = new ContentValues();
-    contentValues.put(SIZE, dataInfo.length);
-    contentValues.put(CONTENT_TYPE, mediaStream.getMimeType());
-    contentValues.put(WIDTH, mediaStream.getWidth());
-    contentValues.put(HEIGHT, mediaStream.getHeight());
-    contentValues.put(DATA_RANDOM, dataInfo.random);
+    database.beginTransaction();
+    try {
+      dataInfo = deduplicateAttachmentData(database, dataInfo);
+
+      ContentValues contentValues = new ContentValues();
+      contentValues.put(DATA, dataInfo.file.getAbsolutePath());
+      contentValues.put(SIZE, dataInfo.length);
+      contentValues.put(CONTENT_TYPE, mediaStream.getMimeType());
+      contentValues.put(WIDTH, mediaStream.getWidth());
+      contentValues.put(HEIGHT, mediaStream.getHeight());
+      contentValues.put(DATA_RANDOM, dataInfo.random);
+      contentValues.put(DATA_HASH, dataInfo.hash);
+
+      database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings());
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
-    database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings());
+    deleteDataFileIfUnused(previousDataInfo.file.getAbsolutePath());
   }
 
   public void updateAttachmentFileName(@NonNull AttachmentId attachmentId,
@@ -619,15 +676,16 @@ public class AttachmentDatabase extends Database {
     Cursor         cursor   = null;
 
     String randomColumn;
+    String hashColumn;
 
     switch (dataType) {
-      case DATA:      randomColumn = DATA_RANDOM;      break;
-      case THUMBNAIL: randomColumn = THUMBNAIL_RANDOM; break;
+      case DATA:      randomColumn = DATA_RANDOM;      hashColumn = DATA_HASH; break;
+      case THUMBNAIL: randomColumn = THUMBNAIL_RANDOM; hashColumn = "NULL";    break;
       default:throw   new AssertionError("Unknown data type: " + dataType);
     }
 
     try {
-      cursor = database.query(TABLE_NAME, new String[]{dataType, SIZE, randomColumn}, PART_ID_WHERE, attachmentId.toStrings(),
+      cursor = database.query(TABLE_NAME, new String[]{dataType, SIZE, randomColumn, hashColumn}, PART_ID_WHERE, attachmentId.toStrings(),
                               null, null, null);
 
       if (cursor != null && cursor.moveToFirst()) {
@@ -637,7 +695,8 @@ public class AttachmentDatabase extends Database {
 
         return new DataInfo(new File(cursor.getString(0)),
                             cursor.getLong(1),
-                            cursor.getBlob(2));
+                            cursor.getBlob(2),
+                            cursor.getString(3));
       } else {
         return null;
       }
@@ -648,9 +707,22 @@ public class AttachmentDatabase extends Database {
 
   }
 
+  /**
+   * If the uri points at another attachment with a data file, that file is returned as is and
+   * nothing is written. Callers must pass it through {@link #deduplicateAttachmentData} in the
+   * transaction that writes the row referencing it.
+   */
   private @NonNull DataInfo setAttachmentData(@NonNull Uri uri)
       throws MmsException
   {
+    if (PartAuthority.isAttachmentUri(uri)) {
+      DataInfo existing = getAttachmentDataFileInfo(new PartUriParser(uri).getPartId(), DATA);
+
+      if (existing != null && existing.file.exists()) {
+        return existing;
+      }
+    }
+
     try {
       InputStream inputStream = PartAuthority.getAttachmentStream(context, uri);
       return setAttachmentData(inputStream);
@@ -675,12 +747,87 @@ public class AttachmentDatabase extends Database {
       throws MmsException
   {
     try {
+      MessageDigest              digest = MessageDigest.getInstance("SHA-256");
       Pair<byte[], OutputStream> out    = ModernEncryptingPartOutputStream.createFor(attachmentSecret, destination, false);
-      long                       length = Util.copy(in, out.second);
+      long                       length = Util.copy(new DigestInputStream(in, digest), out.second);
 
-      return new DataInfo(destination, length, out.first);
+      return new DataInfo(destination, length, out.first, Base64.encodeBytes(digest.digest()));
     } catch (IOException e) {
       throw new MmsException(e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Attachments with identical content share a data file, keyed by the hash of their plaintext.
+   * Must be called in the transaction that writes the row referencing the result, so that the
+   * shared file can't be deleted in between.
+   *
+   * @return An existing data file with the same content, in which case the newly written file is
+   *         deleted, or the given data file if there is none.
+   */
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  private @NonNull DataInfo deduplicateAttachmentData(@NonNull SQLiteDatabase database, @NonNull DataInfo dataInfo)
+      throws MmsException
+  {
+    if (dataInfo.hash == null) {
+      requireDataFileExists(dataInfo);
+      return dataInfo;
+    }
+
+    String   selection = DATA_HASH + " = ? AND " + DATA + " NOT NULL AND " + DATA + " != ?";
+    String[] args      = new String[] { dataInfo.hash, dataInfo.file.getAbsolutePath() };
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[]{DATA, SIZE, DATA_RANDOM, DATA_HASH}, selection, args, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        File file = new File(cursor.getString(0));
+
+        if (file.exists()) {
+          if (!isDataFileInUse(database, dataInfo.file.getAbsolutePath())) {
+            dataInfo.file.delete();
+          }
+
+          return new DataInfo(file, cursor.getLong(1), cursor.getBlob(2), cursor.getString(3));
+        }
+      }
+    }
+
+    requireDataFileExists(dataInfo);
+
+    return dataInfo;
+  }
+
+  /**
+   * Data files returned by {@link #setAttachmentData(Uri)} may belong to another attachment, which
+   * could have been deleted since. Unused files are only deleted in a transaction, so a file that
+   * still exists inside one can safely be referenced.
+   */
+  private void requireDataFileExists(@NonNull DataInfo dataInfo) throws MmsException {
+    if (!dataInfo.file.exists()) {
+      throw new MmsException("Attachment data file no longer exists: " + dataInfo.file.getName());
+    }
+  }
+
+  private boolean isDataFileInUse(@NonNull SQLiteDatabase database, @NonNull String data) {
+    try (Cursor cursor = database.query(TABLE_NAME, new String[]{ROW_ID}, DATA + " = ?", new String[]{data}, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  private void deleteDataFileIfUnused(@NonNull String data) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    database.beginTransaction();
+    try {
+      if (!isDataFileInUse(database, data)) {
+        new File(data).delete();
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
   }
 
@@ -795,14 +942,26 @@ public class AttachmentDatabase extends Database {
       contentValues.put(STICKER_ID, attachment.getSticker().getStickerId());
     }
 
-    if (dataInfo != null) {
-      contentValues.put(DATA, dataInfo.file.getAbsolutePath());
-      contentValues.put(SIZE, dataInfo.length);
-      contentValues.put(DATA_RANDOM, dataInfo.random);
+    boolean notifyPacks = attachment.isSticker() && !hasStickerAttachments();
+    long    rowId;
+
+    database.beginTransaction();
+    try {
+      if (dataInfo != null) {
+        dataInfo = deduplicateAttachmentData(database, dataInfo);
+
+        contentValues.put(DATA, dataInfo.file.getAbsolutePath());
+        contentValues.put(SIZE, dataInfo.length);
+        contentValues.put(DATA_RANDOM, dataInfo.random);
+        contentValues.put(DATA_HASH, dataInfo.hash);
+      }
+
+      rowId = database.insert(TABLE_NAME, null, contentValues);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
 
-    boolean      notifyPacks  = attachment.isSticker() && !hasStickerAttachments();
-    long         rowId        = database.insert(TABLE_NAME, null, contentValues);
     AttachmentId attachmentId = new AttachmentId(rowId, uniqueId);
     Uri          thumbnailUri = attachment.getThumbnailUri();
     boolean      hasThumbnail = false;
@@ -949,11 +1108,25 @@ public class AttachmentDatabase extends Database {
     private final File   file;
     private final long   length;
     private final byte[] random;
+    private final String hash;
 
-    private DataInfo(File file, long length, byte[] random) {
-      this.file = file;
+    private DataInfo(File file, long length, byte[] random, @Nullable String hash) {
+      this.file   = file;
       this.length = length;
       this.random = random;
+      this.hash   = hash;
+    }
+  }
+
+  private static class AttachmentFiles {
+    private final String data;
+    private final String thumbnail;
+    private final String contentType;
+
+    private AttachmentFiles(@Nullable String data, @Nullable String thumbnail, @Nullable String contentType) {
+      this.data        = data;
+      this.thumbnail   = thumbnail;
+      this.contentType = contentType;
     }
   }
 }
@@ -27,6 +27,7 @@ import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.crypto.storage.TextSecureSessionStore;
 import org.thoughtcrime.securesms.database.helpers.ClassicOpenHelper;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherMigrationHelper;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
@@ -153,6 +154,9 @@ public class DatabaseFactory {
     getInstance(context).databaseHelper.onUpgrade(database, database.getVersion(), -1);
     getInstance(context).databaseHelper.markCurrent(database);
     getInstance(context).mms.trimEntriesForExpiredMessages();
+    getInstance(context).identityDatabase.clearCache();
+    getInstance(context).recipientDatabase.clearCache();
+    TextSecureSessionStore.clearCache();
   }
 
   private DatabaseFactory(@NonNull Context context) {
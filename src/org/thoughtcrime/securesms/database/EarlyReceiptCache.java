@@ -22,7 +22,11 @@ public class EarlyReceiptCache {
   }
 
   public synchronized void increment(long timestamp, @NonNull RecipientId origin) {
-    Log.i(TAG, String.format(Locale.US, "[%s] Timestamp: %d, Recipient: %s", name, timestamp, origin.serialize()));
+    increment(timestamp, origin, 1);
+  }
+
+  public synchronized void increment(long timestamp, @NonNull RecipientId origin, long amount) {
+    Log.i(TAG, String.format(Locale.US, "[%s] Timestamp: %d, Recipient: %s, Amount: %d", name, timestamp, origin.serialize(), amount));
 
     Map<RecipientId, Long> receipts = cache.get(timestamp);
 
@@ -33,9 +37,9 @@ public class EarlyReceiptCache {
     Long count = receipts.get(origin);
 
     if (count != null) {
-      receipts.put(origin, ++count);
+      receipts.put(origin, count + amount);
     } else {
-      receipts.put(origin, 1L);
+      receipts.put(origin, amount);
     }
 
     cache.put(timestamp, receipts);
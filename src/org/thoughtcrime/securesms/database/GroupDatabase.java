@@ -13,6 +13,7 @@ import android.text.TextUtils;
 import com.annimon.stream.Stream;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -27,9 +28,12 @@ import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPoin
 import java.io.Closeable;
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 public class GroupDatabase extends Database {
 
@@ -52,6 +56,13 @@ public class GroupDatabase extends Database {
   private static final String ACTIVE              = "active";
           static final String MMS                 = "mms";
 
+          static final String MEMBERSHIP_TABLE_NAME   = "group_membership";
+  private static final String MEMBERSHIP_ID           = "_id";
+  private static final String MEMBERSHIP_GROUP_ID     = "group_id";
+  private static final String MEMBERSHIP_RECIPIENT_ID = "recipient_id";
+
+  private static final int MAX_IDS_PER_QUERY = 500;
+
   public static final String CREATE_TABLE =
       "CREATE TABLE " + TABLE_NAME +
           " (" + ID + " INTEGER PRIMARY KEY, " +
@@ -69,9 +80,21 @@ public class GroupDatabase extends Database {
           AVATAR_DIGEST + " BLOB, " +
           MMS + " INTEGER DEFAULT 0);";
 
+  /**
+   * One row per member of each group, mirroring {@link #MEMBERS}, so that membership can be queried
+   * by member as well as by group.
+   */
+  public static final String CREATE_MEMBERSHIP_TABLE =
+      "CREATE TABLE " + MEMBERSHIP_TABLE_NAME +
+          " (" + MEMBERSHIP_ID + " INTEGER PRIMARY KEY, " +
+          MEMBERSHIP_GROUP_ID + " TEXT NOT NULL, " +
+          MEMBERSHIP_RECIPIENT_ID + " INTEGER NOT NULL, " +
+          "UNIQUE(" + MEMBERSHIP_GROUP_ID + ", " + MEMBERSHIP_RECIPIENT_ID + ") ON CONFLICT IGNORE);";
+
   public static final String[] CREATE_INDEXS = {
       "CREATE UNIQUE INDEX IF NOT EXISTS group_id_index ON " + TABLE_NAME + " (" + GROUP_ID + ");",
       "CREATE UNIQUE INDEX IF NOT EXISTS group_recipient_id_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
+      "CREATE INDEX IF NOT EXISTS group_membership_recipient_id_index ON " + MEMBERSHIP_TABLE_NAME + " (" + MEMBERSHIP_RECIPIENT_ID + ");",
   };
 
   private static final String[] GROUP_PROJECTION = {
@@ -129,21 +152,71 @@ public class GroupDatabase extends Database {
   public String getOrCreateGroupForMembers(List<RecipientId> members, boolean mms) {
     Collections.sort(members);
 
-    Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] {GROUP_ID},
-                                                               MEMBERS + " = ? AND " + MMS + " = ?",
-                                                               new String[] {RecipientId.toSerializedList(members), mms ? "1" : "0"},
-                                                               null, null, null);
-    try {
+    String groupId = members.isEmpty() ? getGroupIdWithSerializedMembers(members, mms)
+                                       : getGroupIdWithExactMembers(new HashSet<>(members), mms);
+
+    if (groupId == null) {
+      groupId = GroupUtil.getEncodedId(allocateGroupId(), mms);
+      create(groupId, null, members, null, null);
+    }
+
+    return groupId;
+  }
+
+  /**
+   * @return The groups the recipient is a member of, active or not.
+   */
+  public Reader getGroupsContaining(@NonNull RecipientId recipientId) {
+    String query = GROUP_ID + " IN (SELECT " + MEMBERSHIP_GROUP_ID + " FROM " + MEMBERSHIP_TABLE_NAME + " WHERE " + MEMBERSHIP_RECIPIENT_ID + " = ?)";
+
+    @SuppressLint("Recycle")
+    Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, query, new String[] {recipientId.serialize()}, null, null, null);
+
+    return new Reader(cursor);
+  }
+
+  public boolean isMember(@NonNull String groupId, @NonNull RecipientId recipientId) {
+    String   query = MEMBERSHIP_GROUP_ID + " = ? AND " + MEMBERSHIP_RECIPIENT_ID + " = ?";
+    String[] args  = new String[] {groupId, recipientId.serialize()};
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(MEMBERSHIP_TABLE_NAME, new String[] {MEMBERSHIP_ID}, query, args, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
+  /**
+   * Finds the group whose members are exactly the given set, starting from the groups that contain
+   * one of them rather than looking at every group.
+   */
+  private @Nullable String getGroupIdWithExactMembers(@NonNull Set<RecipientId> members, boolean mms) {
+    List<String> ids   = Stream.of(members).map(RecipientId::serialize).toList();
+    String       query = "SELECT " + MEMBERSHIP_GROUP_ID + " FROM " + MEMBERSHIP_TABLE_NAME +
+                         " WHERE " + MEMBERSHIP_GROUP_ID + " IN (SELECT " + MEMBERSHIP_GROUP_ID + " FROM " + MEMBERSHIP_TABLE_NAME + " WHERE " + MEMBERSHIP_RECIPIENT_ID + " = ?)" +
+                         " AND " + MEMBERSHIP_GROUP_ID + " IN (SELECT " + GROUP_ID + " FROM " + TABLE_NAME + " WHERE " + MMS + " = ?)" +
+                         " GROUP BY " + MEMBERSHIP_GROUP_ID +
+                         " HAVING COUNT(*) = " + ids.size() + " AND SUM(" + MEMBERSHIP_RECIPIENT_ID + " IN (" + Util.join(ids, ",") + ")) = " + ids.size();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, new String[] {ids.get(0), mms ? "1" : "0"})) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getString(0);
+      }
+    }
+
+    return null;
+  }
+
+  private @Nullable String getGroupIdWithSerializedMembers(@NonNull List<RecipientId> members, boolean mms) {
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] {GROUP_ID},
+                                                                    MEMBERS + " = ? AND " + MMS + " = ?",
+                                                                    new String[] {RecipientId.toSerializedList(members), mms ? "1" : "0"},
+                                                                    null, null, null))
+    {
       if (cursor != null && cursor.moveToNext()) {
         return cursor.getString(cursor.getColumnIndexOrThrow(GROUP_ID));
-      } else {
-        String groupId = GroupUtil.getEncodedId(allocateGroupId(), mms);
-        create(groupId, null, members, null, null);
-        return groupId;
       }
-    } finally {
-      if (cursor != null) cursor.close();
     }
+
+    return null;
   }
 
   public Reader getGroups() {
@@ -153,15 +226,15 @@ public class GroupDatabase extends Database {
   }
 
   public @NonNull List<Recipient> getGroupMembers(String groupId, boolean includeSelf) {
-    List<RecipientId> members     = getCurrentMembers(groupId);
-    List<Recipient>   recipients  = new LinkedList<>();
+    List<Recipient> members    = Recipient.resolvedList(getCurrentMembers(groupId));
+    List<Recipient> recipients = new LinkedList<>();
 
-    for (RecipientId member : members) {
-      if (!includeSelf && Recipient.resolved(member).isLocalNumber()) {
+    for (Recipient member : members) {
+      if (!includeSelf && member.isLocalNumber()) {
         continue;
       }
 
-      recipients.add(Recipient.resolved(member));
+      recipients.add(member);
     }
 
     return recipients;
@@ -190,7 +263,17 @@ public class GroupDatabase extends Database {
     contentValues.put(ACTIVE, 1);
     contentValues.put(MMS, GroupUtil.isMmsGroup(groupId));
 
-    databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    database.beginTransaction();
+    try {
+      database.insert(TABLE_NAME, null, contentValues);
+      insertMembers(database, groupId, members);
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
@@ -251,52 +334,105 @@ public class GroupDatabase extends Database {
     Recipient.live(groupRecipient).refresh();
   }
 
-  public void updateMembers(String groupId, List<RecipientId> members) {
+  /**
+   * Replaces the group's members, touching only the membership rows that actually change.
+   *
+   * @return The members that were added and removed.
+   */
+  public @NonNull MembershipDiff updateMembers(String groupId, List<RecipientId> members) {
     Collections.sort(members);
 
-    ContentValues contents = new ContentValues();
-    contents.put(MEMBERS, RecipientId.toSerializedList(members));
-    contents.put(ACTIVE, 1);
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    MembershipDiff diff;
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId});
+    database.beginTransaction();
+    try {
+      Set<RecipientId> current = new HashSet<>(getCurrentMembers(groupId));
+      Set<RecipientId> updated = new HashSet<>(members);
+
+      diff = new MembershipDiff(Stream.of(updated).filterNot(current::contains).toList(),
+                                Stream.of(current).filterNot(updated::contains).toList());
+
+      ContentValues contents = new ContentValues();
+      contents.put(MEMBERS, RecipientId.toSerializedList(members));
+      contents.put(ACTIVE, 1);
+
+      database.update(TABLE_NAME, contents, GROUP_ID + " = ?", new String[] {groupId});
+
+      deleteMembers(database, groupId, diff.getRemoved());
+      insertMembers(database, groupId, diff.getAdded());
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
+
+    return diff;
   }
 
   public void remove(String groupId, RecipientId source) {
-    List<RecipientId> currentMembers = getCurrentMembers(groupId);
-    currentMembers.remove(source);
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
 
-    ContentValues contents = new ContentValues();
-    contents.put(MEMBERS, RecipientId.toSerializedList(currentMembers));
+    database.beginTransaction();
+    try {
+      List<RecipientId> currentMembers = getCurrentMembers(groupId);
+      currentMembers.remove(source);
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId});
+      ContentValues contents = new ContentValues();
+      contents.put(MEMBERS, RecipientId.toSerializedList(currentMembers));
+
+      database.update(TABLE_NAME, contents, GROUP_ID + " = ?", new String[] {groupId});
+      deleteMembers(database, groupId, Collections.singletonList(source));
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
     RecipientId groupRecipient = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(groupId);
     Recipient.live(groupRecipient).refresh();
   }
 
   private List<RecipientId> getCurrentMembers(String groupId) {
-    Cursor cursor = null;
-
-    try {
-      cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] {MEMBERS},
-                                                          GROUP_ID + " = ?",
-                                                          new String[] {groupId},
-                                                          null, null, null);
+    List<RecipientId> members = new LinkedList<>();
 
-      if (cursor != null && cursor.moveToFirst()) {
-        String serializedMembers = cursor.getString(cursor.getColumnIndexOrThrow(MEMBERS));
-        return RecipientId.fromSerializedList(serializedMembers);
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(MEMBERSHIP_TABLE_NAME, new String[] {MEMBERSHIP_RECIPIENT_ID},
+                                                                    MEMBERSHIP_GROUP_ID + " = ?",
+                                                                    new String[] {groupId},
+                                                                    null, null, MEMBERSHIP_RECIPIENT_ID))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        members.add(RecipientId.from(cursor.getLong(0)));
       }
+    }
 
-      return new LinkedList<>();
+    return members;
+  }
+
+  private void insertMembers(@NonNull SQLiteDatabase database, @NonNull String groupId, @NonNull Collection<RecipientId> members) {
+    if (members.isEmpty()) return;
+
+    SQLiteStatement statement = database.compileStatement("INSERT INTO " + MEMBERSHIP_TABLE_NAME + " (" + MEMBERSHIP_GROUP_ID + ", " + MEMBERSHIP_RECIPIENT_ID + ") VALUES (?, ?)");
+
+    try {
+      for (RecipientId member : members) {
+        statement.clearBindings();
+        statement.bindString(1, groupId);
+        statement.bindString(2, member.serialize());
+        statement.executeInsert();
+      }
     } finally {
-      if (cursor != null)
-        cursor.close();
+      statement.close();
+    }
+  }
+
+  private void deleteMembers(@NonNull SQLiteDatabase database, @NonNull String groupId, @NonNull List<RecipientId> members) {
+    for (List<RecipientId> chunk : Util.chunk(members, MAX_IDS_PER_QUERY)) {
+      String ids = Util.join(Stream.of(chunk).map(RecipientId::serialize).toList(), ",");
+      database.delete(MEMBERSHIP_TABLE_NAME, MEMBERSHIP_GROUP_ID + " = ? AND " + MEMBERSHIP_RECIPIENT_ID + " IN (" + ids + ")", new String[] {groupId});
     }
   }
 
@@ -319,6 +455,29 @@ public class GroupDatabase extends Database {
     return groupId;
   }
 
+  public static class MembershipDiff {
+
+    private final List<RecipientId> added;
+    private final List<RecipientId> removed;
+
+    private MembershipDiff(@NonNull List<RecipientId> added, @NonNull List<RecipientId> removed) {
+      this.added   = added;
+      this.removed = removed;
+    }
+
+    public @NonNull List<RecipientId> getAdded() {
+      return added;
+    }
+
+    public @NonNull List<RecipientId> getRemoved() {
+      return removed;
+    }
+
+    public boolean isEmpty() {
+      return added.isEmpty() && removed.isEmpty();
+    }
+  }
+
   public static class Reader implements Closeable {
 
     private final Cursor cursor;
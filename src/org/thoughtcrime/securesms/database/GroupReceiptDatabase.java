@@ -10,7 +10,9 @@ import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.libsignal.util.Pair;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -75,6 +77,21 @@ public class GroupReceiptDatabase extends Database {
 
   }
 
+  public void setUnidentified(@NonNull Collection<Pair<RecipientId, Boolean>> results, long mmsId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      for (Pair<RecipientId, Boolean> result : results) {
+        setUnidentified(result.first(), mmsId, result.second());
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public @NonNull List<GroupReceiptInfo> getGroupReceiptInfo(long mmsId) {
     SQLiteDatabase         db      = databaseHelper.getReadableDatabase();
     List<GroupReceiptInfo> results = new LinkedList<>();
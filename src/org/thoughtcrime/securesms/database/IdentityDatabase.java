@@ -28,11 +28,14 @@ import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.whispersystems.libsignal.IdentityKey;
 import org.whispersystems.libsignal.InvalidKeyException;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class IdentityDatabase extends Database {
 
@@ -57,6 +60,9 @@ public class IdentityDatabase extends Database {
       VERIFIED + " INTEGER DEFAULT 0, " +
       NONBLOCKING_APPROVAL + " INTEGER DEFAULT 0);";
 
+  private static final int CACHE_SIZE = 1000;
+  private static final int LOCK_COUNT = 32;
+
   public enum VerifiedStatus {
     DEFAULT, VERIFIED, UNVERIFIED;
 
@@ -75,8 +81,19 @@ public class IdentityDatabase extends Database {
     }
   }
 
+  /**
+   * Only held for single map operations. Database reads and writes happen under the recipient's
+   * lock from {@link #locks} instead, so that a slow load for one recipient never holds up another.
+   */
+  private final Map<RecipientId, Optional<IdentityRecord>> cache = new LRUCache<>(CACHE_SIZE);
+  private final ReentrantLock[]                            locks = new ReentrantLock[LOCK_COUNT];
+
   IdentityDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
+
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new ReentrantLock();
+    }
   }
 
   public Cursor getIdentities() {
@@ -90,6 +107,42 @@ public class IdentityDatabase extends Database {
   }
 
   public Optional<IdentityRecord> getIdentity(@NonNull RecipientId recipientId) {
+    Optional<IdentityRecord> cached = getCached(recipientId);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    ReentrantLock lock = getLock(recipientId);
+
+    lock.lock();
+    try {
+      cached = getCached(recipientId);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      Optional<IdentityRecord> record = loadIdentity(recipientId);
+      putCached(recipientId, record);
+
+      return record;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops every cached identity. Needed after the table has been written behind our back, e.g. by
+   * a backup restore.
+   */
+  public void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  private Optional<IdentityRecord> loadIdentity(@NonNull RecipientId recipientId) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     Cursor         cursor   = null;
 
@@ -123,10 +176,20 @@ public class IdentityDatabase extends Database {
     contentValues.put(NONBLOCKING_APPROVAL, nonBlockingApproval ? 1 : 0);
     contentValues.put(FIRST_USE, firstUse ? 1 : 0);
 
-    database.replace(TABLE_NAME, null, contentValues);
+    IdentityRecord record = new IdentityRecord(recipientId, identityKey, verifiedStatus,
+                                               firstUse, timestamp, nonBlockingApproval);
+
+    ReentrantLock lock = getLock(recipientId);
+
+    lock.lock();
+    try {
+      database.replace(TABLE_NAME, null, contentValues);
+      putCached(recipientId, Optional.of(record));
+    } finally {
+      lock.unlock();
+    }
 
-    EventBus.getDefault().post(new IdentityRecord(recipientId, identityKey, verifiedStatus,
-                                                  firstUse, timestamp, nonBlockingApproval));
+    EventBus.getDefault().post(record);
   }
 
   public void setApproval(@NonNull RecipientId recipientId, boolean nonBlockingApproval) {
@@ -135,7 +198,15 @@ public class IdentityDatabase extends Database {
     ContentValues contentValues = new ContentValues(2);
     contentValues.put(NONBLOCKING_APPROVAL, nonBlockingApproval);
 
-    database.update(TABLE_NAME, contentValues, RECIPIENT_ID + " = ?", new String[] {recipientId.serialize()});
+    ReentrantLock lock = getLock(recipientId);
+
+    lock.lock();
+    try {
+      database.update(TABLE_NAME, contentValues, RECIPIENT_ID + " = ?", new String[] {recipientId.serialize()});
+      removeCached(recipientId);
+    } finally {
+      lock.unlock();
+    }
   }
 
   public void setVerified(@NonNull RecipientId recipientId, IdentityKey identityKey, VerifiedStatus verifiedStatus) {
@@ -144,8 +215,17 @@ public class IdentityDatabase extends Database {
     ContentValues contentValues = new ContentValues(1);
     contentValues.put(VERIFIED, verifiedStatus.toInt());
 
-    int updated = database.update(TABLE_NAME, contentValues, RECIPIENT_ID + " = ? AND " + IDENTITY_KEY + " = ?",
-                                  new String[] {recipientId.serialize(), Base64.encodeBytes(identityKey.serialize())});
+    ReentrantLock lock = getLock(recipientId);
+    int           updated;
+
+    lock.lock();
+    try {
+      updated = database.update(TABLE_NAME, contentValues, RECIPIENT_ID + " = ? AND " + IDENTITY_KEY + " = ?",
+                                new String[] {recipientId.serialize(), Base64.encodeBytes(identityKey.serialize())});
+      removeCached(recipientId);
+    } finally {
+      lock.unlock();
+    }
 
     if (updated > 0) {
       Optional<IdentityRecord> record = getIdentity(recipientId);
@@ -153,6 +233,28 @@ public class IdentityDatabase extends Database {
     }
   }
 
+  private @Nullable Optional<IdentityRecord> getCached(@NonNull RecipientId recipientId) {
+    synchronized (cache) {
+      return cache.get(recipientId);
+    }
+  }
+
+  private void putCached(@NonNull RecipientId recipientId, @NonNull Optional<IdentityRecord> record) {
+    synchronized (cache) {
+      cache.put(recipientId, record);
+    }
+  }
+
+  private void removeCached(@NonNull RecipientId recipientId) {
+    synchronized (cache) {
+      cache.remove(recipientId);
+    }
+  }
+
+  private @NonNull ReentrantLock getLock(@NonNull RecipientId recipientId) {
+    return locks[(recipientId.hashCode() & 0x7FFFFFFF) % locks.length];
+  }
+
   private IdentityRecord getIdentityRecord(@NonNull Cursor cursor) throws IOException, InvalidKeyException {
     long        recipientId         = cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID));
     String      serializedIdentity  = cursor.getString(cursor.getColumnIndexOrThrow(IDENTITY_KEY));
@@ -147,27 +147,7 @@ public class JobDatabase extends Database {
     db.beginTransaction();
 
     try {
-      for (JobSpec job : jobs) {
-        ContentValues values = new ContentValues();
-        values.put(Jobs.JOB_SPEC_ID, job.getId());
-        values.put(Jobs.FACTORY_KEY, job.getFactoryKey());
-        values.put(Jobs.QUEUE_KEY, job.getQueueKey());
-        values.put(Jobs.CREATE_TIME, job.getCreateTime());
-        values.put(Jobs.NEXT_RUN_ATTEMPT_TIME, job.getNextRunAttemptTime());
-        values.put(Jobs.RUN_ATTEMPT, job.getRunAttempt());
-        values.put(Jobs.MAX_ATTEMPTS, job.getMaxAttempts());
-        values.put(Jobs.MAX_BACKOFF, job.getMaxBackoff());
-        values.put(Jobs.MAX_INSTANCES, job.getMaxInstances());
-        values.put(Jobs.LIFESPAN, job.getLifespan());
-        values.put(Jobs.SERIALIZED_DATA, job.getSerializedData());
-        values.put(Jobs.IS_RUNNING, job.isRunning() ? 1 : 0);
-
-        String   query = Jobs.JOB_SPEC_ID + " = ?";
-        String[] args  = new String[]{ job.getId() };
-
-        db.update(Jobs.TABLE_NAME, values, query, args);
-      }
-
+      updateJobSpecs(db, jobs);
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -180,15 +160,25 @@ public class JobDatabase extends Database {
     db.beginTransaction();
 
     try {
-      for (String jobId : jobIds) {
-        String[] arg = new String[]{jobId};
+      deleteJobSpecs(db, jobIds);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
 
-        db.delete(Jobs.TABLE_NAME, Jobs.JOB_SPEC_ID + " = ?", arg);
-        db.delete(Constraints.TABLE_NAME, Constraints.JOB_SPEC_ID + " = ?", arg);
-        db.delete(Dependencies.TABLE_NAME, Dependencies.JOB_SPEC_ID + " = ?", arg);
-        db.delete(Dependencies.TABLE_NAME, Dependencies.DEPENDS_ON_JOB_SPEC_ID + " = ?", arg);
-      }
+  /**
+   * Applies a batch of updates followed by a batch of deletes in a single transaction. Either the
+   * whole batch is written or none of it is.
+   */
+  public synchronized void updateAndDeleteJobs(@NonNull List<JobSpec> updates, @NonNull List<String> deleteIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
+    db.beginTransaction();
+
+    try {
+      updateJobSpecs(db, updates);
+      deleteJobSpecs(db, deleteIds);
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -219,6 +209,40 @@ public class JobDatabase extends Database {
     return dependencies;
   }
 
+  private void updateJobSpecs(@NonNull SQLiteDatabase db, @NonNull List<JobSpec> jobs) {
+    for (JobSpec job : jobs) {
+      ContentValues values = new ContentValues();
+      values.put(Jobs.JOB_SPEC_ID, job.getId());
+      values.put(Jobs.FACTORY_KEY, job.getFactoryKey());
+      values.put(Jobs.QUEUE_KEY, job.getQueueKey());
+      values.put(Jobs.CREATE_TIME, job.getCreateTime());
+      values.put(Jobs.NEXT_RUN_ATTEMPT_TIME, job.getNextRunAttemptTime());
+      values.put(Jobs.RUN_ATTEMPT, job.getRunAttempt());
+      values.put(Jobs.MAX_ATTEMPTS, job.getMaxAttempts());
+      values.put(Jobs.MAX_BACKOFF, job.getMaxBackoff());
+      values.put(Jobs.MAX_INSTANCES, job.getMaxInstances());
+      values.put(Jobs.LIFESPAN, job.getLifespan());
+      values.put(Jobs.SERIALIZED_DATA, job.getSerializedData());
+      values.put(Jobs.IS_RUNNING, job.isRunning() ? 1 : 0);
+
+      String   query = Jobs.JOB_SPEC_ID + " = ?";
+      String[] args  = new String[]{ job.getId() };
+
+      db.update(Jobs.TABLE_NAME, values, query, args);
+    }
+  }
+
+  private void deleteJobSpecs(@NonNull SQLiteDatabase db, @NonNull List<String> jobIds) {
+    for (String jobId : jobIds) {
+      String[] arg = new String[]{jobId};
+
+      db.delete(Jobs.TABLE_NAME, Jobs.JOB_SPEC_ID + " = ?", arg);
+      db.delete(Constraints.TABLE_NAME, Constraints.JOB_SPEC_ID + " = ?", arg);
+      db.delete(Dependencies.TABLE_NAME, Dependencies.JOB_SPEC_ID + " = ?", arg);
+      db.delete(Dependencies.TABLE_NAME, Dependencies.DEPENDS_ON_JOB_SPEC_ID + " = ?", arg);
+    }
+  }
+
   private void insertJobSpec(@NonNull SQLiteDatabase db, @NonNull JobSpec job) {
     ContentValues contentValues = new ContentValues();
     contentValues.put(Jobs.JOB_SPEC_ID, job.getId());
@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.text.TextUtils;
+import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
@@ -16,17 +17,26 @@ import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.JsonUtils;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.IdentityKey;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class MessagingDatabase extends Database implements MmsSmsColumns {
 
   private static final String TAG = MessagingDatabase.class.getSimpleName();
 
+  private static final int MAX_IDS_PER_QUERY = 500;
+
   public MessagingDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -39,6 +49,68 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
   public abstract void markAsSent(long messageId, boolean secure);
   public abstract void markUnidentified(long messageId, boolean unidentified);
 
+  /**
+   * Served by the table's expires_at partial index, which only covers messages whose timer has
+   * started. The expression and condition here have to match the index exactly for SQLite to use
+   * it. The time is cast because a number never compares as less than a bound string.
+   *
+   * @return The id and expiration time of every message in this table whose expiration timer has
+   *         started and that expires before the given time.
+   */
+  public @NonNull List<Pair<Long, Long>> getMessagesExpiringBefore(long time) {
+    SQLiteDatabase         database  = databaseHelper.getReadableDatabase();
+    String                 expiresAt = EXPIRE_STARTED + " + " + EXPIRES_IN;
+    List<Pair<Long, Long>> results   = new LinkedList<>();
+
+    try (Cursor cursor = database.query(getTableName(), new String[] {ID, expiresAt},
+                                        EXPIRE_STARTED + " > 0 AND " + expiresAt + " < CAST(? AS INTEGER)",
+                                        new String[] {String.valueOf(time)},
+                                        null, null, null))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(new Pair<>(cursor.getLong(0), cursor.getLong(1)));
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Deletes the given rows from this table. Doesn't update their threads or notify anyone; that's
+   * left to the caller.
+   *
+   * @return The ids of the deleted messages, keyed by the thread that contained them.
+   */
+  protected @NonNull Map<Long, Set<Long>> deleteMessageRows(@NonNull List<Long> messageIds) {
+    SQLiteDatabase       database = databaseHelper.getWritableDatabase();
+    Map<Long, Set<Long>> deleted  = new HashMap<>();
+
+    for (List<Long> ids : Util.chunk(messageIds, MAX_IDS_PER_QUERY)) {
+      String selection = ID + " IN (" + Util.join(ids, ",") + ")";
+
+      try (Cursor cursor = database.query(getTableName(), new String[] {ID, THREAD_ID}, selection, null, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          addMessageToThread(deleted, cursor.getLong(1), cursor.getLong(0));
+        }
+      }
+
+      database.delete(getTableName(), selection, null);
+    }
+
+    return deleted;
+  }
+
+  static void addMessageToThread(@NonNull Map<Long, Set<Long>> messagesByThread, long threadId, long messageId) {
+    Set<Long> messageIds = messagesByThread.get(threadId);
+
+    if (messageIds == null) {
+      messageIds = new HashSet<>();
+      messagesByThread.put(threadId, messageIds);
+    }
+
+    messageIds.add(messageId);
+  }
+
   public void addMismatchedIdentity(long messageId, @NonNull RecipientId recipientId, IdentityKey identityKey) {
     try {
       addToDocument(messageId, MISMATCHED_IDENTITIES,
@@ -59,20 +131,43 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     }
   }
 
+  public void addMismatchedIdentities(long messageId, @NonNull List<IdentityKeyMismatch> mismatches) {
+    try {
+      addToDocument(messageId, MISMATCHED_IDENTITIES, mismatches, IdentityKeyMismatchList.class);
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+  }
+
+  public void removeMismatchedIdentities(long messageId, @NonNull List<IdentityKeyMismatch> mismatches) {
+    try {
+      removeFromDocument(messageId, MISMATCHED_IDENTITIES, mismatches, IdentityKeyMismatchList.class);
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+  }
+
   protected <D extends Document<I>, I> void removeFromDocument(long messageId, String column, I object, Class<D> clazz) throws IOException {
+    removeFromDocument(messageId, column, Collections.singletonList(object), clazz);
+  }
+
+  protected <D extends Document<I>, I> void removeFromDocument(long messageId, String column, List<I> objects, Class<D> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.beginTransaction();
 
     try {
-      D           document = getDocument(database, messageId, column, clazz);
-      Iterator<I> iterator = document.getList().iterator();
+      D document = getDocument(database, messageId, column, clazz);
+
+      for (I object : objects) {
+        Iterator<I> iterator = document.getList().iterator();
 
-      while (iterator.hasNext()) {
-        I item = iterator.next();
+        while (iterator.hasNext()) {
+          I item = iterator.next();
 
-        if (item.equals(object)) {
-          iterator.remove();
-          break;
+          if (item.equals(object)) {
+            iterator.remove();
+            break;
+          }
         }
       }
 
@@ -171,6 +266,20 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     public long getTimetamp() {
       return timetamp;
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      SyncMessageId that = (SyncMessageId) o;
+      return timetamp == that.timetamp && recipientId.equals(that.recipientId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * recipientId.hashCode() + (int) (timetamp ^ (timetamp >>> 32));
+    }
   }
 
   public static class ExpirationInfo {
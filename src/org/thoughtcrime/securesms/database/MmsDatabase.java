@@ -50,6 +50,7 @@ import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.NotificationMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Quote;
+import org.thoughtcrime.securesms.jobs.SearchIndexJob;
 import org.thoughtcrime.securesms.jobs.TrimThreadJob;
 import org.thoughtcrime.securesms.linkpreview.LinkPreview;
 import org.thoughtcrime.securesms.logging.Log;
@@ -139,6 +140,7 @@ public class MmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS mms_message_box_index ON " + TABLE_NAME + " (" + MESSAGE_BOX + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS mms_expires_at_index ON " + TABLE_NAME + " (" + EXPIRE_STARTED + " + " + EXPIRES_IN + ") WHERE " + EXPIRE_STARTED + " > 0;",
   };
 
   private static final String[] MMS_PROJECTION = new String[] {
@@ -179,8 +181,7 @@ public class MmsDatabase extends MessagingDatabase {
 
   private static final String RAW_ID_WHERE = TABLE_NAME + "._id = ?";
 
-  private final EarlyReceiptCache earlyDeliveryReceiptCache = new EarlyReceiptCache("MmsDelivery");
-  private final EarlyReceiptCache earlyReadReceiptCache     = new EarlyReceiptCache("MmsRead");
+  private static final int MAX_RECEIPT_TIMESTAMPS_PER_QUERY = 500;
 
   public MmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -224,46 +225,67 @@ public class MmsDatabase extends MessagingDatabase {
     }
   }
 
-  public void incrementReceiptCount(SyncMessageId messageId, long timestamp, boolean deliveryReceipt, boolean readReceipt) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor         cursor   = null;
-    boolean        found    = false;
-
+  public void removeFailures(long messageId, List<NetworkFailure> failures) {
     try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, MESSAGE_BOX, RECIPIENT_ID}, DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())}, null, null, null, null);
+      removeFromDocument(messageId, NETWORK_FAILURE, failures, NetworkFailureList.class);
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+  }
 
-      while (cursor.moveToNext()) {
-        if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_BOX)))) {
+  /**
+   * Applies every receipt in the batch that refers to an outgoing message in this table, and marks
+   * those receipts as matched. Doesn't notify anyone; that's left to the caller.
+   *
+   * @return The updated messages, grouped by thread.
+   */
+  @NonNull Map<Long, Set<Long>> incrementReceiptCounts(@NonNull ReceiptBatch receipts) {
+    SQLiteDatabase       database             = databaseHelper.getWritableDatabase();
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    Map<Long, Set<Long>> updated              = new HashMap<>();
+
+    for (List<Long> timestamps : Util.chunk(receipts.getSentTimestamps(), MAX_RECEIPT_TIMESTAMPS_PER_QUERY)) {
+      String selection = DATE_SENT + " IN (" + Util.join(timestamps, ",") + ")";
+
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, MESSAGE_BOX, RECIPIENT_ID, DATE_SENT}, selection, null, null, null, null)) {
+        while (cursor.moveToNext()) {
+          if (!Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_BOX)))) {
+            continue;
+          }
+
+          long        id               = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+          long        dateSent         = cursor.getLong(cursor.getColumnIndexOrThrow(DATE_SENT));
           RecipientId theirRecipientId = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
-          RecipientId ourRecipientId   = messageId.getRecipientId();
-          String      columnName       = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
+          boolean     isGroup          = Recipient.resolved(theirRecipientId).isGroup();
+          int         deliveryCount    = 0;
+          int         readCount        = 0;
 
-          if (ourRecipientId.equals(theirRecipientId) || Recipient.resolved(theirRecipientId).isGroup()) {
-            long id       = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
-            int  status   = deliveryReceipt ? GroupReceiptDatabase.STATUS_DELIVERED : GroupReceiptDatabase.STATUS_READ;
+          for (ReceiptBatch.Entry entry : receipts.getEntries(dateSent)) {
+            if (entry.getRecipientId().equals(theirRecipientId) || isGroup) {
+              int status = entry.isRead() ? GroupReceiptDatabase.STATUS_READ : GroupReceiptDatabase.STATUS_DELIVERED;
 
-            found = true;
+              if (entry.isRead()) readCount     += entry.getCount();
+              else                deliveryCount += entry.getCount();
 
+              groupReceiptDatabase.update(entry.getRecipientId(), id, status, entry.getLatestTimestamp());
+              entry.markMatched();
+            }
+          }
+
+          if (deliveryCount > 0 || readCount > 0) {
             database.execSQL("UPDATE " + TABLE_NAME + " SET " +
-                             columnName + " = " + columnName + " + 1 WHERE " + ID + " = ?",
-                             new String[] {String.valueOf(id)});
+                             DELIVERY_RECEIPT_COUNT + " = " + DELIVERY_RECEIPT_COUNT + " + ?, " +
+                             READ_RECEIPT_COUNT + " = " + READ_RECEIPT_COUNT + " + ? WHERE " +
+                             ID + " = ?",
+                             new Object[] {deliveryCount, readCount, id});
 
-            DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
+            addMessageToThread(updated, cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID)), id);
           }
         }
       }
-
-      if (!found) {
-        if (deliveryReceipt) earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-        if (readReceipt)     earlyReadReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
+
+    return updated;
   }
 
   public long getThreadIdForMessage(long id) {
@@ -330,7 +352,7 @@ public class MmsDatabase extends MessagingDatabase {
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
     if (threadId.isPresent()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId.get(), false);
+      DatabaseFactory.getThreadDatabase(context).updateForChange(threadId.get(), id, true, false);
     }
   }
 
@@ -570,7 +592,7 @@ public class MmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, messageId, true, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -860,7 +882,6 @@ public class MmsDatabase extends MessagingDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
     notifyConversationListeners(threadId);
@@ -976,8 +997,8 @@ public class MmsDatabase extends MessagingDatabase {
       type |= Types.EXPIRATION_TIMER_UPDATE_BIT;
     }
 
-    Map<RecipientId, Long> earlyDeliveryReceipts = earlyDeliveryReceiptCache.remove(message.getSentTimeMillis());
-    Map<RecipientId, Long> earlyReadReceipts     = earlyReadReceiptCache.remove(message.getSentTimeMillis());
+    Map<RecipientId, Long> earlyDeliveryReceipts = MmsSmsDatabase.earlyDeliveryReceiptCache.remove(message.getSentTimeMillis());
+    Map<RecipientId, Long> earlyReadReceipts     = MmsSmsDatabase.earlyReadReceiptCache.remove(message.getSentTimeMillis());
 
     ContentValues contentValues = new ContentValues();
     contentValues.put(DATE_SENT, message.getSentTimeMillis());
@@ -1048,9 +1069,11 @@ public class MmsDatabase extends MessagingDatabase {
     contentValues.put(BODY, body);
     contentValues.put(PART_COUNT, allAttachments.size());
 
+    long messageId;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       Map<Attachment, AttachmentId> insertedAttachments = partsDatabase.insertAttachmentsForMessage(messageId, allAttachments, quoteAttachments);
       String                        serializedContacts  = getSerializedSharedContacts(insertedAttachments, sharedContacts);
@@ -1081,7 +1104,6 @@ public class MmsDatabase extends MessagingDatabase {
       }
 
       db.setTransactionSuccessful();
-      return messageId;
     } finally {
       db.endTransaction();
 
@@ -1090,8 +1112,12 @@ public class MmsDatabase extends MessagingDatabase {
       }
 
       notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
     }
+
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(contentValues.getAsLong(THREAD_ID), messageId, true, true);
+    SearchIndexJob.enqueue(context);
+
+    return messageId;
   }
 
   public boolean delete(long messageId) {
@@ -1103,14 +1129,34 @@ public class MmsDatabase extends MessagingDatabase {
     groupReceiptDatabase.deleteRowsForMessage(messageId);
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    int rows = database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
+
+    List<Long> deleted       = rows > 0 ? Collections.singletonList(messageId) : Collections.emptyList();
+    boolean    threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, Collections.emptyList(), deleted);
     notifyConversationListeners(threadId);
     notifyStickerListeners();
     notifyStickerPackListeners();
     return threadDeleted;
   }
 
+  /**
+   * Deletes the given messages along with their attachments and group receipts, without updating
+   * their threads or notifying anyone; that's left to the caller.
+   *
+   * @return The deleted messages, grouped by the thread they were in.
+   */
+  @NonNull Map<Long, Set<Long>> deleteMessages(@NonNull List<Long> messageIds) {
+    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+
+    for (long messageId : messageIds) {
+      attachmentDatabase.deleteAttachmentsForMessage(messageId);
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+    }
+
+    return deleteMessageRows(messageIds);
+  }
+
   public void deleteThread(long threadId) {
     Set<Long> singleThreadSet = new HashSet<>();
     singleThreadSet.add(threadId);
@@ -31,7 +31,10 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.Util;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -39,6 +42,9 @@ public class MmsSmsDatabase extends Database {
   @SuppressWarnings("unused")
   private static final String TAG = MmsSmsDatabase.class.getSimpleName();
 
+  static final EarlyReceiptCache earlyDeliveryReceiptCache = new EarlyReceiptCache("Delivery");
+  static final EarlyReceiptCache earlyReadReceiptCache     = new EarlyReceiptCache("Read");
+
   public static final String TRANSPORT     = "transport_type";
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
@@ -157,13 +163,97 @@ public class MmsSmsDatabase extends Database {
   }
 
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, true, false);
-    DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, true, false);
+    ReceiptBatch receipts = new ReceiptBatch();
+    receipts.addDeliveryReceipt(syncMessageId, timestamp);
+    incrementReceiptCounts(receipts);
   }
 
   public void incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, false, true);
-    DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, false, true);
+    ReceiptBatch receipts = new ReceiptBatch();
+    receipts.addReadReceipt(syncMessageId, timestamp);
+    incrementReceiptCounts(receipts);
+  }
+
+  /**
+   * Applies a batch of receipts to both message tables in a single transaction. Each affected
+   * thread is updated and notified once, no matter how many receipts touched it, and its summary
+   * is only reloaded if the snippet message was one of them. Receipts for messages we don't have
+   * yet are held in the early receipt caches, to be picked up when the message is inserted.
+   */
+  public void incrementReceiptCounts(@NonNull ReceiptBatch receipts) {
+    if (receipts.isEmpty()) {
+      return;
+    }
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
+
+    db.beginTransaction();
+    try {
+      Map<Long, Set<Long>> sms = DatabaseFactory.getSmsDatabase(context).incrementReceiptCounts(receipts);
+      Map<Long, Set<Long>> mms = DatabaseFactory.getMmsDatabase(context).incrementReceiptCounts(receipts);
+
+      threadIds.addAll(sms.keySet());
+      threadIds.addAll(mms.keySet());
+
+      for (long threadId : threadIds) {
+        DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, getOrEmpty(sms, threadId), getOrEmpty(mms, threadId), false);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    for (ReceiptBatch.Entry entry : receipts.getUnmatchedEntries()) {
+      EarlyReceiptCache cache = entry.isRead() ? earlyReadReceiptCache : earlyDeliveryReceiptCache;
+      cache.increment(entry.getSentTimestamp(), entry.getRecipientId(), entry.getCount());
+    }
+
+    notifyConversationListeners(threadIds);
+  }
+
+  /**
+   * Deletes messages from both tables in a single transaction. Each affected thread is updated and
+   * notified once, no matter how many of its messages were deleted, and is only rescanned if its
+   * snippet message was one of them.
+   */
+  public void deleteMessages(@NonNull List<Long> smsIds, @NonNull List<Long> mmsIds) {
+    if (smsIds.isEmpty() && mmsIds.isEmpty()) {
+      return;
+    }
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
+
+    db.beginTransaction();
+    try {
+      Map<Long, Set<Long>> sms = smsIds.isEmpty() ? Collections.emptyMap() : DatabaseFactory.getSmsDatabase(context).deleteMessages(smsIds);
+      Map<Long, Set<Long>> mms = mmsIds.isEmpty() ? Collections.emptyMap() : DatabaseFactory.getMmsDatabase(context).deleteMessages(mmsIds);
+
+      threadIds.addAll(sms.keySet());
+      threadIds.addAll(mms.keySet());
+
+      for (long threadId : threadIds) {
+        DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, getOrEmpty(sms, threadId), getOrEmpty(mms, threadId));
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    notifyConversationListeners(threadIds);
+
+    if (!mmsIds.isEmpty()) {
+      notifyStickerListeners();
+      notifyStickerPackListeners();
+    }
+  }
+
+  private static @NonNull Set<Long> getOrEmpty(@NonNull Map<Long, Set<Long>> messagesByThread, long threadId) {
+    Set<Long> messageIds = messagesByThread.get(threadId);
+    return messageIds != null ? messageIds : Collections.emptySet();
   }
 
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
@@ -0,0 +1,137 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.annimon.stream.function.Consumer;
+
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers incoming delivery and read receipts for a short window and then applies them all at once
+ * through {@link MmsSmsDatabase#incrementReceiptCounts(ReceiptBatch)}. In a large group, a single
+ * outgoing message can get hundreds of receipts in quick succession, and applying them one at a
+ * time means hundreds of transactions and hundreds of redundant thread updates and notifications.
+ *
+ * If a batch fails to apply, its receipts are put back and retried with the next batch. Receipts
+ * are otherwise best-effort: if the process dies inside the window, the receipts in it are lost.
+ */
+public class ReceiptAggregator {
+
+  private static final String TAG = Log.tag(ReceiptAggregator.class);
+
+  private final Consumer<ReceiptBatch>   applier;
+  private final ScheduledExecutorService executor;
+  private final long                     windowMs;
+  private final int                      maxPendingReceipts;
+  private final Object                   flushLock;
+
+  private ReceiptBatch pending;
+  private boolean      flushScheduled;
+  private boolean      immediateFlushScheduled;
+
+  public ReceiptAggregator(@NonNull Context context, long windowMs, int maxPendingReceipts) {
+    this(batch -> DatabaseFactory.getMmsSmsDatabase(context.getApplicationContext()).incrementReceiptCounts(batch),
+         Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-receipt-aggregator")),
+         windowMs,
+         maxPendingReceipts);
+  }
+
+  @VisibleForTesting
+  ReceiptAggregator(@NonNull Consumer<ReceiptBatch> applier,
+                    @NonNull ScheduledExecutorService executor,
+                    long windowMs,
+                    int maxPendingReceipts)
+  {
+    this.applier            = applier;
+    this.executor           = executor;
+    this.windowMs           = windowMs;
+    this.maxPendingReceipts = maxPendingReceipts;
+    this.flushLock          = new Object();
+    this.pending            = new ReceiptBatch();
+  }
+
+  /**
+   * @param syncMessageId The recipient the receipt came from and the sent timestamp of the message it refers to.
+   * @param timestamp     The time at which the receipt was received.
+   */
+  public synchronized void addDeliveryReceipt(@NonNull SyncMessageId syncMessageId, long timestamp) {
+    pending.addDeliveryReceipt(syncMessageId, timestamp);
+    onReceiptAdded();
+  }
+
+  /**
+   * @param syncMessageId The recipient the receipt came from and the sent timestamp of the message it refers to.
+   * @param timestamp     The time at which the receipt was read.
+   */
+  public synchronized void addReadReceipt(@NonNull SyncMessageId syncMessageId, long timestamp) {
+    pending.addReadReceipt(syncMessageId, timestamp);
+    onReceiptAdded();
+  }
+
+  /**
+   * Synchronously applies every receipt that is currently pending. If that fails, the receipts are
+   * put back so that they can be retried on the next flush.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      ReceiptBatch batch;
+
+      synchronized (this) {
+        flushScheduled          = false;
+        immediateFlushScheduled = false;
+
+        if (pending.isEmpty()) {
+          return;
+        }
+
+        batch   = pending;
+        pending = new ReceiptBatch();
+      }
+
+      try {
+        applier.accept(batch);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to apply a batch of " + batch.size() + " receipts. Will retry.", e);
+        restore(batch);
+        throw e;
+      }
+    }
+  }
+
+  private synchronized void restore(@NonNull ReceiptBatch batch) {
+    pending.addAll(batch);
+    scheduleFlush(windowMs);
+  }
+
+  private void onReceiptAdded() {
+    if (pending.size() >= maxPendingReceipts) {
+      if (!immediateFlushScheduled) {
+        immediateFlushScheduled = true;
+        scheduleFlush(0);
+      }
+    } else if (!flushScheduled) {
+      scheduleFlush(windowMs);
+    }
+  }
+
+  private void scheduleFlush(long delayMs) {
+    flushScheduled = true;
+    executor.schedule(this::flushQuietly, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Scheduled flush failed.", e);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of delivery and read receipts to be applied together. Repeated receipts for the same
+ * message from the same recipient are folded into a single entry with a count.
+ */
+public final class ReceiptBatch {
+
+  private final Map<SyncMessageId, Entry> deliveryReceipts = new HashMap<>();
+  private final Map<SyncMessageId, Entry> readReceipts     = new HashMap<>();
+  private final Map<Long, List<Entry>>    bySentTimestamp  = new HashMap<>();
+
+  /**
+   * @param syncMessageId The recipient the receipt came from and the sent timestamp of the message it refers to.
+   * @param timestamp     The time at which the receipt was received.
+   */
+  public void addDeliveryReceipt(@NonNull SyncMessageId syncMessageId, long timestamp) {
+    add(deliveryReceipts, syncMessageId, 1, timestamp, false);
+  }
+
+  /**
+   * @param syncMessageId The recipient the receipt came from and the sent timestamp of the message it refers to.
+   * @param timestamp     The time at which the receipt was read.
+   */
+  public void addReadReceipt(@NonNull SyncMessageId syncMessageId, long timestamp) {
+    add(readReceipts, syncMessageId, 1, timestamp, true);
+  }
+
+  /**
+   * Adds every receipt in another batch to this one, as if each had been added here directly.
+   */
+  public void addAll(@NonNull ReceiptBatch other) {
+    for (Entry entry : other.deliveryReceipts.values()) {
+      add(deliveryReceipts, entry.syncMessageId, entry.count, entry.latestTimestamp, false);
+    }
+
+    for (Entry entry : other.readReceipts.values()) {
+      add(readReceipts, entry.syncMessageId, entry.count, entry.latestTimestamp, true);
+    }
+  }
+
+  public boolean isEmpty() {
+    return deliveryReceipts.isEmpty() && readReceipts.isEmpty();
+  }
+
+  /**
+   * @return The number of distinct (recipient, message, receipt type) entries.
+   */
+  public int size() {
+    return deliveryReceipts.size() + readReceipts.size();
+  }
+
+  @NonNull List<Long> getSentTimestamps() {
+    return new ArrayList<>(bySentTimestamp.keySet());
+  }
+
+  @NonNull List<Entry> getEntries(long sentTimestamp) {
+    List<Entry> entries = bySentTimestamp.get(sentTimestamp);
+    return entries != null ? entries : Collections.emptyList();
+  }
+
+  @NonNull List<Entry> getUnmatchedEntries() {
+    List<Entry> unmatched = new LinkedList<>();
+
+    for (List<Entry> entries : bySentTimestamp.values()) {
+      for (Entry entry : entries) {
+        if (!entry.isMatched()) {
+          unmatched.add(entry);
+        }
+      }
+    }
+
+    return unmatched;
+  }
+
+  private void add(@NonNull Map<SyncMessageId, Entry> receipts, @NonNull SyncMessageId syncMessageId, int count, long timestamp, boolean read) {
+    Entry entry = receipts.get(syncMessageId);
+
+    if (entry == null) {
+      entry = new Entry(syncMessageId, read);
+      receipts.put(syncMessageId, entry);
+
+      List<Entry> entries = bySentTimestamp.get(syncMessageId.getTimetamp());
+
+      if (entries == null) {
+        entries = new LinkedList<>();
+        bySentTimestamp.put(syncMessageId.getTimetamp(), entries);
+      }
+
+      entries.add(entry);
+    }
+
+    entry.increment(count, timestamp);
+  }
+
+  static final class Entry {
+
+    private final SyncMessageId syncMessageId;
+    private final boolean       read;
+
+    private int     count;
+    private long    latestTimestamp;
+    private boolean matched;
+
+    private Entry(@NonNull SyncMessageId syncMessageId, boolean read) {
+      this.syncMessageId = syncMessageId;
+      this.read          = read;
+    }
+
+    @NonNull RecipientId getRecipientId() {
+      return syncMessageId.getRecipientId();
+    }
+
+    long getSentTimestamp() {
+      return syncMessageId.getTimetamp();
+    }
+
+    boolean isRead() {
+      return read;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    long getLatestTimestamp() {
+      return latestTimestamp;
+    }
+
+    boolean isMatched() {
+      return matched;
+    }
+
+    void markMatched() {
+      matched = true;
+    }
+
+    private void increment(int count, long timestamp) {
+      this.count += count;
+      latestTimestamp = Math.max(latestTimestamp, timestamp);
+    }
+  }
+}
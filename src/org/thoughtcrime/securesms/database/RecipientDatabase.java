@@ -18,25 +18,18 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Bundle;
-import android.os.ResultReceiver;
-import android.privatedata.DataRequest;
-import android.privatedata.PrivateDataManager;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
-import com.google.i18n.phonenumbers.NumberParseException;
-import com.google.i18n.phonenumbers.PhoneNumberUtil;
-import com.google.i18n.phonenumbers.Phonenumber;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
-import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.color.MaterialColor;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -46,19 +39,22 @@ import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RecipientDatabase extends Database {
 
   private static final String TAG = RecipientDatabase.class.getSimpleName();
 
+  private static final int MAX_IDS_PER_QUERY = 500;
+
           static final String TABLE_NAME               = "recipient";
   public  static final String ID                       = "_id";
   private static final String UUID                     = "uuid";
@@ -199,178 +195,143 @@ public class RecipientDatabase extends Database {
                                             UNIDENTIFIED_ACCESS_MODE + " INTEGER DEFAULT 0, " +
                                             FORCE_SMS_SELECTION      + " INTEGER DEFAULT 0);";
 
+  /**
+   * Address to id, for the lookups that run on every envelope, receipt and send result. Entries are
+   * added as addresses are looked up or inserted, and never change after that, since a row's address
+   * is never rewritten. Only results seen outside of a transaction are added, so a rolled-back
+   * insert can't leave an id behind.
+   */
+  private final Map<String, RecipientId> e164Cache    = new ConcurrentHashMap<>();
+  private final Map<String, RecipientId> emailCache   = new ConcurrentHashMap<>();
+  private final Map<String, RecipientId> groupIdCache = new ConcurrentHashMap<>();
+
+  /**
+   * Addresses exactly as they were handed to {@link Recipient#external(Context, String)}, before
+   * any formatting, so that repeat lookups can skip parsing the number altogether. How a number is
+   * formatted only depends on the local number, which doesn't change while we're registered.
+   */
+  private final Map<String, RecipientId> externalAddressCache = new ConcurrentHashMap<>();
+
   public RecipientDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public RecipientId getOrInsertFromE164(@NonNull String e164) {
-    // Insert µPAL here
-    // This routine looks up a phone number (ITU E.164 format) in the RecipientDatabase and
-    //   either returns a Recipient record or creates a new one if empty.
-    // Here we insert the phone-to-name lookup PAL to add the full name from the user's contacts
-    //   when a record is being created.
     if (TextUtils.isEmpty(e164)) {
       throw new AssertionError("Phone number cannot be empty.");
     }
 
-    final String PE_TAG = "PE_Android";
-
-    PrivateDataManager pdm = PrivateDataManager.getInstance();
-
-    Bundle recParams = new Bundle();
-
-    PhoneNumberUtil pnu = PhoneNumberUtil.getInstance();
-    String searchNumber = e164;
-    String countryCode = "";
-    android.util.Log.d(PE_TAG, "Searching for" + searchNumber);
-    try {
-      Phonenumber.PhoneNumber phoneNumber = pnu.parse(e164, "");
-      android.util.Log.d(PE_TAG, "Canonicalized to " + phoneNumber + " and then to " + phoneNumber.getNationalNumber());
-      searchNumber = "" + phoneNumber.getNationalNumber();
-      countryCode = "" + phoneNumber.getCountryCode();
-    } catch (NumberParseException e) {
-      e.printStackTrace();
-    }
-
-    recParams.putString("phone", searchNumber);
-    recParams.putString("country", countryCode);
-
-    final CountDownLatch LATCH = new CountDownLatch(1);
-    final StringBuffer RESULT_BUFFER = new StringBuffer("");
-    ResultReceiver receiver = new ResultReceiver(null) {
-      @Override
-      protected void onReceiveResult(int resultCode, Bundle resultData) {
-        android.util.Log.d(PE_TAG, "Received result");
-
-        if (resultCode == PrivateDataManager.RESULT_SUCCESS) {
-          android.util.Log.d(PE_TAG, "Success!!!");
-
-          StringBuffer outputText = new StringBuffer("Result Bundle: ");
-          if (resultData != null) {
-            outputText.append("\n");
-            for (String key : resultData.keySet()) {
-              if (key.equals("name")) {
-                RESULT_BUFFER.append(resultData.get(key).toString());
-              }
-              outputText.append(" ");
-              outputText.append(key);
-              outputText.append(" = ");
-              outputText.append(resultData.get(key).toString());
-              outputText.append("\n");
-            }
-          } else {
-            outputText.append("NULL");
-          }
-
-          android.util.Log.d(PE_TAG, outputText.toString());
-        } else {
-          android.util.Log.d(PE_TAG, "Failed!!!");
-          RESULT_BUFFER.append("NULL");
-        }
+    RecipientId cached = e164Cache.get(e164);
 
-        LATCH.countDown();
-      }
-    };
-
-    final String UPAL = "com.twosixlabs.exampleupals.NumberToNamePAL";
-    if(pdm.getInstalledPALProviders(DataRequest.DataType.CONTACTS).contains(UPAL)) {
-      DataRequest recReq = new DataRequest(ApplicationContext.getAppContext(), DataRequest.DataType.CONTACTS, null,
-              UPAL, recParams,
-              DataRequest.Purpose.TEST("Test"), receiver);
+    if (cached != null) {
+      return cached;
+    }
 
-      pdm.requestData(recReq);
+    GetOrInsertResult result = getOrInsertByColumn(e164Cache, PHONE, e164);
 
-      try {
-        LATCH.await(2, TimeUnit.SECONDS);
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-    } else {
-      Log.w(PE_TAG, "uPAL " + UPAL + " not found");
-      RESULT_BUFFER.append("NULL");
+    if (result.missingProfileName) {
+      ApplicationDependencies.getPalNameResolver().resolve(result.recipientId, e164);
     }
 
+    return result.recipientId;
+  }
 
-    // For now print the name
-    String contactName = RESULT_BUFFER.toString();
-    Log.d(PE_TAG, "Got name == " + contactName);
+  public RecipientId getOrInsertFromEmail(@NonNull String email) {
+    if (TextUtils.isEmpty(email)) {
+      throw new AssertionError("Email cannot be empty.");
+    }
 
-    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
-    String         query = PHONE + " = ?";
-    String[]       args  = new String[] { e164 };
+    RecipientId cached = emailCache.get(email);
 
-    try (Cursor cursor = db.query(TABLE_NAME, ID_PROJECTION, query, args, null, null, null)) {
-      RecipientId recipientId = null;
-      if (cursor != null && cursor.moveToFirst()) {
-        recipientId = RecipientId.from(cursor.getLong(0));
-      } else {
+    if (cached != null) {
+      return cached;
+    }
 
+    return getOrInsertByColumn(emailCache, EMAIL, email).recipientId;
+  }
 
-        ContentValues values = new ContentValues();
-        values.put(PHONE, e164);
+  public RecipientId getOrInsertFromGroupId(@NonNull String groupId) {
+    if (TextUtils.isEmpty(groupId)) {
+      throw new AssertionError("GroupId cannot be empty.");
+    }
 
-        if(!contactName.equals("NULL")) {
-          values.put(SIGNAL_PROFILE_NAME, contactName);
-          Log.d(PE_TAG, "Recording name from uPAL");
-        }
+    RecipientId cached = groupIdCache.get(groupId);
 
-        long id = db.insert(TABLE_NAME, null, values);
-        recipientId = RecipientId.from(id);
-      }
+    if (cached != null) {
+      return cached;
+    }
 
-      // NOTE(id) Update the database with the name
-      if(!contactName.equals("NULL")) {
-        ContentValues values = new ContentValues();
-        values.put(SIGNAL_PROFILE_NAME, contactName);
+    return getOrInsertByColumn(groupIdCache, GROUP_ID, groupId).recipientId;
+  }
 
-        String id = "" + recipientId.toString().split("::")[1];
-        String[] whereArgs = new String[]{id};
+  /**
+   * Drops every cached address. Needed after the table has been written behind our back, e.g. by
+   * a backup restore.
+   */
+  public void clearCache() {
+    e164Cache.clear();
+    emailCache.clear();
+    groupIdCache.clear();
+    externalAddressCache.clear();
+  }
 
-        db.update(TABLE_NAME, values, ID + "=? AND " + SIGNAL_PROFILE_NAME + " IS NULL", whereArgs);
-      }
+  /**
+   * @return The id that an unformatted address was last resolved to, or null if it hasn't been
+   *         seen yet.
+   */
+  public @Nullable RecipientId getCachedIdForExternalAddress(@NonNull String address) {
+    return externalAddressCache.get(address);
+  }
 
-      return recipientId;
+  /**
+   * Remembers the id an unformatted address resolved to. Like the other caches, this is skipped
+   * inside a transaction, since the id may belong to an insert that is later rolled back.
+   */
+  public void cacheExternalAddress(@NonNull String address, @NonNull RecipientId id) {
+    if (!databaseHelper.getWritableDatabase().inTransaction()) {
+      externalAddressCache.put(address, id);
     }
   }
 
-  public RecipientId getOrInsertFromEmail(@NonNull String email) {
-    if (TextUtils.isEmpty(email)) {
-      throw new AssertionError("Email cannot be empty.");
-    }
+  private @NonNull GetOrInsertResult getOrInsertByColumn(@NonNull Map<String, RecipientId> cache, @NonNull String column, @NonNull String value) {
+    SQLiteDatabase              db       = databaseHelper.getWritableDatabase();
+    Optional<GetOrInsertResult> existing = getByColumn(column, value);
+    GetOrInsertResult           result;
 
-    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
-    String         query = EMAIL + " = ?";
-    String[]       args  = new String[] { email };
+    if (existing.isPresent()) {
+      result = existing.get();
+    } else {
+      ContentValues values = new ContentValues(1);
+      values.put(column, value);
 
-    try (Cursor cursor = db.query(TABLE_NAME, ID_PROJECTION, query, args, null, null, null)) {
-      if (cursor != null && cursor.moveToFirst()) {
-        return RecipientId.from(cursor.getLong(0));
+      long id = db.insert(TABLE_NAME, null, values);
+
+      if (id < 0) {
+        Log.w(TAG, "Lost a race to insert by " + column + ". Using the existing row.");
+        result = getByColumn(column, value).get();
       } else {
-        ContentValues values = new ContentValues();
-        values.put(EMAIL, email);
-        long id = db.insert(TABLE_NAME, null, values);
-        return RecipientId.from(id);
+        result = new GetOrInsertResult(RecipientId.from(id), true);
       }
     }
-  }
 
-  public RecipientId getOrInsertFromGroupId(@NonNull String groupId) {
-    if (TextUtils.isEmpty(groupId)) {
-      throw new AssertionError("GroupId cannot be empty.");
+    if (!db.inTransaction()) {
+      cache.put(value, result.recipientId);
     }
 
-    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
-    String         query = GROUP_ID + " = ?";
-    String[]       args  = new String[] { groupId };
+    return result;
+  }
 
-    try (Cursor cursor = db.query(TABLE_NAME, ID_PROJECTION, query, args, null, null, null)) {
+  private @NonNull Optional<GetOrInsertResult> getByColumn(@NonNull String column, @NonNull String value) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String[]       projection = new String[] { ID, SIGNAL_PROFILE_NAME };
+    String         query      = column + " = ?";
+    String[]       args       = new String[] { value };
+
+    try (Cursor cursor = db.query(TABLE_NAME, projection, query, args, null, null, null)) {
       if (cursor != null && cursor.moveToFirst()) {
-        return RecipientId.from(cursor.getLong(0));
+        return Optional.of(new GetOrInsertResult(RecipientId.from(cursor.getLong(0)), cursor.isNull(1)));
       } else {
-        ContentValues values = new ContentValues();
-        values.put(GROUP_ID, groupId);
-        long id = db.insert(TABLE_NAME, null, values);
-        return RecipientId.from(id);
+        return Optional.absent();
       }
     }
   }
@@ -408,6 +369,27 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Loads the settings of many recipients at once. Ids that aren't in the table are left out.
+   */
+  public @NonNull Map<RecipientId, RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    SQLiteDatabase                      database = databaseHelper.getReadableDatabase();
+    Map<RecipientId, RecipientSettings> settings = new HashMap<>(ids.size());
+
+    for (List<RecipientId> chunk : Util.chunk(new ArrayList<>(ids), MAX_IDS_PER_QUERY)) {
+      String query = ID + " IN (" + Util.join(Stream.of(chunk).map(RecipientId::serialize).toList(), ",") + ")";
+
+      try (Cursor cursor = database.query(TABLE_NAME, null, query, null, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          RecipientSettings recipientSettings = getRecipientSettings(cursor);
+          settings.put(recipientSettings.getId(), recipientSettings);
+        }
+      }
+    }
+
+    return settings;
+  }
+
   @NonNull RecipientSettings getRecipientSettings(@NonNull Cursor cursor) {
     long    id                     = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
     Address address                = addressFromCursor(cursor);
@@ -580,6 +562,34 @@ public class RecipientDatabase extends Database {
     Recipient.live(id).refresh();
   }
 
+  /**
+   * Sets the profile name of each recipient that doesn't have one yet, in a single transaction.
+   */
+  public void setProfileNamesIfMissing(@NonNull Map<RecipientId, String> profileNames) {
+    SQLiteDatabase    database = databaseHelper.getWritableDatabase();
+    List<RecipientId> updated  = new LinkedList<>();
+
+    database.beginTransaction();
+    try {
+      for (Map.Entry<RecipientId, String> entry : profileNames.entrySet()) {
+        ContentValues contentValues = new ContentValues(1);
+        contentValues.put(SIGNAL_PROFILE_NAME, entry.getValue());
+
+        if (database.update(TABLE_NAME, contentValues, ID + " = ? AND " + SIGNAL_PROFILE_NAME + " IS NULL", new String[] { entry.getKey().serialize() }) > 0) {
+          updated.add(entry.getKey());
+        }
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+
+    for (RecipientId id : updated) {
+      Recipient.live(id).refresh();
+    }
+  }
+
   public void setProfileAvatar(@NonNull RecipientId id, @Nullable String profileAvatar) {
     ContentValues contentValues = new ContentValues(1);
     contentValues.put(SIGNAL_PROFILE_AVATAR, profileAvatar);
@@ -1012,4 +1022,14 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  private static class GetOrInsertResult {
+    private final RecipientId recipientId;
+    private final boolean     missingProfileName;
+
+    private GetOrInsertResult(@NonNull RecipientId recipientId, boolean missingProfileName) {
+      this.recipientId        = recipientId;
+      this.missingProfileName = missingProfileName;
+    }
+  }
+
 }
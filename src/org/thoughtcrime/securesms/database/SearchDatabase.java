@@ -4,6 +4,7 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -11,121 +12,225 @@ import net.sqlcipher.Cursor;
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Contains all databases necessary for full-text search (FTS).
+ *
+ * SMS and MMS bodies share a single index. Each row's id is its message id shifted left by one,
+ * with the low bit set for MMS, so the two tables can't collide and one query covers both.
+ *
+ * Messages aren't indexed as they're written. Insert and update triggers only add their ids to a
+ * queue, and {@link #indexPendingMessages(int)} indexes the queue in batches later on. That keeps
+ * tokenizing and index writes out of the message insert transaction. Since the queue is persisted,
+ * building the index from scratch is just queueing every message, and it resumes where it left off
+ * if the process dies partway through.
+ *
+ * Deletes are the exception. The delete triggers remove the message from the index (and the queue)
+ * in the same transaction, so a deleted or expired message can never turn up in a search.
  */
 public class SearchDatabase extends Database {
 
+  public static final String MESSAGE_FTS_TABLE_NAME = "message_fts";
+  public static final String QUEUE_TABLE_NAME       = "message_index_queue";
+
+  /** Per-table indexes from older versions. Still found in old backups. */
   public static final String SMS_FTS_TABLE_NAME = "sms_fts";
   public static final String MMS_FTS_TABLE_NAME = "mms_fts";
 
   public static final String ID                     = "rowid";
   public static final String BODY                   = MmsSmsColumns.BODY;
   public static final String THREAD_ID              = MmsSmsColumns.THREAD_ID;
+  public static final String DATE_RECEIVED          = MmsSmsColumns.NORMALIZED_DATE_RECEIVED;
   public static final String SNIPPET                = "snippet";
   public static final String CONVERSATION_RECIPIENT = "conversation_recipient";
   public static final String MESSAGE_RECIPIENT      = "message_recipient";
+  public static final String SORT_ID                = "sort_id";
+  public static final String SEARCH_RANK            = "search_rank";
+
+  public static final int DEFAULT_PAGE_SIZE = 500;
+
+  private static final String PAGE = "page";
 
   public static final String[] CREATE_TABLE = {
-      "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
+      "CREATE VIRTUAL TABLE " + MESSAGE_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, " + DATE_RECEIVED + " UNINDEXED);",
+      "CREATE TABLE " + QUEUE_TABLE_NAME + " (" + SORT_ID + " INTEGER PRIMARY KEY);",
 
       "CREATE TRIGGER sms_ai AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
-          "END;\n",
+          "  INSERT OR IGNORE INTO " + QUEUE_TABLE_NAME + " (" + SORT_ID + ") VALUES (new." + SmsDatabase.ID + " * 2);\n" +
+          "END;",
       "CREATE TRIGGER sms_ad AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
-          "END;\n",
-      "CREATE TRIGGER sms_au AFTER UPDATE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
-          "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES(new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
+          "  DELETE FROM " + MESSAGE_FTS_TABLE_NAME + " WHERE " + ID + " = old." + SmsDatabase.ID + " * 2;\n" +
+          "  DELETE FROM " + QUEUE_TABLE_NAME + " WHERE " + SORT_ID + " = old." + SmsDatabase.ID + " * 2;\n" +
+          "END;",
+      "CREATE TRIGGER sms_au AFTER UPDATE OF " + SmsDatabase.BODY + ", " + SmsDatabase.THREAD_ID + ", " + SmsDatabase.DATE_RECEIVED + " ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT OR IGNORE INTO " + QUEUE_TABLE_NAME + " (" + SORT_ID + ") VALUES (new." + SmsDatabase.ID + " * 2);\n" +
           "END;",
-
-
-      "CREATE VIRTUAL TABLE " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ");",
 
       "CREATE TRIGGER mms_ai AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
-          "END;\n",
+          "  INSERT OR IGNORE INTO " + QUEUE_TABLE_NAME + " (" + SORT_ID + ") VALUES (new." + MmsDatabase.ID + " * 2 + 1);\n" +
+          "END;",
       "CREATE TRIGGER mms_ad AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
-          "END;\n",
-      "CREATE TRIGGER mms_au AFTER UPDATE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
-          "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
+          "  DELETE FROM " + MESSAGE_FTS_TABLE_NAME + " WHERE " + ID + " = old." + MmsDatabase.ID + " * 2 + 1;\n" +
+          "  DELETE FROM " + QUEUE_TABLE_NAME + " WHERE " + SORT_ID + " = old." + MmsDatabase.ID + " * 2 + 1;\n" +
+          "END;",
+      "CREATE TRIGGER mms_au AFTER UPDATE OF " + MmsDatabase.BODY + ", " + MmsDatabase.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + " ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  INSERT OR IGNORE INTO " + QUEUE_TABLE_NAME + " (" + SORT_ID + ") VALUES (new." + MmsDatabase.ID + " * 2 + 1);\n" +
           "END;"
   };
 
-  private static final String MESSAGES_QUERY =
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        SMS_FTS_TABLE_NAME + "."  + THREAD_ID + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-        MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-      "LIMIT 500";
-
-  private static final String MESSAGES_FOR_THREAD_QUERY =
-      "SELECT " +
-          ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-          MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-          "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-          SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-          SMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
-        "FROM " + SmsDatabase.TABLE_NAME + " " +
-        "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? AND " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? " +
-        "UNION ALL " +
-        "SELECT " +
-          ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
-          MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-          "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-          MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-          MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
-        "FROM " + MmsDatabase.TABLE_NAME + " " +
-        "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? AND " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? " +
-        "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-        "LIMIT 500";
-
   public SearchDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public Cursor queryMessages(@NonNull String query) {
-    SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
-    String         fullTextSearchQuery = createFullTextSearchQuery(query);
+    return queryMessages(query, false, null, null, DEFAULT_PAGE_SIZE);
+  }
 
-    if (TextUtils.isEmpty(fullTextSearchQuery)) {
-      return null;
+  /**
+   * Returns one page of message search results, ordered newest first, or by bm25 relevance when
+   * ranked. Pages are continued with a {@link PageKey} taken from the last row of the previous
+   * page, rather than an offset, so every page costs about the same.
+   *
+   * Matching runs in two steps. The first only reads the index to find the rows on the page. The
+   * second joins the message and thread tables and builds snippets for just those rows.
+   *
+   * @param candidates If present, only these messages (and any newer than them) are considered.
+   */
+  public @Nullable Cursor queryMessages(@NonNull String query,
+                                        boolean ranked,
+                                        @Nullable PageKey after,
+                                        @Nullable Candidates candidates,
+                                        int limit)
+  {
+    return queryPage(query, null, ranked, after, candidates, limit);
+  }
+
+  public Cursor queryMessages(@NonNull String query, long threadId) {
+    return queryPage(query, threadId, false, null, null, DEFAULT_PAGE_SIZE);
+  }
+
+  /**
+   * @return The newest message ids right now. Messages inserted after this are always treated as
+   *         candidates when refining a search.
+   */
+  public @NonNull Watermark getWatermark() {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    return new Watermark(getMaxId(db, SmsDatabase.TABLE_NAME, SmsDatabase.ID),
+                         getMaxId(db, MmsDatabase.TABLE_NAME, MmsDatabase.ID));
+  }
+
+  /**
+   * @return True if there are messages waiting to be indexed.
+   */
+  public boolean hasPendingMessages() {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    return getLong(db, "SELECT EXISTS (SELECT 1 FROM " + QUEUE_TABLE_NAME + ")") > 0;
+  }
+
+  /**
+   * Indexes up to the given number of queued messages, in one transaction.
+   *
+   * @return The number of queue entries handled. Zero once the queue is empty.
+   */
+  public int indexPendingMessages(int limit) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      List<Long> sortIds = new ArrayList<>(limit);
+      List<Long> smsIds  = new ArrayList<>();
+      List<Long> mmsIds  = new ArrayList<>();
+
+      try (Cursor cursor = db.rawQuery("SELECT " + SORT_ID + " FROM " + QUEUE_TABLE_NAME + " ORDER BY " + SORT_ID + " LIMIT " + limit, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          long sortId = cursor.getLong(0);
+
+          sortIds.add(sortId);
+
+          if (sortId % 2 == 1) mmsIds.add(sortId / 2);
+          else                 smsIds.add(sortId / 2);
+        }
+      }
+
+      if (sortIds.isEmpty()) {
+        db.setTransactionSuccessful();
+        return 0;
+      }
+
+      String sortIdList = Util.join(sortIds, ",");
+
+      db.execSQL("DELETE FROM " + MESSAGE_FTS_TABLE_NAME + " WHERE " + ID + " IN (" + sortIdList + ")");
+
+      if (!smsIds.isEmpty()) {
+        db.execSQL("INSERT INTO " + MESSAGE_FTS_TABLE_NAME + " (" + ID + ", " + BODY + ", " + THREAD_ID + ", " + DATE_RECEIVED + ") " +
+                   "SELECT " + SmsDatabase.ID + " * 2, " + SmsDatabase.BODY + ", " + SmsDatabase.THREAD_ID + ", " + SmsDatabase.DATE_RECEIVED + " " +
+                   "FROM " + SmsDatabase.TABLE_NAME + " " +
+                   "WHERE " + SmsDatabase.ID + " IN (" + Util.join(smsIds, ",") + ") AND " + SmsDatabase.BODY + " IS NOT NULL");
+      }
+
+      if (!mmsIds.isEmpty()) {
+        db.execSQL("INSERT INTO " + MESSAGE_FTS_TABLE_NAME + " (" + ID + ", " + BODY + ", " + THREAD_ID + ", " + DATE_RECEIVED + ") " +
+                   "SELECT " + MmsDatabase.ID + " * 2 + 1, " + MmsDatabase.BODY + ", " + MmsDatabase.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + " " +
+                   "FROM " + MmsDatabase.TABLE_NAME + " " +
+                   "WHERE " + MmsDatabase.ID + " IN (" + Util.join(mmsIds, ",") + ") AND " + MmsDatabase.BODY + " IS NOT NULL");
+      }
+
+      db.execSQL("DELETE FROM " + QUEUE_TABLE_NAME + " WHERE " + SORT_ID + " IN (" + sortIdList + ")");
+
+      db.setTransactionSuccessful();
+      return sortIds.size();
+    } finally {
+      db.endTransaction();
     }
+  }
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { fullTextSearchQuery,
-                                                               fullTextSearchQuery });
+  /**
+   * Runs one incremental merge step on the index's b-trees, writing about the given number of
+   * pages. Cheap enough to run a step at a time in the background.
+   *
+   * @return True if there was anything to merge.
+   */
+  public boolean mergeIndex(int pages) {
+    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
+    long           before = getTotalChanges(db);
 
-    setNotifyConverationListListeners(cursor);
-    return cursor;
+    db.execSQL("INSERT INTO " + MESSAGE_FTS_TABLE_NAME + " (" + MESSAGE_FTS_TABLE_NAME + ", rank) VALUES ('merge', " + pages + ")");
+
+    return getTotalChanges(db) - before >= 2;
   }
 
-  public Cursor queryMessages(@NonNull String query, long threadId) {
+  /**
+   * Merges the whole index into a single b-tree. Expensive, but leaves the index as small and as
+   * fast to query as it can be.
+   */
+  public void optimizeIndex() {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("INSERT INTO " + MESSAGE_FTS_TABLE_NAME + " (" + MESSAGE_FTS_TABLE_NAME + ") VALUES ('optimize')");
+  }
+
+  public @NonNull IndexMetrics getIndexMetrics() {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    return new IndexMetrics(getLong(db, "SELECT COUNT(*) FROM " + MESSAGE_FTS_TABLE_NAME + "_docsize"),
+                            getLong(db, "SELECT COUNT(*) FROM " + QUEUE_TABLE_NAME),
+                            getLong(db, "SELECT SUM(LENGTH(block)) FROM " + MESSAGE_FTS_TABLE_NAME + "_data"));
+  }
+
+  private @Nullable Cursor queryPage(@NonNull String     query,
+                                     @Nullable Long      threadId,
+                                     boolean             ranked,
+                                     @Nullable PageKey   after,
+                                     @Nullable Candidates candidates,
+                                     int                 limit)
+  {
     SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
@@ -133,15 +238,118 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { fullTextSearchQuery,
-                                                                          String.valueOf(threadId),
-                                                                          fullTextSearchQuery,
-                                                                          String.valueOf(threadId) });
+    List<String> args = new LinkedList<>();
+
+    String pageQuery = buildPageQuery(threadId, ranked, after, candidates, limit, fullTextSearchQuery, args);
+
+    args.add(fullTextSearchQuery);
+    args.add(fullTextSearchQuery);
+
+    String sql = "WITH " + PAGE + " AS (" + pageQuery + ") " +
+                 buildPageDetailsQuery(SmsDatabase.TABLE_NAME, false) +
+                 " UNION ALL " +
+                 buildPageDetailsQuery(MmsDatabase.TABLE_NAME, true) +
+                 " ORDER BY " + getOrder(ranked);
+
+    Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
 
     setNotifyConverationListListeners(cursor);
     return cursor;
   }
 
+  private static long getMaxId(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull String idColumn) {
+    return getLong(db, "SELECT MAX(" + idColumn + ") FROM " + table);
+  }
+
+  private static long getTotalChanges(@NonNull SQLiteDatabase db) {
+    return getLong(db, "SELECT total_changes()");
+  }
+
+  private static long getLong(@NonNull SQLiteDatabase db, @NonNull String query) {
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    }
+  }
+
+  private static @NonNull String getOrder(boolean ranked) {
+    return ranked ? SEARCH_RANK + " ASC, " + SORT_ID + " DESC"
+                  : DATE_RECEIVED + " DESC, " + SORT_ID + " DESC";
+  }
+
+  /**
+   * Selects the rows on the page straight from the index. Ties on date or rank are broken by the
+   * row id, which gives every row a unique and stable position to continue from.
+   */
+  private static @NonNull String buildPageQuery(@Nullable Long       threadId,
+                                                boolean              ranked,
+                                                @Nullable PageKey    after,
+                                                @Nullable Candidates candidates,
+                                                int                  limit,
+                                                @NonNull String      match,
+                                                @NonNull List<String> args)
+  {
+    String sql = "SELECT * FROM (" +
+                   "SELECT " +
+                     ID + " AS " + SORT_ID + ", " +
+                     DATE_RECEIVED + " AS " + DATE_RECEIVED + ", " +
+                     (ranked ? "bm25(" + MESSAGE_FTS_TABLE_NAME + ")" : "0") + " AS " + SEARCH_RANK + " " +
+                   "FROM " + MESSAGE_FTS_TABLE_NAME + " " +
+                   "WHERE " + MESSAGE_FTS_TABLE_NAME + " MATCH ?";
+
+    args.add(match);
+
+    if (threadId != null) {
+      sql += " AND " + THREAD_ID + " = CAST(? AS INTEGER)";
+      args.add(String.valueOf(threadId));
+    }
+
+    if (candidates != null) {
+      sql += " AND (" +
+               "(" + ID + " % 2 = 0 AND " + ID + " > " + candidates.watermark.smsId * 2 + ") OR " +
+               "(" + ID + " % 2 = 1 AND " + ID + " > " + (candidates.watermark.mmsId * 2 + 1) + ")";
+
+      if (!candidates.sortIds.isEmpty()) {
+        sql += " OR " + ID + " IN (" + Util.join(new ArrayList<>(candidates.sortIds), ",") + ")";
+      }
+
+      sql += ")";
+    }
+
+    sql += ")";
+
+    if (after != null) {
+      String keyColumn = ranked ? SEARCH_RANK : DATE_RECEIVED;
+      String keyType   = ranked ? "REAL" : "INTEGER";
+      String key       = ranked ? String.valueOf(after.rank) : String.valueOf(after.dateReceived);
+      String compare   = ranked ? " > " : " < ";
+
+      sql += " WHERE (" + keyColumn + compare + "CAST(? AS " + keyType + ") OR " +
+             "(" + keyColumn + " = CAST(? AS " + keyType + ") AND " + SORT_ID + " < CAST(? AS INTEGER)))";
+
+      args.add(key);
+      args.add(key);
+      args.add(String.valueOf(after.sortId));
+    }
+
+    return sql + " ORDER BY " + getOrder(ranked) + " LIMIT " + limit;
+  }
+
+  private static @NonNull String buildPageDetailsQuery(@NonNull String messageTable, boolean mms) {
+    return "SELECT " +
+             ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
+             messageTable + "." + MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
+             "snippet(" + MESSAGE_FTS_TABLE_NAME + ", 0, '', '', '...', 7) AS " + SNIPPET + ", " +
+             PAGE + "." + DATE_RECEIVED + " AS " + DATE_RECEIVED + ", " +
+             messageTable + "." + MmsSmsColumns.THREAD_ID + " AS " + THREAD_ID + ", " +
+             PAGE + "." + SORT_ID + " AS " + SORT_ID + ", " +
+             PAGE + "." + SEARCH_RANK + " AS " + SEARCH_RANK + " " +
+           "FROM " + PAGE + " " +
+           "INNER JOIN " + MESSAGE_FTS_TABLE_NAME + " ON " + MESSAGE_FTS_TABLE_NAME + "." + ID + " = " + PAGE + "." + SORT_ID + " " +
+           "INNER JOIN " + messageTable + " ON " + messageTable + "." + MmsSmsColumns.ID + " = " + PAGE + "." + SORT_ID + " / 2 " +
+           "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " = " + messageTable + "." + MmsSmsColumns.THREAD_ID + " " +
+           "WHERE " + PAGE + "." + SORT_ID + " % 2 = " + (mms ? 1 : 0) + " AND " + MESSAGE_FTS_TABLE_NAME + " MATCH ?";
+  }
+
   private static String createFullTextSearchQuery(@NonNull String query) {
     return Stream.of(query.split(" "))
                  .map(String::trim)
@@ -154,5 +362,105 @@ public class SearchDatabase extends Database {
   private static String fullTextSearchEscape(String s) {
     return "\"" + s.replace("\"", "\"\"") + "\"";
   }
-}
 
+  /**
+   * Where the next page of results starts: just after the last row of the previous page.
+   */
+  public static final class PageKey {
+    private final long   dateReceived;
+    private final double rank;
+    private final long   sortId;
+
+    private PageKey(long dateReceived, double rank, long sortId) {
+      this.dateReceived = dateReceived;
+      this.rank         = rank;
+      this.sortId       = sortId;
+    }
+
+    /**
+     * @return A key for the row the cursor is currently on.
+     */
+    public static @NonNull PageKey fromCursor(@NonNull android.database.Cursor cursor) {
+      return new PageKey(cursor.getLong(cursor.getColumnIndexOrThrow(DATE_RECEIVED)),
+                         cursor.getDouble(cursor.getColumnIndexOrThrow(SEARCH_RANK)),
+                         cursor.getLong(cursor.getColumnIndexOrThrow(SORT_ID)));
+    }
+  }
+
+  /**
+   * The newest message ids in each table at a point in time.
+   */
+  public static final class Watermark {
+    private final long smsId;
+    private final long mmsId;
+
+    private Watermark(long smsId, long mmsId) {
+      this.smsId = smsId;
+      this.mmsId = mmsId;
+    }
+  }
+
+  /**
+   * A set of messages a search can be restricted to, plus anything newer than the watermark.
+   */
+  public static final class Candidates {
+    private final Set<Long> sortIds;
+    private final Watermark watermark;
+
+    private Candidates(@NonNull Set<Long> sortIds, @NonNull Watermark watermark) {
+      this.sortIds   = sortIds;
+      this.watermark = watermark;
+    }
+
+    /**
+     * Collects every message in a result cursor. The watermark should be taken before that query
+     * ran, so nothing inserted while it was running gets left out.
+     */
+    public static @NonNull Candidates fromCursor(@NonNull android.database.Cursor cursor, @NonNull Watermark watermark) {
+      Set<Long> sortIds = new HashSet<>();
+      int       column  = cursor.getColumnIndexOrThrow(SORT_ID);
+
+      if (cursor.moveToFirst()) {
+        do {
+          sortIds.add(cursor.getLong(column));
+        } while (cursor.moveToNext());
+      }
+
+      cursor.moveToPosition(-1);
+
+      return new Candidates(sortIds, watermark);
+    }
+  }
+
+  public static final class IndexMetrics {
+    private final long indexedMessages;
+    private final long pendingMessages;
+    private final long indexBytes;
+
+    private IndexMetrics(long indexedMessages, long pendingMessages, long indexBytes) {
+      this.indexedMessages = indexedMessages;
+      this.pendingMessages = pendingMessages;
+      this.indexBytes      = indexBytes;
+    }
+
+    public long getIndexedMessages() {
+      return indexedMessages;
+    }
+
+    public long getPendingMessages() {
+      return pendingMessages;
+    }
+
+    /**
+     * @return The size of the index's b-trees, not counting the stored bodies.
+     */
+    public long getIndexBytes() {
+      return indexBytes;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "[indexed: " + indexedMessages + ", pending: " + pendingMessages + ", indexBytes: " + indexBytes + "]";
+    }
+  }
+}
@@ -35,6 +35,7 @@ import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
+import org.thoughtcrime.securesms.jobs.SearchIndexJob;
 import org.thoughtcrime.securesms.jobs.TrimThreadJob;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.Recipient;
@@ -44,10 +45,13 @@ import org.thoughtcrime.securesms.sms.IncomingTextMessage;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
 import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -88,7 +92,8 @@ public class SmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS sms_read_and_notified_and_thread_id_index ON " + TABLE_NAME + "(" + READ + "," + NOTIFIED + ","  + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS sms_type_index ON " + TABLE_NAME + " (" + TYPE + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
-    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");"
+    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS sms_expires_at_index ON " + TABLE_NAME + " (" + EXPIRE_STARTED + " + " + EXPIRES_IN + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MESSAGE_PROJECTION = new String[] {
@@ -101,8 +106,7 @@ public class SmsDatabase extends MessagingDatabase {
       NOTIFIED, READ_RECEIPT_COUNT, UNIDENTIFIED
   };
 
-  private static final EarlyReceiptCache earlyDeliveryReceiptCache = new EarlyReceiptCache("SmsDelivery");
-  private static final EarlyReceiptCache earlyReadReceiptCache     = new EarlyReceiptCache("SmsRead");
+  private static final int MAX_RECEIPT_TIMESTAMPS_PER_QUERY = 500;
 
   public SmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -122,7 +126,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, false, false);
     notifyConversationListeners(threadId);
   }
 
@@ -275,7 +279,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, false, false);
     notifyConversationListeners(threadId);
   }
 
@@ -288,7 +292,7 @@ public class SmsDatabase extends MessagingDatabase {
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {id+""});
 
     long threadId = getThreadIdForMessage(id);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, id, false, false);
     notifyConversationListeners(threadId);
   }
 
@@ -305,46 +309,53 @@ public class SmsDatabase extends MessagingDatabase {
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
   }
 
-  public void incrementReceiptCount(SyncMessageId messageId, boolean deliveryReceipt, boolean readReceipt) {
-    SQLiteDatabase database     = databaseHelper.getWritableDatabase();
-    Cursor         cursor       = null;
-    boolean        foundMessage = false;
+  /**
+   * Applies every receipt in the batch that refers to an outgoing message in this table, and marks
+   * those receipts as matched. Doesn't notify anyone; that's left to the caller.
+   *
+   * @return The updated messages, grouped by thread.
+   */
+  @NonNull Map<Long, Set<Long>> incrementReceiptCounts(@NonNull ReceiptBatch receipts) {
+    SQLiteDatabase       database = databaseHelper.getWritableDatabase();
+    Map<Long, Set<Long>> updated  = new HashMap<>();
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, RECIPIENT_ID, TYPE},
-                              DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())},
-                              null, null, null, null);
+    for (List<Long> timestamps : Util.chunk(receipts.getSentTimestamps(), MAX_RECEIPT_TIMESTAMPS_PER_QUERY)) {
+      String selection = DATE_SENT + " IN (" + Util.join(timestamps, ",") + ")";
 
-      while (cursor.moveToNext()) {
-        if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(TYPE)))) {
-          RecipientId theirRecipientId = messageId.getRecipientId();
-          RecipientId outRecipientId   = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
-          String      columnName       = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
+      try (Cursor cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, RECIPIENT_ID, TYPE, DATE_SENT}, selection, null, null, null, null)) {
+        while (cursor.moveToNext()) {
+          if (!Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(TYPE)))) {
+            continue;
+          }
 
-          if (outRecipientId.equals(theirRecipientId)) {
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+          RecipientId outRecipientId = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
+          long        dateSent       = cursor.getLong(cursor.getColumnIndexOrThrow(DATE_SENT));
+          int         deliveryCount  = 0;
+          int         readCount      = 0;
 
-            database.execSQL("UPDATE " + TABLE_NAME +
-                             " SET " + columnName + " = " + columnName + " + 1 WHERE " +
+          for (ReceiptBatch.Entry entry : receipts.getEntries(dateSent)) {
+            if (outRecipientId.equals(entry.getRecipientId())) {
+              if (entry.isRead()) readCount     += entry.getCount();
+              else                deliveryCount += entry.getCount();
+
+              entry.markMatched();
+            }
+          }
+
+          if (deliveryCount > 0 || readCount > 0) {
+            database.execSQL("UPDATE " + TABLE_NAME + " SET " +
+                             DELIVERY_RECEIPT_COUNT + " = " + DELIVERY_RECEIPT_COUNT + " + ?, " +
+                             READ_RECEIPT_COUNT + " = " + READ_RECEIPT_COUNT + " + ? WHERE " +
                              ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
+                             new Object[] {deliveryCount, readCount, cursor.getLong(cursor.getColumnIndexOrThrow(ID))});
 
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
-            foundMessage = true;
+            addMessageToThread(updated, cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID)), cursor.getLong(cursor.getColumnIndexOrThrow(ID)));
           }
         }
       }
-
-      if (!foundMessage) {
-        if (deliveryReceipt) earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-        if (readReceipt)     earlyReadReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-      }
-
-    } finally {
-      if (cursor != null)
-        cursor.close();
     }
+
+    return updated;
   }
 
   public List<Pair<Long, Long>> setTimestampRead(SyncMessageId messageId, long proposedExpireStarted) {
@@ -449,7 +460,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForChange(threadId, messageId, false, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -475,8 +486,9 @@ public class SmsDatabase extends MessagingDatabase {
       SQLiteDatabase db           = databaseHelper.getWritableDatabase();
       long           newMessageId = db.insert(TABLE_NAME, null, contentValues);
 
-      DatabaseFactory.getThreadDatabase(context).update(record.getThreadId(), true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(record.getThreadId(), newMessageId, false, true);
       notifyConversationListeners(record.getThreadId());
+      SearchIndexJob.enqueue(context);
 
       ApplicationContext.getInstance(context).getJobManager().add(new TrimThreadJob(record.getThreadId()));
 
@@ -514,7 +526,7 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long messageId    = db.insert(TABLE_NAME, null, values);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, false, true);
     notifyConversationListeners(threadId);
     ApplicationContext.getInstance(context).getJobManager().add(new TrimThreadJob(threadId));
 
@@ -600,7 +612,9 @@ public class SmsDatabase extends MessagingDatabase {
       }
 
       if (!message.isIdentityUpdate() && !message.isIdentityVerified() && !message.isIdentityDefault()) {
-        DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+        DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, false, true);
+      } else {
+        DatabaseFactory.getThreadDatabase(context).incrementMessageCount(threadId);
       }
 
       if (message.getSubscriptionId() != -1) {
@@ -608,6 +622,7 @@ public class SmsDatabase extends MessagingDatabase {
       }
 
       notifyConversationListeners(threadId);
+      SearchIndexJob.enqueue(context);
 
       if (!message.isIdentityUpdate() && !message.isIdentityVerified() && !message.isIdentityDefault()) {
         ApplicationContext.getInstance(context).getJobManager().add(new TrimThreadJob(threadId));
@@ -635,8 +650,8 @@ public class SmsDatabase extends MessagingDatabase {
     else if (message.isIdentityDefault())  type |= Types.KEY_EXCHANGE_IDENTITY_DEFAULT_BIT;
 
     RecipientId            recipientId           = message.getRecipient().getId();
-    Map<RecipientId, Long> earlyDeliveryReceipts = earlyDeliveryReceiptCache.remove(date);
-    Map<RecipientId, Long> earlyReadReceipts     = earlyReadReceiptCache.remove(date);
+    Map<RecipientId, Long> earlyDeliveryReceipts = MmsSmsDatabase.earlyDeliveryReceiptCache.remove(date);
+    Map<RecipientId, Long> earlyReadReceipts     = MmsSmsDatabase.earlyReadReceiptCache.remove(date);
 
     ContentValues contentValues = new ContentValues(6);
     contentValues.put(RECIPIENT_ID, recipientId.serialize());
@@ -659,13 +674,16 @@ public class SmsDatabase extends MessagingDatabase {
     }
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, messageId, false, true);
       DatabaseFactory.getThreadDatabase(context).setLastSeen(threadId);
+    } else {
+      DatabaseFactory.getThreadDatabase(context).incrementMessageCount(threadId);
     }
 
     DatabaseFactory.getThreadDatabase(context).setHasSent(threadId, true);
 
     notifyConversationListeners(threadId);
+    SearchIndexJob.enqueue(context);
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
       ApplicationContext.getInstance(context).getJobManager().add(new TrimThreadJob(threadId));
@@ -714,12 +732,25 @@ public class SmsDatabase extends MessagingDatabase {
     Log.i("MessageDatabase", "Deleting: " + messageId);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long threadId     = getThreadIdForMessage(messageId);
-    db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    int  rows         = db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
+
+    List<Long> deleted       = rows > 0 ? Collections.singletonList(messageId) : Collections.emptyList();
+    boolean    threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, deleted, Collections.emptyList());
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
 
+  /**
+   * Deletes the given messages without updating their threads or notifying anyone; that's left to
+   * the caller.
+   *
+   * @return The deleted messages, grouped by the thread they were in.
+   */
+  @NonNull Map<Long, Set<Long>> deleteMessages(@NonNull List<Long> messageIds) {
+    Log.i("MessageDatabase", "Deleting " + messageIds.size() + " messages.");
+    return deleteMessageRows(messageIds);
+  }
+
   public void ensureMigration() {
     databaseHelper.getWritableDatabase();
   }
@@ -24,6 +24,7 @@ import android.database.MergeCursor;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -50,6 +51,8 @@ import org.whispersystems.libsignal.util.Pair;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -80,6 +83,9 @@ public class ThreadDatabase extends Database {
   public  static final String EXPIRES_IN             = "expires_in";
   public  static final String LAST_SEEN              = "last_seen";
   private static final String HAS_SENT               = "has_sent";
+  private static final String SNIPPET_MESSAGE_ID     = "snippet_message_id";
+  private static final String SNIPPET_MMS            = "snippet_mms";
+  private static final String SNIPPET_DATE_RECEIVED  = "snippet_date_received";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " ("                    +
     ID + " INTEGER PRIMARY KEY, " + DATE + " INTEGER DEFAULT 0, "                                  +
@@ -91,7 +97,9 @@ public class ThreadDatabase extends Database {
     ARCHIVED + " INTEGER DEFAULT 0, " + STATUS + " INTEGER DEFAULT 0, "                            +
     DELIVERY_RECEIPT_COUNT + " INTEGER DEFAULT 0, " + EXPIRES_IN + " INTEGER DEFAULT 0, "          +
     LAST_SEEN + " INTEGER DEFAULT 0, " + HAS_SENT + " INTEGER DEFAULT 0, "                         +
-    READ_RECEIPT_COUNT + " INTEGER DEFAULT 0, " + UNREAD_COUNT + " INTEGER DEFAULT 0);";
+    READ_RECEIPT_COUNT + " INTEGER DEFAULT 0, " + UNREAD_COUNT + " INTEGER DEFAULT 0, "            +
+    SNIPPET_MESSAGE_ID + " INTEGER DEFAULT 0, " + SNIPPET_MMS + " INTEGER DEFAULT 0, "             +
+    SNIPPET_DATE_RECEIVED + " INTEGER DEFAULT 0);";
 
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS thread_recipient_ids_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
@@ -132,11 +140,10 @@ public class ThreadDatabase extends Database {
     return db.insert(TABLE_NAME, null, contentValues);
   }
 
-  private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
-                            @Nullable String contentType, @Nullable Extra extra,
-                            long date, int status, int deliveryReceiptCount, long type, boolean unarchive,
-                            long expiresIn, int readReceiptCount)
-  {
+  private void updateThread(long threadId, long count, @NonNull MessageRecord record, boolean unarchive) {
+    Uri    attachment      = getAttachmentUriFor(record);
+    Extra  extra           = getExtrasFor(record);
+    long   date            = record.getTimestamp();
     String extraSerialized = null;
 
     if (extra != null) {
@@ -147,18 +154,21 @@ public class ThreadDatabase extends Database {
       }
     }
 
-    ContentValues contentValues = new ContentValues(7);
+    ContentValues contentValues = new ContentValues(15);
     contentValues.put(DATE, date - date % 1000);
     contentValues.put(MESSAGE_COUNT, count);
-    contentValues.put(SNIPPET, body);
+    contentValues.put(SNIPPET, getFormattedBodyFor(record));
     contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
-    contentValues.put(SNIPPET_TYPE, type);
-    contentValues.put(SNIPPET_CONTENT_TYPE, contentType);
+    contentValues.put(SNIPPET_TYPE, record.getType());
+    contentValues.put(SNIPPET_CONTENT_TYPE, getContentTypeFor(record));
     contentValues.put(SNIPPET_EXTRAS, extraSerialized);
-    contentValues.put(STATUS, status);
-    contentValues.put(DELIVERY_RECEIPT_COUNT, deliveryReceiptCount);
-    contentValues.put(READ_RECEIPT_COUNT, readReceiptCount);
-    contentValues.put(EXPIRES_IN, expiresIn);
+    contentValues.put(SNIPPET_MESSAGE_ID, record.getId());
+    contentValues.put(SNIPPET_MMS, record.isMms() ? 1 : 0);
+    contentValues.put(SNIPPET_DATE_RECEIVED, record.getDateReceived());
+    contentValues.put(STATUS, record.getDeliveryStatus());
+    contentValues.put(DELIVERY_RECEIPT_COUNT, record.getDeliveryReceiptCount());
+    contentValues.put(READ_RECEIPT_COUNT, record.getReadReceiptCount());
+    contentValues.put(EXPIRES_IN, record.getExpiresIn());
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
@@ -170,12 +180,13 @@ public class ThreadDatabase extends Database {
   }
 
   public void updateSnippet(long threadId, String snippet, @Nullable Uri attachment, long date, long type, boolean unarchive) {
-    ContentValues contentValues = new ContentValues(4);
+    ContentValues contentValues = new ContentValues(6);
 
     contentValues.put(DATE, date - date % 1000);
     contentValues.put(SNIPPET, snippet);
     contentValues.put(SNIPPET_TYPE, type);
     contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
+    contentValues.put(SNIPPET_MESSAGE_ID, 0);
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
@@ -601,10 +612,7 @@ public class ThreadDatabase extends Database {
       MessageRecord record;
 
       if (reader != null && (record = reader.getNext()) != null) {
-        updateThread(threadId, count, getFormattedBodyFor(record), getAttachmentUriFor(record),
-                     getContentTypeFor(record), getExtrasFor(record),
-                     record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
-                     record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount());
+        updateThread(threadId, count, record, unarchive);
         notifyConversationListListeners();
         return false;
       } else {
@@ -618,6 +626,153 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  /**
+   * Updates a thread for a message that was just added to it, without rescanning the thread. The
+   * message count goes up by one, and the message only replaces the snippet if it's at least as
+   * new as the current one.
+   */
+  public void updateForInsert(long threadId, long messageId, boolean mms, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      SnippetSource source = getSnippetSource(threadId);
+      MessageRecord record = source != null && source.isKnown() ? getMessageRecord(messageId, mms) : null;
+
+      if (record == null) {
+        update(threadId, unarchive);
+      } else if (record.getDateReceived() >= source.dateReceived) {
+        updateThread(threadId, source.count + 1, record, unarchive);
+      } else {
+        updateMessageCount(threadId, source.count + 1, unarchive);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Counts a message that was added to a thread without otherwise touching its summary, like an
+   * identity update. Threads whose snippet source isn't known yet are left for the next full
+   * update, so a thread holding nothing else still stays out of the conversation list.
+   */
+  public void incrementMessageCount(long threadId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " + 1 " +
+               "WHERE " + ID + " = ? AND " + SNIPPET_MESSAGE_ID + " != 0",
+               new Object[] {threadId});
+  }
+
+  public void updateForChange(long threadId, long messageId, boolean mms, boolean unarchive) {
+    List<Long> ids = Collections.singletonList(messageId);
+    updateForChange(threadId, mms ? Collections.<Long>emptyList() : ids, mms ? ids : Collections.<Long>emptyList(), unarchive);
+  }
+
+  /**
+   * Updates a thread after some of its messages were changed in place (status, receipts, body,
+   * expiration). Only the snippet message shows up in the summary, so nothing is reloaded unless
+   * it's one of them.
+   */
+  public void updateForChange(long threadId, @NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      SnippetSource source = getSnippetSource(threadId);
+
+      if (source == null || !source.isKnown()) {
+        update(threadId, unarchive);
+      } else if (source.isIn(smsIds, mmsIds)) {
+        MessageRecord record = getMessageRecord(source.messageId, source.mms);
+
+        if (record != null) updateThread(threadId, source.count, record, unarchive);
+        else                update(threadId, unarchive);
+      } else if (unarchive) {
+        updateMessageCount(threadId, source.count, true);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Updates a thread after some of its messages were deleted. The message count just goes down,
+   * unless the snippet message was one of them or the thread is now empty, in which case the
+   * thread is rescanned (and deleted if there's nothing left).
+   *
+   * @param smsIds The SMS messages that were actually removed from this thread.
+   * @param mmsIds The MMS messages that were actually removed from this thread.
+   * @return True if the thread was deleted.
+   */
+  public boolean updateForDelete(long threadId, @NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      SnippetSource source        = getSnippetSource(threadId);
+      int           removed       = smsIds.size() + mmsIds.size();
+      boolean       threadDeleted = false;
+
+      if (source == null || !source.isKnown() || source.count - removed <= 0 || source.isIn(smsIds, mmsIds)) {
+        threadDeleted = update(threadId, false);
+      } else if (removed > 0) {
+        updateMessageCount(threadId, source.count - removed, false);
+      }
+
+      db.setTransactionSuccessful();
+      return threadDeleted;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private void updateMessageCount(long threadId, long count, boolean unarchive) {
+    ContentValues contentValues = new ContentValues(2);
+    contentValues.put(MESSAGE_COUNT, count);
+
+    if (unarchive) {
+      contentValues.put(ARCHIVED, 0);
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
+    notifyConversationListListeners();
+  }
+
+  private @Nullable SnippetSource getSnippetSource(long threadId) {
+    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    String[]       columns = new String[] {MESSAGE_COUNT, SNIPPET_MESSAGE_ID, SNIPPET_MMS, SNIPPET_DATE_RECEIVED};
+
+    try (Cursor cursor = db.query(TABLE_NAME, columns, ID_WHERE, new String[] {String.valueOf(threadId)}, null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return new SnippetSource(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2) == 1, cursor.getLong(3));
+      }
+    }
+
+    return null;
+  }
+
+  @VisibleForTesting
+  @Nullable MessageRecord getMessageRecord(long messageId, boolean mms) {
+    if (mms) {
+      MmsDatabase mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+
+      try (MmsDatabase.Reader reader = mmsDatabase.readerFor(mmsDatabase.getMessage(messageId))) {
+        return reader.getNext();
+      }
+    }
+
+    try {
+      return DatabaseFactory.getSmsDatabase(context).getMessage(messageId);
+    } catch (NoSuchMessageException e) {
+      return null;
+    }
+  }
+
   private @NonNull String getFormattedBodyFor(@NonNull MessageRecord messageRecord) {
     if (messageRecord.isMms() && ((MmsMessageRecord) messageRecord).getSharedContacts().size() > 0) {
       Contact contact = ((MmsMessageRecord) messageRecord).getSharedContacts().get(0);
@@ -773,6 +928,32 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  /**
+   * The message count of a thread, and which message its snippet was taken from. A message ID of 0
+   * means the snippet's source isn't known (e.g. a draft, or a thread from before it was tracked).
+   */
+  private static class SnippetSource {
+    private final long    count;
+    private final long    messageId;
+    private final boolean mms;
+    private final long    dateReceived;
+
+    private SnippetSource(long count, long messageId, boolean mms, long dateReceived) {
+      this.count        = count;
+      this.messageId    = messageId;
+      this.mms          = mms;
+      this.dateReceived = dateReceived;
+    }
+
+    boolean isKnown() {
+      return messageId > 0;
+    }
+
+    boolean isIn(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+      return mms ? mmsIds.contains(messageId) : smsIds.contains(messageId);
+    }
+  }
+
   public static final class Extra {
 
     @JsonProperty private final boolean isRevealable;
@@ -78,8 +78,13 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int VIEW_ONCE_ONLY                   = 23;
   private static final int RECIPIENT_IDS                    = 24;
   private static final int RECIPIENT_SEARCH                 = 25;
+  private static final int ATTACHMENT_HASHING               = 26;
+  private static final int UNIFIED_SEARCH_INDEX             = 27;
+  private static final int THREAD_SNIPPET_SOURCE            = 28;
+  private static final int GROUP_MEMBERSHIP                 = 29;
+  private static final int EXPIRATION_INDEX                 = 30;
 
-  private static final int    DATABASE_VERSION = 25;
+  private static final int    DATABASE_VERSION = 30;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -115,6 +120,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(DraftDatabase.CREATE_TABLE);
     db.execSQL(PushDatabase.CREATE_TABLE);
     db.execSQL(GroupDatabase.CREATE_TABLE);
+    db.execSQL(GroupDatabase.CREATE_MEMBERSHIP_TABLE);
     db.execSQL(RecipientDatabase.CREATE_TABLE);
     db.execSQL(GroupReceiptDatabase.CREATE_TABLE);
     db.execSQL(OneTimePreKeyDatabase.CREATE_TABLE);
@@ -513,6 +519,85 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         }
       }
 
+      if (oldVersion < ATTACHMENT_HASHING) {
+        db.execSQL("ALTER TABLE part ADD COLUMN data_hash TEXT DEFAULT NULL");
+        db.execSQL("CREATE INDEX IF NOT EXISTS part_data_hash_index ON part (data_hash)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS part_data_index ON part (_data)");
+      }
+
+      if (oldVersion < UNIFIED_SEARCH_INDEX) {
+        db.execSQL("DROP TRIGGER IF EXISTS sms_ai");
+        db.execSQL("DROP TRIGGER IF EXISTS sms_au");
+        db.execSQL("DROP TRIGGER IF EXISTS sms_ad");
+        db.execSQL("DROP TRIGGER IF EXISTS mms_ai");
+        db.execSQL("DROP TRIGGER IF EXISTS mms_au");
+        db.execSQL("DROP TRIGGER IF EXISTS mms_ad");
+        db.execSQL("DROP TABLE IF EXISTS sms_fts");
+        db.execSQL("DROP TABLE IF EXISTS mms_fts");
+
+        db.execSQL("CREATE VIRTUAL TABLE message_fts USING fts5(body, thread_id UNINDEXED, date_received UNINDEXED)");
+        db.execSQL("CREATE TABLE message_index_queue (sort_id INTEGER PRIMARY KEY)");
+
+        db.execSQL("CREATE TRIGGER sms_ai AFTER INSERT ON sms BEGIN\n" +
+                   "  INSERT OR IGNORE INTO message_index_queue (sort_id) VALUES (new._id * 2);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER sms_ad AFTER DELETE ON sms BEGIN\n" +
+                   "  DELETE FROM message_fts WHERE rowid = old._id * 2;\n" +
+                   "  DELETE FROM message_index_queue WHERE sort_id = old._id * 2;\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER sms_au AFTER UPDATE OF body, thread_id, date ON sms BEGIN\n" +
+                   "  INSERT OR IGNORE INTO message_index_queue (sort_id) VALUES (new._id * 2);\n" +
+                   "END;");
+
+        db.execSQL("CREATE TRIGGER mms_ai AFTER INSERT ON mms BEGIN\n" +
+                   "  INSERT OR IGNORE INTO message_index_queue (sort_id) VALUES (new._id * 2 + 1);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER mms_ad AFTER DELETE ON mms BEGIN\n" +
+                   "  DELETE FROM message_fts WHERE rowid = old._id * 2 + 1;\n" +
+                   "  DELETE FROM message_index_queue WHERE sort_id = old._id * 2 + 1;\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER mms_au AFTER UPDATE OF body, thread_id, date_received ON mms BEGIN\n" +
+                   "  INSERT OR IGNORE INTO message_index_queue (sort_id) VALUES (new._id * 2 + 1);\n" +
+                   "END;");
+
+        db.execSQL("INSERT INTO message_index_queue (sort_id) SELECT _id * 2 FROM sms");
+        db.execSQL("INSERT INTO message_index_queue (sort_id) SELECT _id * 2 + 1 FROM mms");
+
+        Log.i(TAG, "Queued all messages for the unified search index.");
+      }
+
+      if (oldVersion < THREAD_SNIPPET_SOURCE) {
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_message_id INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_mms INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_date_received INTEGER DEFAULT 0");
+      }
+
+      if (oldVersion < GROUP_MEMBERSHIP) {
+        db.execSQL("CREATE TABLE group_membership (_id INTEGER PRIMARY KEY, group_id TEXT NOT NULL, recipient_id INTEGER NOT NULL, UNIQUE(group_id, recipient_id) ON CONFLICT IGNORE)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS group_membership_recipient_id_index ON group_membership (recipient_id)");
+
+        try (Cursor cursor = db.query("groups", new String[] { "group_id", "members" }, null, null, null, null, null)) {
+          while (cursor != null && cursor.moveToNext()) {
+            String groupId = cursor.getString(0);
+            String members = cursor.getString(1);
+
+            if (TextUtils.isEmpty(members)) continue;
+
+            for (String member : DelimiterUtil.split(members, ',')) {
+              ContentValues values = new ContentValues(2);
+              values.put("group_id", groupId);
+              values.put("recipient_id", Long.parseLong(member));
+              db.insert("group_membership", null, values);
+            }
+          }
+        }
+      }
+
+      if (oldVersion < EXPIRATION_INDEX) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS sms_expires_at_index ON sms (expire_started + expires_in) WHERE expire_started > 0");
+        db.execSQL("CREATE INDEX IF NOT EXISTS mms_expires_at_index ON mms (expire_started + expires_in) WHERE expire_started > 0");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -5,6 +5,8 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.database.MergeCursor;
 
+import androidx.annotation.Nullable;
+
 import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
@@ -14,6 +16,7 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.AbstractCursorLoader;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -37,7 +40,7 @@ public class ConversationListLoader extends AbstractCursorLoader {
 
   private Cursor getUnarchivedConversationList() {
     List<Cursor> cursorList = new LinkedList<>();
-    cursorList.add(DatabaseFactory.getThreadDatabase(context).getConversationList());
+    cursorList.add(resolveRecipients(DatabaseFactory.getThreadDatabase(context).getConversationList()));
 
     int archivedCount = DatabaseFactory.getThreadDatabase(context)
                                        .getArchivedConversationListCount();
@@ -69,7 +72,7 @@ public class ConversationListLoader extends AbstractCursorLoader {
   }
 
   private Cursor getArchivedConversationList() {
-    return DatabaseFactory.getThreadDatabase(context).getArchivedConversationList();
+    return resolveRecipients(DatabaseFactory.getThreadDatabase(context).getArchivedConversationList());
   }
 
   private Cursor getFilteredConversationList(String filter) {
@@ -80,6 +83,25 @@ public class ConversationListLoader extends AbstractCursorLoader {
       recipientIds.add(Recipient.external(context, number).getId());
     }
 
-    return DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(recipientIds);
+    return resolveRecipients(DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(recipientIds));
+  }
+
+  /**
+   * Resolves the recipients of every thread in one go, rather than one background lookup per row as
+   * the list binds.
+   */
+  private @Nullable Cursor resolveRecipients(@Nullable Cursor cursor) {
+    if (cursor == null) return null;
+
+    List<RecipientId> recipientIds = new ArrayList<>(cursor.getCount());
+
+    while (cursor.moveToNext()) {
+      recipientIds.add(RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.RECIPIENT_ID))));
+    }
+
+    cursor.moveToPosition(-1);
+    Recipient.resolvedList(recipientIds);
+
+    return cursor;
   }
 }
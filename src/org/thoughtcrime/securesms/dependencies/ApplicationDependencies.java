@@ -5,6 +5,8 @@ import android.app.Application;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.IncomingMessageProcessor;
+import org.thoughtcrime.securesms.contacts.pal.PalNameResolver;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.gcm.MessageRetriever;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
@@ -33,6 +35,8 @@ public class ApplicationDependencies {
   private static IncomingMessageProcessor     incomingMessageProcessor;
   private static MessageRetriever             messageRetriever;
   private static LiveRecipientCache           recipientCache;
+  private static ReceiptAggregator            receiptAggregator;
+  private static PalNameResolver              palNameResolver;
 
   public static synchronized void init(@NonNull Application application, @NonNull Provider provider) {
     if (ApplicationDependencies.application != null || ApplicationDependencies.provider != null) {
@@ -116,6 +120,26 @@ public class ApplicationDependencies {
     return recipientCache;
   }
 
+  public static synchronized @NonNull ReceiptAggregator getReceiptAggregator() {
+    assertInitialization();
+
+    if (receiptAggregator == null) {
+      receiptAggregator = provider.provideReceiptAggregator();
+    }
+
+    return receiptAggregator;
+  }
+
+  public static synchronized @NonNull PalNameResolver getPalNameResolver() {
+    assertInitialization();
+
+    if (palNameResolver == null) {
+      palNameResolver = provider.providePalNameResolver();
+    }
+
+    return palNameResolver;
+  }
+
   private static void assertInitialization() {
     if (application == null || provider == null) {
       throw new UninitializedException();
@@ -131,6 +155,8 @@ public class ApplicationDependencies {
     @NonNull MessageRetriever provideMessageRetriever();
     @NonNull
     LiveRecipientCache provideRecipientCache();
+    @NonNull ReceiptAggregator provideReceiptAggregator();
+    @NonNull PalNameResolver providePalNameResolver();
   }
 
   private static class UninitializedException extends IllegalStateException {
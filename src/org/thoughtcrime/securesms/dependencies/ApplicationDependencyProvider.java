@@ -7,7 +7,9 @@ import androidx.annotation.NonNull;
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.BuildConfig;
 import org.thoughtcrime.securesms.IncomingMessageProcessor;
+import org.thoughtcrime.securesms.contacts.pal.PalNameResolver;
 import org.thoughtcrime.securesms.crypto.storage.SignalProtocolStoreImpl;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.events.ReminderUpdateEvent;
 import org.thoughtcrime.securesms.gcm.MessageRetriever;
 import org.thoughtcrime.securesms.logging.Log;
@@ -33,6 +35,9 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
 
   private static final String TAG = Log.tag(ApplicationDependencyProvider.class);
 
+  private static final long RECEIPT_WINDOW_MS    = 250;
+  private static final int  MAX_PENDING_RECEIPTS = 500;
+
   private final Context                    context;
   private final SignalServiceNetworkAccess networkAccess;
 
@@ -92,6 +97,16 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
     return new LiveRecipientCache(context);
   }
 
+  @Override
+  public @NonNull ReceiptAggregator provideReceiptAggregator() {
+    return new ReceiptAggregator(context, RECEIPT_WINDOW_MS, MAX_PENDING_RECEIPTS);
+  }
+
+  @Override
+  public @NonNull PalNameResolver providePalNameResolver() {
+    return new PalNameResolver(context);
+  }
+
   private static class DynamicCredentialsProvider implements CredentialsProvider {
 
     private final Context context;
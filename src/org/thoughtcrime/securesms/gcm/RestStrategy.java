@@ -25,8 +25,9 @@ public class RestStrategy implements MessageRetriever.Strategy {
   public boolean run() {
     long startTime = System.currentTimeMillis();
 
-    try (IncomingMessageProcessor.Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-      SignalServiceMessageReceiver receiver = ApplicationDependencies.getSignalServiceMessageReceiver();
+    try {
+      IncomingMessageProcessor     processor = ApplicationDependencies.getIncomingMessageProcessor();
+      SignalServiceMessageReceiver receiver  = ApplicationDependencies.getSignalServiceMessageReceiver();
       receiver.setSoTimeoutMillis(SOCKET_TIMEOUT);
 
       receiver.retrieveMessages(envelope -> {
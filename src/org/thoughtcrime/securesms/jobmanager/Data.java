@@ -5,6 +5,7 @@ import androidx.annotation.Nullable;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -202,6 +203,59 @@ public class Data {
   }
 
 
+  /*
+   * Read-only views of the underlying maps, intended for {@link Serializer} implementations. The
+   * names line up with the serialized properties, so Jackson treats them as the same fields.
+   */
+
+  public @NonNull Map<String, String> getStrings() {
+    return Collections.unmodifiableMap(strings);
+  }
+
+  public @NonNull Map<String, String[]> getStringArrays() {
+    return Collections.unmodifiableMap(stringArrays);
+  }
+
+  public @NonNull Map<String, Integer> getIntegers() {
+    return Collections.unmodifiableMap(integers);
+  }
+
+  public @NonNull Map<String, int[]> getIntegerArrays() {
+    return Collections.unmodifiableMap(integerArrays);
+  }
+
+  public @NonNull Map<String, Long> getLongs() {
+    return Collections.unmodifiableMap(longs);
+  }
+
+  public @NonNull Map<String, long[]> getLongArrays() {
+    return Collections.unmodifiableMap(longArrays);
+  }
+
+  public @NonNull Map<String, Float> getFloats() {
+    return Collections.unmodifiableMap(floats);
+  }
+
+  public @NonNull Map<String, float[]> getFloatArrays() {
+    return Collections.unmodifiableMap(floatArrays);
+  }
+
+  public @NonNull Map<String, Double> getDoubles() {
+    return Collections.unmodifiableMap(doubles);
+  }
+
+  public @NonNull Map<String, double[]> getDoubleArrays() {
+    return Collections.unmodifiableMap(doubleArrays);
+  }
+
+  public @NonNull Map<String, Boolean> getBooleans() {
+    return Collections.unmodifiableMap(booleans);
+  }
+
+  public @NonNull Map<String, boolean[]> getBooleanArrays() {
+    return Collections.unmodifiableMap(booleanArrays);
+  }
+
   private void throwIfAbsent(@NonNull Map map, @NonNull String key) {
     if (!map.containsKey(key)) {
       throw new IllegalStateException("Tried to retrieve a value with key '" + key + "', but it wasn't present.");
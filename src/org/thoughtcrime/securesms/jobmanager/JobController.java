@@ -17,15 +17,24 @@ import org.thoughtcrime.securesms.util.Debouncer;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Manages the queue of jobs. This is the only class that should write to {@link JobStorage} to
  * ensure consistency.
+ *
+ * Runners waiting for work don't wait on this object's monitor. Instead they park themselves on a
+ * lock-free stack of idle runners, and every state change unparks a single one of them. A runner
+ * that successfully claims a job passes the wakeup along to the next idle runner, so a burst of
+ * new jobs fans out across runners without waking every thread on every change.
  */
 class JobController {
 
@@ -40,6 +49,7 @@ class JobController {
   private final Debouncer              debouncer;
   private final Callback               callback;
   private final Set<String>            runningJobs;
+  private final Deque<Thread>          idleRunners;
 
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
@@ -59,16 +69,29 @@ class JobController {
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashSet<>();
+    this.idleRunners            = new ConcurrentLinkedDeque<>();
   }
 
   @WorkerThread
   synchronized void init() {
     jobStorage.updateAllJobsToBePending();
-    notifyAll();
+    wakeUp();
   }
 
-  synchronized void wakeUp() {
-    notifyAll();
+  /**
+   * Wakes a single idle runner so that it can take another pass at the queue. If every runner is
+   * busy and there's a job that could run right now, {@link Callback#onAllRunnersBusy()} is called
+   * instead. Jobs that are only waiting on a constraint or a backoff don't count, since an extra
+   * runner couldn't take them either.
+   */
+  void wakeUp() {
+    Thread idleRunner = idleRunners.pollFirst();
+
+    if (idleRunner != null) {
+      LockSupport.unpark(idleRunner);
+    } else if (hasEligibleJob()) {
+      callback.onAllRunnersBusy();
+    }
   }
 
   @WorkerThread
@@ -89,7 +112,7 @@ class JobController {
     insertJobChain(chain);
     scheduleJobs(chain.get(0));
     triggerOnSubmit(chain);
-    notifyAll();
+    wakeUp();
   }
 
   @WorkerThread
@@ -110,7 +133,7 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + delay + " ms."));
     scheduler.schedule(delay, constraints);
 
-    notifyAll();
+    wakeUp();
   }
 
   synchronized void onJobFinished(@NonNull Job job) {
@@ -120,7 +143,7 @@ class JobController {
   @WorkerThread
   synchronized void onSuccess(@NonNull Job job) {
     jobStorage.deleteJob(job.getId());
-    notifyAll();
+    wakeUp();
   }
 
   /**
@@ -152,30 +175,85 @@ class JobController {
    *  - Has no dependencies
    *  - Has no unmet constraints
    *
-   * This method will block until a job is available.
+   * This method will block until a job is available, or until {@code idleTimeoutMs} has passed
+   * without one becoming available, in which case it returns null. A timeout of zero or less waits
+   * indefinitely.
+   *
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution() {
-    try {
-      Job job;
+  @Nullable Job pullNextEligibleJobForExecution(long idleTimeoutMs) {
+    Thread runner   = Thread.currentThread();
+    long   deadline = idleTimeoutMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs) : 0;
+    Job    job      = null;
+
+    while (job == null) {
+      idleRunners.addFirst(runner);
+
+      job = claimNextEligibleJob();
+
+      if (job != null) {
+        idleRunners.remove(runner);
+        break;
+      }
+
+      if (deadline == 0) {
+        LockSupport.park(this);
+      } else {
+        LockSupport.parkNanos(this, Math.max(0, deadline - System.nanoTime()));
+      }
+
+      idleRunners.remove(runner);
 
-      while ((job = getNextEligibleJobForExecution()) == null) {
-        if (runningJobs.isEmpty()) {
-          debouncer.publish(callback::onEmpty);
+      if (Thread.interrupted()) {
+        Log.e(TAG, "Interrupted.");
+        throw new AssertionError(new InterruptedException());
+      }
+
+      if (deadline != 0 && System.nanoTime() >= deadline) {
+        job = claimNextEligibleJob();
+
+        if (job == null) {
+          return null;
         }
+      }
+    }
+
+    if (hasEligibleJob()) {
+      wakeUp();
+    }
+
+    return job;
+  }
 
-        wait();
+  private synchronized @Nullable Job claimNextEligibleJob() {
+    Job job = getNextEligibleJobForExecution();
+
+    if (job == null) {
+      if (runningJobs.isEmpty()) {
+        debouncer.publish(callback::onEmpty);
       }
+      return null;
+    }
 
-      jobStorage.updateJobRunningState(job.getId(), true);
-      runningJobs.add(job.getId());
+    jobStorage.updateJobRunningState(job.getId(), true);
+    runningJobs.add(job.getId());
 
-      return job;
-    } catch (InterruptedException e) {
-      Log.e(TAG, "Interrupted.");
-      throw new AssertionError(e);
+    return job;
+  }
+
+  private synchronized boolean hasEligibleJob() {
+    return jobStorage.hasPendingJobWithNoDependencies(System.currentTimeMillis(), this::areConstraintsMet);
+  }
+
+  private boolean areConstraintsMet(@NonNull JobSpec jobSpec) {
+    for (ConstraintSpec constraintSpec : jobStorage.getConstraintSpecs(jobSpec.getId())) {
+      if (!constraintInstantiator.instantiate(constraintSpec.getFactoryKey()).isMet()) {
+        return false;
+      }
     }
+
+    return true;
   }
 
   /**
@@ -347,5 +425,10 @@ class JobController {
 
   interface Callback {
     void onEmpty();
+
+    /**
+     * Called when there is a job that could run right now but no idle runner to pick it up.
+     */
+    void onAllRunnersBusy();
   }
 }
@@ -33,7 +33,7 @@ public class JobManager implements ConstraintObserver.Notifier {
 
   private static final String TAG = JobManager.class.getSimpleName();
 
-  public static final int CURRENT_VERSION = 3;
+  public static final int CURRENT_VERSION = 4;
 
   private final Application     application;
   private final Configuration   configuration;
@@ -42,6 +42,8 @@ public class JobManager implements ConstraintObserver.Notifier {
 
   private final Set<EmptyQueueListener> emptyQueueListeners = new CopyOnWriteArraySet<>();
 
+  private volatile JobRunnerPool runnerPool;
+
   public JobManager(@NonNull Application application, @NonNull Configuration configuration) {
     this.application   = application;
     this.configuration = configuration;
@@ -54,7 +56,20 @@ public class JobManager implements ConstraintObserver.Notifier {
                                            Build.VERSION.SDK_INT < 26 ? new AlarmManagerScheduler(application)
                                                                       : new CompositeScheduler(new InAppScheduler(this), new JobSchedulerScheduler(application)),
                                            new Debouncer(500),
-                                           this::onEmptyQueue);
+                                           new JobController.Callback() {
+                                             @Override
+                                             public void onEmpty() {
+                                               onEmptyQueue();
+                                             }
+
+                                             @Override
+                                             public void onAllRunnersBusy() {
+                                               JobRunnerPool pool = runnerPool;
+                                               if (pool != null) {
+                                                 pool.grow();
+                                               }
+                                             }
+                                           });
 
     executor.execute(() -> {
       if (WorkManagerMigrator.needsMigration(application)) {
@@ -85,9 +100,8 @@ public class JobManager implements ConstraintObserver.Notifier {
    */
   public void beginJobLoop() {
     executor.execute(() -> {
-      for (int i = 0; i < configuration.getJobThreadCount(); i++) {
-        new JobRunner(application, i + 1, jobController).start();
-      }
+      runnerPool = new JobRunnerPool(application, jobController, configuration.getJobThreadCount(), configuration.getMaxJobThreadCount());
+      runnerPool.start();
       wakeUp();
     });
   }
@@ -219,6 +233,7 @@ public class JobManager implements ConstraintObserver.Notifier {
 
     private final ExecutorFactory          executorFactory;
     private final int                      jobThreadCount;
+    private final int                      maxJobThreadCount;
     private final JobInstantiator          jobInstantiator;
     private final ConstraintInstantiator   constraintInstantiator;
     private final List<ConstraintObserver> constraintObservers;
@@ -227,6 +242,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     private final JobMigrator              jobMigrator;
 
     private Configuration(int jobThreadCount,
+                          int maxJobThreadCount,
                           @NonNull ExecutorFactory executorFactory,
                           @NonNull JobInstantiator jobInstantiator,
                           @NonNull ConstraintInstantiator constraintInstantiator,
@@ -237,6 +253,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     {
       this.executorFactory        = executorFactory;
       this.jobThreadCount         = jobThreadCount;
+      this.maxJobThreadCount      = maxJobThreadCount;
       this.jobInstantiator        = jobInstantiator;
       this.constraintInstantiator = constraintInstantiator;
       this.constraintObservers    = constraintObservers;
@@ -249,6 +266,10 @@ public class JobManager implements ConstraintObserver.Notifier {
       return jobThreadCount;
     }
 
+    int getMaxJobThreadCount() {
+      return maxJobThreadCount;
+    }
+
     @NonNull ExecutorFactory getExecutorFactory() {
       return executorFactory;
     }
@@ -282,6 +303,7 @@ public class JobManager implements ConstraintObserver.Notifier {
 
       private ExecutorFactory                 executorFactory     = new DefaultExecutorFactory();
       private int                             jobThreadCount      = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+      private int                             maxJobThreadCount   = Math.max(jobThreadCount, Runtime.getRuntime().availableProcessors());
       private Map<String, Job.Factory>        jobFactories        = new HashMap<>();
       private Map<String, Constraint.Factory> constraintFactories = new HashMap<>();
       private List<ConstraintObserver>        constraintObservers = new ArrayList<>();
@@ -294,6 +316,15 @@ public class JobManager implements ConstraintObserver.Notifier {
         return this;
       }
 
+      /**
+       * Sets the upper bound on runners. Runners beyond {@link #setJobThreadCount(int)} are only
+       * started while every runner is busy, and exit again once they've been idle for a while.
+       */
+      public @NonNull Builder setMaxJobThreadCount(int maxJobThreadCount) {
+        this.maxJobThreadCount = maxJobThreadCount;
+        return this;
+      }
+
       public @NonNull Builder setExecutorFactory(@NonNull ExecutorFactory executorFactory) {
         this.executorFactory = executorFactory;
         return this;
@@ -331,6 +362,7 @@ public class JobManager implements ConstraintObserver.Notifier {
 
       public @NonNull Configuration build() {
         return new Configuration(jobThreadCount,
+                                 Math.max(jobThreadCount, maxJobThreadCount),
                                  executorFactory,
                                  new JobInstantiator(jobFactories),
                                  new ConstraintInstantiator(constraintFactories),
@@ -29,20 +29,31 @@ class JobRunner extends Thread {
   private final Application   application;
   private final int           id;
   private final JobController jobController;
+  private final JobRunnerPool pool;
 
-  JobRunner(@NonNull Application application, int id, @NonNull JobController jobController) {
+  JobRunner(@NonNull Application application, int id, @NonNull JobController jobController, @NonNull JobRunnerPool pool) {
     super("signal-JobRunner-" + id);
 
     this.application   = application;
     this.id            = id;
     this.jobController = jobController;
+    this.pool          = pool;
   }
 
   @Override
   public synchronized void run() {
     //noinspection InfiniteLoopStatement
     while (true) {
-      Job        job    = jobController.pullNextEligibleJobForExecution();
+      Job job = jobController.pullNextEligibleJobForExecution(JobRunnerPool.IDLE_TIMEOUT);
+
+      if (job == null) {
+        if (pool.tryRetire()) {
+          Log.i(TAG, "Runner " + id + " retiring after being idle.");
+          return;
+        }
+        continue;
+      }
+
       Job.Result result = run(job);
 
       jobController.onJobFinished(job);
@@ -0,0 +1,90 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the set of {@link JobRunner}s operating over a {@link JobController}. A fixed number of
+ * core runners live forever. When there's work and every runner is busy, extra runners are started
+ * up to a maximum, and they retire again after sitting idle for a while.
+ */
+class JobRunnerPool {
+
+  private static final String TAG = JobRunnerPool.class.getSimpleName();
+
+  static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+  private final Application   application;
+  private final JobController jobController;
+  private final int           coreRunnerCount;
+  private final int           maxRunnerCount;
+  private final AtomicInteger runnerCount;
+  private final AtomicInteger nextRunnerId;
+
+  JobRunnerPool(@NonNull Application application, @NonNull JobController jobController, int coreRunnerCount, int maxRunnerCount) {
+    this.application     = application;
+    this.jobController   = jobController;
+    this.coreRunnerCount = coreRunnerCount;
+    this.maxRunnerCount  = Math.max(coreRunnerCount, maxRunnerCount);
+    this.runnerCount     = new AtomicInteger();
+    this.nextRunnerId    = new AtomicInteger();
+  }
+
+  void start() {
+    for (int i = 0; i < coreRunnerCount; i++) {
+      runnerCount.incrementAndGet();
+      startRunner();
+    }
+  }
+
+  /**
+   * Starts an additional runner if we're below the maximum.
+   */
+  void grow() {
+    int count;
+
+    do {
+      count = runnerCount.get();
+
+      if (count >= maxRunnerCount) {
+        return;
+      }
+    } while (!runnerCount.compareAndSet(count, count + 1));
+
+    Log.i(TAG, "All runners busy. Growing to " + (count + 1) + " runners.");
+    startRunner();
+  }
+
+  /**
+   * Called by a runner that has been idle for {@link #IDLE_TIMEOUT}.
+   *
+   * @return True if the runner should exit, otherwise false.
+   */
+  boolean tryRetire() {
+    int count;
+
+    do {
+      count = runnerCount.get();
+
+      if (count <= coreRunnerCount) {
+        return false;
+      }
+    } while (!runnerCount.compareAndSet(count, count - 1));
+
+    Log.i(TAG, "Shrinking to " + (count - 1) + " runners.");
+    return true;
+  }
+
+  int getRunnerCount() {
+    return runnerCount.get();
+  }
+
+  private void startRunner() {
+    new JobRunner(application, nextRunnerId.incrementAndGet(), jobController, this).start();
+  }
+}
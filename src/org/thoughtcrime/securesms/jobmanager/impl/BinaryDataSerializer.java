@@ -0,0 +1,516 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.util.Base64;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serializes {@link Data} into a compact tagged binary format, Base64-encoded so that it can live in
+ * the existing text column.
+ *
+ * Layout: a version byte, a bitmask of which of the twelve typed maps are non-empty, and then for
+ * each non-empty map its entry count followed by its entries. Keys and strings are length-prefixed
+ * UTF-8, integral values are zigzag varints, and floating point values are fixed width. Empty maps
+ * take no space and are decoded to a shared empty map.
+ *
+ * Serialized JSON from {@link JsonDataSerializer} is still understood, so rows written before the
+ * switch keep working until they're rewritten.
+ */
+public class BinaryDataSerializer implements Data.Serializer {
+
+  private static final String TAG = Log.tag(BinaryDataSerializer.class);
+
+  private static final Charset UTF_8   = Charset.forName("UTF-8");
+  private static final int     VERSION = 1;
+
+  private static final int STRINGS        = 0;
+  private static final int STRING_ARRAYS  = 1;
+  private static final int INTEGERS       = 2;
+  private static final int INTEGER_ARRAYS = 3;
+  private static final int LONGS          = 4;
+  private static final int LONG_ARRAYS    = 5;
+  private static final int FLOATS         = 6;
+  private static final int FLOAT_ARRAYS   = 7;
+  private static final int DOUBLES        = 8;
+  private static final int DOUBLE_ARRAYS  = 9;
+  private static final int BOOLEANS       = 10;
+  private static final int BOOLEAN_ARRAYS = 11;
+
+  private final JsonDataSerializer legacySerializer = new JsonDataSerializer();
+
+  @Override
+  public @NonNull String serialize(@NonNull Data data) {
+    return Base64.encodeBytesWithoutPadding(serializeToBytes(data));
+  }
+
+  @Override
+  public @NonNull Data deserialize(@NonNull String serialized) {
+    if (isLegacyJson(serialized)) {
+      return legacySerializer.deserialize(serialized);
+    }
+
+    try {
+      return deserializeFromBytes(Base64.decodeWithoutPadding(serialized));
+    } catch (IOException | IndexOutOfBoundsException e) {
+      Log.e(TAG, "Failed to deserialize binary data.", e);
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * JSON always starts with an opening brace, which is not part of the Base64 alphabet.
+   */
+  static boolean isLegacyJson(@NonNull String serialized) {
+    return serialized.length() > 0 && serialized.charAt(0) == '{';
+  }
+
+  @NonNull byte[] serializeToBytes(@NonNull Data data) {
+    Writer writer = new Writer();
+    int    mask   = 0;
+
+    if (!data.getStrings().isEmpty())       mask |= 1 << STRINGS;
+    if (!data.getStringArrays().isEmpty())  mask |= 1 << STRING_ARRAYS;
+    if (!data.getIntegers().isEmpty())      mask |= 1 << INTEGERS;
+    if (!data.getIntegerArrays().isEmpty()) mask |= 1 << INTEGER_ARRAYS;
+    if (!data.getLongs().isEmpty())         mask |= 1 << LONGS;
+    if (!data.getLongArrays().isEmpty())    mask |= 1 << LONG_ARRAYS;
+    if (!data.getFloats().isEmpty())        mask |= 1 << FLOATS;
+    if (!data.getFloatArrays().isEmpty())   mask |= 1 << FLOAT_ARRAYS;
+    if (!data.getDoubles().isEmpty())       mask |= 1 << DOUBLES;
+    if (!data.getDoubleArrays().isEmpty())  mask |= 1 << DOUBLE_ARRAYS;
+    if (!data.getBooleans().isEmpty())      mask |= 1 << BOOLEANS;
+    if (!data.getBooleanArrays().isEmpty()) mask |= 1 << BOOLEAN_ARRAYS;
+
+    writer.writeByte(VERSION);
+    writer.writeVarint(mask);
+
+    if ((mask & (1 << STRINGS)) != 0) {
+      writer.writeVarint(data.getStrings().size());
+      for (Map.Entry<String, String> entry : data.getStrings().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeString(entry.getValue());
+      }
+    }
+
+    if ((mask & (1 << STRING_ARRAYS)) != 0) {
+      writer.writeVarint(data.getStringArrays().size());
+      for (Map.Entry<String, String[]> entry : data.getStringArrays().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeVarint(entry.getValue().length);
+        for (String value : entry.getValue()) {
+          writer.writeString(value);
+        }
+      }
+    }
+
+    if ((mask & (1 << INTEGERS)) != 0) {
+      writer.writeVarint(data.getIntegers().size());
+      for (Map.Entry<String, Integer> entry : data.getIntegers().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeSignedVarint(entry.getValue());
+      }
+    }
+
+    if ((mask & (1 << INTEGER_ARRAYS)) != 0) {
+      writer.writeVarint(data.getIntegerArrays().size());
+      for (Map.Entry<String, int[]> entry : data.getIntegerArrays().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeVarint(entry.getValue().length);
+        for (int value : entry.getValue()) {
+          writer.writeSignedVarint(value);
+        }
+      }
+    }
+
+    if ((mask & (1 << LONGS)) != 0) {
+      writer.writeVarint(data.getLongs().size());
+      for (Map.Entry<String, Long> entry : data.getLongs().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeSignedVarint(entry.getValue());
+      }
+    }
+
+    if ((mask & (1 << LONG_ARRAYS)) != 0) {
+      writer.writeVarint(data.getLongArrays().size());
+      for (Map.Entry<String, long[]> entry : data.getLongArrays().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeVarint(entry.getValue().length);
+        for (long value : entry.getValue()) {
+          writer.writeSignedVarint(value);
+        }
+      }
+    }
+
+    if ((mask & (1 << FLOATS)) != 0) {
+      writer.writeVarint(data.getFloats().size());
+      for (Map.Entry<String, Float> entry : data.getFloats().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeFixed32(Float.floatToIntBits(entry.getValue()));
+      }
+    }
+
+    if ((mask & (1 << FLOAT_ARRAYS)) != 0) {
+      writer.writeVarint(data.getFloatArrays().size());
+      for (Map.Entry<String, float[]> entry : data.getFloatArrays().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeVarint(entry.getValue().length);
+        for (float value : entry.getValue()) {
+          writer.writeFixed32(Float.floatToIntBits(value));
+        }
+      }
+    }
+
+    if ((mask & (1 << DOUBLES)) != 0) {
+      writer.writeVarint(data.getDoubles().size());
+      for (Map.Entry<String, Double> entry : data.getDoubles().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeFixed64(Double.doubleToLongBits(entry.getValue()));
+      }
+    }
+
+    if ((mask & (1 << DOUBLE_ARRAYS)) != 0) {
+      writer.writeVarint(data.getDoubleArrays().size());
+      for (Map.Entry<String, double[]> entry : data.getDoubleArrays().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeVarint(entry.getValue().length);
+        for (double value : entry.getValue()) {
+          writer.writeFixed64(Double.doubleToLongBits(value));
+        }
+      }
+    }
+
+    if ((mask & (1 << BOOLEANS)) != 0) {
+      writer.writeVarint(data.getBooleans().size());
+      for (Map.Entry<String, Boolean> entry : data.getBooleans().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeByte(entry.getValue() ? 1 : 0);
+      }
+    }
+
+    if ((mask & (1 << BOOLEAN_ARRAYS)) != 0) {
+      writer.writeVarint(data.getBooleanArrays().size());
+      for (Map.Entry<String, boolean[]> entry : data.getBooleanArrays().entrySet()) {
+        writer.writeString(entry.getKey());
+        writer.writeVarint(entry.getValue().length);
+        for (boolean value : entry.getValue()) {
+          writer.writeByte(value ? 1 : 0);
+        }
+      }
+    }
+
+    return writer.toByteArray();
+  }
+
+  @NonNull Data deserializeFromBytes(@NonNull byte[] bytes) throws IOException {
+    Reader reader  = new Reader(bytes);
+    int    version = reader.readByte();
+
+    if (version != VERSION) {
+      throw new IOException("Unknown version: " + version);
+    }
+
+    int mask = (int) reader.readVarint();
+
+    Map<String, String>    strings       = Collections.emptyMap();
+    Map<String, String[]>  stringArrays  = Collections.emptyMap();
+    Map<String, Integer>   integers      = Collections.emptyMap();
+    Map<String, int[]>     integerArrays = Collections.emptyMap();
+    Map<String, Long>      longs         = Collections.emptyMap();
+    Map<String, long[]>    longArrays    = Collections.emptyMap();
+    Map<String, Float>     floats        = Collections.emptyMap();
+    Map<String, float[]>   floatArrays   = Collections.emptyMap();
+    Map<String, Double>    doubles       = Collections.emptyMap();
+    Map<String, double[]>  doubleArrays  = Collections.emptyMap();
+    Map<String, Boolean>   booleans      = Collections.emptyMap();
+    Map<String, boolean[]> booleanArrays = Collections.emptyMap();
+
+    if ((mask & (1 << STRINGS)) != 0) {
+      int count = reader.readLength();
+      strings = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        strings.put(reader.readString(), reader.readString());
+      }
+    }
+
+    if ((mask & (1 << STRING_ARRAYS)) != 0) {
+      int count = reader.readLength();
+      stringArrays = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        String   key   = reader.readString();
+        String[] value = new String[reader.readLength()];
+        for (int j = 0; j < value.length; j++) {
+          value[j] = reader.readString();
+        }
+        stringArrays.put(key, value);
+      }
+    }
+
+    if ((mask & (1 << INTEGERS)) != 0) {
+      int count = reader.readLength();
+      integers = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        integers.put(reader.readString(), (int) reader.readSignedVarint());
+      }
+    }
+
+    if ((mask & (1 << INTEGER_ARRAYS)) != 0) {
+      int count = reader.readLength();
+      integerArrays = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        String key   = reader.readString();
+        int[]  value = new int[reader.readLength()];
+        for (int j = 0; j < value.length; j++) {
+          value[j] = (int) reader.readSignedVarint();
+        }
+        integerArrays.put(key, value);
+      }
+    }
+
+    if ((mask & (1 << LONGS)) != 0) {
+      int count = reader.readLength();
+      longs = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        longs.put(reader.readString(), reader.readSignedVarint());
+      }
+    }
+
+    if ((mask & (1 << LONG_ARRAYS)) != 0) {
+      int count = reader.readLength();
+      longArrays = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        String key   = reader.readString();
+        long[] value = new long[reader.readLength()];
+        for (int j = 0; j < value.length; j++) {
+          value[j] = reader.readSignedVarint();
+        }
+        longArrays.put(key, value);
+      }
+    }
+
+    if ((mask & (1 << FLOATS)) != 0) {
+      int count = reader.readLength();
+      floats = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        floats.put(reader.readString(), Float.intBitsToFloat(reader.readFixed32()));
+      }
+    }
+
+    if ((mask & (1 << FLOAT_ARRAYS)) != 0) {
+      int count = reader.readLength();
+      floatArrays = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        String  key   = reader.readString();
+        float[] value = new float[reader.readLength()];
+        for (int j = 0; j < value.length; j++) {
+          value[j] = Float.intBitsToFloat(reader.readFixed32());
+        }
+        floatArrays.put(key, value);
+      }
+    }
+
+    if ((mask & (1 << DOUBLES)) != 0) {
+      int count = reader.readLength();
+      doubles = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        doubles.put(reader.readString(), Double.longBitsToDouble(reader.readFixed64()));
+      }
+    }
+
+    if ((mask & (1 << DOUBLE_ARRAYS)) != 0) {
+      int count = reader.readLength();
+      doubleArrays = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        String   key   = reader.readString();
+        double[] value = new double[reader.readLength()];
+        for (int j = 0; j < value.length; j++) {
+          value[j] = Double.longBitsToDouble(reader.readFixed64());
+        }
+        doubleArrays.put(key, value);
+      }
+    }
+
+    if ((mask & (1 << BOOLEANS)) != 0) {
+      int count = reader.readLength();
+      booleans = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        booleans.put(reader.readString(), reader.readByte() != 0);
+      }
+    }
+
+    if ((mask & (1 << BOOLEAN_ARRAYS)) != 0) {
+      int count = reader.readLength();
+      booleanArrays = new HashMap<>(capacityFor(count));
+      for (int i = 0; i < count; i++) {
+        String    key   = reader.readString();
+        boolean[] value = new boolean[reader.readLength()];
+        for (int j = 0; j < value.length; j++) {
+          value[j] = reader.readByte() != 0;
+        }
+        booleanArrays.put(key, value);
+      }
+    }
+
+    return new Data(strings,
+                    stringArrays,
+                    integers,
+                    integerArrays,
+                    longs,
+                    longArrays,
+                    floats,
+                    floatArrays,
+                    doubles,
+                    doubleArrays,
+                    booleans,
+                    booleanArrays);
+  }
+
+  private static int capacityFor(int count) {
+    return (int) (count / 0.75f) + 1;
+  }
+
+  private static final class Writer {
+
+    private byte[] buffer = new byte[128];
+    private int    position;
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    void writeSignedVarint(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeFixed32(int value) {
+      ensureCapacity(4);
+      buffer[position++] = (byte) (value >>> 24);
+      buffer[position++] = (byte) (value >>> 16);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    void writeFixed64(long value) {
+      writeFixed32((int) (value >>> 32));
+      writeFixed32((int) value);
+    }
+
+    /**
+     * Length is written plus one, so that zero can represent null.
+     */
+    void writeString(@Nullable String value) {
+      if (value == null) {
+        writeVarint(0);
+        return;
+      }
+
+      byte[] bytes = value.getBytes(UTF_8);
+
+      writeVarint(bytes.length + 1);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    @NonNull byte[] toByteArray() {
+      byte[] result = new byte[position];
+      System.arraycopy(buffer, 0, result, 0, position);
+      return result;
+    }
+
+    private void ensureCapacity(int length) {
+      if (position + length > buffer.length) {
+        byte[] expanded = new byte[Math.max(buffer.length * 2, position + length)];
+        System.arraycopy(buffer, 0, expanded, 0, position);
+        buffer = expanded;
+      }
+    }
+  }
+
+  private static final class Reader {
+
+    private final byte[] buffer;
+    private       int    position;
+
+    Reader(@NonNull byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    int readByte() {
+      return buffer[position++] & 0xFF;
+    }
+
+    long readVarint() throws IOException {
+      long result = 0;
+
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        result |= (long) (b & 0x7F) << shift;
+
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+
+      throw new IOException("Malformed varint.");
+    }
+
+    long readSignedVarint() throws IOException {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readLength() throws IOException {
+      long length = readVarint();
+
+      if (length < 0 || length > buffer.length - position) {
+        throw new IOException("Invalid length: " + length);
+      }
+
+      return (int) length;
+    }
+
+    int readFixed32() {
+      return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    long readFixed64() {
+      return ((long) readFixed32() << 32) | (readFixed32() & 0xFFFFFFFFL);
+    }
+
+    @Nullable String readString() throws IOException {
+      long length = readVarint();
+
+      if (length == 0) {
+        return null;
+      }
+
+      if (length - 1 > buffer.length - position) {
+        throw new IOException("Invalid string length: " + length);
+      }
+
+      String value = new String(buffer, position, (int) length - 1, UTF_8);
+      position += (int) length - 1;
+
+      return value;
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package org.thoughtcrime.securesms.jobmanager.migrations;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobmanager.JobMigration;
+import org.thoughtcrime.securesms.jobmanager.impl.BinaryDataSerializer;
+
+/**
+ * Leaves job data untouched. Because {@link org.thoughtcrime.securesms.jobmanager.JobMigrator}
+ * writes every job back through the configured serializer, running this migration rewrites the
+ * JSON stored by older versions in the format of {@link BinaryDataSerializer}.
+ */
+public class BinaryDataJobMigration extends JobMigration {
+
+  public BinaryDataJobMigration() {
+    super(4);
+  }
+
+  @Override
+  protected @NonNull JobData migrate(@NonNull JobData jobData) {
+    return jobData;
+  }
+}
@@ -4,6 +4,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import com.annimon.stream.function.Predicate;
+
 import java.util.List;
 
 public interface JobStorage {
@@ -23,6 +25,13 @@ public interface JobStorage {
   @WorkerThread
   @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime);
 
+  /**
+   * @return True if any job that {@link #getPendingJobsWithNoDependenciesInCreatedOrder(long)}
+   *         would return also passes the filter. Stops at the first match.
+   */
+  @WorkerThread
+  boolean hasPendingJobWithNoDependencies(long currentTime, @NonNull Predicate<JobSpec> filter);
+
   @WorkerThread
   int getJobInstanceCount(@NonNull String factoryKey);
 
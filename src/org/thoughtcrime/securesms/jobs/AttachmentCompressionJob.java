@@ -212,6 +212,8 @@ public final class AttachmentCompressionJob extends BaseJob {
                                                                         new DecryptableStreamUriLoader.DecryptableUri(attachment.getDataUri()),
                                                                         constraints);
 
+      Log.i(TAG, "Resized image to " + scaleResult.getBitmap().length + " bytes in " + scaleResult.getAttempts() + " attempt(s), " + scaleResult.getDurationMs() + " ms.");
+
       return new MediaStream(new ByteArrayInputStream(scaleResult.getBitmap()),
                              MediaUtil.IMAGE_JPEG,
                              scaleResult.getWidth(),
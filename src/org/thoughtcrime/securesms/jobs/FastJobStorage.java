@@ -5,6 +5,7 @@ import androidx.annotation.Nullable;
 
 import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
+import com.annimon.stream.function.Predicate;
 
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -14,32 +15,76 @@ import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
 import org.thoughtcrime.securesms.util.Util;
-import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+
+/**
+ * An in-memory mirror of {@link JobDatabase} that keeps a handful of indexes so that finding the
+ * next runnable job doesn't require scanning and sorting every job we know about.
+ *
+ * - {@link #jobs} maps id to spec, in insertion order.
+ * - {@link #queues} holds the jobs of each queue in created order, so the head of a queue is the
+ *   first entry.
+ * - {@link #dependentsByJobId} is the reverse of {@link #dependenciesByJobId}.
+ * - A job is eligible if it is not running, has no dependencies, and is either unqueued or at the
+ *   head of its queue. Eligible jobs whose next run time hasn't been reached yet are kept in
+ *   {@link #waitingJobs}, ordered by that time. Once it has passed, they are moved to
+ *   {@link #eligibleJobs}, which is in created order. Finding runnable jobs only looks at those,
+ *   plus the waiting jobs that have just become due.
+ *
+ * If a {@link WriteBehindJobJournal} is provided, running state changes, retries and deletions are
+ * handed to it and written in batches. A pending retry is written before the job is started again,
+ * so a crash can't lose an attempt that has already been counted. Inserts always go straight to
+ * the database.
+ */
 public class FastJobStorage implements JobStorage {
 
-  private final JobDatabase jobDatabase;
+  private final JobDatabase          jobDatabase;
+  private final WriteBehindJobJournal journal;
+
+  private final Map<String, JobSpec>                jobs;
+  private final Map<String, Long>                   insertOrderByJobId;
+  private final Map<String, TreeSet<JobSpec>>       queues;
+  private final TreeSet<JobSpec>                    eligibleJobs;
+  private final TreeSet<JobSpec>                    waitingJobs;
+  private final Map<String, List<ConstraintSpec>>   constraintsByJobId;
+  private final Map<String, List<DependencySpec>>   dependenciesByJobId;
+  private final Map<String, List<DependencySpec>>   dependentsByJobId;
+  private final Comparator<JobSpec>                 createdOrder;
 
-  private final List<JobSpec>                     jobs;
-  private final Map<String, List<ConstraintSpec>> constraintsByJobId;
-  private final Map<String, List<DependencySpec>> dependenciesByJobId;
+  private long nextInsertOrder;
 
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
+    this(jobDatabase, null);
+  }
+
+  public FastJobStorage(@NonNull JobDatabase jobDatabase, @Nullable WriteBehindJobJournal journal) {
     this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
+    this.journal             = journal;
+    this.jobs                = new LinkedHashMap<>();
+    this.insertOrderByJobId  = new HashMap<>();
+    this.queues              = new HashMap<>();
     this.constraintsByJobId  = new HashMap<>();
     this.dependenciesByJobId = new HashMap<>();
+    this.dependentsByJobId   = new HashMap<>();
+    this.createdOrder        = (j1, j2) -> {
+      int result = Long.compare(j1.getCreateTime(), j2.getCreateTime());
+      return result != 0 ? result : Long.compare(insertOrderByJobId.get(j1.getId()), insertOrderByJobId.get(j2.getId()));
+    };
+    this.eligibleJobs        = new TreeSet<>(createdOrder);
+    this.waitingJobs         = new TreeSet<>((j1, j2) -> {
+      int result = Long.compare(j1.getNextRunAttemptTime(), j2.getNextRunAttemptTime());
+      return result != 0 ? result : createdOrder.compare(j1, j2);
+    });
   }
 
   @Override
@@ -48,8 +93,6 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
-
     for (ConstraintSpec constraintSpec: constraintSpecs) {
       List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
       jobConstraints.add(constraintSpec);
@@ -57,9 +100,11 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (DependencySpec dependencySpec : dependencySpecs) {
-      List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-      jobDependencies.add(dependencySpec);
-      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependency(dependencySpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      addJob(jobSpec);
     }
   }
 
@@ -68,163 +113,172 @@ public class FastJobStorage implements JobStorage {
     jobDatabase.insertJobs(fullSpecs);
 
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
-      constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+      constraintsByJobId.put(fullSpec.getJobSpec().getId(), new LinkedList<>(fullSpec.getConstraintSpecs()));
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependency(dependencySpec);
+      }
+
+      addJob(fullSpec.getJobSpec());
     }
   }
 
   @Override
   public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
-      }
-    }
-    return null;
+    return jobs.get(id);
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+    return new ArrayList<>(jobs.values());
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder(long currentTime) {
-    Optional<JobSpec> migrationJob = getMigrationJob();
+    TreeSet<JobSpec> migrationQueue = queues.get(Job.Parameters.MIGRATION_QUEUE_KEY);
 
-    if (migrationJob.isPresent() && !migrationJob.get().isRunning() && migrationJob.get().getNextRunAttemptTime() <= currentTime) {
-      return Collections.singletonList(migrationJob.get());
-    } else if (migrationJob.isPresent()) {
-      return Collections.emptyList();
-    } else {
-      return Stream.of(jobs)
-                   .filterNot(JobSpec::isRunning)
-                   .filter(this::firstInQueue)
-                   .filter(j -> !dependenciesByJobId.containsKey(j.getId()) || dependenciesByJobId.get(j.getId()).isEmpty())
-                   .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                   .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                   .toList();
+    if (migrationQueue != null) {
+      JobSpec migrationJob = migrationQueue.first();
+
+      if (!migrationJob.isRunning() && migrationJob.getNextRunAttemptTime() <= currentTime) {
+        return Collections.singletonList(migrationJob);
+      } else {
+        return Collections.emptyList();
+      }
     }
-  }
 
-  private Optional<JobSpec> getMigrationJob() {
-    return Optional.fromNullable(Stream.of(jobs)
-                                       .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                                       .filter(this::firstInQueue)
-                                       .findFirst()
-                                       .orElse(null));
+    promoteWaitingJobs(currentTime);
+
+    List<JobSpec> pending = new LinkedList<>();
+
+    for (JobSpec jobSpec : eligibleJobs) {
+      if (jobSpec.getNextRunAttemptTime() <= currentTime) {
+        pending.add(jobSpec);
+      }
+    }
+
+    return pending;
   }
 
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
+  @Override
+  public synchronized boolean hasPendingJobWithNoDependencies(long currentTime, @NonNull Predicate<JobSpec> filter) {
+    TreeSet<JobSpec> migrationQueue = queues.get(Job.Parameters.MIGRATION_QUEUE_KEY);
+
+    if (migrationQueue != null) {
+      JobSpec migrationJob = migrationQueue.first();
+      return !migrationJob.isRunning() && migrationJob.getNextRunAttemptTime() <= currentTime && filter.test(migrationJob);
+    }
+
+    promoteWaitingJobs(currentTime);
+
+    for (JobSpec jobSpec : eligibleJobs) {
+      if (jobSpec.getNextRunAttemptTime() <= currentTime && filter.test(jobSpec)) {
+        return true;
+      }
     }
 
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+    return false;
   }
 
   @Override
   public synchronized int getJobInstanceCount(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
+    return (int) Stream.of(jobs.values())
                        .filter(j -> j.getFactoryKey().equals(factoryKey))
                        .count();
   }
 
   @Override
   public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
-    jobDatabase.updateJobRunningState(id, isRunning);
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    JobSpec existing     = jobs.get(id);
+    boolean retryPending = isRunning                    &&
+                           journal != null              &&
+                           existing != null             &&
+                           existing.getRunAttempt() > 0 &&
+                           journal.hasPendingUpdate(id);
+
+    if (journal == null) {
+      jobDatabase.updateJobRunningState(id, isRunning);
+    }
+
+    if (existing != null) {
+      replaceJobAndJournal(existing, new JobSpec(existing.getId(),
+                                       existing.getFactoryKey(),
+                                       existing.getQueueKey(),
+                                       existing.getCreateTime(),
+                                       existing.getNextRunAttemptTime(),
+                                       existing.getRunAttempt(),
+                                       existing.getMaxAttempts(),
+                                       existing.getMaxBackoff(),
+                                       existing.getLifespan(),
+                                       existing.getMaxInstances(),
+                                       existing.getSerializedData(),
+                                       isRunning));
+    }
+
+    if (retryPending) {
+      flushJournal();
     }
   }
 
   @Override
   public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime) {
-    jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime);
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    JobSpec existing = jobs.get(id);
+
+    if (journal == null) {
+      jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime);
+    }
+
+    if (existing != null) {
+      replaceJobAndJournal(existing, new JobSpec(existing.getId(),
+                                       existing.getFactoryKey(),
+                                       existing.getQueueKey(),
+                                       existing.getCreateTime(),
+                                       nextRunAttemptTime,
+                                       runAttempt,
+                                       existing.getMaxAttempts(),
+                                       existing.getMaxBackoff(),
+                                       existing.getLifespan(),
+                                       existing.getMaxInstances(),
+                                       existing.getSerializedData(),
+                                       isRunning));
     }
   }
 
   @Override
   public synchronized void updateAllJobsToBePending() {
+    flushJournal();
     jobDatabase.updateAllJobsToBePending();
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
+    for (JobSpec existing : new ArrayList<>(jobs.values())) {
+      if (!existing.isRunning()) {
+        continue;
+      }
 
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec updated  = new JobSpec(existing.getId(),
-                                     existing.getFactoryKey(),
-                                     existing.getQueueKey(),
-                                     existing.getCreateTime(),
-                                     existing.getNextRunAttemptTime(),
-                                     existing.getRunAttempt(),
-                                     existing.getMaxAttempts(),
-                                     existing.getMaxBackoff(),
-                                     existing.getLifespan(),
-                                     existing.getMaxInstances(),
-                                     existing.getSerializedData(),
-                                     false);
-      iter.set(updated);
+      replaceJob(existing, new JobSpec(existing.getId(),
+                                       existing.getFactoryKey(),
+                                       existing.getQueueKey(),
+                                       existing.getCreateTime(),
+                                       existing.getNextRunAttemptTime(),
+                                       existing.getRunAttempt(),
+                                       existing.getMaxAttempts(),
+                                       existing.getMaxBackoff(),
+                                       existing.getLifespan(),
+                                       existing.getMaxInstances(),
+                                       existing.getSerializedData(),
+                                       false));
     }
   }
 
   @Override
-  public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+  public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+    flushJournal();
     jobDatabase.updateJobs(jobSpecs);
 
-    Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-    ListIterator<JobSpec> iter    = jobs.listIterator();
+    for (JobSpec update : jobSpecs) {
+      JobSpec existing = jobs.get(update.getId());
 
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec update   = updates.get(existing.getId());
-
-      if (update != null) {
-        iter.set(update);
+      if (existing != null) {
+        replaceJob(existing, update);
       }
     }
   }
@@ -236,27 +290,40 @@ public class FastJobStorage implements JobStorage {
 
   @Override
   public synchronized void deleteJobs(@NonNull List<String> jobIds) {
-    jobDatabase.deleteJobs(jobIds);
+    if (journal != null) {
+      journal.delete(jobIds);
+    } else {
+      jobDatabase.deleteJobs(jobIds);
+    }
 
-    Set<String> deleteIds = new HashSet<>(jobIds);
+    for (String jobId : jobIds) {
+      JobSpec job = jobs.remove(jobId);
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
+      if (job != null) {
+        removeFromQueue(job);
+        insertOrderByJobId.remove(jobId);
       }
-    }
 
-    for (String jobId : jobIds) {
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
+      if (dependencies != null) {
+        for (DependencySpec dependency : dependencies) {
+          removeFromList(dependentsByJobId, dependency.getDependsOnJobId(), dependency);
+        }
+      }
+
+      List<DependencySpec> dependents = dependentsByJobId.remove(jobId);
+
+      if (dependents != null) {
+        for (DependencySpec dependent : dependents) {
+          removeFromList(dependenciesByJobId, dependent.getJobId(), dependent);
+
+          JobSpec dependentJob = jobs.get(dependent.getJobId());
+
+          if (dependentJob != null) {
+            updateEligibility(dependentJob);
           }
         }
       }
@@ -298,18 +365,166 @@ public class FastJobStorage implements JobStorage {
   }
 
   private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+    List<DependencySpec> dependents = dependentsByJobId.get(jobSpecId);
+    return dependents != null ? new ArrayList<>(dependents) : new ArrayList<>();
   }
 
   @Override
-  public @NonNull List<DependencySpec> getAllDependencySpecs() {
+  public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
     return Stream.of(dependenciesByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
                  .toList();
   }
+
+  private void addJob(@NonNull JobSpec job) {
+    insertOrderByJobId.put(job.getId(), nextInsertOrder++);
+    jobs.put(job.getId(), job);
+    addToQueue(job);
+  }
+
+  /**
+   * Swaps out a spec for an updated version of the same job, keeping every index in sync. The
+   * insertion order of the job is preserved.
+   */
+  private void replaceJob(@NonNull JobSpec existing, @NonNull JobSpec updated) {
+    removeFromQueue(existing);
+    jobs.put(updated.getId(), updated);
+    addToQueue(updated);
+  }
+
+  private void replaceJobAndJournal(@NonNull JobSpec existing, @NonNull JobSpec updated) {
+    replaceJob(existing, updated);
+
+    if (journal != null) {
+      journal.update(updated);
+    }
+  }
+
+  private void flushJournal() {
+    if (journal != null) {
+      journal.flush();
+    }
+  }
+
+  private void addDependency(@NonNull DependencySpec dependency) {
+    addToList(dependenciesByJobId, dependency.getJobId(), dependency);
+    addToList(dependentsByJobId, dependency.getDependsOnJobId(), dependency);
+  }
+
+  private void addToQueue(@NonNull JobSpec job) {
+    if (job.getQueueKey() == null) {
+      updateEligibility(job);
+      return;
+    }
+
+    TreeSet<JobSpec> queue = queues.get(job.getQueueKey());
+
+    if (queue == null) {
+      queue = new TreeSet<>(createdOrder);
+      queues.put(job.getQueueKey(), queue);
+    }
+
+    JobSpec previousHead = queue.isEmpty() ? null : queue.first();
+
+    queue.add(job);
+
+    if (previousHead != null && previousHead != queue.first()) {
+      removeEligible(previousHead);
+    }
+
+    updateEligibility(queue.first());
+  }
+
+  private void removeFromQueue(@NonNull JobSpec job) {
+    removeEligible(job);
+
+    if (job.getQueueKey() == null) {
+      return;
+    }
+
+    TreeSet<JobSpec> queue = queues.get(job.getQueueKey());
+
+    if (queue == null) {
+      return;
+    }
+
+    queue.remove(job);
+
+    if (queue.isEmpty()) {
+      queues.remove(job.getQueueKey());
+    } else {
+      updateEligibility(queue.first());
+    }
+  }
+
+  private void updateEligibility(@NonNull JobSpec job) {
+    if (!isEligible(job)) {
+      removeEligible(job);
+    } else if (!eligibleJobs.contains(job)) {
+      waitingJobs.add(job);
+    }
+  }
+
+  private void removeEligible(@NonNull JobSpec job) {
+    eligibleJobs.remove(job);
+    waitingJobs.remove(job);
+  }
+
+  /**
+   * Moves every waiting job whose next run time has been reached into {@link #eligibleJobs}. Stops
+   * at the first one that isn't due yet, so jobs that are backing off aren't looked at.
+   */
+  private void promoteWaitingJobs(long currentTime) {
+    while (!waitingJobs.isEmpty() && waitingJobs.first().getNextRunAttemptTime() <= currentTime) {
+      eligibleJobs.add(waitingJobs.pollFirst());
+    }
+  }
+
+  private boolean isEligible(@NonNull JobSpec job) {
+    if (job.isRunning()) {
+      return false;
+    }
+
+    List<DependencySpec> dependencies = dependenciesByJobId.get(job.getId());
+
+    if (dependencies != null && !dependencies.isEmpty()) {
+      return false;
+    }
+
+    return firstInQueue(job);
+  }
+
+  private boolean firstInQueue(@NonNull JobSpec job) {
+    if (job.getQueueKey() == null) {
+      return true;
+    }
+
+    TreeSet<JobSpec> queue = queues.get(job.getQueueKey());
+
+    return queue != null && !queue.isEmpty() && queue.first().getId().equals(job.getId());
+  }
+
+  private static <T> void addToList(@NonNull Map<String, List<T>> map, @NonNull String key, @NonNull T value) {
+    List<T> list = map.get(key);
+
+    if (list == null) {
+      list = new LinkedList<>();
+      map.put(key, list);
+    }
+
+    list.add(value);
+  }
+
+  private static <T> void removeFromList(@NonNull Map<String, List<T>> map, @NonNull String key, @NonNull T value) {
+    List<T> list = map.get(key);
+
+    if (list != null) {
+      list.remove(value);
+
+      if (list.isEmpty()) {
+        map.remove(key);
+      }
+    }
+  }
 }
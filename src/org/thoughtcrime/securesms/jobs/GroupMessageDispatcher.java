@@ -0,0 +1,146 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.logging.Log;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
+import org.whispersystems.signalservice.api.crypto.UntrustedIdentityException;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Fans a group send out over several concurrent sends, each covering a slice of the recipients.
+ * Every per-recipient send is an encrypt plus a network round trip, so a large group spends most
+ * of its time waiting on the network one recipient after another.
+ *
+ * Only the first slice keeps the caller's recipient-update flag. The rest are sent as recipient
+ * updates, so linked devices merge their sent transcripts into one message instead of creating a
+ * new one per slice.
+ *
+ * A slice whose send throws an {@link IOException} is reported as a network failure for each of
+ * its recipients rather than failing the whole dispatch. That way the results of the other slices
+ * are kept, and a retry only goes to the recipients that actually failed.
+ */
+final class GroupMessageDispatcher {
+
+  private static final String TAG = GroupMessageDispatcher.class.getSimpleName();
+
+  private final Executor executor;
+  private final int      maxParallelSends;
+  private final int      minRecipientsPerSend;
+
+  GroupMessageDispatcher(@NonNull Executor executor, int maxParallelSends, int minRecipientsPerSend) {
+    this.executor             = executor;
+    this.maxParallelSends     = maxParallelSends;
+    this.minRecipientsPerSend = minRecipientsPerSend;
+  }
+
+  @WorkerThread
+  @NonNull List<SendMessageResult> dispatch(@NonNull List<SignalServiceAddress>             addresses,
+                                            @NonNull List<Optional<UnidentifiedAccessPair>> unidentifiedAccess,
+                                            boolean                                         isRecipientUpdate,
+                                            @NonNull Sender                                 sender)
+      throws IOException, UntrustedIdentityException
+  {
+    int sliceCount = getSliceCount(addresses.size());
+
+    if (sliceCount <= 1) {
+      return sender.send(addresses, unidentifiedAccess, isRecipientUpdate);
+    }
+
+    List<FutureTask<List<SendMessageResult>>> tasks     = new ArrayList<>(sliceCount);
+    List<List<SignalServiceAddress>>          slices    = new ArrayList<>(sliceCount);
+    int                                       sliceSize = (addresses.size() + sliceCount - 1) / sliceCount;
+
+    for (int start = 0; start < addresses.size(); start += sliceSize) {
+      int                                    end          = Math.min(start + sliceSize, addresses.size());
+      List<SignalServiceAddress>             sliceAddress = addresses.subList(start, end);
+      List<Optional<UnidentifiedAccessPair>> sliceAccess  = unidentifiedAccess.subList(start, end);
+      boolean                                update       = start == 0 ? isRecipientUpdate : true;
+
+      slices.add(sliceAddress);
+      tasks.add(new FutureTask<>(() -> sender.send(sliceAddress, sliceAccess, update)));
+    }
+
+    for (int i = 1; i < tasks.size(); i++) {
+      executor.execute(tasks.get(i));
+    }
+
+    tasks.get(0).run();
+
+    List<SendMessageResult> results = new ArrayList<>(addresses.size());
+
+    for (int i = 0; i < tasks.size(); i++) {
+      results.addAll(getResults(tasks.get(i), slices.get(i)));
+    }
+
+    return results;
+  }
+
+  private int getSliceCount(int recipientCount) {
+    if (minRecipientsPerSend <= 0) return Math.min(maxParallelSends, recipientCount);
+    return Math.max(1, Math.min(maxParallelSends, recipientCount / minRecipientsPerSend));
+  }
+
+  private static @NonNull List<SendMessageResult> getResults(@NonNull FutureTask<List<SendMessageResult>> task,
+                                                             @NonNull List<SignalServiceAddress>          slice)
+      throws IOException, UntrustedIdentityException
+  {
+    try {
+      return getUninterruptibly(task);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        Log.w(TAG, "Send failed for a slice of " + slice.size() + " recipients. Marking them as network failures.", cause);
+
+        List<SendMessageResult> failures = new LinkedList<>();
+
+        for (SignalServiceAddress address : slice) {
+          failures.add(SendMessageResult.networkFailure(address));
+        }
+
+        return failures;
+      }
+
+      if (cause instanceof UntrustedIdentityException) throw (UntrustedIdentityException) cause;
+      if (cause instanceof RuntimeException)           throw (RuntimeException) cause;
+      if (cause instanceof Error)                      throw (Error) cause;
+
+      throw new AssertionError(cause);
+    }
+  }
+
+  private static <T> T getUninterruptibly(@NonNull FutureTask<T> task) throws ExecutionException {
+    boolean interrupted = false;
+
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  interface Sender {
+    @NonNull List<SendMessageResult> send(@NonNull List<SignalServiceAddress>             addresses,
+                                          @NonNull List<Optional<UnidentifiedAccessPair>> unidentifiedAccess,
+                                          boolean                                         isRecipientUpdate)
+        throws IOException, UntrustedIdentityException;
+  }
+}
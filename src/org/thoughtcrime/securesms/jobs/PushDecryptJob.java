@@ -54,6 +54,7 @@ import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.NoSuchMessageException;
 import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.StickerDatabase;
@@ -61,6 +62,7 @@ import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.StickerRecord;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.GroupMessageProcessor;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -130,7 +132,18 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decrypts and handles one envelope from the {@link PushDatabase}.
+ *
+ * Jobs are spread over several queues by push id, so envelopes from different senders are handled
+ * in parallel. Decryption itself is done one envelope at a time under a fair lock, which is taken
+ * in about the order the jobs were started. That's the first point a sealed sender envelope's
+ * sender is known, so the sender's lock is picked up before the decrypt lock is released. Handling
+ * the content then only waits on other envelopes from the same sender, which are handled in the
+ * order they were decrypted.
+ */
 public class PushDecryptJob extends BaseJob {
 
   public static final String KEY = "PushDecryptJob";
@@ -140,6 +153,19 @@ public class PushDecryptJob extends BaseJob {
   private static final String KEY_MESSAGE_ID     = "message_id";
   private static final String KEY_SMS_MESSAGE_ID = "sms_message_id";
 
+  private static final String QUEUE_PREFIX      = "__PUSH_DECRYPT_JOB__";
+  private static final int    QUEUE_COUNT       = 8;
+  private static final int    SENDER_LOCK_COUNT = 32;
+
+  private static final ReentrantLock   DECRYPT_LOCK = new ReentrantLock(true);
+  private static final ReentrantLock[] SENDER_LOCKS = new ReentrantLock[SENDER_LOCK_COUNT];
+
+  static {
+    for (int i = 0; i < SENDER_LOCKS.length; i++) {
+      SENDER_LOCKS[i] = new ReentrantLock();
+    }
+  }
+
   private long messageId;
   private long smsMessageId;
 
@@ -149,7 +175,7 @@ public class PushDecryptJob extends BaseJob {
 
   public PushDecryptJob(Context context, long pushMessageId, long smsMessageId) {
     this(new Job.Parameters.Builder()
-                           .setQueue("__PUSH_DECRYPT_JOB__")
+                           .setQueue(QUEUE_PREFIX + (pushMessageId % QUEUE_COUNT))
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
          pushMessageId,
@@ -201,6 +227,10 @@ public class PushDecryptJob extends BaseJob {
   public void onCanceled() {
   }
 
+  private static @NonNull ReentrantLock getSenderLock(@NonNull String sender) {
+    return SENDER_LOCKS[(sender.hashCode() & 0x7FFFFFFF) % SENDER_LOCKS.length];
+  }
+
   private boolean needsMigration() {
     return !IdentityKeyUtil.hasIdentityKey(context) || TextSecurePreferences.getNeedsSqlCipherMigration(context);
   }
@@ -221,76 +251,26 @@ public class PushDecryptJob extends BaseJob {
 
   private void handleMessage(@NonNull SignalServiceEnvelope envelope, @NonNull Optional<Long> smsMessageId) {
     try {
-      GroupDatabase        groupDatabase = DatabaseFactory.getGroupDatabase(context);
-      SignalProtocolStore  axolotlStore  = new SignalProtocolStoreImpl(context);
-      SignalServiceAddress localAddress  = new SignalServiceAddress(TextSecurePreferences.getLocalNumber(context));
-      SignalServiceCipher  cipher        = new SignalServiceCipher(localAddress, axolotlStore, UnidentifiedAccessUtil.getCertificateValidator());
-
-      SignalServiceContent content = cipher.decrypt(envelope);
-
-      if (shouldIgnore(content)) {
-        Log.i(TAG, "Ignoring message.");
-        return;
-      }
+      SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
+      SignalServiceAddress localAddress = new SignalServiceAddress(TextSecurePreferences.getLocalNumber(context));
+      SignalServiceCipher  cipher       = new SignalServiceCipher(localAddress, axolotlStore, UnidentifiedAccessUtil.getCertificateValidator());
 
-      if (content.getDataMessage().isPresent()) {
-        SignalServiceDataMessage message        = content.getDataMessage().get();
-        boolean                  isMediaMessage = message.getAttachments().isPresent() || message.getQuote().isPresent() || message.getSharedContacts().isPresent() || message.getPreviews().isPresent() || message.getSticker().isPresent();
+      SignalServiceContent content;
+      ReentrantLock        senderLock;
 
-        if      (isInvalidMessage(message))     handleInvalidMessage(content.getSender(), content.getSenderDevice(), message.getGroupInfo(), content.getTimestamp(), smsMessageId);
-        else if (message.isEndSession())        handleEndSessionMessage(content, smsMessageId);
-        else if (message.isGroupUpdate())       handleGroupMessage(content, message, smsMessageId);
-        else if (message.isExpirationUpdate())  handleExpirationUpdate(content, message, smsMessageId);
-        else if (isMediaMessage)                handleMediaMessage(content, message, smsMessageId);
-        else if (message.getBody().isPresent()) handleTextMessage(content, message, smsMessageId);
-
-        if (message.getGroupInfo().isPresent() && groupDatabase.isUnknownGroup(GroupUtil.getEncodedId(message.getGroupInfo().get().getGroupId(), false))) {
-          handleUnknownGroupMessage(content, message.getGroupInfo().get());
-        }
-
-        if (message.getProfileKey().isPresent() && message.getProfileKey().get().length == 32) {
-          handleProfileKey(content, message);
-        }
-
-        if (content.isNeedsReceipt()) {
-          handleNeedsDeliveryReceipt(content, message);
-        }
-      } else if (content.getSyncMessage().isPresent()) {
-        TextSecurePreferences.setMultiDevice(context, true);
-
-        SignalServiceSyncMessage syncMessage = content.getSyncMessage().get();
-
-        if      (syncMessage.getSent().isPresent())                  handleSynchronizeSentMessage(content, syncMessage.getSent().get());
-        else if (syncMessage.getRequest().isPresent())               handleSynchronizeRequestMessage(syncMessage.getRequest().get());
-        else if (syncMessage.getRead().isPresent())                  handleSynchronizeReadMessage(syncMessage.getRead().get(), content.getTimestamp());
-        else if (syncMessage.getViewOnceOpen().isPresent())          handleSynchronizeViewOnceOpenMessage(syncMessage.getViewOnceOpen().get(), content.getTimestamp());
-        else if (syncMessage.getVerified().isPresent())              handleSynchronizeVerifiedMessage(syncMessage.getVerified().get());
-        else if (syncMessage.getStickerPackOperations().isPresent()) handleSynchronizeStickerPackOperation(syncMessage.getStickerPackOperations().get());
-        else                                                         Log.w(TAG, "Contains no known sync types...");
-      } else if (content.getCallMessage().isPresent()) {
-        Log.i(TAG, "Got call message...");
-        SignalServiceCallMessage message = content.getCallMessage().get();
-
-        if      (message.getOfferMessage().isPresent())      handleCallOfferMessage(content, message.getOfferMessage().get(), smsMessageId);
-        else if (message.getAnswerMessage().isPresent())     handleCallAnswerMessage(content, message.getAnswerMessage().get());
-        else if (message.getIceUpdateMessages().isPresent()) handleCallIceUpdateMessage(content, message.getIceUpdateMessages().get());
-        else if (message.getHangupMessage().isPresent())     handleCallHangupMessage(content, message.getHangupMessage().get(), smsMessageId);
-        else if (message.getBusyMessage().isPresent())       handleCallBusyMessage(content, message.getBusyMessage().get());
-      } else if (content.getReceiptMessage().isPresent()) {
-        SignalServiceReceiptMessage message = content.getReceiptMessage().get();
-
-        if      (message.isReadReceipt())     handleReadReceipt(content, message);
-        else if (message.isDeliveryReceipt()) handleDeliveryReceipt(content, message);
-      } else if (content.getTypingMessage().isPresent()) {
-        handleTypingMessage(content, content.getTypingMessage().get());
-      } else {
-        Log.w(TAG, "Got unrecognized message...");
+      DECRYPT_LOCK.lock();
+      try {
+        content    = cipher.decrypt(envelope);
+        senderLock = getSenderLock(content.getSender());
+        senderLock.lock();
+      } finally {
+        DECRYPT_LOCK.unlock();
       }
 
-      resetRecipientToPush(Recipient.external(context, content.getSender()));
-
-      if (envelope.isPreKeySignalMessage()) {
-        ApplicationContext.getInstance(context).getJobManager().add(new RefreshPreKeysJob());
+      try {
+        handleContent(envelope, content, smsMessageId);
+      } finally {
+        senderLock.unlock();
       }
     } catch (ProtocolInvalidVersionException e) {
       Log.w(TAG, e);
@@ -324,6 +304,77 @@ public class PushDecryptJob extends BaseJob {
     }
   }
 
+  private void handleContent(@NonNull SignalServiceEnvelope envelope, @NonNull SignalServiceContent content, @NonNull Optional<Long> smsMessageId)
+      throws StorageFailedException
+  {
+    GroupDatabase groupDatabase = DatabaseFactory.getGroupDatabase(context);
+
+    if (shouldIgnore(content)) {
+      Log.i(TAG, "Ignoring message.");
+      return;
+    }
+
+    if (content.getDataMessage().isPresent()) {
+      SignalServiceDataMessage message        = content.getDataMessage().get();
+      boolean                  isMediaMessage = message.getAttachments().isPresent() || message.getQuote().isPresent() || message.getSharedContacts().isPresent() || message.getPreviews().isPresent() || message.getSticker().isPresent();
+
+      if      (isInvalidMessage(message))     handleInvalidMessage(content.getSender(), content.getSenderDevice(), message.getGroupInfo(), content.getTimestamp(), smsMessageId);
+      else if (message.isEndSession())        handleEndSessionMessage(content, smsMessageId);
+      else if (message.isGroupUpdate())       handleGroupMessage(content, message, smsMessageId);
+      else if (message.isExpirationUpdate())  handleExpirationUpdate(content, message, smsMessageId);
+      else if (isMediaMessage)                handleMediaMessage(content, message, smsMessageId);
+      else if (message.getBody().isPresent()) handleTextMessage(content, message, smsMessageId);
+
+      if (message.getGroupInfo().isPresent() && groupDatabase.isUnknownGroup(GroupUtil.getEncodedId(message.getGroupInfo().get().getGroupId(), false))) {
+        handleUnknownGroupMessage(content, message.getGroupInfo().get());
+      }
+
+      if (message.getProfileKey().isPresent() && message.getProfileKey().get().length == 32) {
+        handleProfileKey(content, message);
+      }
+
+      if (content.isNeedsReceipt()) {
+        handleNeedsDeliveryReceipt(content, message);
+      }
+    } else if (content.getSyncMessage().isPresent()) {
+      TextSecurePreferences.setMultiDevice(context, true);
+
+      SignalServiceSyncMessage syncMessage = content.getSyncMessage().get();
+
+      if      (syncMessage.getSent().isPresent())                  handleSynchronizeSentMessage(content, syncMessage.getSent().get());
+      else if (syncMessage.getRequest().isPresent())               handleSynchronizeRequestMessage(syncMessage.getRequest().get());
+      else if (syncMessage.getRead().isPresent())                  handleSynchronizeReadMessage(syncMessage.getRead().get(), content.getTimestamp());
+      else if (syncMessage.getViewOnceOpen().isPresent())          handleSynchronizeViewOnceOpenMessage(syncMessage.getViewOnceOpen().get(), content.getTimestamp());
+      else if (syncMessage.getVerified().isPresent())              handleSynchronizeVerifiedMessage(syncMessage.getVerified().get());
+      else if (syncMessage.getStickerPackOperations().isPresent()) handleSynchronizeStickerPackOperation(syncMessage.getStickerPackOperations().get());
+      else                                                         Log.w(TAG, "Contains no known sync types...");
+    } else if (content.getCallMessage().isPresent()) {
+      Log.i(TAG, "Got call message...");
+      SignalServiceCallMessage message = content.getCallMessage().get();
+
+      if      (message.getOfferMessage().isPresent())      handleCallOfferMessage(content, message.getOfferMessage().get(), smsMessageId);
+      else if (message.getAnswerMessage().isPresent())     handleCallAnswerMessage(content, message.getAnswerMessage().get());
+      else if (message.getIceUpdateMessages().isPresent()) handleCallIceUpdateMessage(content, message.getIceUpdateMessages().get());
+      else if (message.getHangupMessage().isPresent())     handleCallHangupMessage(content, message.getHangupMessage().get(), smsMessageId);
+      else if (message.getBusyMessage().isPresent())       handleCallBusyMessage(content, message.getBusyMessage().get());
+    } else if (content.getReceiptMessage().isPresent()) {
+      SignalServiceReceiptMessage message = content.getReceiptMessage().get();
+
+      if      (message.isReadReceipt())     handleReadReceipt(content, message);
+      else if (message.isDeliveryReceipt()) handleDeliveryReceipt(content, message);
+    } else if (content.getTypingMessage().isPresent()) {
+      handleTypingMessage(content, content.getTypingMessage().get());
+    } else {
+      Log.w(TAG, "Got unrecognized message...");
+    }
+
+    resetRecipientToPush(Recipient.external(context, content.getSender()));
+
+    if (envelope.isPreKeySignalMessage()) {
+      ApplicationContext.getInstance(context).getJobManager().add(new RefreshPreKeysJob());
+    }
+  }
+
   private void handleCallOfferMessage(@NonNull SignalServiceContent content,
                                       @NonNull OfferMessage message,
                                       @NonNull Optional<Long> smsMessageId)
@@ -1120,10 +1171,12 @@ public class PushDecryptJob extends BaseJob {
   private void handleDeliveryReceipt(@NonNull SignalServiceContent content,
                                      @NonNull SignalServiceReceiptMessage message)
   {
+    RecipientId       sender     = Recipient.external(context, content.getSender()).getId();
+    ReceiptAggregator aggregator = ApplicationDependencies.getReceiptAggregator();
+
     for (long timestamp : message.getTimestamps()) {
       Log.i(TAG, String.format("Received encrypted delivery receipt: (XXXXX, %d)", timestamp));
-      DatabaseFactory.getMmsSmsDatabase(context)
-                     .incrementDeliveryReceiptCount(new SyncMessageId(Recipient.external(context, content.getSender()).getId(), timestamp), System.currentTimeMillis());
+      aggregator.addDeliveryReceipt(new SyncMessageId(sender, timestamp), System.currentTimeMillis());
     }
   }
 
@@ -1132,11 +1185,12 @@ public class PushDecryptJob extends BaseJob {
                                  @NonNull SignalServiceReceiptMessage message)
   {
     if (TextSecurePreferences.isReadReceiptsEnabled(context)) {
+      RecipientId       sender     = Recipient.external(context, content.getSender()).getId();
+      ReceiptAggregator aggregator = ApplicationDependencies.getReceiptAggregator();
+
       for (long timestamp : message.getTimestamps()) {
         Log.i(TAG, String.format("Received encrypted read receipt: (XXXXX, %d)", timestamp));
-
-        DatabaseFactory.getMmsSmsDatabase(context)
-                       .incrementReadReceiptCount(new SyncMessageId(Recipient.external(context, content.getSender()).getId(), timestamp), content.getTimestamp());
+        aggregator.addReadReceipt(new SyncMessageId(sender, timestamp), content.getTimestamp());
       }
     }
   }
@@ -5,7 +5,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
-import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import org.thoughtcrime.securesms.ApplicationContext;
@@ -32,6 +31,8 @@ import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
 import org.thoughtcrime.securesms.transport.UndeliverableMessageException;
 import org.thoughtcrime.securesms.util.GroupUtil;
+import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
+import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
@@ -48,6 +49,8 @@ import org.whispersystems.signalservice.internal.push.SignalServiceProtos.GroupC
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -61,6 +64,11 @@ public class PushGroupSendJob extends PushSendJob {
   private static final String KEY_MESSAGE_ID       = "message_id";
   private static final String KEY_FILTER_RECIPIENT = "filter_recipient";
 
+  private static final int MAX_PARALLEL_SENDS      = 4;
+  private static final int MIN_RECIPIENTS_PER_SEND = 8;
+
+  private static final GroupMessageDispatcher DISPATCHER = new GroupMessageDispatcher(SignalExecutors.UNBOUNDED, MAX_PARALLEL_SENDS, MIN_RECIPIENTS_PER_SEND);
+
   private long        messageId;
   private RecipientId filterRecipient;
 
@@ -144,36 +152,43 @@ public class PushGroupSendJob extends PushSendJob {
       else if (!existingNetworkFailures.isEmpty()) target = Stream.of(existingNetworkFailures).map(nf -> nf.getRecipientId(context)).toList();
       else                                         target = getGroupMessageRecipients(message.getRecipient().requireAddress().toGroupString(), messageId);
 
-      List<SendMessageResult>   results                  = deliver(message, target);
-      List<NetworkFailure>      networkFailures          = Stream.of(results).filter(SendMessageResult::isNetworkFailure).map(result -> new NetworkFailure(Recipient.external(context, result.getAddress().getNumber()).getId())).toList();
-      List<IdentityKeyMismatch> identityMismatches       = Stream.of(results).filter(result -> result.getIdentityFailure() != null).map(result -> new IdentityKeyMismatch(Recipient.external(context, result.getAddress().getNumber()).getId(), result.getIdentityFailure().getIdentityKey())).toList();
-      Set<RecipientId>          successIds               = Stream.of(results).filter(result -> result.getSuccess() != null).map(result -> result.getAddress().getNumber()).map(a -> Recipient.external(context, a).getId()).collect(Collectors.toSet());
+      List<SendMessageResult>          results            = deliver(message, target);
+      List<NetworkFailure>             networkFailures    = new LinkedList<>();
+      List<IdentityKeyMismatch>        identityMismatches = new LinkedList<>();
+      List<Pair<RecipientId, Boolean>> successes          = new LinkedList<>();
+      Set<RecipientId>                 successIds         = new HashSet<>();
+
+      for (SendMessageResult result : results) {
+        RecipientId recipientId = Recipient.external(context, result.getAddress().getNumber()).getId();
+
+        if (result.getSuccess() != null) {
+          successes.add(new Pair<>(recipientId, result.getSuccess().isUnidentified()));
+          successIds.add(recipientId);
+        } else if (result.isNetworkFailure()) {
+          networkFailures.add(new NetworkFailure(recipientId));
+        } else if (result.getIdentityFailure() != null) {
+          identityMismatches.add(new IdentityKeyMismatch(recipientId, result.getIdentityFailure().getIdentityKey()));
+        }
+      }
+
       List<NetworkFailure>      resolvedNetworkFailures  = Stream.of(existingNetworkFailures).filter(failure -> successIds.contains(failure.getRecipientId(context))).toList();
       List<IdentityKeyMismatch> resolvedIdentityFailures = Stream.of(existingIdentityMismatches).filter(failure -> successIds.contains(failure.getRecipientId(context))).toList();
-      List<SendMessageResult>   successes                = Stream.of(results).filter(result -> result.getSuccess() != null).toList();
 
-      for (NetworkFailure resolvedFailure : resolvedNetworkFailures) {
-        database.removeFailure(messageId, resolvedFailure);
-        existingNetworkFailures.remove(resolvedFailure);
-      }
+      existingNetworkFailures.removeAll(resolvedNetworkFailures);
+      existingIdentityMismatches.removeAll(resolvedIdentityFailures);
 
-      for (IdentityKeyMismatch resolvedIdentity : resolvedIdentityFailures) {
-        database.removeMismatchedIdentity(messageId, resolvedIdentity.getRecipientId(context), resolvedIdentity.getIdentityKey());
-        existingIdentityMismatches.remove(resolvedIdentity);
-      }
+      database.beginTransaction();
+      try {
+        if (!resolvedNetworkFailures.isEmpty())  database.removeFailures(messageId, resolvedNetworkFailures);
+        if (!resolvedIdentityFailures.isEmpty()) database.removeMismatchedIdentities(messageId, resolvedIdentityFailures);
+        if (!networkFailures.isEmpty())          database.addFailures(messageId, networkFailures);
+        if (!identityMismatches.isEmpty())       database.addMismatchedIdentities(messageId, identityMismatches);
 
-      if (!networkFailures.isEmpty()) {
-        database.addFailures(messageId, networkFailures);
-      }
-
-      for (IdentityKeyMismatch mismatch : identityMismatches) {
-        database.addMismatchedIdentity(messageId, mismatch.getRecipientId(context), mismatch.getIdentityKey());
-      }
+        DatabaseFactory.getGroupReceiptDatabase(context).setUnidentified(successes, messageId);
 
-      for (SendMessageResult success : successes) {
-        DatabaseFactory.getGroupReceiptDatabase(context).setUnidentified(Recipient.external(context, success.getAddress().getNumber()).getId(),
-                                                                         messageId,
-                                                                         success.getSuccess().isUnidentified());
+        database.setTransactionSuccessful();
+      } finally {
+        database.endTransaction();
       }
 
       if (existingNetworkFailures.isEmpty() && networkFailures.isEmpty() && identityMismatches.isEmpty() && existingIdentityMismatches.isEmpty()) {
@@ -232,8 +247,8 @@ public class PushGroupSendJob extends PushSendJob {
     List<SignalServiceAttachment>              attachmentPointers = getAttachmentPointersFor(attachments);
     boolean                                    isRecipientUpdate  = destinations.size() != DatabaseFactory.getGroupReceiptDatabase(context).getGroupReceiptInfo(messageId).size();
 
-    List<Optional<UnidentifiedAccessPair>> unidentifiedAccess = Stream.of(addresses)
-                                                                      .map(address -> Recipient.external(context, address.getNumber()))
+    List<Optional<UnidentifiedAccessPair>> unidentifiedAccess = Stream.of(destinations)
+                                                                      .map(Recipient::resolved)
                                                                       .map(recipient -> UnidentifiedAccessUtil.getAccessFor(context, recipient))
                                                                       .toList();
 
@@ -249,7 +264,8 @@ public class PushGroupSendJob extends PushSendJob {
                                                                            .asGroupMessage(group)
                                                                            .build();
 
-      return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage);
+      return DISPATCHER.dispatch(addresses, unidentifiedAccess, isRecipientUpdate,
+                                 (slice, sliceAccess, update) -> messageSender.sendMessage(slice, sliceAccess, update, groupDataMessage));
     } else {
       SignalServiceGroup       group        = new SignalServiceGroup(GroupUtil.getDecodedId(groupId));
       SignalServiceDataMessage groupMessage = SignalServiceDataMessage.newBuilder()
@@ -267,7 +283,8 @@ public class PushGroupSendJob extends PushSendJob {
                                                                       .withPreviews(previews)
                                                                       .build();
 
-      return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupMessage);
+      return DISPATCHER.dispatch(addresses, unidentifiedAccess, isRecipientUpdate,
+                                 (slice, sliceAccess, update) -> messageSender.sendMessage(slice, sliceAccess, update, groupMessage));
     }
   }
 
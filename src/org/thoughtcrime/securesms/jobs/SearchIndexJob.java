@@ -0,0 +1,112 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.SearchDatabase;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Works through the search index queue in batches, then tidies up the index. A small backlog is
+ * followed by a few incremental merge steps. A large one (a fresh build or a restore) is followed
+ * by a full optimize.
+ *
+ * Every batch commits on its own, so if the job is interrupted, the next run carries on with
+ * whatever is still queued.
+ *
+ * New messages are picked up through {@link #enqueue(Context)}, which waits a moment before adding
+ * the job so that a burst of messages is indexed in one run. Two instances are allowed, so that
+ * messages written while a run is finishing up still get a run of their own.
+ */
+public class SearchIndexJob extends BaseJob {
+
+  public static final String KEY = "SearchIndexJob";
+
+  private static final String TAG = SearchIndexJob.class.getSimpleName();
+
+  private static final int  BATCH_SIZE         = 500;
+  private static final int  OPTIMIZE_THRESHOLD = 10_000;
+  private static final int  MERGE_PAGES        = 64;
+  private static final int  MAX_MERGE_STEPS    = 16;
+  private static final long ENQUEUE_DELAY_MS   = 500;
+
+  private static final AtomicBoolean ENQUEUE_PENDING = new AtomicBoolean(false);
+
+  public SearchIndexJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstances(2)
+                           .build());
+  }
+
+  /**
+   * Adds a job half a second from now, unless one is already about to be added. Called whenever a
+   * message is written, so it becomes searchable without waiting for a search to find the backlog.
+   */
+  public static void enqueue(@NonNull Context context) {
+    if (ENQUEUE_PENDING.compareAndSet(false, true)) {
+      Util.runOnMainDelayed(() -> {
+        ENQUEUE_PENDING.set(false);
+        ApplicationContext.getInstance(context).getJobManager().add(new SearchIndexJob());
+      }, ENQUEUE_DELAY_MS);
+    }
+  }
+
+  private SearchIndexJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  public void onRun() {
+    SearchDatabase database  = DatabaseFactory.getSearchDatabase(context);
+    long           startTime = System.currentTimeMillis();
+    int            indexed   = 0;
+    int            batch;
+
+    while ((batch = database.indexPendingMessages(BATCH_SIZE)) > 0) {
+      indexed += batch;
+    }
+
+    if (indexed >= OPTIMIZE_THRESHOLD) {
+      database.optimizeIndex();
+    } else {
+      for (int i = 0; i < MAX_MERGE_STEPS && database.mergeIndex(MERGE_PAGES); i++);
+    }
+
+    Log.i(TAG, "Indexed " + indexed + " messages in " + (System.currentTimeMillis() - startTime) + " ms. Index: " + database.getIndexMetrics());
+  }
+
+  @Override
+  public boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public void onCanceled() {
+  }
+
+  public static final class Factory implements Job.Factory<SearchIndexJob> {
+    @Override
+    public @NonNull SearchIndexJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new SearchIndexJob(parameters);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects job state changes (running state and retries) and writes them to {@link JobDatabase}
+ * in a single transaction, either after a short delay or once enough changes have piled up.
+ * Changes to the same job are coalesced, so only its latest state is written.
+ *
+ * Deletions are batched the same way, and drop any pending update for the deleted job. Inserts are
+ * never journaled.
+ *
+ * If the process dies before a batch is written, the database still holds each job as it was
+ * before the batch:
+ * - A job whose deletion was lost runs again on the next launch. Jobs must already tolerate that,
+ *   since the process can die between a job finishing and it being deleted.
+ * - Running jobs are reset to pending on launch anyway, so lost running state doesn't matter.
+ * - A lost retry would let a job run more than its max attempts, so {@link FastJobStorage} flushes
+ *   before starting a job that has a retry pending here. See {@link #hasPendingUpdate(String)}.
+ */
+public class WriteBehindJobJournal {
+
+  private static final String TAG = WriteBehindJobJournal.class.getSimpleName();
+
+  private final JobDatabase              jobDatabase;
+  private final ScheduledExecutorService executor;
+  private final long                     flushDelayMs;
+  private final int                      maxPendingOperations;
+  private final Object                   flushLock;
+
+  private final Map<String, JobSpec> pendingUpdates;
+  private final Set<String>          pendingDeletes;
+
+  private boolean flushScheduled;
+  private boolean immediateFlushScheduled;
+
+  public WriteBehindJobJournal(@NonNull JobDatabase jobDatabase, long flushDelayMs, int maxPendingOperations) {
+    this(jobDatabase,
+         Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-job-journal")),
+         flushDelayMs,
+         maxPendingOperations);
+  }
+
+  @VisibleForTesting
+  WriteBehindJobJournal(@NonNull JobDatabase jobDatabase,
+                        @NonNull ScheduledExecutorService executor,
+                        long flushDelayMs,
+                        int maxPendingOperations)
+  {
+    this.jobDatabase          = jobDatabase;
+    this.executor             = executor;
+    this.flushDelayMs         = flushDelayMs;
+    this.maxPendingOperations = maxPendingOperations;
+    this.flushLock            = new Object();
+    this.pendingUpdates       = new LinkedHashMap<>();
+    this.pendingDeletes       = new LinkedHashSet<>();
+  }
+
+  /**
+   * Records the latest state of a job. Only the most recent update for a given job is written.
+   */
+  public synchronized void update(@NonNull JobSpec jobSpec) {
+    if (pendingDeletes.contains(jobSpec.getId())) {
+      Log.w(TAG, "Ignoring an update for a job that is pending deletion. " + jobSpec.getId());
+      return;
+    }
+
+    pendingUpdates.put(jobSpec.getId(), jobSpec);
+    onOperationAdded();
+  }
+
+  /**
+   * Records that the jobs are done, dropping any pending update for them.
+   */
+  public synchronized void delete(@NonNull Collection<String> jobIds) {
+    for (String jobId : jobIds) {
+      pendingUpdates.remove(jobId);
+      pendingDeletes.add(jobId);
+    }
+
+    onOperationAdded();
+  }
+
+  /**
+   * Whether an update for the job has been recorded but not yet written.
+   */
+  public synchronized boolean hasPendingUpdate(@NonNull String jobId) {
+    return pendingUpdates.containsKey(jobId);
+  }
+
+  public synchronized int getPendingOperationCount() {
+    return pendingUpdates.size() + pendingDeletes.size();
+  }
+
+  /**
+   * Synchronously writes everything that is currently pending. If the write fails, the batch is
+   * put back so that it can be retried on the next flush.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      List<JobSpec> updates;
+      List<String>  deletes;
+
+      synchronized (this) {
+        flushScheduled          = false;
+        immediateFlushScheduled = false;
+
+        if (pendingUpdates.isEmpty() && pendingDeletes.isEmpty()) {
+          return;
+        }
+
+        updates = new ArrayList<>(pendingUpdates.values());
+        deletes = new ArrayList<>(pendingDeletes);
+
+        pendingUpdates.clear();
+        pendingDeletes.clear();
+      }
+
+      try {
+        jobDatabase.updateAndDeleteJobs(updates, deletes);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to write a batch of " + (updates.size() + deletes.size()) + " operations. Will retry.", e);
+        restore(updates, deletes);
+        throw e;
+      }
+    }
+  }
+
+  private synchronized void restore(@NonNull List<JobSpec> updates, @NonNull List<String> deletes) {
+    for (JobSpec update : updates) {
+      if (!pendingUpdates.containsKey(update.getId()) && !pendingDeletes.contains(update.getId())) {
+        pendingUpdates.put(update.getId(), update);
+      }
+    }
+
+    for (String delete : deletes) {
+      pendingUpdates.remove(delete);
+      pendingDeletes.add(delete);
+    }
+
+    scheduleFlush(flushDelayMs);
+  }
+
+  private void onOperationAdded() {
+    if (getPendingOperationCount() >= maxPendingOperations) {
+      if (!immediateFlushScheduled) {
+        immediateFlushScheduled = true;
+        scheduleFlush(0);
+      }
+    } else if (!flushScheduled) {
+      scheduleFlush(flushDelayMs);
+    }
+  }
+
+  private void scheduleFlush(long delayMs) {
+    flushScheduled = true;
+    executor.schedule(this::flushQuietly, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Scheduled flush failed.", e);
+    }
+  }
+}
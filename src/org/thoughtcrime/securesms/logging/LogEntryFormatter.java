@@ -0,0 +1,62 @@
+package org.thoughtcrime.securesms.logging;
+
+import androidx.annotation.NonNull;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Formats log entries as "yyyy-MM-dd HH:mm:ss.SSS zzz level tag: message" into a reusable
+ * {@link StringBuilder}.
+ *
+ * Only the date, hours, minutes and zone go through {@link SimpleDateFormat}, and only when the
+ * minute changes. Seconds and milliseconds are appended directly, so formatting an entry doesn't
+ * allocate in the common case. Time zone offsets are whole minutes, so every local minute starts
+ * on a multiple of a minute since the epoch. Not thread safe.
+ */
+final class LogEntryFormatter {
+
+  private static final long MINUTE_MS = 60 * 1000;
+
+  private final SimpleDateFormat minuteFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:");
+  private final SimpleDateFormat zoneFormat   = new SimpleDateFormat(" zzz");
+  private final Date             date         = new Date();
+
+  private long   cachedMinute = Long.MIN_VALUE;
+  private String cachedPrefix;
+  private String cachedSuffix;
+
+  /**
+   * Formats an entry whose message is message[start, end).
+   */
+  void format(@NonNull StringBuilder out, long timestamp, @NonNull String level, String tag, @NonNull CharSequence message, int start, int end) {
+    appendTimestamp(out, timestamp);
+
+    out.append(' ').append(level).append(' ').append(tag).append(": ").append(message, start, end);
+  }
+
+  private void appendTimestamp(@NonNull StringBuilder out, long timestamp) {
+    long minute = Math.floorDiv(timestamp, MINUTE_MS);
+
+    if (minute != cachedMinute) {
+      date.setTime(minute * MINUTE_MS);
+
+      cachedMinute = minute;
+      cachedPrefix = minuteFormat.format(date);
+      cachedSuffix = zoneFormat.format(date);
+    }
+
+    int millisOfMinute = (int) (timestamp - minute * MINUTE_MS);
+    int seconds        = millisOfMinute / 1000;
+    int millis         = millisOfMinute % 1000;
+
+    out.append(cachedPrefix)
+       .append((char) ('0' + seconds / 10))
+       .append((char) ('0' + seconds % 10))
+       .append('.')
+       .append((char) ('0' + millis / 100))
+       .append((char) ('0' + millis / 10 % 10))
+       .append((char) ('0' + millis % 10))
+       .append(cachedSuffix);
+  }
+}
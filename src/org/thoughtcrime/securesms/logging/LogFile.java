@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.logging;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import org.thoughtcrime.securesms.util.Conversions;
 import org.thoughtcrime.securesms.util.Util;
@@ -12,10 +13,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -25,72 +29,204 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Log files are a sequence of frames, each made up of a 16 byte IV, a 4 byte length, and that
+ * many bytes of AES/CBC ciphertext.
+ *
+ * Files in the current format start with {@link #BLOCK_FORMAT_MAGIC}, and each frame holds a block
+ * of up to {@link #BLOCK_SIZE} bytes of UTF-8 text. The text of the file is the concatenation of
+ * all of its blocks, so a single entry may span two blocks.
+ *
+ * Files in the legacy format have no header, and each frame holds a single entry without its
+ * trailing newline. They can still be read, but are never appended to.
+ */
 class LogFile {
 
+  private static final byte[] BLOCK_FORMAT_MAGIC = { 'S', 'L', 'O', 'G', 'B', 'L', 'K', '1' };
+
+  static final int BLOCK_SIZE = 8 * 1024;
+
+  /**
+   * @return True if the file is missing, empty, or already in the block format, meaning a
+   *         {@link Writer} can append to it.
+   */
+  static boolean canAppend(@NonNull File file) throws IOException {
+    if (!file.exists() || file.length() == 0) {
+      return true;
+    }
+
+    try (InputStream inputStream = new FileInputStream(file)) {
+      return hasBlockFormatMagic(inputStream);
+    }
+  }
+
+  private static boolean hasBlockFormatMagic(@NonNull InputStream inputStream) throws IOException {
+    byte[] header = new byte[BLOCK_FORMAT_MAGIC.length];
+
+    try {
+      Util.readFully(inputStream, header);
+    } catch (EOFException e) {
+      return false;
+    }
+
+    return Arrays.equals(header, BLOCK_FORMAT_MAGIC);
+  }
+
+  /**
+   * Buffers entries into blocks and encrypts each block once, when it fills up or when
+   * {@link #flush()} is called. Nothing written since the last flush is on disk.
+   */
   public static class Writer {
 
-    private final byte[]        ivBuffer         = new byte[16];
-    private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
+    private final byte[] ivBuffer     = new byte[16];
+    private final byte[] lengthBuffer = new byte[4];
 
-    private final byte[]               secret;
-    private final File                 file;
+    private final SecretKeySpec        key;
+    private final SecureRandom         random;
     private final Cipher               cipher;
+    private final byte[]               plaintext;
+    private final byte[]               ciphertext;
     private final BufferedOutputStream outputStream;
 
+    private int  position;
+    private long logSize;
+
     Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
-      this.file         = file;
-      this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
+      this(secret, file, BLOCK_SIZE);
+    }
+
+    @VisibleForTesting
+    Writer(@NonNull byte[] secret, @NonNull File file, int blockSize) throws IOException {
+      if (!canAppend(file)) {
+        throw new IOException("Cannot append to a log file in the legacy format.");
+      }
+
+      this.key    = new SecretKeySpec(secret, "AES");
+      this.random = new SecureRandom();
 
       try {
         this.cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
         throw new AssertionError(e);
       }
+
+      this.plaintext    = new byte[Math.max(blockSize, 4)];
+      this.ciphertext   = new byte[cipher.getBlockSize() * (plaintext.length / cipher.getBlockSize() + 1)];
+      this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true), ivBuffer.length + lengthBuffer.length + ciphertext.length);
+      this.logSize      = file.length();
+
+      if (logSize == 0) {
+        outputStream.write(BLOCK_FORMAT_MAGIC);
+        outputStream.flush();
+        logSize = BLOCK_FORMAT_MAGIC.length;
+      }
     }
 
-    void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+    /**
+     * Appends the entry and a trailing newline to the current block, writing out blocks as they
+     * fill up. Does not allocate.
+     */
+    void writeEntry(@NonNull CharSequence entry) throws IOException {
+      int length = entry.length();
 
-      byte[] plaintext = entry.getBytes();
-      try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+      for (int i = 0; i < length; i++) {
+        if (position + 4 > plaintext.length) {
+          writeBlock();
+        }
 
-        int    cipherLength = cipher.getOutputSize(plaintext.length);
-        byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
-        cipherLength = cipher.doFinal(plaintext, 0, plaintext.length, ciphertext);
+        char c = entry.charAt(i);
 
-        outputStream.write(ivBuffer);
-        outputStream.write(Conversions.intToByteArray(cipherLength));
-        outputStream.write(ciphertext, 0, cipherLength);
+        if (c < 0x80) {
+          plaintext[position++] = (byte) c;
+        } else if (c < 0x800) {
+          plaintext[position++] = (byte) (0xC0 | (c >> 6));
+          plaintext[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(entry.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, entry.charAt(++i));
 
-        outputStream.flush();
-      } catch (ShortBufferException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
-        throw new AssertionError(e);
+          plaintext[position++] = (byte) (0xF0 | (codePoint >> 18));
+          plaintext[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          plaintext[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          plaintext[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          plaintext[position++] = '?';
+        } else {
+          plaintext[position++] = (byte) (0xE0 | (c >> 12));
+          plaintext[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          plaintext[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+
+      if (position == plaintext.length) {
+        writeBlock();
+      }
+
+      plaintext[position++] = '\n';
+    }
+
+    /**
+     * Encrypts and writes out the current block, if there is anything in it.
+     */
+    void flush() throws IOException {
+      if (position > 0) {
+        writeBlock();
       }
     }
 
+    /**
+     * @return The size of the file, plus the size of anything that has not been flushed yet.
+     */
     long getLogSize() {
-      return file.length();
+      return logSize + position;
     }
 
-    void close() {
-      Util.close(outputStream);
+    void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        Util.close(outputStream);
+      }
+    }
+
+    private void writeBlock() throws IOException {
+      random.nextBytes(ivBuffer);
+
+      try {
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(ivBuffer));
+
+        int cipherLength = cipher.doFinal(plaintext, 0, position, ciphertext, 0);
+
+        Conversions.intToByteArray(lengthBuffer, 0, cipherLength);
+
+        outputStream.write(ivBuffer);
+        outputStream.write(lengthBuffer);
+        outputStream.write(ciphertext, 0, cipherLength);
+        outputStream.flush();
+
+        logSize += ivBuffer.length + lengthBuffer.length + cipherLength;
+        position = 0;
+      } catch (ShortBufferException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
+        throw new AssertionError(e);
+      }
     }
   }
 
+  /**
+   * Reads files in both the block format and the legacy format.
+   */
   static class Reader {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final byte[]        intBuffer        = new byte[4];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
 
-    private final byte[]              secret;
+    private final SecretKeySpec       key;
     private final Cipher              cipher;
     private final BufferedInputStream inputStream;
+    private final boolean             blockFormat;
 
     Reader(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret      = secret;
+      this.key         = new SecretKeySpec(secret, "AES");
       this.inputStream = new BufferedInputStream(new FileInputStream(file));
 
       try {
@@ -98,20 +234,36 @@ class LogFile {
       } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
         throw new AssertionError(e);
       }
+
+      inputStream.mark(BLOCK_FORMAT_MAGIC.length);
+
+      this.blockFormat = hasBlockFormatMagic(inputStream);
+
+      if (!blockFormat) {
+        inputStream.reset();
+      }
     }
 
     String readAll() throws IOException {
       StringBuilder builder = new StringBuilder();
 
-      String entry;
-      while ((entry = readEntry()) != null) {
-        builder.append(entry).append('\n');
+      try {
+        String frame;
+        while ((frame = readFrame()) != null) {
+          builder.append(frame);
+
+          if (!blockFormat) {
+            builder.append('\n');
+          }
+        }
+      } finally {
+        Util.close(inputStream);
       }
 
       return builder.toString();
     }
 
-    private String readEntry() throws IOException {
+    private String readFrame() throws IOException {
       try {
         Util.readFully(inputStream, ivBuffer);
         Util.readFully(inputStream, intBuffer);
@@ -122,10 +274,10 @@ class LogFile {
         Util.readFully(inputStream, ciphertext, length);
 
         try {
-          cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+          cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(ivBuffer));
           byte[] plaintext = cipher.doFinal(ciphertext, 0, length);
 
-          return new String(plaintext);
+          return blockFormat ? new String(plaintext, StandardCharsets.UTF_8) : new String(plaintext);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
           throw new AssertionError(e);
         }
@@ -8,18 +8,15 @@ import org.thoughtcrime.securesms.database.NoExternalStorageException;
 import org.thoughtcrime.securesms.util.concurrent.ListenableFuture;
 import org.thoughtcrime.securesms.util.concurrent.SettableFuture;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.text.SimpleDateFormat;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class PersistentLogger extends Log.Logger {
 
@@ -32,22 +29,27 @@ public class PersistentLogger extends Log.Logger {
   private static final String LOG_E   = "E";
   private static final String LOG_WTF = "A";
 
-  private static final String           LOG_DIRECTORY   = "log";
-  private static final String           FILENAME_PREFIX = "log-";
-  private static final int              MAX_LOG_FILES   = 5;
-  private static final int              MAX_LOG_SIZE    = 300 * 1024;
-  private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
+  private static final String LOG_DIRECTORY     = "log";
+  private static final String FILENAME_PREFIX   = "log-";
+  private static final int    MAX_LOG_FILES     = 5;
+  private static final int    MAX_LOG_SIZE      = 300 * 1024;
+  private static final long   FLUSH_INTERVAL_MS = 500;
 
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
+  private final byte[]                   secret;
+  private final LogEntryFormatter        formatter;
+  private final StringBuilder            entryBuilder;
 
   private LogFile.Writer writer;
+  private boolean        flushScheduled;
 
   public PersistentLogger(Context context) {
-    this.context  = context.getApplicationContext();
-    this.secret   = LogSecretProvider.getOrCreateAttachmentSecret(context);
-    this.executor = Executors.newSingleThreadExecutor(r -> {
+    this.context      = context.getApplicationContext();
+    this.secret       = LogSecretProvider.getOrCreateAttachmentSecret(context);
+    this.formatter    = new LogEntryFormatter();
+    this.entryBuilder = new StringBuilder();
+    this.executor     = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread thread = new Thread(r, "signal-PersistentLogger");
       thread.setPriority(Thread.MIN_PRIORITY);
       return thread;
@@ -90,7 +92,10 @@ public class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    executor.execute(() -> {
+      flush();
+      latch.countDown();
+    });
 
     try {
       latch.await();
@@ -104,6 +109,8 @@ public class PersistentLogger extends Log.Logger {
     final SettableFuture<String> future = new SettableFuture<>();
 
     executor.execute(() -> {
+      flush();
+
       StringBuilder builder = new StringBuilder();
 
       try {
@@ -138,6 +145,8 @@ public class PersistentLogger extends Log.Logger {
 
   @AnyThread
   private void write(String level, String tag, String message, Throwable t) {
+    long timestamp = System.currentTimeMillis();
+
     executor.execute(() -> {
       try {
         if (writer == null) {
@@ -150,10 +159,8 @@ public class PersistentLogger extends Log.Logger {
           trimLogFilesOverMax();
         }
 
-        for (String entry : buildLogEntries(level, tag, message, t)) {
-          writer.writeEntry(entry);
-        }
-
+        writeEntries(timestamp, level, tag, message, t);
+        scheduleFlush();
       } catch (NoExternalStorageException e) {
         android.util.Log.w(TAG, "Cannot persist logs.", e);
       } catch (IOException e) {
@@ -164,6 +171,33 @@ public class PersistentLogger extends Log.Logger {
     });
   }
 
+  /**
+   * Entries are only encrypted and written out a block at a time, so a partial block is flushed
+   * shortly after it is started to bound how much a process death can lose.
+   */
+  @WorkerThread
+  private void scheduleFlush() {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(this::flush, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @WorkerThread
+  private void flush() {
+    flushScheduled = false;
+
+    if (writer == null) {
+      return;
+    }
+
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to flush logs.", e);
+    }
+  }
+
   private void trimLogFilesOverMax() throws NoExternalStorageException {
     File[] logs = getSortedLogFiles();
     if (logs.length > MAX_LOG_FILES) {
@@ -184,9 +218,9 @@ public class PersistentLogger extends Log.Logger {
     }
   }
 
-  private File getOrCreateActiveLogFile() throws NoExternalStorageException {
+  private File getOrCreateActiveLogFile() throws NoExternalStorageException, IOException {
     File[] logs = getSortedLogFiles();
-    if (logs.length > 0) {
+    if (logs.length > 0 && LogFile.canAppend(logs[0])) {
       return logs[0];
     }
 
@@ -215,28 +249,33 @@ public class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t) {
-    List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
+  @WorkerThread
+  private void writeEntries(long timestamp, String level, String tag, String message, Throwable t) throws IOException {
+    String text = String.valueOf(message);
 
-    entries.add(buildEntry(level, tag, message, date));
+    writeEntry(timestamp, level, tag, text, 0, text.length());
 
     if (t != null) {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      t.printStackTrace(new PrintStream(outputStream));
+      StringWriter stackTrace = new StringWriter();
+      t.printStackTrace(new PrintWriter(stackTrace));
+
+      StringBuffer trace = stackTrace.getBuffer();
+      int          start = 0;
 
-      String   trace = new String(outputStream.toByteArray());
-      String[] lines = trace.split("\\n");
+      while (start < trace.length()) {
+        int end = trace.indexOf("\n", start);
+        if (end < 0) end = trace.length();
 
-      for (String line : lines) {
-        entries.add(buildEntry(level, tag, line, date));
+        writeEntry(timestamp, level, tag, trace, start, end);
+        start = end + 1;
       }
     }
-
-    return entries;
   }
 
-  private String buildEntry(String level, String tag, String message, Date date) {
-    return DATE_FORMAT.format(date) + ' ' + level + ' ' + tag + ": " + message;
+  @WorkerThread
+  private void writeEntry(long timestamp, String level, String tag, CharSequence message, int start, int end) throws IOException {
+    entryBuilder.setLength(0);
+    formatter.format(entryBuilder, timestamp, level, tag, message, start, end);
+    writer.writeEntry(entryBuilder);
   }
 }
@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.recipients;
 import android.content.Context;
 import android.text.TextUtils;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LifecycleOwner;
@@ -17,6 +18,7 @@ import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase.GroupRecord;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -125,20 +127,9 @@ public final class LiveRecipient {
       return current;
     }
 
-    Recipient       updated      = fetchRecipientFromDisk(defaultRecipient.getId());
-    List<Recipient> participants = Stream.of(updated.getParticipants())
-                                         .filter(Recipient::isResolving)
-                                         .map(Recipient::getId)
-                                         .map(this::fetchRecipientFromDisk)
-                                         .toList();
+    Recipient updated = fetchRecipientFromDisk(defaultRecipient.getId());
 
-    Util.runOnMainSync(() -> {
-      for (Recipient participant : participants) {
-        participant.live().liveData.setValue(participant);
-      }
-
-      liveData.setValue(updated);
-    });
+    Util.runOnMainSync(() -> liveData.setValue(updated));
 
     return updated;
   }
@@ -148,27 +139,31 @@ public final class LiveRecipient {
    */
   @WorkerThread
   public void refresh() {
-    Recipient       recipient    = fetchRecipientFromDisk(defaultRecipient.getId());
-    List<Recipient> participants = Stream.of(recipient.getParticipants())
-                                         .map(Recipient::getId)
-                                         .map(this::fetchRecipientFromDisk)
-                                         .toList();
-
-    Util.runOnMainSync(() -> {
-      for (Recipient participant : participants) {
-        participant.live().liveData.setValue(participant);
-      }
+    Recipient recipient = fetchRecipientFromDisk(defaultRecipient.getId());
 
-      liveData.setValue(recipient);
-    });
+    ApplicationDependencies.getRecipientCache().refresh(Stream.of(recipient.getParticipants()).map(Recipient::getId).toList());
+
+    Util.runOnMainSync(() -> liveData.setValue(recipient));
   }
 
-  private @NonNull Recipient fetchRecipientFromDisk(RecipientId id) {
-    RecipientSettings settings = recipientDatabase.getRecipientSettings(id);
-    RecipientDetails  details  = settings.getAddress().isGroup() ? getGroupRecipientDetails(settings)
-                                                                 : getIndividualRecipientDetails(settings);
+  /**
+   * Builds the recipient from settings that have already been read, e.g. as part of a bulk load.
+   */
+  @WorkerThread
+  @NonNull Recipient fetchRecipient(@NonNull RecipientSettings settings) {
+    RecipientDetails details = settings.getAddress().isGroup() ? getGroupRecipientDetails(settings)
+                                                               : getIndividualRecipientDetails(settings);
+
+    return new Recipient(settings.getId(), details);
+  }
 
-    return new Recipient(id, details);
+  @MainThread
+  void set(@NonNull Recipient recipient) {
+    liveData.setValue(recipient);
+  }
+
+  private @NonNull Recipient fetchRecipientFromDisk(RecipientId id) {
+    return fetchRecipient(recipientDatabase.getRecipientSettings(id));
   }
 
   private @NonNull RecipientDetails getIndividualRecipientDetails(RecipientSettings settings) {
@@ -183,7 +178,7 @@ public final class LiveRecipient {
 
     if (groupRecord.isPresent()) {
       String          title    = groupRecord.get().getTitle();
-      List<Recipient> members  = Stream.of(groupRecord.get().getMembers()).map(Recipient::resolved).toList();
+      List<Recipient> members  = Recipient.resolvedList(groupRecord.get().getMembers());
       Optional<Long>  avatarId = Optional.absent();
 
       if (!settings.getAddress().isMmsGroup() && title == null) {
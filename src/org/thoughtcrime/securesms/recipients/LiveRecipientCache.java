@@ -10,14 +10,24 @@ import androidx.lifecycle.MutableLiveData;
 
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
+import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public final class LiveRecipientCache {
 
+  private static final String TAG = Log.tag(LiveRecipientCache.class);
 
   private final Context                         context;
   private final RecipientDatabase               recipientDatabase;
@@ -36,6 +46,38 @@ public final class LiveRecipientCache {
 
   @AnyThread
   synchronized @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
+    return getLive(id, true);
+  }
+
+  /**
+   * Resolves many recipients at once. Whichever of them aren't resolved yet are read with one query,
+   * and published with one trip to the main thread. Group members are resolved the same way, a
+   * group at a time.
+   */
+  @WorkerThread
+  @NonNull List<Recipient> getResolved(@NonNull Collection<RecipientId> ids) {
+    return load(ids, false);
+  }
+
+  /**
+   * Like {@link #getResolved(Collection)}, but reloads recipients that are already resolved too.
+   */
+  @WorkerThread
+  void refresh(@NonNull Collection<RecipientId> ids) {
+    load(ids, true);
+  }
+
+  @NonNull Recipient getSelf() {
+    synchronized (this) {
+      if (localRecipientId == null) {
+        localRecipientId = recipientDatabase.getOrInsertFromE164(TextSecurePreferences.getLocalNumber(context));
+      }
+    }
+
+    return getLive(localRecipientId).resolve();
+  }
+
+  private synchronized @NonNull LiveRecipient getLive(@NonNull RecipientId id, boolean resolveInBackground) {
     if (id.isUnknown()) return unknown;
 
     LiveRecipient live = recipients.get(id);
@@ -44,7 +86,10 @@ public final class LiveRecipientCache {
       final LiveRecipient newLive = new LiveRecipient(context, new MutableLiveData<>(), new Recipient(id));
 
       recipients.put(id, newLive);
-      SignalExecutors.BOUNDED.execute(newLive::resolve);
+
+      if (resolveInBackground) {
+        SignalExecutors.BOUNDED.execute(newLive::resolve);
+      }
 
       live = newLive;
     }
@@ -52,13 +97,53 @@ public final class LiveRecipientCache {
     return live;
   }
 
-  @NonNull Recipient getSelf() {
+  @WorkerThread
+  private @NonNull List<Recipient> load(@NonNull Collection<RecipientId> ids, boolean reload) {
+    Map<RecipientId, LiveRecipient> lives = new HashMap<>(ids.size());
+
     synchronized (this) {
-      if (localRecipientId == null) {
-        localRecipientId = recipientDatabase.getOrInsertFromE164(TextSecurePreferences.getLocalNumber(context));
+      for (RecipientId id : ids) {
+        lives.put(id, getLive(id, false));
       }
     }
 
-    return getLive(localRecipientId).resolve();
+    Set<RecipientId> toLoad = new HashSet<>();
+
+    for (LiveRecipient live : lives.values()) {
+      if (!live.getId().isUnknown() && (reload || live.get().isResolving())) {
+        toLoad.add(live.getId());
+      }
+    }
+
+    Map<RecipientId, Recipient> loaded = new HashMap<>(toLoad.size());
+
+    if (!toLoad.isEmpty()) {
+      for (RecipientSettings settings : recipientDatabase.getRecipientSettings(toLoad).values()) {
+        loaded.put(settings.getId(), lives.get(settings.getId()).fetchRecipient(settings));
+      }
+
+      Util.runOnMainSync(() -> {
+        for (Recipient recipient : loaded.values()) {
+          lives.get(recipient.getId()).set(recipient);
+        }
+      });
+
+      for (RecipientId id : toLoad) {
+        if (!loaded.containsKey(id)) {
+          Log.w(TAG, "Couldn't bulk load recipient " + id + ", falling back to a single lookup.");
+          loaded.put(id, lives.get(id).resolve());
+        }
+      }
+    }
+
+    List<Recipient> resolved = new ArrayList<>(ids.size());
+
+    for (RecipientId id : ids) {
+      Recipient recipient = loaded.get(id);
+      resolved.add(recipient != null ? recipient : lives.get(id).get());
+    }
+
+    return resolved;
   }
+
 }
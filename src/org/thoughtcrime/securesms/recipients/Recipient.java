@@ -37,6 +37,7 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.libsignal.util.guava.Preconditions;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -97,6 +98,15 @@ public class Recipient {
     return live(id).resolve();
   }
 
+  /**
+   * Resolves many recipients at once, with a single query for all of their settings. Prefer this to
+   * calling {@link #resolved(RecipientId)} in a loop.
+   */
+  @WorkerThread
+  public static @NonNull List<Recipient> resolvedList(@NonNull Collection<RecipientId> ids) {
+    return ApplicationDependencies.getRecipientCache().getResolved(ids);
+  }
+
   /**
    * Returns a fully-populated {@link Recipient} based off of a string identifier, creating one in
    * the database if necessary. The identifier may be a phone number, email, or serialized groupId.
@@ -106,7 +116,11 @@ public class Recipient {
     Preconditions.checkNotNull(address, "Address cannot be null.");
 
     RecipientDatabase db = DatabaseFactory.getRecipientDatabase(context);
-    RecipientId       id = null;
+    RecipientId       id = db.getCachedIdForExternalAddress(address);
+
+    if (id != null) {
+      return Recipient.resolved(id);
+    }
 
     if (GroupUtil.isEncodedGroup(address)) {
       id = db.getOrInsertFromGroupId(address);
@@ -117,6 +131,8 @@ public class Recipient {
       id = db.getOrInsertFromE164(e164);
     }
 
+    db.cacheExternalAddress(address, id);
+
     return Recipient.resolved(id);
   }
 
@@ -0,0 +1,87 @@
+package org.thoughtcrime.securesms.search;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.annimon.stream.Stream;
+
+import org.thoughtcrime.securesms.database.SearchDatabase;
+
+import java.util.List;
+
+/**
+ * Remembers the complete message result set of the last search, so that a search that can only
+ * match a subset of it (e.g. the user typing another letter) only has to look at those messages.
+ *
+ * Every search term is matched as a prefix, so if each term of the old query is a prefix of the
+ * matching term in the new one, every new match was also an old match. Messages newer than the
+ * old search are always let through, so results stay current.
+ */
+final class MessageSearchRefiner {
+
+  private String                    query;
+  private SearchDatabase.Candidates candidates;
+
+  /**
+   * @return The messages a search for the query can be restricted to, or null if it has to search
+   *         everything.
+   */
+  synchronized @Nullable SearchDatabase.Candidates getCandidates(@NonNull String query) {
+    if (this.query != null && isRefinement(this.query, query)) {
+      return candidates;
+    }
+
+    return null;
+  }
+
+  /**
+   * Records the results of a search. They're only kept if they're the full set of matches, since a
+   * partial page can't be used to rule anything out.
+   */
+  synchronized void update(@NonNull String                   query,
+                           @NonNull Cursor                   results,
+                           @NonNull SearchDatabase.Watermark watermark,
+                           int                               limit)
+  {
+    if (results.getCount() < limit) {
+      this.query      = query;
+      this.candidates = SearchDatabase.Candidates.fromCursor(results, watermark);
+    } else {
+      clear();
+    }
+  }
+
+  synchronized void clear() {
+    this.query      = null;
+    this.candidates = null;
+  }
+
+  /**
+   * @return True if every match for the new query is guaranteed to be a match for the old one.
+   */
+  static boolean isRefinement(@NonNull String previous, @NonNull String next) {
+    List<String> previousTerms = getTerms(previous);
+    List<String> nextTerms     = getTerms(next);
+
+    if (previousTerms.isEmpty() || nextTerms.size() < previousTerms.size() || previousTerms.equals(nextTerms)) {
+      return false;
+    }
+
+    for (int i = 0; i < previousTerms.size(); i++) {
+      if (!nextTerms.get(i).startsWith(previousTerms.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static @NonNull List<String> getTerms(@NonNull String query) {
+    return Stream.of(query.split(" "))
+                 .map(String::trim)
+                 .filter(s -> s.length() > 0)
+                 .toList();
+  }
+}
@@ -20,11 +20,13 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.MergeCursor;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.annimon.stream.Stream;
 
 
+import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.contacts.ContactRepository;
 import org.thoughtcrime.securesms.contacts.ContactsDatabase;
@@ -34,11 +36,13 @@ import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.SearchDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.jobs.SearchIndexJob;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.search.model.MessageResult;
+import org.thoughtcrime.securesms.search.model.MessageSearchPage;
 import org.thoughtcrime.securesms.search.model.SearchResult;
 import org.thoughtcrime.securesms.util.Stopwatch;
 
@@ -46,9 +50,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages data retrieval for search.
+ *
+ * Messages are indexed in the background by a {@link SearchIndexJob}, which is started as they're
+ * written. A search never indexes anything itself. If it finds messages still queued, it makes
+ * sure a job is on the way and searches the index as it is.
+ *
+ * Each new search supersedes the ones before it. A superseded search stops at its next stage and
+ * closes whatever it already queried, instead of finishing work nobody will look at.
  */
 public class SearchRepository {
 
@@ -78,6 +90,9 @@ public class SearchRepository {
   private final ContactAccessor   contactAccessor;
   private final Executor          executor;
 
+  private final MessageSearchRefiner refiner    = new MessageSearchRefiner();
+  private final AtomicLong           generation = new AtomicLong();
+
   public SearchRepository(@NonNull Context context,
                           @NonNull SearchDatabase searchDatabase,
                           @NonNull ThreadDatabase threadDatabase,
@@ -94,12 +109,16 @@ public class SearchRepository {
   }
 
   public void query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
+    long queryGeneration = generation.incrementAndGet();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(SearchResult.EMPTY);
       return;
     }
 
     executor.execute(() -> {
+      if (isSuperseded(queryGeneration)) return;
+
       Stopwatch timer = new Stopwatch("FtsQuery");
 
       String cleanQuery = sanitizeQuery(query);
@@ -108,9 +127,20 @@ public class SearchRepository {
       CursorList<Recipient> contacts = queryContacts(cleanQuery);
       timer.split("contacts");
 
+      if (isSuperseded(queryGeneration)) {
+        contacts.close();
+        return;
+      }
+
       CursorList<ThreadRecord> conversations = queryConversations(cleanQuery);
       timer.split("conversations");
 
+      if (isSuperseded(queryGeneration)) {
+        contacts.close();
+        conversations.close();
+        return;
+      }
+
       CursorList<MessageResult> messages = queryMessages(cleanQuery);
       timer.split("messages");
 
@@ -120,6 +150,43 @@ public class SearchRepository {
     });
   }
 
+  /**
+   * Fetches a page of message results. Pass the key from the previous page to continue from it, or
+   * null for the first page.
+   */
+  public void queryMessages(@NonNull String                   query,
+                            boolean                           ranked,
+                            @Nullable SearchDatabase.PageKey after,
+                            @NonNull Callback<MessageSearchPage> callback)
+  {
+    if (TextUtils.isEmpty(query)) {
+      callback.onResult(MessageSearchPage.EMPTY);
+      return;
+    }
+
+    executor.execute(() -> {
+      scheduleIndexingIfBehind();
+
+      String cleanQuery = sanitizeQuery(query);
+      int    limit      = SearchDatabase.DEFAULT_PAGE_SIZE;
+      Cursor messages   = searchDatabase.queryMessages(cleanQuery, ranked, after, refiner.getCandidates(cleanQuery), limit);
+
+      if (messages == null) {
+        callback.onResult(MessageSearchPage.EMPTY);
+        return;
+      }
+
+      SearchDatabase.PageKey next = null;
+
+      if (messages.getCount() >= limit && messages.moveToLast()) {
+        next = SearchDatabase.PageKey.fromCursor(messages);
+        messages.moveToPosition(-1);
+      }
+
+      callback.onResult(new MessageSearchPage(new CursorList<>(messages, new MessageModelBuilder(context)), next));
+    });
+  }
+
   public void query(@NonNull String query, long threadId, @NonNull Callback<CursorList<MessageResult>> callback) {
     if (TextUtils.isEmpty(query)) {
       callback.onResult(CursorList.emptyList());
@@ -157,17 +224,47 @@ public class SearchRepository {
   }
 
   private CursorList<MessageResult> queryMessages(@NonNull String query) {
-    Cursor messages = searchDatabase.queryMessages(query);
-    return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
-                            : CursorList.emptyList();
+    boolean                  caughtUp  = scheduleIndexingIfBehind();
+    SearchDatabase.Watermark watermark = searchDatabase.getWatermark();
+    int                      limit     = SearchDatabase.DEFAULT_PAGE_SIZE;
+    Cursor                   messages  = searchDatabase.queryMessages(query, false, null, caughtUp ? refiner.getCandidates(query) : null, limit);
+
+    if (messages == null || !caughtUp) {
+      refiner.clear();
+      return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
+                              : CursorList.emptyList();
+    }
+
+    refiner.update(query, messages, watermark, limit);
+
+    return new CursorList<>(messages, new MessageModelBuilder(context));
   }
 
   private CursorList<MessageResult> queryMessages(@NonNull String query, long threadId) {
+    scheduleIndexingIfBehind();
+
     Cursor messages = searchDatabase.queryMessages(query, threadId);
     return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
                             : CursorList.emptyList();
   }
 
+  /**
+   * @return True if the index has caught up with every message.
+   */
+  private boolean scheduleIndexingIfBehind() {
+    if (searchDatabase.hasPendingMessages()) {
+      Log.i(TAG, "Search index is behind. Indexing in a background job.");
+      ApplicationContext.getInstance(context).getJobManager().add(new SearchIndexJob());
+      return false;
+    }
+
+    return true;
+  }
+
+  private boolean isSuperseded(long queryGeneration) {
+    return generation.get() != queryGeneration;
+  }
+
   /**
    * Unfortunately {@link DatabaseUtils#sqlEscapeString(String)} is not sufficient for our purposes.
    * MATCH queries have a separate format of their own that disallow most "special" characters.
@@ -0,0 +1,44 @@
+package org.thoughtcrime.securesms.search.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.CursorList;
+import org.thoughtcrime.securesms.database.SearchDatabase;
+
+import java.util.List;
+
+/**
+ * One page of message search results, plus the key to continue from if there may be more.
+ */
+public class MessageSearchPage {
+
+  public static final MessageSearchPage EMPTY = new MessageSearchPage(CursorList.emptyList(), null);
+
+  private final CursorList<MessageResult> messages;
+  private final SearchDatabase.PageKey    next;
+
+  public MessageSearchPage(@NonNull CursorList<MessageResult> messages, @Nullable SearchDatabase.PageKey next) {
+    this.messages = messages;
+    this.next     = next;
+  }
+
+  public List<MessageResult> getMessages() {
+    return messages;
+  }
+
+  /**
+   * @return The key for the following page, or null if this is the last one.
+   */
+  public @Nullable SearchDatabase.PageKey getNext() {
+    return next;
+  }
+
+  public boolean hasMore() {
+    return next != null;
+  }
+
+  public void close() {
+    messages.close();
+  }
+}
@@ -0,0 +1,192 @@
+package org.thoughtcrime.securesms.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A timer wheel for message expirations. Time is split into ticks, and each slot on the wheel
+ * holds the messages expiring during one tick. The wheel only covers a window of one full
+ * rotation past the current tick. Anything expiring later isn't held at all, and is expected to be
+ * loaded from the database once {@link #extendWindow()} moves the window over it.
+ *
+ * Not thread safe.
+ */
+final class ExpirationTimerWheel {
+
+  private final long                 tickMillis;
+  private final List<Reference>[]    slots;
+  private final Map<Long, Reference> references;
+
+  private long cursorTick;
+  private long windowEnd;
+
+  @SuppressWarnings("unchecked")
+  ExpirationTimerWheel(long tickMillis, int slotCount, long now) {
+    this.tickMillis = tickMillis;
+    this.slots      = new List[slotCount];
+    this.references = new HashMap<>();
+    this.cursorTick = now / tickMillis;
+    this.windowEnd  = cursorTick * tickMillis;
+  }
+
+  /**
+   * @return The time before which every scheduled expiration is held by the wheel.
+   */
+  long getWindowEnd() {
+    return windowEnd;
+  }
+
+  /**
+   * Moves the end of the window a full rotation past the current tick. The caller should then
+   * schedule everything expiring before the new window end.
+   *
+   * @return The new window end.
+   */
+  long extendWindow() {
+    windowEnd = Math.max(windowEnd, (cursorTick + slots.length) * tickMillis);
+    return windowEnd;
+  }
+
+  /**
+   * Schedules a message. A message that's already scheduled keeps whichever expiration is sooner.
+   *
+   * @return False if the expiration is past the end of the window, in which case it wasn't held.
+   */
+  boolean schedule(long id, boolean mms, long expiresAtMillis) {
+    if (expiresAtMillis >= windowEnd) {
+      return false;
+    }
+
+    long      key      = getKey(id, mms);
+    Reference existing = references.get(key);
+
+    if (existing != null) {
+      if (existing.expiresAtMillis <= expiresAtMillis) {
+        return true;
+      }
+
+      getSlot(existing.expiresAtMillis).remove(existing);
+    }
+
+    Reference reference = new Reference(id, mms, expiresAtMillis);
+
+    references.put(key, reference);
+    getSlot(expiresAtMillis).add(reference);
+
+    return true;
+  }
+
+  /**
+   * Advances the wheel to the given time, removing and returning everything that has expired.
+   */
+  @NonNull List<Reference> poll(long now) {
+    List<Reference> expired = new LinkedList<>();
+    long            nowTick = now / tickMillis;
+
+    if (nowTick < cursorTick || references.isEmpty()) {
+      cursorTick = Math.max(cursorTick, nowTick);
+      return expired;
+    }
+
+    long lastFullTick = Math.min(nowTick - 1, cursorTick + slots.length - 1);
+
+    for (long tick = cursorTick; tick <= lastFullTick; tick++) {
+      List<Reference> slot = slots[getSlotIndex(tick)];
+
+      if (slot != null && !slot.isEmpty()) {
+        expired.addAll(slot);
+        slot.clear();
+      }
+    }
+
+    cursorTick = nowTick;
+
+    List<Reference> current = slots[getSlotIndex(nowTick)];
+
+    if (current != null) {
+      Iterator<Reference> iterator = current.iterator();
+
+      while (iterator.hasNext()) {
+        Reference reference = iterator.next();
+
+        if (reference.expiresAtMillis <= now) {
+          expired.add(reference);
+          iterator.remove();
+        }
+      }
+    }
+
+    for (Reference reference : expired) {
+      references.remove(getKey(reference.id, reference.mms));
+    }
+
+    return expired;
+  }
+
+  /**
+   * @return The soonest expiration held by the wheel, or {@link Long#MAX_VALUE} if it's empty.
+   */
+  long getNextExpiration() {
+    if (references.isEmpty()) {
+      return Long.MAX_VALUE;
+    }
+
+    for (long tick = cursorTick; tick < cursorTick + slots.length; tick++) {
+      List<Reference> slot = slots[getSlotIndex(tick)];
+
+      if (slot != null && !slot.isEmpty()) {
+        long next = Long.MAX_VALUE;
+
+        for (Reference reference : slot) {
+          next = Math.min(next, reference.expiresAtMillis);
+        }
+
+        return next;
+      }
+    }
+
+    return Long.MAX_VALUE;
+  }
+
+  int size() {
+    return references.size();
+  }
+
+  private @NonNull List<Reference> getSlot(long expiresAtMillis) {
+    int             index = getSlotIndex(Math.max(expiresAtMillis / tickMillis, cursorTick));
+    List<Reference> slot  = slots[index];
+
+    if (slot == null) {
+      slot         = new ArrayList<>();
+      slots[index] = slot;
+    }
+
+    return slot;
+  }
+
+  private int getSlotIndex(long tick) {
+    return (int) (tick % slots.length);
+  }
+
+  private static long getKey(long id, boolean mms) {
+    return (id << 1) | (mms ? 1 : 0);
+  }
+
+  static final class Reference {
+    final long    id;
+    final boolean mms;
+    final long    expiresAtMillis;
+
+    private Reference(long id, boolean mms, long expiresAtMillis) {
+      this.id              = id;
+      this.mms             = mms;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
@@ -1,35 +1,49 @@
 package org.thoughtcrime.securesms.service;
 
 import android.content.Context;
+import android.util.Pair;
+
 import org.thoughtcrime.securesms.logging.Log;
 
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
-import org.thoughtcrime.securesms.database.model.MessageRecord;
 
-import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Deletes messages once their expiration timers run out. Expirations are held in a timer wheel
+ * that only covers the next {@link #WINDOW_MILLIS}. Later ones are loaded from the database as the
+ * window moves forward, so a backlog of long timers never has to sit in memory.
+ */
 public class ExpiringMessageManager {
 
   private static final String TAG = ExpiringMessageManager.class.getSimpleName();
 
-  private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
-  private final Executor                          executor                  = Executors.newSingleThreadExecutor();
+  private static final long TICK_MILLIS       = TimeUnit.SECONDS.toMillis(1);
+  private static final int  SLOT_COUNT        = (int) TimeUnit.HOURS.toSeconds(1);
+  private static final long WINDOW_MILLIS     = TICK_MILLIS * SLOT_COUNT;
+  private static final long LOAD_AHEAD_MILLIS = WINDOW_MILLIS / 2;
+
+  private final ExpirationTimerWheel wheel    = new ExpirationTimerWheel(TICK_MILLIS, SLOT_COUNT, System.currentTimeMillis());
+  private final Executor             executor = Executors.newSingleThreadExecutor();
 
-  private final SmsDatabase smsDatabase;
-  private final MmsDatabase mmsDatabase;
-  private final Context     context;
+  private final SmsDatabase    smsDatabase;
+  private final MmsDatabase    mmsDatabase;
+  private final MmsSmsDatabase mmsSmsDatabase;
+  private final Context        context;
 
   public ExpiringMessageManager(Context context) {
-    this.context     = context.getApplicationContext();
-    this.smsDatabase = DatabaseFactory.getSmsDatabase(context);
-    this.mmsDatabase = DatabaseFactory.getMmsDatabase(context);
+    this.context        = context.getApplicationContext();
+    this.smsDatabase    = DatabaseFactory.getSmsDatabase(context);
+    this.mmsDatabase    = DatabaseFactory.getMmsDatabase(context);
+    this.mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
 
-    executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
   }
 
@@ -40,113 +54,85 @@ public class ExpiringMessageManager {
   public void scheduleDeletion(long id, boolean mms, long startedAtTimestamp, long expiresInMillis) {
     long expiresAtMillis = startedAtTimestamp + expiresInMillis;
 
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.add(new ExpiringMessageReference(id, mms, expiresAtMillis));
-      expiringMessageReferences.notifyAll();
+    synchronized (wheel) {
+      if (wheel.schedule(id, mms, expiresAtMillis)) {
+        wheel.notifyAll();
+      }
     }
   }
 
   public void checkSchedule() {
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.notifyAll();
+    synchronized (wheel) {
+      wheel.notifyAll();
     }
   }
 
-  private class LoadTask implements Runnable {
-    public void run() {
-      SmsDatabase.Reader smsReader = smsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = mmsDatabase.getExpireStartedMessages();
+  /**
+   * Schedules everything in the database that expires before the window end. Messages already in
+   * the wheel are ignored, so overlapping loads are harmless.
+   */
+  private void loadWindow(long windowEnd) {
+    List<Pair<Long, Long>> sms = smsDatabase.getMessagesExpiringBefore(windowEnd);
+    List<Pair<Long, Long>> mms = mmsDatabase.getMessagesExpiringBefore(windowEnd);
 
-      MessageRecord messageRecord;
+    synchronized (wheel) {
+      for (Pair<Long, Long> message : sms) wheel.schedule(message.first, false, message.second);
+      for (Pair<Long, Long> message : mms) wheel.schedule(message.first, true, message.second);
 
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
+      Log.i(TAG, "Loaded expirations up to " + windowEnd + ". Scheduled: " + wheel.size());
+    }
+  }
 
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
+  private void delete(List<ExpirationTimerWheel.Reference> expired) {
+    List<Long> smsIds = new LinkedList<>();
+    List<Long> mmsIds = new LinkedList<>();
 
-      smsReader.close();
-      mmsReader.close();
+    for (ExpirationTimerWheel.Reference reference : expired) {
+      if (reference.mms) mmsIds.add(reference.id);
+      else               smsIds.add(reference.id);
     }
+
+    mmsSmsDatabase.deleteMessages(smsIds, mmsIds);
   }
 
   @SuppressWarnings("InfiniteLoopStatement")
   private class ProcessTask implements Runnable {
     public void run() {
       while (true) {
-        ExpiringMessageReference expiredMessage = null;
+        List<ExpirationTimerWheel.Reference> expired   = null;
+        long                                 windowEnd = -1;
 
-        synchronized (expiringMessageReferences) {
+        synchronized (wheel) {
           try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
+            long now = System.currentTimeMillis();
 
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
+            expired = wheel.poll(now);
 
-            if (waitTime > 0) {
-              ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
-            } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
-            }
+            if (now >= wheel.getWindowEnd() - LOAD_AHEAD_MILLIS) {
+              windowEnd = wheel.extendWindow();
+            } else if (expired.isEmpty()) {
+              long wakeTime = Math.min(wheel.getNextExpiration(), wheel.getWindowEnd() - LOAD_AHEAD_MILLIS);
+              long waitTime = wakeTime - now;
 
+              if (waitTime > 0) {
+                ExpirationListener.setAlarm(context, waitTime);
+                wheel.wait(waitTime);
+              }
+            }
           } catch (InterruptedException e) {
             Log.w(TAG, e);
           }
         }
 
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.delete(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
+        if (expired != null && !expired.isEmpty()) {
+          Log.i(TAG, "Deleting " + expired.size() + " expired messages.");
+          delete(expired);
         }
-      }
-    }
-  }
-
-  private static class ExpiringMessageReference {
-    private final long    id;
-    private final boolean mms;
-    private final long    expiresAtMillis;
-
-    private ExpiringMessageReference(long id, boolean mms, long expiresAtMillis) {
-      this.id = id;
-      this.mms = mms;
-      this.expiresAtMillis = expiresAtMillis;
-    }
-
-    @Override
-    public boolean equals(Object other) {
-      if (other == null) return false;
-      if (!(other instanceof ExpiringMessageReference)) return false;
-
-      ExpiringMessageReference that = (ExpiringMessageReference)other;
-      return this.id == that.id && this.mms == that.mms && this.expiresAtMillis == that.expiresAtMillis;
-    }
 
-    @Override
-    public int hashCode() {
-      return (int)this.id ^ (mms ? 1 : 0) ^ (int)expiresAtMillis;
-    }
-  }
-
-  private static class ExpiringMessageComparator implements Comparator<ExpiringMessageReference> {
-    @Override
-    public int compare(ExpiringMessageReference lhs, ExpiringMessageReference rhs) {
-      if      (lhs.expiresAtMillis < rhs.expiresAtMillis) return -1;
-      else if (lhs.expiresAtMillis > rhs.expiresAtMillis) return 1;
-      else if (lhs.id < rhs.id)                           return -1;
-      else if (lhs.id > rhs.id)                           return 1;
-      else if (!lhs.mms && rhs.mms)                       return -1;
-      else if (lhs.mms && !rhs.mms)                       return 1;
-      else                                                return 0;
+        if (windowEnd > 0) {
+          loadWindow(windowEnd);
+        }
+      }
     }
   }
-
 }
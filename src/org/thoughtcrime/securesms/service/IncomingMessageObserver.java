@@ -12,7 +12,6 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
-import org.thoughtcrime.securesms.IncomingMessageProcessor.Processor;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.ConstraintObserver;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
@@ -157,9 +156,7 @@ public class IncomingMessageObserver implements ConstraintObserver.Notifier {
               localPipe.read(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES,
                              envelope -> {
                                Log.i(TAG, "Retrieved envelope! " + String.valueOf(envelope.getSource()));
-                               try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-                                 processor.processEnvelope(envelope);
-                               }
+                               ApplicationDependencies.getIncomingMessageProcessor().processEnvelope(envelope);
                              });
             } catch (TimeoutException e) {
               Log.w(TAG, "Application level read timeout...");
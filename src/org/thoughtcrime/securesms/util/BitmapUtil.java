@@ -27,6 +27,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
 import java.util.Locale;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -67,6 +69,11 @@ public class BitmapUtil {
     return createScaledBytes(context, model, maxImageWidth, maxImageHeight, maxImageSize, CompressFormat.JPEG);
   }
 
+  /**
+   * Decodes the image once, then searches for the highest quality that fits in maxImageSize with
+   * an {@link ImageCompressionPlanner}. If nothing fits, the bitmap is halved in each dimension, up
+   * to {@link #MAX_IMAGE_HALF_SCALES} times, by scaling down the already decoded bitmap.
+   */
   @WorkerThread
   public static <T> ScaleResult createScaledBytes(Context context,
                                                   T model,
@@ -76,83 +83,93 @@ public class BitmapUtil {
                                                   @NonNull CompressFormat format)
       throws BitmapDecodingException
   {
-    return createScaledBytes(context, model, maxImageWidth, maxImageHeight, maxImageSize, format, 1, 0);
-  }
+    long   startTime = System.currentTimeMillis();
+    Bitmap decoded;
 
-  @WorkerThread
-  private static <T> ScaleResult createScaledBytes(@NonNull Context context,
-                                                   @NonNull T model,
-                                                   final int maxImageWidth,
-                                                   final int maxImageHeight,
-                                                   final int maxImageSize,
-                                                   @NonNull CompressFormat format,
-                                                   final int sizeAttempt,
-                                                   int totalAttempts)
-      throws BitmapDecodingException
-  {
     try {
-      int    quality  = MAX_COMPRESSION_QUALITY;
-      int    attempts = 0;
-      byte[] bytes;
-
-      Bitmap scaledBitmap = GlideApp.with(context.getApplicationContext())
-                                    .asBitmap()
-                                    .load(model)
-                                    .skipMemoryCache(true)
-                                    .diskCacheStrategy(DiskCacheStrategy.NONE)
-                                    .centerInside()
-                                    .submit(maxImageWidth, maxImageHeight)
-                                    .get();
-
-      if (scaledBitmap == null) {
-        throw new BitmapDecodingException("Unable to decode image");
-      }
+      decoded = GlideApp.with(context.getApplicationContext())
+                        .asBitmap()
+                        .load(model)
+                        .skipMemoryCache(true)
+                        .diskCacheStrategy(DiskCacheStrategy.NONE)
+                        .centerInside()
+                        .submit(maxImageWidth, maxImageHeight)
+                        .get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new BitmapDecodingException(e);
+    }
+
+    if (decoded == null) {
+      throw new BitmapDecodingException("Unable to decode image");
+    }
 
-      Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", scaledBitmap.getByteCount()));
-      Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
+    Log.i(TAG, String.format(Locale.US,"Initial scaled bitmap has size of %d bytes.", decoded.getByteCount()));
+    Log.i(TAG, String.format(Locale.US, "Max dimensions %d x %d, %d bytes", maxImageWidth, maxImageHeight, maxImageSize));
 
-      try {
-        do {
-          totalAttempts++;
-          ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          scaledBitmap.compress(format, quality, baos);
-          bytes = baos.toByteArray();
+    int               minQuality    = format == CompressFormat.PNG ? MAX_COMPRESSION_QUALITY : MIN_COMPRESSION_QUALITY;
+    CompressionBuffer best          = CompressionBuffer.obtain();
+    CompressionBuffer current       = CompressionBuffer.obtain();
+    Bitmap            scaledBitmap  = decoded;
+    int               smallestSize  = Integer.MAX_VALUE;
+    int               totalAttempts = 0;
 
-          Log.d(TAG, "iteration with quality " + quality + " size " + bytes.length + " bytes.");
-          if (quality == MIN_COMPRESSION_QUALITY) break;
+    try {
+      for (int sizeAttempt = 1; sizeAttempt <= MAX_IMAGE_HALF_SCALES + 1; sizeAttempt++) {
+        if (sizeAttempt > 1) {
+          Bitmap smaller = createScaledBitmap(decoded, maxImageWidth >> (sizeAttempt - 1), maxImageHeight >> (sizeAttempt - 1));
 
-          int nextQuality = (int)Math.floor(quality * Math.sqrt((double)maxImageSize / bytes.length));
-          if (quality - nextQuality < MIN_COMPRESSION_QUALITY_DECREASE) {
-            nextQuality = quality - MIN_COMPRESSION_QUALITY_DECREASE;
+          if (smaller == scaledBitmap) {
+            continue;
           }
-          quality = Math.max(nextQuality, MIN_COMPRESSION_QUALITY);
+
+          Log.i(TAG, "Halving dimensions and retrying.");
+
+          if (scaledBitmap != decoded) scaledBitmap.recycle();
+          scaledBitmap = smaller;
         }
-        while (bytes.length > maxImageSize && attempts++ < MAX_COMPRESSION_ATTEMPTS);
 
-        if (bytes.length > maxImageSize) {
-          if (sizeAttempt <= MAX_IMAGE_HALF_SCALES) {
-            scaledBitmap.recycle();
-            scaledBitmap = null;
+        ImageCompressionPlanner planner = new ImageCompressionPlanner(maxImageSize,
+                                                                      minQuality,
+                                                                      MAX_COMPRESSION_QUALITY,
+                                                                      MIN_COMPRESSION_QUALITY_DECREASE,
+                                                                      MAX_COMPRESSION_ATTEMPTS);
+
+        for (int quality = planner.nextQuality(); quality != ImageCompressionPlanner.DONE; quality = planner.nextQuality()) {
+          current.reset();
+          scaledBitmap.compress(format, quality, current);
+          totalAttempts++;
 
-            Log.i(TAG, "Halving dimensions and retrying.");
-            return createScaledBytes(context, model, maxImageWidth / 2, maxImageHeight / 2, maxImageSize, format, sizeAttempt + 1, totalAttempts);
-          } else {
-            throw new BitmapDecodingException("Unable to scale image below " + bytes.length + " bytes.");
+          Log.d(TAG, "iteration with quality " + quality + " size " + current.size() + " bytes.");
+
+          smallestSize = Math.min(smallestSize, current.size());
+
+          if (planner.onResult(quality, current.size())) {
+            CompressionBuffer swap = best;
+            best    = current;
+            current = swap;
           }
         }
 
-        if (bytes.length <= 0) {
-          throw new BitmapDecodingException("Decoding failed. Bitmap has a length of " + bytes.length + " bytes.");
-        }
+        if (planner.hasFit()) {
+          if (best.size() <= 0) {
+            throw new BitmapDecodingException("Decoding failed. Bitmap has a length of " + best.size() + " bytes.");
+          }
+
+          long duration = System.currentTimeMillis() - startTime;
 
-        Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d attempt(s) over %d sizes.", model.getClass().getName(), quality, totalAttempts, sizeAttempt));
+          Log.i(TAG, String.format(Locale.US, "createScaledBytes(%s) -> quality %d, %d attempt(s) over %d sizes in %d ms.", model.getClass().getName(), planner.getFitQuality(), totalAttempts, sizeAttempt, duration));
 
-        return new ScaleResult(bytes, scaledBitmap.getWidth(), scaledBitmap.getHeight());
-      } finally {
-        if (scaledBitmap != null) scaledBitmap.recycle();
+          return new ScaleResult(best.toByteArray(), scaledBitmap.getWidth(), scaledBitmap.getHeight(), totalAttempts, duration);
+        }
       }
-    } catch (InterruptedException | ExecutionException e) {
-      throw new BitmapDecodingException(e);
+
+      throw new BitmapDecodingException("Unable to scale image below " + smallestSize + " bytes.");
+    } finally {
+      if (scaledBitmap != decoded) scaledBitmap.recycle();
+      decoded.recycle();
+
+      best.release();
+      current.release();
     }
   }
 
@@ -426,14 +443,17 @@ public class BitmapUtil {
     private final byte[] bitmap;
     private final int    width;
     private final int    height;
-
-    public ScaleResult(byte[] bitmap, int width, int height) {
-      this.bitmap = bitmap;
-      this.width  = width;
-      this.height = height;
+    private final int    attempts;
+    private final long   durationMs;
+
+    public ScaleResult(byte[] bitmap, int width, int height, int attempts, long durationMs) {
+      this.bitmap     = bitmap;
+      this.width      = width;
+      this.height     = height;
+      this.attempts   = attempts;
+      this.durationMs = durationMs;
     }
 
-
     public byte[] getBitmap() {
       return bitmap;
     }
@@ -445,5 +465,60 @@ public class BitmapUtil {
     public int getHeight() {
       return height;
     }
+
+    /**
+     * @return The number of times the image was compressed, across all sizes.
+     */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    /**
+     * @return Wall time spent decoding and compressing.
+     */
+    public long getDurationMs() {
+      return durationMs;
+    }
+  }
+
+  /**
+   * An output stream whose backing array survives {@link #reset()}, so that the repeated
+   * compressions of a search don't each grow a new array. Released buffers are pooled behind soft
+   * references, so a burst of large images doesn't pin their buffers for the life of the process.
+   */
+  private static final class CompressionBuffer extends ByteArrayOutputStream {
+
+    private static final int INITIAL_CAPACITY   = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private static final ArrayDeque<SoftReference<CompressionBuffer>> POOL = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    private CompressionBuffer() {
+      super(INITIAL_CAPACITY);
+    }
+
+    static @NonNull CompressionBuffer obtain() {
+      synchronized (POOL) {
+        while (!POOL.isEmpty()) {
+          CompressionBuffer buffer = POOL.pop().get();
+
+          if (buffer != null) {
+            return buffer;
+          }
+        }
+      }
+
+      return new CompressionBuffer();
+    }
+
+    void release() {
+      reset();
+
+      synchronized (POOL) {
+        if (POOL.size() < MAX_POOLED_BUFFERS) {
+          POOL.push(new SoftReference<>(this));
+        }
+      }
+    }
   }
 }
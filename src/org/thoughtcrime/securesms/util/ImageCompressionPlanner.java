@@ -0,0 +1,132 @@
+package org.thoughtcrime.securesms.util;
+
+/**
+ * Picks the qualities to try when compressing an image to fit under a size limit, aiming for the
+ * highest quality that fits in as few compressions as possible.
+ *
+ * Over the range of qualities we use, encoded size grows roughly exponentially with quality, so the
+ * planner models the log of the size as linear in quality. With a single measurement it assumes a
+ * typical slope. Once it has measurements on both sides of the limit, it interpolates between them.
+ * A fit that uses most of the limit is accepted right away.
+ *
+ * Usage: compress at {@link #nextQuality()} and report the size with {@link #onResult(int, int)}
+ * until {@link #nextQuality()} returns {@link #DONE}.
+ */
+final class ImageCompressionPlanner {
+
+  static final int DONE = -1;
+
+  /** JPEG size roughly halves going from quality 90 to quality 60. */
+  private static final double DEFAULT_LOG_SIZE_PER_QUALITY = Math.log(2) / 30;
+
+  /** A fit at this fraction of the limit or more is close enough. */
+  private static final double ACCEPTABLE_FILL = 0.9;
+
+  /** Aim a little under the limit, so that an estimate that is slightly off still fits. */
+  private static final double TARGET_FILL = 0.95;
+
+  private final int maxSize;
+  private final int minQuality;
+  private final int maxQuality;
+  private final int qualityTolerance;
+  private final int maxAttempts;
+
+  private int attempts;
+  private int fitQuality  = DONE;
+  private int fitSize;
+  private int missQuality = DONE;
+  private int missSize;
+  private int nextQuality;
+
+  /**
+   * @param qualityTolerance Stop once the best fit is within this many quality points of a quality
+   *                         known not to fit.
+   */
+  ImageCompressionPlanner(int maxSize, int minQuality, int maxQuality, int qualityTolerance, int maxAttempts) {
+    if (minQuality > maxQuality) {
+      throw new IllegalArgumentException("Min quality " + minQuality + " is above max quality " + maxQuality);
+    }
+
+    this.maxSize          = maxSize;
+    this.minQuality       = minQuality;
+    this.maxQuality       = maxQuality;
+    this.qualityTolerance = Math.max(1, qualityTolerance);
+    this.maxAttempts      = maxAttempts;
+    this.nextQuality      = maxAttempts > 0 ? maxQuality : DONE;
+  }
+
+  /**
+   * @return The quality to compress at next, or {@link #DONE}.
+   */
+  int nextQuality() {
+    return nextQuality;
+  }
+
+  /**
+   * @return True if this is the highest quality so far that fits, meaning its output should be kept.
+   */
+  boolean onResult(int quality, int size) {
+    boolean bestFit = false;
+
+    attempts++;
+
+    if (size <= maxSize) {
+      if (fitQuality == DONE || quality > fitQuality) {
+        fitQuality = quality;
+        fitSize    = size;
+        bestFit    = true;
+      }
+    } else if (missQuality == DONE || quality < missQuality) {
+      missQuality = quality;
+      missSize    = size;
+    }
+
+    nextQuality = plan();
+
+    return bestFit;
+  }
+
+  boolean hasFit() {
+    return fitQuality != DONE;
+  }
+
+  /**
+   * @return The highest quality that fit, or {@link #DONE}.
+   */
+  int getFitQuality() {
+    return fitQuality;
+  }
+
+  int getAttempts() {
+    return attempts;
+  }
+
+  private int plan() {
+    if (attempts >= maxAttempts)                                     return DONE;
+    if (fitQuality == maxQuality)                                    return DONE;
+    if (missQuality == minQuality)                                   return DONE;
+    if (fitQuality != DONE && fitSize >= maxSize * ACCEPTABLE_FILL) return DONE;
+
+    int low  = fitQuality  != DONE ? fitQuality  : minQuality - 1;
+    int high = missQuality != DONE ? missQuality : maxQuality + 1;
+
+    if (high - low <= 1)                                     return DONE;
+    if (fitQuality != DONE && high - low <= qualityTolerance) return DONE;
+
+    double target = Math.log(maxSize * TARGET_FILL);
+    double estimate;
+
+    if (fitQuality != DONE && missQuality != DONE) {
+      double slope = (Math.log(missSize) - Math.log(fitSize)) / (missQuality - fitQuality);
+
+      if (slope > 0) estimate = fitQuality + (target - Math.log(fitSize)) / slope;
+      else           estimate = (low + high) / 2.0;
+    } else if (missQuality != DONE) {
+      estimate = missQuality - (Math.log(missSize) - target) / DEFAULT_LOG_SIZE_PER_QUALITY;
+    } else {
+      estimate = fitQuality + (target - Math.log(fitSize)) / DEFAULT_LOG_SIZE_PER_QUALITY;
+    }
+
+    return Math.max(low + 1, Math.min(high - 1, (int) Math.floor(estimate)));
+  }
+}
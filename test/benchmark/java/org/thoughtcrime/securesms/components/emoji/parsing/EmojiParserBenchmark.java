@@ -0,0 +1,312 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.testutil.BenchmarkReport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares {@link EmojiParser} against the previous parser, which walked a tree of hash maps from
+ * the root once per candidate end position, over a synthetic corpus shaped like real message
+ * bodies: mostly plain text, some short emoji-only replies, skin tones, variation selectors and
+ * joined sequences.
+ *
+ * The two parsers must agree on every message. Timings per message are written to
+ * build/reports/benchmarks/EmojiParserBenchmark.txt and not asserted, since they vary too much
+ * between machines to be a pass/fail signal. Only built and run when asked for:
+ *
+ *   ./gradlew testPlayDebugUnitTest -Pbenchmarks --tests '*EmojiParserBenchmark'
+ */
+public final class EmojiParserBenchmark {
+
+  private static final int  MESSAGE_COUNT       = 2_000;
+  private static final int  WARMUP_ITERATIONS   = 20;
+  private static final int  MEASURED_ITERATIONS = 50;
+  private static final long SEED                = 42;
+
+  private static final String[] WORDS = { "ok", "see", "you", "at", "the", "station", "tomorrow", "lol", "yes", "no",
+                                          "thanks", "haha", "what", "time", "dinner", "happy", "birthday", "call", "me", "later" };
+
+  private static final String[] SKIN_TONES = { "\ud83c\udffb", "\ud83c\udffc", "\ud83c\udffd", "\ud83c\udffe", "\ud83c\udfff" };
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Test
+  public void compareParsers() throws IOException {
+    EmojiPageBitmap page   = mock(EmojiPageBitmap.class);
+    List<String>    emoji  = createEmojiList();
+    LegacyParser    legacy = new LegacyParser();
+
+    EmojiTree.Builder builder = new EmojiTree.Builder();
+
+    for (int i = 0; i < emoji.size(); i++) {
+      EmojiDrawInfo drawInfo = new EmojiDrawInfo(page, i);
+
+      builder.add(emoji.get(i), drawInfo);
+      legacy.add(emoji.get(i), drawInfo);
+    }
+
+    EmojiParser               parser     = new EmojiParser(builder.build());
+    EmojiParser.CandidateList candidates = new EmojiParser.CandidateList();
+    List<String>              corpus     = createCorpus(emoji, new Random(SEED));
+
+    int totalCandidates = 0;
+
+    for (String message : corpus) {
+      List<int[]>     expected      = new ArrayList<>();
+      List<Object>    expectedInfos = new ArrayList<>();
+      boolean         allEmojis     = legacy.findCandidates(message, expected, expectedInfos);
+
+      parser.findCandidates(message, candidates);
+
+      assertEquals(message, expected.size(), candidates.size());
+      assertEquals(message, allEmojis, candidates.isAllEmojis());
+
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(message, expected.get(i)[0], candidates.getStartIndex(i));
+        assertEquals(message, expected.get(i)[1], candidates.getEndIndex(i));
+        assertSame(message, expectedInfos.get(i), candidates.getDrawInfo(i));
+      }
+
+      totalCandidates += candidates.size();
+    }
+
+    long legacyNanos = measure(() -> {
+      for (String message : corpus) {
+        legacy.findCandidates(message, new ArrayList<>(), new ArrayList<>());
+      }
+    });
+
+    long flatNanos = measure(() -> {
+      for (String message : corpus) {
+        parser.findCandidates(message, candidates);
+      }
+    });
+
+    BenchmarkReport report = new BenchmarkReport(EmojiParserBenchmark.class);
+
+    report.add(String.format(Locale.US, "%d messages, %d emoji", corpus.size(), totalCandidates));
+    report.add(String.format(Locale.US, "%-8s %12s", "", "ns/message"));
+    report.add(String.format(Locale.US, "%-8s %12d", "legacy", legacyNanos / corpus.size()));
+    report.add(String.format(Locale.US, "%-8s %12d", "flat", flatNanos / corpus.size()));
+  }
+
+  private static long measure(Runnable pass) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      pass.run();
+    }
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      pass.run();
+    }
+
+    return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+  }
+
+  /**
+   * Roughly the shape of the real emoji set: smileys, people with every skin tone, symbols that
+   * carry a variation selector, and zero-width-joiner sequences.
+   */
+  private static List<String> createEmojiList() {
+    List<String> emoji = new ArrayList<>();
+
+    for (int codePoint = 0x1F600; codePoint <= 0x1F64F; codePoint++) {
+      emoji.add(new String(Character.toChars(codePoint)));
+    }
+
+    for (int codePoint = 0x1F446; codePoint <= 0x1F450; codePoint++) {
+      String base = new String(Character.toChars(codePoint));
+
+      emoji.add(base);
+
+      for (String skinTone : SKIN_TONES) {
+        emoji.add(base + skinTone);
+      }
+    }
+
+    for (int codePoint = 0x1F300; codePoint <= 0x1F3F0; codePoint++) {
+      emoji.add(new String(Character.toChars(codePoint)));
+    }
+
+    for (char c = '\u2600'; c <= '\u26ff'; c += 3) {
+      emoji.add(c + "\ufe0f");
+    }
+
+    String man   = "\ud83d\udc68";
+    String woman = "\ud83d\udc69";
+    String zwj   = "\u200d";
+
+    emoji.add(man);
+    emoji.add(woman);
+    emoji.add(man + zwj + "\ud83d\udcbb");
+    emoji.add(woman + zwj + "\ud83d\udcbb");
+    emoji.add(man + zwj + woman + zwj + "\ud83d\udc67");
+    emoji.add(man + zwj + woman + zwj + "\ud83d\udc67" + zwj + "\ud83d\udc66");
+    emoji.add("\ud83c\udff3\ufe0f" + zwj + "\ud83c\udf08");
+
+    return emoji;
+  }
+
+  private static List<String> createCorpus(List<String> emoji, Random random) {
+    List<String> corpus = new ArrayList<>(MESSAGE_COUNT);
+
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      StringBuilder message = new StringBuilder();
+      int           shape   = random.nextInt(10);
+
+      if (shape < 2) {
+        int count = 1 + random.nextInt(3);
+
+        for (int j = 0; j < count; j++) {
+          message.append(randomEmoji(emoji, random));
+        }
+      } else {
+        int     words      = shape < 8 ? 3 + random.nextInt(10) : 40 + random.nextInt(80);
+        boolean emojiHeavy = random.nextInt(4) == 0;
+
+        for (int j = 0; j < words; j++) {
+          if (j > 0) message.append(' ');
+
+          if (random.nextInt(emojiHeavy ? 3 : 15) == 0) {
+            message.append(randomEmoji(emoji, random));
+          } else {
+            message.append(WORDS[random.nextInt(WORDS.length)]);
+          }
+        }
+      }
+
+      corpus.add(message.toString());
+    }
+
+    return corpus;
+  }
+
+  private static String randomEmoji(List<String> emoji, Random random) {
+    String value = emoji.get(random.nextInt(emoji.size()));
+
+    switch (random.nextInt(8)) {
+      case 0:  return value + SKIN_TONES[random.nextInt(SKIN_TONES.length)];
+      case 1:  return value.endsWith("\ufe0f") ? value.substring(0, value.length() - 1) : value;
+      default: return value;
+    }
+  }
+
+  /**
+   * The parser as it was before the flat trie, kept only as a reference.
+   */
+  private static final class LegacyParser {
+
+    private final Node root = new Node();
+
+    void add(String encoding, Object emoji) {
+      Node node = root;
+
+      for (char c : encoding.toCharArray()) {
+        if (!node.children.containsKey(c)) {
+          node.children.put(c, new Node());
+        }
+
+        node = node.children.get(c);
+      }
+
+      node.emoji = emoji;
+    }
+
+    boolean findCandidates(CharSequence text, List<int[]> results, List<Object> infos) {
+      boolean allEmojis = text.length() > 0;
+
+      for (int i = 0; i < text.length(); i++) {
+        int emojiEnd = getEmojiEndPos(text, i);
+
+        if (emojiEnd != -1) {
+          Object drawInfo = getEmoji(text, i, emojiEnd);
+
+          if (emojiEnd + 2 <= text.length() && isSkinTone(text, emojiEnd)) {
+            emojiEnd += 2;
+          }
+
+          results.add(new int[] { i, emojiEnd });
+          infos.add(drawInfo);
+
+          i = emojiEnd - 1;
+        } else if (text.charAt(i) != ' ') {
+          allEmojis = false;
+        }
+      }
+
+      return allEmojis && !results.isEmpty();
+    }
+
+    private boolean isSkinTone(CharSequence text, int index) {
+      for (String skinTone : SKIN_TONES) {
+        if (skinTone.charAt(0) == text.charAt(index) && skinTone.charAt(1) == text.charAt(index + 1)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private int getEmojiEndPos(CharSequence text, int startPos) {
+      int best = -1;
+
+      for (int j = startPos + 1; j <= text.length(); j++) {
+        Node node = walk(text, startPos, j);
+
+        if (node == null) {
+          return best;
+        } else if (node.emoji != null || isTerminated(text, j, node)) {
+          best = j;
+        }
+      }
+
+      return best;
+    }
+
+    private Object getEmoji(CharSequence text, int start, int end) {
+      Node node = walk(text, start, end);
+
+      if      (node.emoji != null)            return node.emoji;
+      else if (isTerminated(text, end, node)) return node.children.get(EmojiTree.TERMINATOR).emoji;
+      else                                    return null;
+    }
+
+    private Node walk(CharSequence text, int start, int end) {
+      Node node = root;
+
+      for (int i = start; i < end && node != null; i++) {
+        node = node.children.get(text.charAt(i));
+      }
+
+      return node;
+    }
+
+    private boolean isTerminated(CharSequence text, int end, Node node) {
+      Node terminated = node.children.get(EmojiTree.TERMINATOR);
+      return text.charAt(end - 1) != EmojiTree.TERMINATOR && terminated != null && terminated.emoji != null;
+    }
+  }
+
+  private static final class Node {
+    private final Map<Character, Node> children = new HashMap<>();
+
+    private Object emoji;
+  }
+}
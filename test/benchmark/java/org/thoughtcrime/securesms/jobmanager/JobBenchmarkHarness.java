@@ -0,0 +1,579 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.app.Application;
+import android.app.job.JobInfo;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.impl.BinaryDataSerializer;
+import org.thoughtcrime.securesms.jobmanager.persistence.ConstraintSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobStorage;
+import org.thoughtcrime.securesms.jobs.FastJobStorage;
+import org.thoughtcrime.securesms.util.Debouncer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Drives a {@link JobController} backed by {@link FastJobStorage} with synthetic jobs described by
+ * a {@link JobBenchmarkWorkload}, and reports throughput, scheduling latency and allocation.
+ *
+ * Runners follow the same loop as {@link JobRunner}, minus the wake locks, which need a real
+ * device. Storage sits on a stand-in {@link JobDatabase} that keeps nothing and can optionally
+ * stall on every write to approximate disk cost.
+ *
+ * Scheduling latency is measured from the moment a job could have run to the moment a runner
+ * started it. A job could have run once it was submitted, its dependency finished, the previous
+ * job in its queue finished and, for retries, its backoff elapsed. Time spent waiting on an unmet
+ * constraint counts towards latency, since waking runners when a constraint changes is part of the
+ * scheduler's job. Backoff itself does not, but it does count against throughput.
+ */
+final class JobBenchmarkHarness {
+
+  private static final String JOB_KEY        = "BenchmarkJob";
+  private static final String CONSTRAINT_KEY = "BenchmarkConstraint";
+  private static final String KEY_INDEX      = "index";
+
+  private static final long POLL_TIMEOUT_MS      = 50;
+  private static final long CONSTRAINT_TOGGLE_MS = 1;
+  private static final long RUN_TIMEOUT_SECONDS  = 120;
+
+  private final JobBenchmarkWorkload workload;
+  private final AtomicLongArray      submittedAt;
+  private final AtomicLongArray      finishedAt;
+  private final boolean[]            retryOnFirstAttempt;
+  private final boolean[]            constrained;
+  private final Map<String, Long>    queueFinishedAt;
+  private final CountDownLatch       remaining;
+  private final AtomicLong           runCount;
+
+  private volatile boolean constraintMet;
+  private volatile boolean stopped;
+
+  private JobController controller;
+
+  private JobBenchmarkHarness(@NonNull JobBenchmarkWorkload workload) {
+    int jobCount = workload.getJobCount();
+
+    this.workload            = workload;
+    this.submittedAt         = new AtomicLongArray(jobCount);
+    this.finishedAt          = new AtomicLongArray(jobCount);
+    this.retryOnFirstAttempt = new boolean[jobCount];
+    this.constrained         = new boolean[jobCount];
+    this.queueFinishedAt     = new ConcurrentHashMap<>();
+    this.remaining           = new CountDownLatch(jobCount);
+    this.runCount            = new AtomicLong();
+
+    Random random = new Random(workload.getSeed());
+
+    for (int i = 0; i < jobCount; i++) {
+      retryOnFirstAttempt[i] = random.nextFloat() < workload.getRetryRate();
+      constrained[i]         = random.nextFloat() < workload.getConstraintRate();
+    }
+  }
+
+  static @NonNull Result run(@NonNull JobBenchmarkWorkload workload) throws InterruptedException {
+    return new JobBenchmarkHarness(workload).run();
+  }
+
+  private @NonNull Result run() throws InterruptedException {
+    Map<String, Job.Factory> jobFactories = new HashMap<>();
+    jobFactories.put(JOB_KEY, (parameters, data) -> new BenchmarkJob(parameters, data.getInt(KEY_INDEX)));
+
+    Map<String, Constraint.Factory> constraintFactories = new HashMap<>();
+    constraintFactories.put(CONSTRAINT_KEY, BenchmarkConstraint::new);
+
+    JobStorage jobStorage = new FastJobStorage(new StandInJobDatabase(workload.getStorageWriteNanos()));
+    jobStorage.init();
+
+    controller = new JobController(mock(Application.class),
+                                   jobStorage,
+                                   new JobInstantiator(jobFactories),
+                                   new ConstraintInstantiator(constraintFactories),
+                                   new BinaryDataSerializer(),
+                                   (delay, constraints) -> {},
+                                   mock(Debouncer.class),
+                                   new JobController.Callback() {
+                                     @Override
+                                     public void onEmpty() {}
+
+                                     @Override
+                                     public void onAllRunnersBusy() {}
+                                   });
+
+    AllocationCounter allocations = new AllocationCounter();
+    List<Runner>      runners     = new ArrayList<>(workload.getRunnerCount());
+    List<long[]>      latencies   = Collections.synchronizedList(new ArrayList<>());
+
+    for (int i = 0; i < workload.getRunnerCount(); i++) {
+      Runner runner = new Runner(i, allocations, latencies);
+      runners.add(runner);
+      runner.start();
+    }
+
+    Thread observer = null;
+    if (workload.getConstraintRate() > 0) {
+      observer = new Thread(this::observeConstraint, "benchmark-constraint-observer");
+      observer.start();
+    }
+
+    long start = System.nanoTime();
+
+    allocations.begin();
+    submitAll();
+    allocations.end();
+
+    boolean completed = remaining.await(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    long    elapsed   = System.nanoTime() - start;
+
+    stopped = true;
+
+    for (Runner runner : runners) {
+      runner.join();
+    }
+
+    if (observer != null) {
+      observer.join();
+    }
+
+    long[] allLatencies = merge(latencies);
+
+    return new Result(workload,
+                      completed,
+                      workload.getJobCount() - (int) remaining.getCount(),
+                      runCount.get(),
+                      jobStorage.getAllJobSpecs().size(),
+                      elapsed,
+                      percentile(allLatencies, 0.50),
+                      percentile(allLatencies, 0.99),
+                      allocations.getTotal());
+  }
+
+  private void submitAll() {
+    int index = 0;
+
+    for (int chainIndex = 0; chainIndex < workload.getChainCount(); chainIndex++) {
+      String          queue = workload.getQueueCount() > 0 ? "benchmark-" + (chainIndex % workload.getQueueCount()) : null;
+      List<List<Job>> chain = new ArrayList<>(workload.getChainLength());
+
+      for (int i = 0; i < workload.getChainLength(); i++) {
+        Job.Parameters.Builder parameters = new Job.Parameters.Builder().setQueue(queue)
+                                                                        .setMaxAttempts(Job.Parameters.UNLIMITED);
+        if (constrained[index]) {
+          parameters.addConstraint(CONSTRAINT_KEY);
+        }
+
+        chain.add(Collections.singletonList(new BenchmarkJob(parameters.build(), index)));
+        index++;
+      }
+
+      long now = System.nanoTime();
+      for (int i = index - workload.getChainLength(); i < index; i++) {
+        submittedAt.set(i, now);
+      }
+
+      controller.submitNewJobChain(chain);
+    }
+  }
+
+  private void observeConstraint() {
+    while (!stopped) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(CONSTRAINT_TOGGLE_MS));
+
+      constraintMet = !constraintMet;
+
+      if (constraintMet) {
+        controller.wakeUp();
+      }
+    }
+  }
+
+  /**
+   * @return The time at which the given job could first have started its current attempt.
+   */
+  private long getEligibleAt(@NonNull BenchmarkJob job) {
+    int    index      = job.index;
+    String queue      = job.getParameters().getQueue();
+    long   eligibleAt = submittedAt.get(index);
+
+    if (job.getRunAttempt() > 0) {
+      long sinceRetryAllowed = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - job.getNextRunAttemptTime());
+      eligibleAt = Math.max(eligibleAt, System.nanoTime() - sinceRetryAllowed);
+    }
+
+    if (index % workload.getChainLength() != 0) {
+      eligibleAt = Math.max(eligibleAt, finishedAt.get(index - 1));
+    }
+
+    if (queue != null) {
+      Long queueFinish = queueFinishedAt.get(queue);
+      if (queueFinish != null) {
+        eligibleAt = Math.max(eligibleAt, queueFinish);
+      }
+    }
+
+    return eligibleAt;
+  }
+
+  private static @NonNull long[] merge(@NonNull List<long[]> parts) {
+    int total = 0;
+    for (long[] part : parts) {
+      total += part.length;
+    }
+
+    long[] merged   = new long[total];
+    int    position = 0;
+
+    for (long[] part : parts) {
+      System.arraycopy(part, 0, merged, position, part.length);
+      position += part.length;
+    }
+
+    Arrays.sort(merged);
+    return merged;
+  }
+
+  private static long percentile(@NonNull long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+
+    int index = (int) Math.ceil(percentile * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  private final class Runner extends Thread {
+
+    private final AllocationCounter allocations;
+    private final List<long[]>      latencySink;
+
+    private long[] latencies = new long[256];
+    private int    latencyCount;
+
+    Runner(int id, @NonNull AllocationCounter allocations, @NonNull List<long[]> latencySink) {
+      super("benchmark-JobRunner-" + id);
+      this.allocations = allocations;
+      this.latencySink = latencySink;
+    }
+
+    @Override
+    public void run() {
+      allocations.begin();
+
+      while (!stopped) {
+        Job job = controller.pullNextEligibleJobForExecution(POLL_TIMEOUT_MS);
+
+        if (job == null) {
+          continue;
+        }
+
+        recordLatency(System.nanoTime() - getEligibleAt((BenchmarkJob) job));
+
+        Job.Result result = job.run();
+
+        controller.onJobFinished(job);
+
+        if (result.isSuccess()) {
+          controller.onSuccess(job);
+        } else if (result.isRetry()) {
+          controller.onRetry(job);
+          job.onRetry();
+        } else {
+          controller.onFailure(job);
+          job.onCanceled();
+        }
+      }
+
+      allocations.end();
+      latencySink.add(Arrays.copyOf(latencies, latencyCount));
+    }
+
+    private void recordLatency(long latency) {
+      if (latencyCount == latencies.length) {
+        latencies = Arrays.copyOf(latencies, latencies.length * 2);
+      }
+      latencies[latencyCount++] = latency;
+    }
+  }
+
+  private final class BenchmarkJob extends Job {
+
+    private final int index;
+
+    BenchmarkJob(@NonNull Parameters parameters, int index) {
+      super(parameters);
+      this.index = index;
+    }
+
+    @Override
+    public @NonNull Data serialize() {
+      return new Data.Builder().putInt(KEY_INDEX, index).build();
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return JOB_KEY;
+    }
+
+    @Override
+    public @NonNull Result run() {
+      runCount.incrementAndGet();
+
+      if (getRunAttempt() == 0 && retryOnFirstAttempt[index]) {
+        return Result.retry();
+      }
+
+      long now = System.nanoTime();
+
+      finishedAt.set(index, now);
+
+      if (getParameters().getQueue() != null) {
+        queueFinishedAt.put(getParameters().getQueue(), now);
+      }
+
+      remaining.countDown();
+      return Result.success();
+    }
+
+    @Override
+    public void onCanceled() {
+    }
+  }
+
+  private final class BenchmarkConstraint implements Constraint {
+
+    @Override
+    public boolean isMet() {
+      return constraintMet;
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return CONSTRAINT_KEY;
+    }
+
+    @Override
+    public void applyToJobInfo(@NonNull JobInfo.Builder jobInfoBuilder) {
+    }
+  }
+
+  /**
+   * A {@link JobDatabase} that persists nothing. Each write optionally parks for a fixed time to
+   * stand in for a real disk.
+   */
+  private static final class StandInJobDatabase extends JobDatabase {
+
+    private final long writeNanos;
+
+    StandInJobDatabase(long writeNanos) {
+      super(null, null);
+      this.writeNanos = writeNanos;
+    }
+
+    @Override
+    public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs) {
+      write();
+    }
+
+    @Override
+    public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
+      write();
+    }
+
+    @Override
+    public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime) {
+      write();
+    }
+
+    @Override
+    public synchronized void updateAllJobsToBePending() {
+      write();
+    }
+
+    @Override
+    public synchronized void updateJobs(@NonNull List<JobSpec> jobs) {
+      write();
+    }
+
+    @Override
+    public synchronized void deleteJobs(@NonNull List<String> jobIds) {
+      write();
+    }
+
+    @Override
+    public synchronized void updateAndDeleteJobs(@NonNull List<JobSpec> updates, @NonNull List<String> deleteIds) {
+      write();
+    }
+
+    @Override
+    public synchronized @NonNull List<ConstraintSpec> getAllConstraintSpecs() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
+      return Collections.emptyList();
+    }
+
+    private void write() {
+      if (writeNanos > 0) {
+        LockSupport.parkNanos(writeNanos);
+      }
+    }
+  }
+
+  /**
+   * Sums the bytes allocated by each participating thread between its calls to {@link #begin()}
+   * and {@link #end()}. Reports -1 if the JVM can't measure per-thread allocation.
+   */
+  private static final class AllocationCounter {
+
+    private final ThreadLocal<Long> startBytes = new ThreadLocal<>();
+    private final AtomicLong        total      = new AtomicLong();
+
+    private volatile boolean supported = getAllocatedBytes() >= 0;
+
+    void begin() {
+      startBytes.set(getAllocatedBytes());
+    }
+
+    void end() {
+      long current = getAllocatedBytes();
+
+      if (current < 0 || startBytes.get() < 0) {
+        supported = false;
+      } else {
+        total.addAndGet(current - startBytes.get());
+      }
+    }
+
+    long getTotal() {
+      return supported ? total.get() : -1;
+    }
+
+    private static long getAllocatedBytes() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        try {
+          return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (UnsupportedOperationException e) {
+          return -1;
+        }
+      }
+
+      return -1;
+    }
+  }
+
+  static final class Result {
+
+    private final JobBenchmarkWorkload workload;
+    private final boolean              completed;
+    private final int                  completedJobs;
+    private final long                 runs;
+    private final int                  leftoverJobs;
+    private final long                 elapsedNanos;
+    private final long                 p50LatencyNanos;
+    private final long                 p99LatencyNanos;
+    private final long                 allocatedBytes;
+
+    private Result(@NonNull JobBenchmarkWorkload workload,
+                   boolean completed,
+                   int completedJobs,
+                   long runs,
+                   int leftoverJobs,
+                   long elapsedNanos,
+                   long p50LatencyNanos,
+                   long p99LatencyNanos,
+                   long allocatedBytes)
+    {
+      this.workload        = workload;
+      this.completed       = completed;
+      this.completedJobs   = completedJobs;
+      this.runs            = runs;
+      this.leftoverJobs    = leftoverJobs;
+      this.elapsedNanos    = elapsedNanos;
+      this.p50LatencyNanos = p50LatencyNanos;
+      this.p99LatencyNanos = p99LatencyNanos;
+      this.allocatedBytes  = allocatedBytes;
+    }
+
+    boolean isCompleted() {
+      return completed;
+    }
+
+    int getCompletedJobs() {
+      return completedJobs;
+    }
+
+    long getRuns() {
+      return runs;
+    }
+
+    int getLeftoverJobs() {
+      return leftoverJobs;
+    }
+
+    double getJobsPerSecond() {
+      return completedJobs / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    long getP50LatencyNanos() {
+      return p50LatencyNanos;
+    }
+
+    long getP99LatencyNanos() {
+      return p99LatencyNanos;
+    }
+
+    /**
+     * @return Bytes allocated per completed job, or -1 if allocation couldn't be measured.
+     */
+    long getAllocatedBytesPerJob() {
+      return allocatedBytes < 0 || completedJobs == 0 ? -1 : allocatedBytes / completedJobs;
+    }
+
+    static @NonNull String header() {
+      return String.format(Locale.US, "%-16s %8s %8s %12s %10s %10s %12s",
+                           "workload", "jobs", "runs", "jobs/sec", "p50 us", "p99 us", "bytes/job");
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return String.format(Locale.US, "%-16s %8d %8d %12.0f %10d %10d %12d",
+                           workload.getName(),
+                           completedJobs,
+                           runs,
+                           getJobsPerSecond(),
+                           TimeUnit.NANOSECONDS.toMicros(p50LatencyNanos),
+                           TimeUnit.NANOSECONDS.toMicros(p99LatencyNanos),
+                           getAllocatedBytesPerJob());
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Describes the synthetic load {@link JobBenchmarkHarness} pushes through the job system.
+ */
+final class JobBenchmarkWorkload {
+
+  private final String name;
+  private final int    chainCount;
+  private final int    chainLength;
+  private final int    queueCount;
+  private final float  constraintRate;
+  private final float  retryRate;
+  private final int    runnerCount;
+  private final long   storageWriteNanos;
+  private final long   seed;
+
+  private JobBenchmarkWorkload(@NonNull Builder builder) {
+    this.name              = builder.name;
+    this.chainCount        = builder.chainCount;
+    this.chainLength       = builder.chainLength;
+    this.queueCount        = builder.queueCount;
+    this.constraintRate    = builder.constraintRate;
+    this.retryRate         = builder.retryRate;
+    this.runnerCount       = builder.runnerCount;
+    this.storageWriteNanos = builder.storageWriteNanos;
+    this.seed              = builder.seed;
+  }
+
+  @NonNull String getName() {
+    return name;
+  }
+
+  int getChainCount() {
+    return chainCount;
+  }
+
+  int getChainLength() {
+    return chainLength;
+  }
+
+  int getJobCount() {
+    return chainCount * chainLength;
+  }
+
+  int getQueueCount() {
+    return queueCount;
+  }
+
+  float getConstraintRate() {
+    return constraintRate;
+  }
+
+  float getRetryRate() {
+    return retryRate;
+  }
+
+  int getRunnerCount() {
+    return runnerCount;
+  }
+
+  long getStorageWriteNanos() {
+    return storageWriteNanos;
+  }
+
+  long getSeed() {
+    return seed;
+  }
+
+  static final class Builder {
+
+    private final String name;
+
+    private int   chainCount        = 1000;
+    private int   chainLength       = 1;
+    private int   queueCount        = 0;
+    private float constraintRate    = 0;
+    private float retryRate         = 0;
+    private int   runnerCount       = 4;
+    private long  storageWriteNanos = 0;
+    private long  seed              = 42;
+
+    Builder(@NonNull String name) {
+      this.name = name;
+    }
+
+    /**
+     * How many independent chains to submit, and how many jobs long each chain is. Every job in a
+     * chain depends on the one before it.
+     */
+    @NonNull Builder setChains(int chainCount, int chainLength) {
+      this.chainCount  = chainCount;
+      this.chainLength = chainLength;
+      return this;
+    }
+
+    /**
+     * Chains are spread round-robin over this many queue keys. Zero means jobs have no queue.
+     */
+    @NonNull Builder setQueueCount(int queueCount) {
+      this.queueCount = queueCount;
+      return this;
+    }
+
+    /**
+     * Fraction of jobs that carry a constraint which is only met part of the time.
+     */
+    @NonNull Builder setConstraintRate(float constraintRate) {
+      this.constraintRate = constraintRate;
+      return this;
+    }
+
+    /**
+     * Fraction of jobs that ask to be retried on their first attempt.
+     */
+    @NonNull Builder setRetryRate(float retryRate) {
+      this.retryRate = retryRate;
+      return this;
+    }
+
+    @NonNull Builder setRunnerCount(int runnerCount) {
+      this.runnerCount = runnerCount;
+      return this;
+    }
+
+    /**
+     * Time each write to the stand-in database takes, to approximate an on-disk store. Zero keeps
+     * storage purely in memory.
+     */
+    @NonNull Builder setStorageWriteNanos(long storageWriteNanos) {
+      this.storageWriteNanos = storageWriteNanos;
+      return this;
+    }
+
+    @NonNull Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    @NonNull JobBenchmarkWorkload build() {
+      return new JobBenchmarkWorkload(this);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.testutil.BenchmarkReport;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pushes synthetic load through the job system with {@link JobBenchmarkHarness} and reports
+ * jobs/sec, p50/p99 scheduling latency and bytes allocated per job for each workload. Run this
+ * before and after any change to {@link JobController}, {@link JobRunner} or job storage and
+ * compare the tables in build/reports/benchmarks/JobManagerBenchmark.txt.
+ *
+ * Benchmarks live outside the unit test sources and are only built and run when asked for:
+ *
+ *   ./gradlew testPlayDebugUnitTest -Pbenchmarks --tests '*JobManagerBenchmark'
+ *
+ * Only correctness is asserted (every job ran and storage drained), since the numbers depend too
+ * much on the machine to be a pass/fail signal.
+ *
+ * Note that retries always back off for at least two seconds, so workloads with retries are
+ * dominated by backoff in their throughput numbers.
+ */
+public final class JobManagerBenchmark {
+
+  private static BenchmarkReport report;
+
+  @BeforeClass
+  public static void init() throws IOException {
+    Log.initialize(new BenchmarkLogger());
+
+    report = new BenchmarkReport(JobManagerBenchmark.class);
+    report.add(JobBenchmarkHarness.Result.header());
+  }
+
+  @Test
+  public void unqueued() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("unqueued").setChains(2000, 1).build());
+  }
+
+  @Test
+  public void queued() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("queued").setChains(2000, 1).setQueueCount(8).build());
+  }
+
+  @Test
+  public void dependencyChains() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("chains").setChains(400, 5).build());
+  }
+
+  @Test
+  public void constraints() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("constraints").setChains(2000, 1).setConstraintRate(0.5f).build());
+  }
+
+  @Test
+  public void retries() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("retries").setChains(2000, 1).setRetryRate(0.2f).build());
+  }
+
+  @Test
+  public void slowStorage() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("slow-storage").setChains(1000, 1).setQueueCount(8).setStorageWriteNanos(50_000).build());
+  }
+
+  @Test
+  public void mixed() throws InterruptedException, IOException {
+    run(new JobBenchmarkWorkload.Builder("mixed").setChains(250, 4)
+                                                 .setQueueCount(16)
+                                                 .setConstraintRate(0.25f)
+                                                 .setRetryRate(0.01f)
+                                                 .build());
+  }
+
+  private static void run(JobBenchmarkWorkload workload) throws InterruptedException, IOException {
+    JobBenchmarkHarness.run(new JobBenchmarkWorkload.Builder("warmup").setChains(workload.getJobCount(), 1).build());
+
+    JobBenchmarkHarness.Result result = JobBenchmarkHarness.run(workload);
+
+    report.add(result.toString());
+
+    assertTrue(result.isCompleted());
+    assertEquals(workload.getJobCount(), result.getCompletedJobs());
+    assertEquals(0, result.getLeftoverJobs());
+    assertTrue(result.getRuns() >= workload.getJobCount());
+  }
+
+  /**
+   * Used instead of a mock so that recorded invocations don't show up in allocation numbers.
+   * Everything the job system logs is dropped.
+   */
+  private static final class BenchmarkLogger extends Log.Logger {
+    @Override public void v(String tag, String message, Throwable t) {}
+    @Override public void d(String tag, String message, Throwable t) {}
+    @Override public void i(String tag, String message, Throwable t) {}
+    @Override public void w(String tag, String message, Throwable t) {}
+    @Override public void e(String tag, String message, Throwable t) {}
+    @Override public void wtf(String tag, String message, Throwable t) {}
+    @Override public void blockUntilAllWritesFinished() {}
+  }
+}
@@ -0,0 +1,103 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.testutil.BenchmarkReport;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A small JMH-style comparison of {@link JsonDataSerializer} and {@link BinaryDataSerializer} over
+ * payloads shaped like our most common jobs. Each serializer is warmed up before being measured,
+ * and the time per operation and bytes per job are written to
+ * build/reports/benchmarks/DataSerializerBenchmark.txt. Only the size comparison is asserted, since
+ * timings vary too much between machines to be useful as a pass/fail signal. Only built and run
+ * when asked for:
+ *
+ *   ./gradlew testPlayDebugUnitTest -Pbenchmarks --tests '*DataSerializerBenchmark'
+ */
+public final class DataSerializerBenchmark {
+
+  private static final int WARMUP_ITERATIONS   = 2_000;
+  private static final int MEASURED_ITERATIONS = 10_000;
+
+  private static final Data PUSH_DECRYPT = new Data.Builder().putLong("message_id", 123456789L)
+                                                             .putLong("smsMessageId", -1)
+                                                             .build();
+
+  private static final Data DELIVERY_RECEIPT = new Data.Builder().putString("recipient", "1234")
+                                                                 .putLong("message_id", 1572289102317L)
+                                                                 .putLong("timestamp", 1572289102317L)
+                                                                 .build();
+
+  private static final Data GROUP_SEND = new Data.Builder().putLong("message_id", 42)
+                                                           .putStringArray("filter_recipients", new String[]{ "11", "12", "13", "14", "15" })
+                                                           .putBoolean("is_forward", false)
+                                                           .build();
+
+  @Test
+  public void compareSerializers() throws IOException {
+    Data[] payloads = new Data[]{ PUSH_DECRYPT, DELIVERY_RECEIPT, GROUP_SEND };
+
+    Result json   = measure(new JsonDataSerializer(), payloads);
+    Result binary = measure(new BinaryDataSerializer(), payloads);
+
+    BenchmarkReport report = new BenchmarkReport(DataSerializerBenchmark.class);
+
+    report.add(String.format(Locale.US, "%-8s %12s %12s %10s", "", "ser ns/op", "deser ns/op", "bytes/job"));
+    report.add(json.format("json"));
+    report.add(binary.format("binary"));
+
+    assertTrue(binary.bytesPerJob < json.bytesPerJob);
+  }
+
+  private static Result measure(Data.Serializer serializer, Data[] payloads) {
+    String[] serialized = new String[payloads.length];
+    long     totalBytes = 0;
+
+    for (int i = 0; i < payloads.length; i++) {
+      serialized[i] = serializer.serialize(payloads[i]);
+      totalBytes   += serialized[i].length();
+    }
+
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      Data data = payloads[i % payloads.length];
+      serializer.deserialize(serializer.serialize(data));
+    }
+
+    long serializeStart = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      serializer.serialize(payloads[i % payloads.length]);
+    }
+    long serializeNanos = System.nanoTime() - serializeStart;
+
+    long deserializeStart = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+      serializer.deserialize(serialized[i % serialized.length]);
+    }
+    long deserializeNanos = System.nanoTime() - deserializeStart;
+
+    return new Result(serializeNanos / MEASURED_ITERATIONS,
+                      deserializeNanos / MEASURED_ITERATIONS,
+                      totalBytes / payloads.length);
+  }
+
+  private static final class Result {
+    private final long serializeNanos;
+    private final long deserializeNanos;
+    private final long bytesPerJob;
+
+    private Result(long serializeNanos, long deserializeNanos, long bytesPerJob) {
+      this.serializeNanos   = serializeNanos;
+      this.deserializeNanos = deserializeNanos;
+      this.bytesPerJob      = bytesPerJob;
+    }
+
+    private String format(String name) {
+      return String.format(Locale.US, "%-8s %12d %12d %10d", name, serializeNanos, deserializeNanos, bytesPerJob);
+    }
+  }
+}
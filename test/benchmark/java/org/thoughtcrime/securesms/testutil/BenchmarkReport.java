@@ -0,0 +1,42 @@
+package org.thoughtcrime.securesms.testutil;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Where a benchmark writes its results: one text file per benchmark class, under
+ * build/reports/benchmarks. Each run starts a fresh file, so it can be kept and compared against
+ * the next one. Only intended to be used for benchmarks.
+ */
+public final class BenchmarkReport {
+
+  private static final File DIRECTORY = new File("build/reports/benchmarks");
+
+  private final File file;
+
+  /**
+   * Starts a new report for the given benchmark, replacing any left by a previous run.
+   */
+  public BenchmarkReport(@NonNull Class<?> benchmark) throws IOException {
+    if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+      throw new IOException("Couldn't create " + DIRECTORY.getAbsolutePath());
+    }
+
+    this.file = new File(DIRECTORY, benchmark.getSimpleName() + ".txt");
+
+    try (Writer ignored = new FileWriter(file, false)) {
+      // Truncates the previous run's results.
+    }
+  }
+
+  public synchronized void add(@NonNull String line) throws IOException {
+    try (Writer writer = new FileWriter(file, true)) {
+      writer.write(line);
+      writer.write('\n');
+    }
+  }
+}
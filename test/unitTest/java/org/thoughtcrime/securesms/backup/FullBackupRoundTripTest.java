@@ -0,0 +1,298 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.MasterSecretUtil;
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Exports tables from a fake database, imports the backup into another, and checks that every row
+ * comes back, in order, split into the expected INSERT batches.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class FullBackupRoundTripTest {
+
+  private static final int    VERSION    = 30;
+  private static final String PASSPHRASE = "000000000000000000000000000000";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Context                     context;
+  private Map<String, List<Object[]>> tables;
+  private List<Insert>                inserts;
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    tables  = new LinkedHashMap<>();
+    inserts = new LinkedList<>();
+
+    context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0)
+           .edit()
+           .putString("pref_identity_public_v3", "public")
+           .putString("pref_identity_private_v3", "private")
+           .commit();
+  }
+
+  @Test
+  public void roundTrip_tableLargerThanOneBatch() throws IOException {
+    List<Object[]> rows = new ArrayList<>();
+
+    for (long i = 0; i < 250; i++) {
+      rows.add(new Object[] {i, "name " + i, i / 2.0, new byte[] {(byte) i, 1, 2}, null});
+    }
+
+    tables.put("numbers", rows);
+
+    roundTrip();
+
+    assertBatchSizes("numbers", 100, 100, 50);
+    assertRestored("numbers");
+  }
+
+  @Test
+  public void roundTrip_batchBoundedByParameterLimit() throws IOException {
+    List<Object[]> rows = new ArrayList<>();
+
+    for (long i = 0; i < 120; i++) {
+      Object[] row = new Object[20];
+
+      for (int column = 0; column < row.length; column++) {
+        row[column] = i * 100 + column;
+      }
+
+      rows.add(row);
+    }
+
+    tables.put("wide", rows);
+
+    roundTrip();
+
+    assertBatchSizes("wide", 49, 49, 22);
+    assertRestored("wide");
+  }
+
+  @Test
+  public void roundTrip_batchBoundedBySize() throws IOException {
+    char[] body = new char[100 * 1024];
+    Arrays.fill(body, 'a');
+
+    tables.put("bodies", Arrays.asList(new Object[] {1L, new String(body)},
+                                       new Object[] {2L, new String(body)},
+                                       new Object[] {3L, new String(body)}));
+
+    roundTrip();
+
+    assertBatchSizes("bodies", 2, 1);
+    assertRestored("bodies");
+  }
+
+  @Test
+  public void roundTrip_batchesDontSpanTables() throws IOException {
+    List<Object[]> first  = new ArrayList<>();
+    List<Object[]> second = new ArrayList<>();
+
+    for (long i = 0; i < 150; i++) first.add(new Object[] {i, "first " + i});
+    for (long i = 0; i < 3; i++)   second.add(new Object[] {i, "second " + i});
+
+    tables.put("first", first);
+    tables.put("second", second);
+
+    roundTrip();
+
+    assertBatchSizes("first", 100, 50);
+    assertBatchSizes("second", 3);
+    assertRestored("first");
+    assertRestored("second");
+    assertEquals("first", inserts.get(0).table);
+    assertEquals("second", inserts.get(inserts.size() - 1).table);
+  }
+
+  private void roundTrip() throws IOException {
+    File backup = folder.newFile("backup");
+
+    FullBackupExporter.export(context, new AttachmentSecret(), sourceDatabase(), backup, PASSPHRASE);
+    FullBackupImporter.importFile(context, new AttachmentSecret(), destinationDatabase(), backup, PASSPHRASE);
+  }
+
+  private void assertBatchSizes(@NonNull String table, int... sizes) {
+    List<Integer> actual = new LinkedList<>();
+
+    for (Insert insert : inserts) {
+      if (insert.table.equals(table)) {
+        actual.add(insert.values.size() / tables.get(table).get(0).length);
+      }
+    }
+
+    List<Integer> expected = new LinkedList<>();
+    for (int size : sizes) expected.add(size);
+
+    assertEquals(expected, actual);
+  }
+
+  private void assertRestored(@NonNull String table) {
+    List<Object[]> expected = tables.get(table);
+    int            columns  = expected.get(0).length;
+    List<Object[]> restored = new ArrayList<>();
+
+    for (Insert insert : inserts) {
+      if (insert.table.equals(table)) {
+        for (int i = 0; i < insert.values.size(); i += columns) {
+          restored.add(insert.values.subList(i, i + columns).toArray());
+        }
+      }
+    }
+
+    assertEquals(expected.size(), restored.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue("Row " + i + " of " + table, Arrays.deepEquals(expected.get(i), restored.get(i)));
+    }
+  }
+
+  private @NonNull SQLiteDatabase sourceDatabase() {
+    SQLiteDatabase database = mock(SQLiteDatabase.class);
+    List<Object[]> schema   = new ArrayList<>();
+
+    for (Map.Entry<String, List<Object[]>> table : tables.entrySet()) {
+      schema.add(new Object[] {"CREATE TABLE " + table.getKey() + " (...)", table.getKey(), "table"});
+
+      when(database.rawQuery(eq("SELECT * FROM " + table.getKey()), any(String[].class))).thenReturn(cursorFor(table.getValue()));
+    }
+
+    when(database.getVersion()).thenReturn(VERSION);
+    when(database.rawQuery(eq("SELECT sql, name, type FROM sqlite_master"), any(String[].class))).thenReturn(cursorFor(schema));
+
+    return database;
+  }
+
+  private @NonNull SQLiteDatabase destinationDatabase() {
+    SQLiteDatabase database = mock(SQLiteDatabase.class);
+
+    when(database.getVersion()).thenReturn(VERSION);
+    when(database.rawQuery(eq("SELECT name, type FROM sqlite_master"), any(String[].class))).thenReturn(cursorFor(new ArrayList<>()));
+    when(database.compileStatement(anyString())).thenAnswer(invocation -> recordingStatement((String) invocation.getArguments()[0]));
+
+    return database;
+  }
+
+  /**
+   * A compiled statement that records its bound values each time it's executed.
+   */
+  private @NonNull SQLiteStatement recordingStatement(@NonNull String sql) {
+    SQLiteStatement      statement = mock(SQLiteStatement.class);
+    Map<Integer, Object> bindings  = new HashMap<>();
+
+    doAnswer(invocation -> bind(bindings, invocation.getArguments())).when(statement).bindString(anyInt(), anyString());
+    doAnswer(invocation -> bind(bindings, invocation.getArguments())).when(statement).bindLong(anyInt(), anyLong());
+    doAnswer(invocation -> bind(bindings, invocation.getArguments())).when(statement).bindDouble(anyInt(), anyDouble());
+    doAnswer(invocation -> bind(bindings, invocation.getArguments())).when(statement).bindBlob(anyInt(), any(byte[].class));
+    doAnswer(invocation -> bind(bindings, new Object[] {invocation.getArguments()[0], null})).when(statement).bindNull(anyInt());
+
+    doAnswer(invocation -> {
+      bindings.clear();
+      return null;
+    }).when(statement).clearBindings();
+
+    doAnswer(invocation -> {
+      List<Object> values = new ArrayList<>(bindings.size());
+
+      for (int i = 1; i <= bindings.size(); i++) {
+        values.add(bindings.get(i));
+      }
+
+      inserts.add(new Insert(sql, values));
+      return null;
+    }).when(statement).execute();
+
+    return statement;
+  }
+
+  private static Object bind(@NonNull Map<Integer, Object> bindings, @NonNull Object[] arguments) {
+    bindings.put((Integer) arguments[0], arguments[1]);
+    return null;
+  }
+
+  /**
+   * A forward-only cursor over the given rows, typed by the values in them.
+   */
+  private static @NonNull Cursor cursorFor(@NonNull List<Object[]> rows) {
+    Cursor cursor   = mock(Cursor.class);
+    int[]  position = {-1};
+
+    when(cursor.moveToNext()).thenAnswer(invocation -> ++position[0] < rows.size());
+    when(cursor.getColumnCount()).thenAnswer(invocation -> rows.get(position[0]).length);
+    when(cursor.getType(anyInt())).thenAnswer(invocation -> typeOf(rows.get(position[0])[(Integer) invocation.getArguments()[0]]));
+    when(cursor.getString(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+    when(cursor.getLong(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+    when(cursor.getDouble(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+    when(cursor.getBlob(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+
+    return cursor;
+  }
+
+  private static int typeOf(Object value) {
+    if      (value instanceof String) return Cursor.FIELD_TYPE_STRING;
+    else if (value instanceof Double) return Cursor.FIELD_TYPE_FLOAT;
+    else if (value instanceof Long)   return Cursor.FIELD_TYPE_INTEGER;
+    else if (value instanceof byte[]) return Cursor.FIELD_TYPE_BLOB;
+    else                              return Cursor.FIELD_TYPE_NULL;
+  }
+
+  private static final class Insert {
+
+    private final String       table;
+    private final List<Object> values;
+
+    private Insert(@NonNull String sql, @NonNull List<Object> values) {
+      this.table  = sql.substring("INSERT INTO ".length(), sql.indexOf(" VALUES "));
+      this.values = values;
+    }
+  }
+}
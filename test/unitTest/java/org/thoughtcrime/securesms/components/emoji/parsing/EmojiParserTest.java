@@ -0,0 +1,136 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public final class EmojiParserTest {
+
+  private static final String THUMBS_UP        = "\ud83d\udc4d";
+  private static final String SKIN_TONE_3      = "\ud83c\udffc";
+  private static final String HEART            = "\u2764\ufe0f";
+  private static final String HEART_BARE       = "\u2764";
+  private static final String MAN              = "\ud83d\udc68";
+  private static final String MAN_TECHNOLOGIST = MAN + "\u200d\ud83d\udcbb";
+
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo man;
+  private EmojiDrawInfo manTechnologist;
+  private EmojiParser   parser;
+
+  @Before
+  public void setUp() {
+    EmojiPageBitmap page = mock(EmojiPageBitmap.class);
+
+    thumbsUp        = new EmojiDrawInfo(page, 0);
+    heart           = new EmojiDrawInfo(page, 1);
+    man             = new EmojiDrawInfo(page, 2);
+    manTechnologist = new EmojiDrawInfo(page, 3);
+
+    EmojiTree tree = new EmojiTree.Builder().add(THUMBS_UP, thumbsUp)
+                                            .add(HEART, heart)
+                                            .add(MAN, man)
+                                            .add(MAN_TECHNOLOGIST, manTechnologist)
+                                            .build();
+
+    parser = new EmojiParser(tree);
+  }
+
+  @Test
+  public void findCandidates_null() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(null);
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_mixedText() {
+    String text = "ok " + THUMBS_UP + " sure";
+
+    EmojiParser.CandidateList candidates = parser.findCandidates(text);
+
+    assertEquals(1, candidates.size());
+    assertEquals(3, candidates.getStartIndex(0));
+    assertEquals(5, candidates.getEndIndex(0));
+    assertSame(thumbsUp, candidates.getDrawInfo(0));
+    assertFalse(candidates.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_longestMatchWins() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(MAN_TECHNOLOGIST + MAN);
+
+    assertEquals(2, candidates.size());
+    assertSame(manTechnologist, candidates.getDrawInfo(0));
+    assertEquals(MAN_TECHNOLOGIST.length(), candidates.getEndIndex(0));
+    assertSame(man, candidates.getDrawInfo(1));
+    assertTrue(candidates.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_partialSequenceFallsBackToPrefix() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(MAN + "\u200d");
+
+    assertEquals(1, candidates.size());
+    assertSame(man, candidates.getDrawInfo(0));
+    assertEquals(MAN.length(), candidates.getEndIndex(0));
+    assertFalse(candidates.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_missingVariationSelector() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(HEART_BARE + " " + HEART);
+
+    assertEquals(2, candidates.size());
+    assertSame(heart, candidates.getDrawInfo(0));
+    assertEquals(1, candidates.getEndIndex(0));
+    assertSame(heart, candidates.getDrawInfo(1));
+    assertEquals(4, candidates.getEndIndex(1));
+    assertTrue(candidates.isAllEmojis());
+  }
+
+  @Test
+  public void findCandidates_skinToneIsIncluded() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + SKIN_TONE_3);
+
+    assertEquals(1, candidates.size());
+    assertSame(thumbsUp, candidates.getDrawInfo(0));
+    assertEquals(4, candidates.getEndIndex(0));
+  }
+
+  @Test
+  public void findCandidates_reusesList() {
+    EmojiParser.CandidateList candidates = new EmojiParser.CandidateList();
+
+    for (int i = 0; i < 20; i++) {
+      parser.findCandidates(THUMBS_UP, candidates);
+    }
+
+    assertSame(candidates, parser.findCandidates("no emoji here " + THUMBS_UP + THUMBS_UP, candidates));
+    assertEquals(2, candidates.size());
+    assertFalse(candidates.isAllEmojis());
+
+    parser.findCandidates("", candidates);
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.isAllEmojis());
+  }
+
+  @Test
+  public void getEmoji() {
+    EmojiTree tree = new EmojiTree.Builder().add(HEART, heart).build();
+
+    assertSame(heart, tree.getEmoji(HEART, 0, HEART.length()));
+    assertSame(heart, tree.getEmoji(HEART_BARE, 0, HEART_BARE.length()));
+    assertNull(tree.getEmoji(THUMBS_UP, 0, THUMBS_UP.length()));
+    assertNull(tree.getEmoji("", 0, 0));
+  }
+}
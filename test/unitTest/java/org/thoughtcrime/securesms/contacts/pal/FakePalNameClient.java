@@ -0,0 +1,104 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for the PrivateDataManager and its µPALs. Names are answered from a fixed contact list,
+ * either as soon as they're asked for or when the test says so.
+ */
+final class FakePalNameClient implements PalNameClient {
+
+  private final int                 maxBatchSize;
+  private final Map<String, String> contacts = new HashMap<>();
+  private final List<List<String>>  requests = new LinkedList<>();
+  private final List<Pending>       pending  = new LinkedList<>();
+
+  private boolean answerImmediately = true;
+
+  FakePalNameClient(int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  synchronized FakePalNameClient addContact(@NonNull String e164, @NonNull String name) {
+    contacts.put(e164, name);
+    return this;
+  }
+
+  synchronized FakePalNameClient holdAnswers() {
+    answerImmediately = false;
+    return this;
+  }
+
+  @Override
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  @Override
+  public void requestNames(@NonNull List<String> e164s, @NonNull Callback callback) {
+    Pending request = new Pending(e164s, callback);
+
+    synchronized (this) {
+      requests.add(e164s);
+
+      if (!answerImmediately) {
+        pending.add(request);
+        return;
+      }
+    }
+
+    answer(request);
+  }
+
+  /**
+   * Answers every request being held.
+   */
+  void answerPending() {
+    List<Pending> answering;
+
+    synchronized (this) {
+      answering = new LinkedList<>(pending);
+      pending.clear();
+    }
+
+    for (Pending request : answering) {
+      answer(request);
+    }
+  }
+
+  synchronized @NonNull List<List<String>> getRequests() {
+    return new LinkedList<>(requests);
+  }
+
+  synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  private void answer(@NonNull Pending request) {
+    Map<String, PalNameResult> results = new HashMap<>();
+
+    synchronized (this) {
+      for (String e164 : request.e164s) {
+        String name = contacts.get(e164);
+        results.put(e164, name != null ? PalNameResult.found(name) : PalNameResult.notFound());
+      }
+    }
+
+    request.callback.onResult(results);
+  }
+
+  private static final class Pending {
+    private final List<String> e164s;
+    private final Callback     callback;
+
+    private Pending(@NonNull List<String> e164s, @NonNull Callback callback) {
+      this.e164s    = e164s;
+      this.callback = callback;
+    }
+  }
+}
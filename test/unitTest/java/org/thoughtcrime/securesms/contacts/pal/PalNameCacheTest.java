@@ -0,0 +1,75 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PalNameCacheTest {
+
+  private static final String ALICE = "+14151111111";
+  private static final String BOB   = "+14152222222";
+  private static final String CAROL = "+14153333333";
+
+  @Test
+  public void get_foundNameIsKeptForFoundTtl() {
+    PalNameCache cache = new PalNameCache(10, 1000, 100);
+
+    cache.put(ALICE, PalNameResult.found("Alice"), 0);
+
+    PalNameResult result = cache.get(ALICE, 999);
+
+    assertTrue(result.isFound());
+    assertEquals("Alice", result.getName());
+    assertNull(cache.get(ALICE, 1000));
+  }
+
+  @Test
+  public void get_notFoundIsKeptForNotFoundTtl() {
+    PalNameCache cache = new PalNameCache(10, 1000, 100);
+
+    cache.put(ALICE, PalNameResult.notFound(), 0);
+
+    PalNameResult result = cache.get(ALICE, 99);
+
+    assertFalse(result.isFound());
+    assertFalse(result.isFailed());
+    assertNull(cache.get(ALICE, 100));
+  }
+
+  @Test
+  public void get_expiredEntryIsRemoved() {
+    PalNameCache cache = new PalNameCache(10, 1000, 100);
+
+    cache.put(ALICE, PalNameResult.notFound(), 0);
+    cache.get(ALICE, 100);
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void put_failedResultIsNotCached() {
+    PalNameCache cache = new PalNameCache(10, 1000, 100);
+
+    cache.put(ALICE, PalNameResult.failed(), 0);
+
+    assertNull(cache.get(ALICE, 0));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void put_oldestEntryIsEvicted() {
+    PalNameCache cache = new PalNameCache(2, 1000, 100);
+
+    cache.put(ALICE, PalNameResult.found("Alice"), 0);
+    cache.put(BOB, PalNameResult.found("Bob"), 0);
+    cache.put(CAROL, PalNameResult.found("Carol"), 1);
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get(ALICE, 2));
+    assertEquals("Bob", cache.get(BOB, 2).getName());
+    assertEquals("Carol", cache.get(CAROL, 2).getName());
+  }
+}
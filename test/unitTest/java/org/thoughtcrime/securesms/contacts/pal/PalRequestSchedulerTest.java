@@ -0,0 +1,199 @@
+package org.thoughtcrime.securesms.contacts.pal;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class PalRequestSchedulerTest {
+
+  private static final String ALICE = "+14151111111";
+  private static final String BOB   = "+14152222222";
+  private static final String CAROL = "+14153333333";
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void request_answersFromClient() throws Exception {
+    FakePalNameClient   client    = new FakePalNameClient(1).addContact(ALICE, "Alice");
+    PalRequestScheduler scheduler = createScheduler(client, 4, 1000);
+    Results             results   = new Results(2);
+
+    scheduler.request(ALICE, results.listener(ALICE));
+    scheduler.request(BOB, results.listener(BOB));
+
+    results.await();
+
+    assertEquals("Alice", results.get(ALICE).getName());
+    assertFalse(results.get(BOB).isFound());
+    assertFalse(results.get(BOB).isFailed());
+  }
+
+  @Test
+  public void request_cachedAnswerSkipsClient() throws Exception {
+    FakePalNameClient   client    = new FakePalNameClient(1).addContact(ALICE, "Alice");
+    PalRequestScheduler scheduler = createScheduler(client, 4, 1000);
+
+    Results first = new Results(1);
+    scheduler.request(ALICE, first.listener(ALICE));
+    first.await();
+
+    Results second = new Results(1);
+    scheduler.request(ALICE, second.listener(ALICE));
+    second.await();
+
+    assertEquals("Alice", second.get(ALICE).getName());
+    assertEquals(1, client.getRequests().size());
+    assertEquals(1, scheduler.getMetrics().getCacheHits());
+    assertEquals(1, scheduler.getMetrics().getCacheMisses());
+  }
+
+  @Test
+  public void request_duplicatesAreCoalesced() throws Exception {
+    FakePalNameClient   client    = new FakePalNameClient(1).addContact(ALICE, "Alice").holdAnswers();
+    PalRequestScheduler scheduler = createScheduler(client, 4, 1000);
+    CountDownLatch      latch     = new CountDownLatch(3);
+
+    for (int i = 0; i < 3; i++) {
+      scheduler.request(ALICE, result -> {
+        if ("Alice".equals(result.getName())) latch.countDown();
+      });
+    }
+
+    flush();
+    client.answerPending();
+
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+    assertEquals(1, client.getRequests().size());
+    assertEquals(2, scheduler.getMetrics().getCoalesced());
+  }
+
+  @Test
+  public void request_numbersAreBatched() throws Exception {
+    FakePalNameClient   client    = new FakePalNameClient(2);
+    PalRequestScheduler scheduler = createScheduler(client, 4, 1000);
+    Results             results   = new Results(3);
+
+    executor.submit(() -> {
+      scheduler.request(ALICE, results.listener(ALICE));
+      scheduler.request(BOB, results.listener(BOB));
+      scheduler.request(CAROL, results.listener(CAROL));
+    }).get();
+
+    results.await();
+
+    List<List<String>> requests = client.getRequests();
+
+    assertEquals(2, requests.size());
+    assertEquals(Arrays.asList(ALICE, BOB), requests.get(0));
+    assertEquals(Collections.singletonList(CAROL), requests.get(1));
+  }
+
+  @Test
+  public void request_concurrencyIsBounded() throws Exception {
+    FakePalNameClient   client    = new FakePalNameClient(1).holdAnswers();
+    PalRequestScheduler scheduler = createScheduler(client, 2, 1000);
+    Results             results   = new Results(3);
+
+    scheduler.request(ALICE, results.listener(ALICE));
+    scheduler.request(BOB, results.listener(BOB));
+    scheduler.request(CAROL, results.listener(CAROL));
+
+    flush();
+    assertEquals(2, client.getPendingCount());
+
+    client.answerPending();
+    flush();
+    assertEquals(1, client.getPendingCount());
+
+    client.answerPending();
+    results.await();
+
+    assertEquals(3, client.getRequests().size());
+  }
+
+  @Test
+  public void request_unansweredRequestFailsAtDeadline() throws Exception {
+    FakePalNameClient   client    = new FakePalNameClient(1).addContact(ALICE, "Alice").holdAnswers();
+    PalRequestScheduler scheduler = createScheduler(client, 1, 50);
+    Results             results   = new Results(2);
+
+    scheduler.request(ALICE, results.listener(ALICE));
+    scheduler.request(BOB, results.listener(BOB));
+
+    results.await();
+
+    assertTrue(results.get(ALICE).isFailed());
+    assertTrue(results.get(BOB).isFailed());
+    assertEquals(2, scheduler.getMetrics().getTimeouts());
+
+    client.answerPending();
+
+    Results retry = new Results(1);
+    scheduler.request(ALICE, retry.listener(ALICE));
+    flush();
+    client.answerPending();
+    retry.await();
+
+    assertEquals("Alice", retry.get(ALICE).getName());
+  }
+
+  private @NonNull PalRequestScheduler createScheduler(@NonNull PalNameClient client, int maxConcurrentRequests, long deadlineMs) {
+    return new PalRequestScheduler(client, new PalNameCache(100, 1000, 1000), executor, maxConcurrentRequests, 0, deadlineMs);
+  }
+
+  private void flush() throws Exception {
+    executor.submit(() -> {}).get();
+  }
+
+  private static final class Results {
+    private final Map<String, PalNameResult> results = new ConcurrentHashMap<>();
+    private final CountDownLatch             latch;
+
+    private Results(int count) {
+      this.latch = new CountDownLatch(count);
+    }
+
+    @NonNull PalRequestScheduler.Listener listener(@NonNull String e164) {
+      return result -> {
+        results.put(e164, result);
+        latch.countDown();
+      };
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @NonNull PalNameResult get(@NonNull String e164) {
+      return results.get(e164);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.thoughtcrime.securesms.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class ModernDecryptingPartReaderTest {
+
+  private static final int LENGTH = 10_000;
+
+  private AttachmentSecret attachmentSecret;
+  private byte[]           random;
+  private byte[]           plaintext;
+  private File             file;
+
+  @Before
+  public void setUp() throws Exception {
+    Random source = new Random(7);
+
+    byte[] modernKey = new byte[32];
+    source.nextBytes(modernKey);
+
+    attachmentSecret = new AttachmentSecret(new byte[32], new byte[32], modernKey);
+    random           = new byte[32];
+    plaintext        = new byte[LENGTH];
+    file             = File.createTempFile("part", null);
+
+    source.nextBytes(random);
+    source.nextBytes(plaintext);
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(modernKey, "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(random), "AES"), new IvParameterSpec(new byte[16]));
+
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(cipher.doFinal(plaintext));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void read_random_positions() throws IOException {
+    Random source = new Random(11);
+
+    try (ModernDecryptingPartReader reader = new ModernDecryptingPartReader(attachmentSecret, random, file, 64, 3)) {
+      for (int i = 0; i < 1000; i++) {
+        int    position = source.nextInt(LENGTH);
+        int    length   = source.nextInt(300);
+        byte[] buffer   = new byte[length + 5];
+        int    expected = Math.min(length, LENGTH - position);
+
+        assertEquals(expected, reader.read(position, buffer, 5, length));
+        assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + expected), Arrays.copyOfRange(buffer, 5, 5 + expected));
+      }
+    }
+  }
+
+  @Test
+  public void read_matches_decrypting_input_stream() throws IOException {
+    byte[] fromReader = new byte[1000];
+    byte[] fromStream = new byte[1000];
+
+    try (ModernDecryptingPartReader reader = new ModernDecryptingPartReader(attachmentSecret, random, file);
+         InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, file, 4321))
+    {
+      assertEquals(1000, reader.read(4321, fromReader, 0, 1000));
+
+      int total = 0;
+      while (total < fromStream.length) {
+        total += inputStream.read(fromStream, total, fromStream.length - total);
+      }
+    }
+
+    assertArrayEquals(fromStream, fromReader);
+  }
+
+  @Test
+  public void read_past_end() throws IOException {
+    byte[] buffer = new byte[100];
+
+    try (ModernDecryptingPartReader reader = new ModernDecryptingPartReader(attachmentSecret, random, file)) {
+      assertEquals(10, reader.read(LENGTH - 10, buffer, 0, 100));
+      assertEquals(-1, reader.read(LENGTH, buffer, 0, 100));
+      assertEquals(-1, reader.read(LENGTH + 1000, buffer, 0, 100));
+    }
+  }
+}
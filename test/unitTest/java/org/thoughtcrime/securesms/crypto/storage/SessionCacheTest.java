@@ -0,0 +1,120 @@
+package org.thoughtcrime.securesms.crypto.storage;
+
+import org.junit.Test;
+import org.whispersystems.libsignal.SignalProtocolAddress;
+import org.whispersystems.libsignal.state.SessionRecord;
+import org.whispersystems.libsignal.state.SessionState;
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SessionCacheTest {
+
+  private static final SignalProtocolAddress ALICE_1 = new SignalProtocolAddress("+15550000001", 1);
+  private static final SignalProtocolAddress ALICE_2 = new SignalProtocolAddress("+15550000001", 2);
+  private static final SignalProtocolAddress BOB_1   = new SignalProtocolAddress("+15550000002", 1);
+
+  @Test
+  public void get_nothingCached_returnsNull() {
+    SessionCache cache = new SessionCache(10);
+
+    assertNull(cache.get(ALICE_1));
+  }
+
+  @Test
+  public void get_absentCached_returnsAbsent() {
+    SessionCache cache = new SessionCache(10);
+
+    cache.put(ALICE_1, null);
+
+    Optional<SessionRecord> result = cache.get(ALICE_1);
+
+    assertNotNull(result);
+    assertFalse(result.isPresent());
+  }
+
+  @Test
+  public void get_returnsCopyWithSameContents() {
+    SessionCache  cache  = new SessionCache(10);
+    SessionRecord record = record(42);
+
+    record.archiveCurrentState();
+    record.getSessionState().setLocalRegistrationId(43);
+
+    cache.put(ALICE_1, record);
+
+    SessionRecord result = cache.get(ALICE_1).get();
+
+    assertNotSame(record, result);
+    assertEquals(43, result.getSessionState().getLocalRegistrationId());
+    assertEquals(1, result.getPreviousSessionStates().size());
+    assertEquals(42, result.getPreviousSessionStates().get(0).getLocalRegistrationId());
+  }
+
+  @Test
+  public void get_mutatingResult_doesNotChangeCache() {
+    SessionCache cache = new SessionCache(10);
+
+    cache.put(ALICE_1, record(42));
+
+    SessionRecord first = cache.get(ALICE_1).get();
+    first.getSessionState().setLocalRegistrationId(99);
+    first.archiveCurrentState();
+
+    SessionRecord second = cache.get(ALICE_1).get();
+
+    assertEquals(42, second.getSessionState().getLocalRegistrationId());
+    assertTrue(second.getPreviousSessionStates().isEmpty());
+  }
+
+  @Test
+  public void put_mutatingInputAfterwards_doesNotChangeCache() {
+    SessionCache  cache  = new SessionCache(10);
+    SessionRecord record = record(42);
+
+    cache.put(ALICE_1, record);
+    record.getSessionState().setLocalRegistrationId(99);
+
+    assertEquals(42, cache.get(ALICE_1).get().getSessionState().getLocalRegistrationId());
+  }
+
+  @Test
+  public void removeAllFor_onlyRemovesMatchingName() {
+    SessionCache cache = new SessionCache(10);
+
+    cache.put(ALICE_1, record(1));
+    cache.put(ALICE_2, record(2));
+    cache.put(BOB_1, record(3));
+
+    cache.removeAllFor(ALICE_1.getName());
+
+    assertNull(cache.get(ALICE_1));
+    assertNull(cache.get(ALICE_2));
+    assertNotNull(cache.get(BOB_1));
+  }
+
+  @Test
+  public void put_overCapacity_evictsEntries() {
+    SessionCache cache = new SessionCache(2);
+
+    cache.put(ALICE_1, record(1));
+    cache.put(ALICE_2, record(2));
+    cache.put(BOB_1, record(3));
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get(ALICE_1));
+  }
+
+  private static SessionRecord record(int localRegistrationId) {
+    SessionState state = new SessionState();
+    state.setSessionVersion(3);
+    state.setLocalRegistrationId(localRegistrationId);
+
+    return new SessionRecord(state);
+  }
+}
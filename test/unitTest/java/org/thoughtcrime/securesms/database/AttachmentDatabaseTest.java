@@ -0,0 +1,336 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.mms.MediaStream;
+import org.thoughtcrime.securesms.util.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the attachment data sharing paths against an in-memory part table, with real data files on
+ * disk, so that which files survive can be checked directly.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class AttachmentDatabaseTest {
+
+  private static final byte[] CONTENT       = "attachment content".getBytes();
+  private static final byte[] OTHER_CONTENT = "other content".getBytes();
+
+  private static final AttachmentId ATTACHMENT_1 = new AttachmentId(1, 11);
+  private static final AttachmentId ATTACHMENT_2 = new AttachmentId(2, 22);
+
+  private File               partsDirectory;
+  private PartTable          table;
+  private AttachmentDatabase subject;
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    Context             context  = RuntimeEnvironment.application;
+    SQLCipherOpenHelper helper   = mock(SQLCipherOpenHelper.class);
+    SQLiteDatabase      database = mock(SQLiteDatabase.class);
+
+    partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
+    table          = new PartTable();
+
+    for (File file : partsDirectory.listFiles()) {
+      assertTrue(file.delete());
+    }
+
+    when(helper.getReadableDatabase()).thenReturn(database);
+    when(helper.getWritableDatabase()).thenReturn(database);
+
+    when(database.query(eq(AttachmentDatabase.TABLE_NAME), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString()))
+        .thenAnswer(invocation -> table.query(invocation.getArguments()));
+    when(database.query(eq(AttachmentDatabase.TABLE_NAME), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString(), anyString()))
+        .thenAnswer(invocation -> table.query(invocation.getArguments()));
+    when(database.update(eq(AttachmentDatabase.TABLE_NAME), any(ContentValues.class), anyString(), any(String[].class)))
+        .thenAnswer(invocation -> table.update((ContentValues) invocation.getArguments()[1], (String) invocation.getArguments()[2], (String[]) invocation.getArguments()[3]));
+    when(database.delete(eq(AttachmentDatabase.TABLE_NAME), anyString(), any(String[].class)))
+        .thenAnswer(invocation -> table.delete((String) invocation.getArguments()[1], (String[]) invocation.getArguments()[2]));
+
+    subject = spy(new AttachmentDatabase(context, helper, new AttachmentSecret(new byte[32], new byte[32], new byte[32])));
+  }
+
+  @Test
+  public void updateAttachmentData_identicalContentSharesExistingFile() throws Exception {
+    File existing = newDataFile();
+    File previous = newDataFile();
+
+    table.insert(ATTACHMENT_1, 1, existing, hashOf(CONTENT));
+    table.insert(ATTACHMENT_2, 2, previous, hashOf(OTHER_CONTENT));
+
+    subject.updateAttachmentData(attachment(ATTACHMENT_2), new MediaStream(new ByteArrayInputStream(CONTENT), "application/octet-stream", 0, 0));
+
+    assertEquals(existing.getAbsolutePath(), table.get(ATTACHMENT_2).get(AttachmentDatabase.DATA));
+    assertEquals(hashOf(CONTENT), table.get(ATTACHMENT_2).get("data_hash"));
+    assertEquals(Arrays.asList(existing), Arrays.asList(partsDirectory.listFiles()));
+  }
+
+  @Test
+  public void updateAttachmentData_newContentGetsOwnFile() throws Exception {
+    File existing = newDataFile();
+    File previous = newDataFile();
+
+    table.insert(ATTACHMENT_1, 1, existing, hashOf(OTHER_CONTENT));
+    table.insert(ATTACHMENT_2, 2, previous, hashOf(OTHER_CONTENT));
+
+    subject.updateAttachmentData(attachment(ATTACHMENT_2), new MediaStream(new ByteArrayInputStream(CONTENT), "application/octet-stream", 0, 0));
+
+    String data = (String) table.get(ATTACHMENT_2).get(AttachmentDatabase.DATA);
+
+    assertNotEquals(existing.getAbsolutePath(), data);
+    assertNotEquals(previous.getAbsolutePath(), data);
+    assertTrue(new File(data).exists());
+    assertTrue(existing.exists());
+    assertFalse(previous.exists());
+    assertEquals(hashOf(CONTENT), table.get(ATTACHMENT_2).get("data_hash"));
+  }
+
+  @Test
+  public void deleteAttachmentsForMessage_sharedFileKeptUntilLastReferenceDeleted() throws IOException {
+    File shared = newDataFile();
+
+    table.insert(ATTACHMENT_1, 1, shared, hashOf(CONTENT));
+    table.insert(ATTACHMENT_2, 2, shared, hashOf(CONTENT));
+
+    subject.deleteAttachmentsForMessage(1);
+
+    assertEquals(1, table.rows.size());
+    assertTrue(shared.exists());
+
+    subject.deleteAttachmentsForMessage(2);
+
+    assertTrue(table.rows.isEmpty());
+    assertFalse(shared.exists());
+  }
+
+  @Test
+  public void copyAttachmentData_destinationSharesSourceFile() throws Exception {
+    File source      = newDataFile();
+    File destination = newDataFile();
+
+    table.insert(ATTACHMENT_1, 1, source, hashOf(CONTENT));
+    table.insert(ATTACHMENT_2, 2, destination, hashOf(OTHER_CONTENT));
+
+    doReturn(attachment(ATTACHMENT_1)).when(subject).getAttachment(ATTACHMENT_1);
+
+    subject.copyAttachmentData(ATTACHMENT_1, ATTACHMENT_2);
+
+    assertEquals(source.getAbsolutePath(), table.get(ATTACHMENT_2).get(AttachmentDatabase.DATA));
+    assertEquals(hashOf(CONTENT), table.get(ATTACHMENT_2).get("data_hash"));
+    assertArrayEquals((byte[]) table.get(ATTACHMENT_1).get("data_random"), (byte[]) table.get(ATTACHMENT_2).get("data_random"));
+    assertFalse(destination.exists());
+
+    subject.deleteAttachmentsForMessage(1);
+
+    assertTrue(source.exists());
+
+    subject.deleteAttachmentsForMessage(2);
+
+    assertFalse(source.exists());
+  }
+
+  private @NonNull File newDataFile() throws IOException {
+    File file = File.createTempFile("part", ".mms", partsDirectory);
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(1);
+    }
+
+    return file;
+  }
+
+  private static @NonNull DatabaseAttachment attachment(@NonNull AttachmentId attachmentId) {
+    DatabaseAttachment attachment = mock(DatabaseAttachment.class);
+    when(attachment.getAttachmentId()).thenReturn(attachmentId);
+    return attachment;
+  }
+
+  private static @NonNull String hashOf(@NonNull byte[] content) throws IOException {
+    try {
+      return Base64.encodeBytes(MessageDigest.getInstance("SHA-256").digest(content));
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Just enough of the part table for the queries the data sharing paths make. Selections are
+   * "column = ?", "column != ?" and "column NOT NULL" clauses joined by AND.
+   */
+  private static final class PartTable {
+
+    private final List<Map<String, Object>> rows = new LinkedList<>();
+
+    void insert(@NonNull AttachmentId attachmentId, long mmsId, @NonNull File data, @NonNull String hash) {
+      Map<String, Object> row = new HashMap<>();
+
+      row.put(AttachmentDatabase.ROW_ID, attachmentId.getRowId());
+      row.put(AttachmentDatabase.UNIQUE_ID, attachmentId.getUniqueId());
+      row.put(AttachmentDatabase.MMS_ID, mmsId);
+      row.put(AttachmentDatabase.DATA, data.getAbsolutePath());
+      row.put(AttachmentDatabase.SIZE, data.length());
+      row.put(AttachmentDatabase.CONTENT_TYPE, "application/octet-stream");
+      row.put("data_random", new byte[] {(byte) attachmentId.getRowId()});
+      row.put("data_hash", hash);
+
+      rows.add(row);
+    }
+
+    @NonNull Map<String, Object> get(@NonNull AttachmentId attachmentId) {
+      for (Map<String, Object> row : rows) {
+        if (row.get(AttachmentDatabase.ROW_ID).equals(attachmentId.getRowId())) {
+          return row;
+        }
+      }
+
+      throw new AssertionError("No row for " + attachmentId);
+    }
+
+    @NonNull Cursor query(@NonNull Object[] arguments) {
+      String[]       columns   = (String[]) arguments[1];
+      String         selection = (String) arguments[2];
+      String[]       args      = (String[]) arguments[3];
+      List<Object[]> results   = new ArrayList<>();
+
+      for (Map<String, Object> row : rows) {
+        if (matches(row, selection, args)) {
+          Object[] result = new Object[columns.length];
+
+          for (int i = 0; i < columns.length; i++) {
+            result[i] = row.get(columns[i]);
+          }
+
+          results.add(result);
+        }
+      }
+
+      return cursorFor(results);
+    }
+
+    int update(@NonNull ContentValues values, @NonNull String selection, @NonNull String[] args) {
+      int count = 0;
+
+      for (Map<String, Object> row : rows) {
+        if (matches(row, selection, args)) {
+          for (String key : values.keySet()) {
+            row.put(key, values.get(key));
+          }
+
+          count++;
+        }
+      }
+
+      return count;
+    }
+
+    int delete(@NonNull String selection, @NonNull String[] args) {
+      int count = 0;
+
+      for (Map<String, Object> row : new ArrayList<>(rows)) {
+        if (matches(row, selection, args)) {
+          rows.remove(row);
+          count++;
+        }
+      }
+
+      return count;
+    }
+
+    private static boolean matches(@NonNull Map<String, Object> row, @NonNull String selection, @NonNull String[] args) {
+      int arg = 0;
+
+      for (String clause : selection.split(" AND ")) {
+        String[] parts = clause.split(" ");
+        Object   value = row.get(parts[0]);
+
+        switch (parts[1]) {
+          case "=":
+            if (value == null || !String.valueOf(value).equals(args[arg++])) return false;
+            break;
+          case "!=":
+            if (value == null || String.valueOf(value).equals(args[arg++])) return false;
+            break;
+          case "NOT":
+            if (value == null) return false;
+            break;
+          default:
+            throw new AssertionError("Unsupported clause: " + clause);
+        }
+      }
+
+      return true;
+    }
+
+    private static @NonNull Cursor cursorFor(@NonNull List<Object[]> rows) {
+      Cursor cursor   = mock(Cursor.class);
+      int[]  position = {-1};
+
+      when(cursor.moveToFirst()).thenAnswer(invocation -> {
+        position[0] = 0;
+        return !rows.isEmpty();
+      });
+      when(cursor.moveToNext()).thenAnswer(invocation -> ++position[0] < rows.size());
+      when(cursor.isNull(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]] == null);
+      when(cursor.getString(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+      when(cursor.getLong(anyInt())).thenAnswer(invocation -> valueOrZero(rows.get(position[0])[(Integer) invocation.getArguments()[0]]));
+      when(cursor.getBlob(anyInt())).thenAnswer(invocation -> rows.get(position[0])[(Integer) invocation.getArguments()[0]]);
+
+      return cursor;
+    }
+
+    private static long valueOrZero(Object value) {
+      return value != null ? ((Number) value).longValue() : 0;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package org.thoughtcrime.securesms.database;
+
+import com.annimon.stream.function.Consumer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ReceiptAggregatorTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Test
+  public void add_receiptsForSameMessageCollapse() {
+    List<ReceiptBatch> applied = new LinkedList<>();
+    ReceiptAggregator  subject = new ReceiptAggregator(applied::add, mock(ScheduledExecutorService.class), 100, 10);
+
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 2000);
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1500);
+    subject.flush();
+
+    assertEquals(1, applied.size());
+    assertEquals(1, applied.get(0).size());
+    assertEquals(3, applied.get(0).getEntries(100).get(0).getCount());
+    assertEquals(2000, applied.get(0).getEntries(100).get(0).getLatestTimestamp());
+  }
+
+  @Test
+  public void add_notAppliedUntilFlush() {
+    List<ReceiptBatch> applied = new LinkedList<>();
+    ReceiptAggregator  subject = new ReceiptAggregator(applied::add, mock(ScheduledExecutorService.class), 100, 10);
+
+    subject.addReadReceipt(new SyncMessageId(ALICE, 100), 1000);
+
+    assertTrue(applied.isEmpty());
+
+    subject.flush();
+    subject.flush();
+
+    assertEquals(1, applied.size());
+  }
+
+  @Test
+  public void add_flushesAfterWindow() {
+    List<ReceiptBatch>       applied  = new LinkedList<>();
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    ReceiptAggregator        subject  = new ReceiptAggregator(applied::add, executor, 100, 10);
+
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    subject.addDeliveryReceipt(new SyncMessageId(BOB, 100), 1000);
+
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, times(1)).schedule(flush.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+    flush.getValue().run();
+
+    assertEquals(1, applied.size());
+    assertEquals(2, applied.get(0).size());
+  }
+
+  @Test
+  public void add_flushesImmediatelyWhenFull() {
+    List<ReceiptBatch>       applied  = new LinkedList<>();
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    ReceiptAggregator        subject  = new ReceiptAggregator(applied::add, executor, 100, 2);
+
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+
+    verify(executor, never()).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+
+    subject.addDeliveryReceipt(new SyncMessageId(BOB, 100), 1000);
+
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor, times(1)).schedule(flush.capture(), eq(0L), eq(TimeUnit.MILLISECONDS));
+
+    flush.getValue().run();
+
+    assertEquals(1, applied.size());
+    assertEquals(2, applied.get(0).size());
+  }
+
+  @Test
+  public void flush_failedBatchIsRetried() {
+    FailingApplier           applier  = new FailingApplier();
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    ReceiptAggregator        subject  = new ReceiptAggregator(applier, executor, 100, 10);
+
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    subject.addReadReceipt(new SyncMessageId(BOB, 100), 1000);
+
+    try {
+      subject.flush();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    subject.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 2000);
+    subject.addDeliveryReceipt(new SyncMessageId(BOB, 200), 2000);
+
+    verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+    subject.flush();
+
+    ReceiptBatch batch = applier.applied.get(0);
+
+    assertEquals(1, applier.applied.size());
+    assertEquals(3, batch.size());
+    assertEquals(2, batch.getEntries(100).size());
+    assertEquals(1, batch.getEntries(200).size());
+
+    for (ReceiptBatch.Entry entry : batch.getEntries(100)) {
+      if (entry.isRead()) {
+        assertEquals(1, entry.getCount());
+      } else {
+        assertEquals(2, entry.getCount());
+        assertEquals(2000, entry.getLatestTimestamp());
+      }
+    }
+  }
+
+  /**
+   * Fails the first batch it's given, and records every one after that.
+   */
+  private static final class FailingApplier implements Consumer<ReceiptBatch> {
+
+    private final List<ReceiptBatch> applied = new LinkedList<>();
+
+    private boolean failed;
+
+    @Override
+    public void accept(ReceiptBatch batch) {
+      if (!failed) {
+        failed = true;
+        throw new IllegalStateException();
+      }
+
+      applied.add(batch);
+    }
+  }
+}
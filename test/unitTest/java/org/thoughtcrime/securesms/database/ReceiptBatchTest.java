@@ -0,0 +1,70 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReceiptBatchTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+
+  @Test
+  public void add_repeatedReceiptsAreCoalesced() {
+    ReceiptBatch batch = new ReceiptBatch();
+
+    batch.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    batch.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 3000);
+    batch.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 2000);
+
+    List<ReceiptBatch.Entry> entries = batch.getEntries(100);
+
+    assertEquals(1, batch.size());
+    assertEquals(1, entries.size());
+    assertEquals(3, entries.get(0).getCount());
+    assertEquals(3000, entries.get(0).getLatestTimestamp());
+  }
+
+  @Test
+  public void add_deliveryAndReadAreKeptApart() {
+    ReceiptBatch batch = new ReceiptBatch();
+
+    batch.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    batch.addReadReceipt(new SyncMessageId(ALICE, 100), 1000);
+    batch.addReadReceipt(new SyncMessageId(BOB, 100), 1000);
+    batch.addReadReceipt(new SyncMessageId(BOB, 200), 1000);
+
+    assertEquals(4, batch.size());
+    assertEquals(3, batch.getEntries(100).size());
+    assertEquals(1, batch.getEntries(200).size());
+    assertEquals(2, batch.getSentTimestamps().size());
+  }
+
+  @Test
+  public void getUnmatchedEntries_excludesMatched() {
+    ReceiptBatch batch = new ReceiptBatch();
+
+    batch.addDeliveryReceipt(new SyncMessageId(ALICE, 100), 1000);
+    batch.addDeliveryReceipt(new SyncMessageId(BOB, 200), 1000);
+
+    batch.getEntries(100).get(0).markMatched();
+
+    List<ReceiptBatch.Entry> unmatched = batch.getUnmatchedEntries();
+
+    assertEquals(1, unmatched.size());
+    assertEquals(BOB, unmatched.get(0).getRecipientId());
+    assertFalse(unmatched.get(0).isRead());
+  }
+
+  @Test
+  public void isEmpty_trueForNewBatch() {
+    assertTrue(new ReceiptBatch().isEmpty());
+    assertTrue(new ReceiptBatch().getEntries(100).isEmpty());
+  }
+}
@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.OngoingStubbing;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class RecipientDatabaseTest {
+
+  private static final String EMAIL = "alice@example.org";
+
+  private SQLiteDatabase    database;
+  private RecipientDatabase subject;
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Before
+  public void setUp() {
+    SQLCipherOpenHelper helper = mock(SQLCipherOpenHelper.class);
+
+    database = mock(SQLiteDatabase.class);
+
+    when(helper.getReadableDatabase()).thenReturn(database);
+    when(helper.getWritableDatabase()).thenReturn(database);
+
+    subject = new RecipientDatabase(mock(Application.class), helper);
+  }
+
+  @Test
+  public void getOrInsertFromEmail_existingRowIsCached() {
+    Cursor row = rowCursor(5);
+    whenQueried().thenReturn(row);
+
+    assertEquals(RecipientId.from(5), subject.getOrInsertFromEmail(EMAIL));
+    assertEquals(RecipientId.from(5), subject.getOrInsertFromEmail(EMAIL));
+
+    verifyQueried(1);
+  }
+
+  @Test
+  public void getOrInsertFromEmail_insertedRowIsCached() {
+    Cursor empty = emptyCursor();
+    whenQueried().thenReturn(empty);
+    when(database.insert(eq(RecipientDatabase.TABLE_NAME), anyString(), any(ContentValues.class))).thenReturn(9L);
+
+    assertEquals(RecipientId.from(9), subject.getOrInsertFromEmail(EMAIL));
+    assertEquals(RecipientId.from(9), subject.getOrInsertFromEmail(EMAIL));
+
+    verifyQueried(1);
+    verify(database, times(1)).insert(eq(RecipientDatabase.TABLE_NAME), anyString(), any(ContentValues.class));
+  }
+
+  @Test
+  public void getOrInsertFromEmail_lostInsertRaceUsesExistingRow() {
+    Cursor empty = emptyCursor();
+    Cursor row   = rowCursor(7);
+    whenQueried().thenReturn(empty, row);
+    when(database.insert(eq(RecipientDatabase.TABLE_NAME), anyString(), any(ContentValues.class))).thenReturn(-1L);
+
+    assertEquals(RecipientId.from(7), subject.getOrInsertFromEmail(EMAIL));
+    assertEquals(RecipientId.from(7), subject.getOrInsertFromEmail(EMAIL));
+
+    verifyQueried(2);
+  }
+
+  @Test
+  public void getOrInsertFromEmail_notCachedInsideTransaction() {
+    Cursor first  = rowCursor(5);
+    Cursor second = rowCursor(5);
+    whenQueried().thenReturn(first, second);
+    when(database.inTransaction()).thenReturn(true);
+
+    subject.getOrInsertFromEmail(EMAIL);
+    subject.getOrInsertFromEmail(EMAIL);
+
+    verifyQueried(2);
+  }
+
+  @Test
+  public void clearCache_forcesNextLookupToQuery() {
+    Cursor first  = rowCursor(5);
+    Cursor second = rowCursor(5);
+    whenQueried().thenReturn(first, second);
+
+    subject.getOrInsertFromEmail(EMAIL);
+    subject.clearCache();
+    subject.getOrInsertFromEmail(EMAIL);
+
+    verifyQueried(2);
+  }
+
+  @Test
+  public void cacheExternalAddress_keyedOnUnformattedAddress() {
+    subject.cacheExternalAddress("(415) 555-1111", RecipientId.from(3));
+
+    assertEquals(RecipientId.from(3), subject.getCachedIdForExternalAddress("(415) 555-1111"));
+    assertNull(subject.getCachedIdForExternalAddress("+14155551111"));
+  }
+
+  @Test
+  public void cacheExternalAddress_skippedInsideTransaction() {
+    when(database.inTransaction()).thenReturn(true);
+
+    subject.cacheExternalAddress("+14155551111", RecipientId.from(3));
+
+    assertNull(subject.getCachedIdForExternalAddress("+14155551111"));
+  }
+
+  @Test
+  public void clearCache_dropsExternalAddresses() {
+    subject.cacheExternalAddress("+14155551111", RecipientId.from(3));
+    subject.clearCache();
+
+    assertNull(subject.getCachedIdForExternalAddress("+14155551111"));
+  }
+
+  private OngoingStubbing<Cursor> whenQueried() {
+    return when(database.query(eq(RecipientDatabase.TABLE_NAME), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString()));
+  }
+
+  private void verifyQueried(int times) {
+    verify(database, times(times)).query(eq(RecipientDatabase.TABLE_NAME), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString());
+  }
+
+  private static Cursor emptyCursor() {
+    Cursor cursor = mock(Cursor.class);
+    when(cursor.moveToFirst()).thenReturn(false);
+    return cursor;
+  }
+
+  private static Cursor rowCursor(long id) {
+    Cursor cursor = mock(Cursor.class);
+    when(cursor.moveToFirst()).thenReturn(true);
+    when(cursor.getLong(0)).thenReturn(id);
+    when(cursor.isNull(1)).thenReturn(false);
+    return cursor;
+  }
+}
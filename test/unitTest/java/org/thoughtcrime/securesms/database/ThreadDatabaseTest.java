@@ -0,0 +1,264 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.mms.SlideDeck;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class ThreadDatabaseTest {
+
+  private static final long THREAD_ID = 1;
+
+  private SQLiteDatabase database;
+  private ThreadDatabase subject;
+  private ThreadRow      thread;
+
+  @BeforeClass
+  public static void init() {
+    Log.initialize(mock(Log.Logger.class));
+  }
+
+  @Before
+  public void setUp() {
+    SQLCipherOpenHelper helper  = mock(SQLCipherOpenHelper.class);
+    Application         context = mock(Application.class);
+
+    database = mock(SQLiteDatabase.class);
+    thread   = new ThreadRow();
+
+    when(helper.getReadableDatabase()).thenReturn(database);
+    when(helper.getWritableDatabase()).thenReturn(database);
+    when(context.getContentResolver()).thenReturn(mock(ContentResolver.class));
+
+    when(database.query(eq(ThreadDatabase.TABLE_NAME), any(String[].class), anyString(), any(String[].class), anyString(), anyString(), anyString()))
+        .thenAnswer(invocation -> thread.toCursor());
+    when(database.update(eq(ThreadDatabase.TABLE_NAME), any(ContentValues.class), anyString(), any(String[].class)))
+        .thenAnswer(invocation -> thread.apply((ContentValues) invocation.getArguments()[1]));
+
+    subject = spy(new ThreadDatabase(context, helper));
+
+    doReturn(false).when(subject).update(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void updateForInsert_newerMessageBecomesSnippet() {
+    thread.set(2, 10, false, 100);
+    doReturn(smsRecord(11, 200)).when(subject).getMessageRecord(11, false);
+
+    subject.updateForInsert(THREAD_ID, 11, false, false);
+
+    assertEquals(3, thread.messageCount);
+    assertEquals(11, thread.snippetMessageId);
+    assertEquals(200, thread.snippetDateReceived);
+    verify(subject, never()).update(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void updateForInsert_olderMessageOnlyCounted() {
+    thread.set(2, 10, false, 100);
+    doReturn(smsRecord(11, 50)).when(subject).getMessageRecord(11, false);
+
+    subject.updateForInsert(THREAD_ID, 11, false, false);
+
+    assertEquals(3, thread.messageCount);
+    assertEquals(10, thread.snippetMessageId);
+    assertEquals(100, thread.snippetDateReceived);
+  }
+
+  @Test
+  public void updateForInsert_unknownSnippetSourceRescans() {
+    thread.set(2, 0, false, 0);
+
+    subject.updateForInsert(THREAD_ID, 11, false, true);
+
+    verify(subject).update(THREAD_ID, true);
+    verify(subject, never()).getMessageRecord(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void updateForDelete_snippetMessageReplaced() {
+    thread.set(3, 10, false, 100);
+    whenRescanned(2, 9, false, 90);
+
+    assertFalse(subject.updateForDelete(THREAD_ID, Collections.singletonList(10L), Collections.emptyList()));
+
+    verify(subject).update(THREAD_ID, false);
+    assertEquals(2, thread.messageCount);
+    assertEquals(9, thread.snippetMessageId);
+    assertEquals(90, thread.snippetDateReceived);
+  }
+
+  @Test
+  public void updateForDelete_otherMessagesOnlyUncounted() {
+    thread.set(5, 10, false, 100);
+
+    assertFalse(subject.updateForDelete(THREAD_ID, Arrays.asList(7L, 8L), Collections.singletonList(10L)));
+
+    verify(subject, never()).update(anyLong(), anyBoolean());
+    assertEquals(2, thread.messageCount);
+    assertEquals(10, thread.snippetMessageId);
+  }
+
+  @Test
+  public void updateForDelete_emptiedThreadRescans() {
+    thread.set(2, 10, false, 100);
+    whenRescanned(0, 0, false, 0);
+
+    assertTrue(subject.updateForDelete(THREAD_ID, Arrays.asList(7L, 8L), Collections.emptyList()));
+
+    verify(subject).update(THREAD_ID, false);
+  }
+
+  @Test
+  public void insertsAndDeletes_keepMessageCount() {
+    thread.set(1, 10, false, 100);
+    doReturn(smsRecord(11, 200)).when(subject).getMessageRecord(11, false);
+    doReturn(mmsRecord(12, 300)).when(subject).getMessageRecord(12, true);
+
+    subject.updateForInsert(THREAD_ID, 11, false, false);
+    subject.updateForInsert(THREAD_ID, 12, true, false);
+
+    assertEquals(3, thread.messageCount);
+    assertEquals(12, thread.snippetMessageId);
+    assertTrue(thread.snippetMms);
+
+    subject.updateForDelete(THREAD_ID, Collections.singletonList(11L), Collections.emptyList());
+    assertEquals(2, thread.messageCount);
+
+    // An SMS with the same id as the snippet MMS isn't the snippet.
+    subject.updateForDelete(THREAD_ID, Collections.singletonList(12L), Collections.emptyList());
+    assertEquals(1, thread.messageCount);
+    assertEquals(12, thread.snippetMessageId);
+
+    verify(subject, never()).update(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void updateForChange_snippetMessageReloaded() {
+    thread.set(4, 10, false, 100);
+    doReturn(smsRecord(10, 150)).when(subject).getMessageRecord(10, false);
+
+    subject.updateForChange(THREAD_ID, 10, false, false);
+
+    assertEquals(4, thread.messageCount);
+    assertEquals(150, thread.snippetDateReceived);
+  }
+
+  @Test
+  public void updateForChange_otherMessageIgnored() {
+    thread.set(4, 10, false, 100);
+
+    subject.updateForChange(THREAD_ID, 10, true, false);
+    subject.updateForChange(THREAD_ID, 11, false, false);
+
+    verify(subject, never()).getMessageRecord(anyLong(), anyBoolean());
+    verify(database, never()).update(eq(ThreadDatabase.TABLE_NAME), any(ContentValues.class), anyString(), any(String[].class));
+  }
+
+  @Test
+  public void incrementMessageCount_onlyForKnownSnippetSource() {
+    subject.incrementMessageCount(THREAD_ID);
+
+    verify(database).execSQL(contains(ThreadDatabase.MESSAGE_COUNT + " + 1"), eq(new Object[] {THREAD_ID}));
+    verify(database).execSQL(contains("snippet_message_id != 0"), any(Object[].class));
+  }
+
+  private void whenRescanned(long count, long snippetMessageId, boolean snippetMms, long snippetDateReceived) {
+    doAnswer(invocation -> {
+      thread.set(count, snippetMessageId, snippetMms, snippetDateReceived);
+      return count == 0;
+    }).when(subject).update(eq(THREAD_ID), anyBoolean());
+  }
+
+  private static @NonNull MessageRecord smsRecord(long id, long dateReceived) {
+    MessageRecord record = mock(MessageRecord.class);
+    when(record.getId()).thenReturn(id);
+    when(record.getDateReceived()).thenReturn(dateReceived);
+    when(record.getBody()).thenReturn("");
+    return record;
+  }
+
+  private static @NonNull MessageRecord mmsRecord(long id, long dateReceived) {
+    MmsMessageRecord record = mock(MmsMessageRecord.class);
+    when(record.getId()).thenReturn(id);
+    when(record.getDateReceived()).thenReturn(dateReceived);
+    when(record.getBody()).thenReturn("");
+    when(record.isMms()).thenReturn(true);
+    when(record.isMmsNotification()).thenReturn(true);
+    when(record.getSlideDeck()).thenReturn(mock(SlideDeck.class));
+    return record;
+  }
+
+  /**
+   * The columns of a single thread row that the incremental updates read and write.
+   */
+  private static final class ThreadRow {
+    private long    messageCount;
+    private long    snippetMessageId;
+    private boolean snippetMms;
+    private long    snippetDateReceived;
+
+    void set(long messageCount, long snippetMessageId, boolean snippetMms, long snippetDateReceived) {
+      this.messageCount        = messageCount;
+      this.snippetMessageId    = snippetMessageId;
+      this.snippetMms          = snippetMms;
+      this.snippetDateReceived = snippetDateReceived;
+    }
+
+    int apply(@NonNull ContentValues values) {
+      if (values.containsKey(ThreadDatabase.MESSAGE_COUNT)) messageCount        = values.getAsLong(ThreadDatabase.MESSAGE_COUNT);
+      if (values.containsKey("snippet_message_id"))         snippetMessageId    = values.getAsLong("snippet_message_id");
+      if (values.containsKey("snippet_mms"))                snippetMms          = values.getAsInteger("snippet_mms") == 1;
+      if (values.containsKey("snippet_date_received"))      snippetDateReceived = values.getAsLong("snippet_date_received");
+      return 1;
+    }
+
+    @NonNull Cursor toCursor() {
+      Cursor cursor = mock(Cursor.class);
+      when(cursor.moveToFirst()).thenReturn(true);
+      when(cursor.getLong(0)).thenReturn(messageCount);
+      when(cursor.getLong(1)).thenReturn(snippetMessageId);
+      when(cursor.getInt(2)).thenReturn(snippetMms ? 1 : 0);
+      when(cursor.getLong(3)).thenReturn(snippetDateReceived);
+      return cursor;
+    }
+  }
+}
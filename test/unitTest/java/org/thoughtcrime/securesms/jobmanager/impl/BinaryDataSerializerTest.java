@@ -0,0 +1,153 @@
+package org.thoughtcrime.securesms.jobmanager.impl;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public final class BinaryDataSerializerTest {
+
+  private static final float FloatDelta = 0.00001f;
+
+  private static final Data PUSH_DECRYPT = new Data.Builder().putLong("message_id", 123456789L)
+                                                             .putLong("smsMessageId", -1)
+                                                             .build();
+
+  private static final Data DELIVERY_RECEIPT = new Data.Builder().putString("recipient", "1234")
+                                                                 .putLong("message_id", 1572289102317L)
+                                                                 .putLong("timestamp", 1572289102317L)
+                                                                 .build();
+
+  private static final Data GROUP_SEND = new Data.Builder().putLong("message_id", 42)
+                                                           .putStringArray("filter_recipients", new String[]{ "11", "12", "13", "14", "15" })
+                                                           .putBoolean("is_forward", false)
+                                                           .build();
+
+  @Test
+  public void serialize_roundTripsAllTypes() {
+    Data input = new Data.Builder().putString("s1", "s1 value")
+                                   .putString("null", null)
+                                   .putStringArray("s_array_1", new String[]{ "a", null, "" })
+                                   .putInt("i1", 1)
+                                   .putInt("max", Integer.MAX_VALUE)
+                                   .putInt("min", Integer.MIN_VALUE)
+                                   .putIntArray("i_array_1", new int[]{ 1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE })
+                                   .putLong("max", Long.MAX_VALUE)
+                                   .putLong("min", Long.MIN_VALUE)
+                                   .putLongArray("l_array_1", new long[]{ 0, -1, Long.MAX_VALUE })
+                                   .putFloat("f1", 1.2f)
+                                   .putFloatArray("f_array_1", new float[]{ 5.6f, -7.8f })
+                                   .putDouble("d1", 10.2)
+                                   .putDoubleArray("d_array_1", new double[]{ 50.6, -70.8 })
+                                   .putBoolean("b1", true)
+                                   .putBooleanArray("b_array_1", new boolean[]{ false, true })
+                                   .build();
+
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    Data                 data       = serializer.deserialize(serializer.serialize(input));
+
+    assertEquals("s1 value", data.getString("s1"));
+    assertTrue(data.hasString("null"));
+    assertNull(data.getString("null"));
+    assertArrayEquals(new String[]{ "a", null, "" }, data.getStringArray("s_array_1"));
+
+    assertEquals(1, data.getInt("i1"));
+    assertEquals(Integer.MAX_VALUE, data.getInt("max"));
+    assertEquals(Integer.MIN_VALUE, data.getInt("min"));
+    assertArrayEquals(new int[]{ 1, -2, Integer.MAX_VALUE, Integer.MIN_VALUE }, data.getIntegerArray("i_array_1"));
+
+    assertEquals(Long.MAX_VALUE, data.getLong("max"));
+    assertEquals(Long.MIN_VALUE, data.getLong("min"));
+    assertArrayEquals(new long[]{ 0, -1, Long.MAX_VALUE }, data.getLongArray("l_array_1"));
+
+    assertEquals(1.2f, data.getFloat("f1"), FloatDelta);
+    assertArrayEquals(new float[]{ 5.6f, -7.8f }, data.getFloatArray("f_array_1"), FloatDelta);
+
+    assertEquals(10.2, data.getDouble("d1"), FloatDelta);
+    assertArrayEquals(new double[]{ 50.6, -70.8 }, data.getDoubleArray("d_array_1"), FloatDelta);
+
+    assertTrue(data.getBoolean("b1"));
+    assertArrayEquals(new boolean[]{ false, true }, data.getBooleanArray("b_array_1"));
+  }
+
+  @Test
+  public void serialize_emptyDataIsTiny() {
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    String               serialized = serializer.serialize(Data.EMPTY);
+
+    assertTrue(serialized.length() <= 4);
+    assertFalse(serializer.deserialize(serialized).hasString("anything"));
+  }
+
+  @Test
+  public void deserialize_readsLegacyJson() throws IOException {
+    String json = Util.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json"));
+    Data   data = new BinaryDataSerializer().deserialize(json);
+
+    assertEquals("s1 value", data.getString("s1"));
+    assertArrayEquals(new String[]{ "a", "b", "c" }, data.getStringArray("s_array_1"));
+    assertEquals(Integer.MIN_VALUE, data.getInt("min"));
+    assertEquals(Long.MAX_VALUE, data.getLong("max"));
+    assertArrayEquals(new boolean[]{ false, true }, data.getBooleanArray("b_array_1"));
+  }
+
+  @Test
+  public void deserialize_legacyJsonRewrittenAsBinary() throws IOException {
+    String               json       = Util.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json"));
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+    String               binary     = serializer.serialize(serializer.deserialize(json));
+
+    assertFalse(BinaryDataSerializer.isLegacyJson(binary));
+    assertTrue(binary.length() < json.length());
+    assertEquals("s2 value", serializer.deserialize(binary).getString("s2"));
+  }
+
+  @Test
+  public void serialize_commonJobPayloadsRoundTrip() {
+    BinaryDataSerializer serializer = new BinaryDataSerializer();
+
+    assertPushDecrypt(serializer.deserialize(serializer.serialize(PUSH_DECRYPT)));
+    assertDeliveryReceipt(serializer.deserialize(serializer.serialize(DELIVERY_RECEIPT)));
+    assertGroupSend(serializer.deserialize(serializer.serialize(GROUP_SEND)));
+  }
+
+  @Test
+  public void serialize_commonJobPayloadsSmallerThanJson() {
+    BinaryDataSerializer binary = new BinaryDataSerializer();
+    JsonDataSerializer   json   = new JsonDataSerializer();
+
+    for (Data data : new Data[]{ PUSH_DECRYPT, DELIVERY_RECEIPT, GROUP_SEND }) {
+      assertTrue(binary.serialize(data).length() < json.serialize(data).length());
+    }
+  }
+
+  @Test
+  public void deserialize_readsCommonJobPayloadsWrittenAsJson() {
+    BinaryDataSerializer binary = new BinaryDataSerializer();
+    JsonDataSerializer   json   = new JsonDataSerializer();
+
+    assertPushDecrypt(binary.deserialize(json.serialize(PUSH_DECRYPT)));
+    assertDeliveryReceipt(binary.deserialize(json.serialize(DELIVERY_RECEIPT)));
+    assertGroupSend(binary.deserialize(json.serialize(GROUP_SEND)));
+  }
+
+  private static void assertPushDecrypt(Data data) {
+    assertEquals(123456789L, data.getLong("message_id"));
+    assertEquals(-1, data.getLong("smsMessageId"));
+  }
+
+  private static void assertDeliveryReceipt(Data data) {
+    assertEquals("1234", data.getString("recipient"));
+    assertEquals(1572289102317L, data.getLong("message_id"));
+    assertEquals(1572289102317L, data.getLong("timestamp"));
+  }
+
+  private static void assertGroupSend(Data data) {
+    assertEquals(42, data.getLong("message_id"));
+    assertArrayEquals(new String[]{ "11", "12", "13", "14", "15" }, data.getStringArray("filter_recipients"));
+    assertFalse(data.getBoolean("is_forward"));
+  }
+}
@@ -397,6 +397,180 @@ public class FastJobStorageTest {
     assertTrue(jobs.isEmpty());
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextItemInQueueAfterDelete() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, true),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_dependentEligibleAfterDelete() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, true),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.singletonList(new DependencySpec("2", "1")));
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_createdOrderAcrossQueues() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q1", 5, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q2", 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", null, 3, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2, fullSpec3));
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(3, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+    assertEquals("3", jobs.get(1).getId());
+    assertEquals("1", jobs.get(2).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_laterJobNotBlockedByBackingOffJob() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 1, 20, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 2, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec3 = new FullSpec(new JobSpec("3", "f3", null, 3, 10, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2, fullSpec3));
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(5);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+
+    jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(15);
+
+    assertEquals(2, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+    assertEquals("3", jobs.get(1).getId());
+
+    jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(25);
+
+    assertEquals(3, jobs.size());
+    assertEquals("1", jobs.get(0).getId());
+    assertEquals("2", jobs.get(1).getId());
+    assertEquals("3", jobs.get(2).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_retriedJobWaitsForNextRunTime() {
+    FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                     Collections.emptyList(),
+                                     Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Collections.singletonList(fullSpec));
+
+    assertEquals(1, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+
+    subject.updateJobRunningState("1", true);
+    subject.updateJobAfterRetry("1", false, 1, 30);
+
+    assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(20).size());
+    assertEquals(1, subject.getPendingJobsWithNoDependenciesInCreatedOrder(30).size());
+  }
+
+  @Test
+  public void hasPendingJobWithNoDependencies_falseWhenFilterRejectsEveryJob() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    assertFalse(subject.hasPendingJobWithNoDependencies(10, jobSpec -> false));
+  }
+
+  @Test
+  public void hasPendingJobWithNoDependencies_trueWhenLaterJobPassesFilter() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    assertTrue(subject.hasPendingJobWithNoDependencies(10, jobSpec -> jobSpec.getId().equals("2")));
+  }
+
+  @Test
+  public void hasPendingJobWithNoDependencies_falseWhenOnlyJobIsRunningOrBackingOff() {
+    FullSpec running    = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, true),
+                                       Collections.emptyList(),
+                                       Collections.emptyList());
+    FullSpec backingOff = new FullSpec(new JobSpec("2", "f2", null, 0, 20, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                       Collections.emptyList(),
+                                       Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(running, backingOff)));
+    subject.init();
+
+    assertFalse(subject.hasPendingJobWithNoDependencies(10, jobSpec -> true));
+  }
+
+  @Test
+  public void hasPendingJobWithNoDependencies_onlyConsidersMigrationJob() {
+    FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                          Collections.emptyList(),
+                                          Collections.emptyList());
+    FullSpec migrationSpec = new FullSpec(new JobSpec("2", "f2", Job.Parameters.MIGRATION_QUEUE_KEY, 5, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                          Collections.emptyList(),
+                                          Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(plainSpec, migrationSpec)));
+    subject.init();
+
+    assertFalse(subject.hasPendingJobWithNoDependencies(10, jobSpec -> jobSpec.getId().equals("1")));
+    assertTrue(subject.hasPendingJobWithNoDependencies(10, jobSpec -> jobSpec.getId().equals("2")));
+  }
+
   @Test
   public void deleteJobs_writesToDatabase() {
     JobDatabase    database = noopDatabase();
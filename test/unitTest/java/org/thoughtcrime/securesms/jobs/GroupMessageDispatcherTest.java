@@ -0,0 +1,114 @@
+package org.thoughtcrime.securesms.jobs;
+
+import com.annimon.stream.Stream;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
+import org.whispersystems.signalservice.api.messages.SendMessageResult;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupMessageDispatcherTest extends BaseUnitTest {
+
+  private static final Executor DIRECT = Runnable::run;
+
+  @Test
+  public void dispatch_smallGroup_sendsOnce() throws Exception {
+    GroupMessageDispatcher     dispatcher = new GroupMessageDispatcher(DIRECT, 4, 8);
+    List<List<String>>         calls      = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress> addresses  = addresses(10);
+
+    List<SendMessageResult> results = dispatcher.dispatch(addresses, access(10), false, recordingSender(calls, new ArrayList<>()));
+
+    assertEquals(1, calls.size());
+    assertEquals(10, results.size());
+  }
+
+  @Test
+  public void dispatch_largeGroup_splitsAndKeepsOrder() throws Exception {
+    GroupMessageDispatcher     dispatcher = new GroupMessageDispatcher(DIRECT, 4, 8);
+    List<List<String>>         calls      = Collections.synchronizedList(new ArrayList<>());
+    List<Boolean>              updates    = Collections.synchronizedList(new ArrayList<>());
+    List<SignalServiceAddress> addresses  = addresses(100);
+
+    List<SendMessageResult> results = dispatcher.dispatch(addresses, access(100), false, recordingSender(calls, updates));
+
+    assertEquals(4, calls.size());
+    assertEquals(100, results.size());
+
+    for (int i = 0; i < addresses.size(); i++) {
+      assertEquals(addresses.get(i).getNumber(), results.get(i).getAddress().getNumber());
+    }
+
+    assertEquals(3, Stream.of(updates).filter(update -> update).count());
+  }
+
+  @Test
+  public void dispatch_failedSlice_reportedAsNetworkFailures() throws Exception {
+    GroupMessageDispatcher     dispatcher = new GroupMessageDispatcher(DIRECT, 4, 8);
+    List<SignalServiceAddress> addresses  = addresses(40);
+    String                     failing    = addresses.get(39).getNumber();
+
+    List<SendMessageResult> results = dispatcher.dispatch(addresses, access(40), false, (slice, sliceAccess, update) -> {
+      if (Stream.of(slice).anyMatch(address -> address.getNumber().equals(failing))) {
+        throw new IOException("Network down");
+      }
+      return Stream.of(slice).map(address -> SendMessageResult.success(address, false, false)).toList();
+    });
+
+    assertEquals(40, results.size());
+
+    List<SendMessageResult> failures = Stream.of(results).filter(SendMessageResult::isNetworkFailure).toList();
+
+    assertEquals(10, failures.size());
+    assertTrue(Stream.of(failures).anyMatch(result -> result.getAddress().getNumber().equals(failing)));
+    assertFalse(Stream.of(results).limit(30).anyMatch(SendMessageResult::isNetworkFailure));
+    assertNotNull(results.get(0).getSuccess());
+  }
+
+  @Test(expected = IOException.class)
+  public void dispatch_smallGroupFailure_propagates() throws Exception {
+    GroupMessageDispatcher dispatcher = new GroupMessageDispatcher(DIRECT, 4, 8);
+
+    dispatcher.dispatch(addresses(3), access(3), false, (slice, sliceAccess, update) -> {
+      throw new IOException("Network down");
+    });
+  }
+
+  private static GroupMessageDispatcher.Sender recordingSender(List<List<String>> calls, List<Boolean> updates) {
+    return (slice, sliceAccess, update) -> {
+      assertEquals(slice.size(), sliceAccess.size());
+
+      calls.add(Stream.of(slice).map(SignalServiceAddress::getNumber).toList());
+      updates.add(update);
+
+      return Stream.of(slice).map(address -> SendMessageResult.success(address, false, false)).toList();
+    };
+  }
+
+  private static List<SignalServiceAddress> addresses(int count) {
+    List<SignalServiceAddress> addresses = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      addresses.add(new SignalServiceAddress("+1555000" + String.format("%04d", i)));
+    }
+
+    return addresses;
+  }
+
+  private static List<Optional<UnidentifiedAccessPair>> access(int count) {
+    return new ArrayList<>(Collections.nCopies(count, Optional.<UnidentifiedAccessPair>absent()));
+  }
+}
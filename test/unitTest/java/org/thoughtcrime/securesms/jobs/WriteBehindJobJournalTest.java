@@ -0,0 +1,277 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.jobmanager.persistence.ConstraintSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
+import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class WriteBehindJobJournalTest extends BaseUnitTest {
+
+  private static final JobSpec JOB_1         = new JobSpec("1", "f1", null, 1, 0, 0, 3, 1000, -1, -1, "", false);
+  private static final JobSpec JOB_1_RUNNING = new JobSpec("1", "f1", null, 1, 0, 0, 3, 1000, -1, -1, "", true);
+  private static final JobSpec JOB_2         = new JobSpec("2", "f2", null, 2, 0, 0, 3, 1000, -1, -1, "", false);
+
+  @Test
+  public void update_notWrittenUntilFlush() {
+    JobDatabase           database = mock(JobDatabase.class);
+    WriteBehindJobJournal subject  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+
+    subject.update(JOB_1_RUNNING);
+
+    verify(database, never()).updateAndDeleteJobs(anyListOf(JobSpec.class), anyListOf(String.class));
+
+    subject.flush();
+
+    verify(database).updateAndDeleteJobs(Collections.singletonList(JOB_1_RUNNING), Collections.emptyList());
+    assertEquals(0, subject.getPendingOperationCount());
+  }
+
+  @Test
+  public void update_coalescedWithLaterDelete() {
+    JobDatabase           database = mock(JobDatabase.class);
+    WriteBehindJobJournal subject  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+
+    subject.update(JOB_1_RUNNING);
+    subject.update(JOB_1);
+    subject.update(JOB_2);
+    subject.delete(Collections.singletonList("1"));
+    subject.flush();
+
+    verify(database).updateAndDeleteJobs(Collections.singletonList(JOB_2), Collections.singletonList("1"));
+  }
+
+  @Test
+  public void update_schedulesDelayedFlushOnce() {
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    WriteBehindJobJournal    subject  = new WriteBehindJobJournal(mock(JobDatabase.class), executor, 100, 10);
+
+    subject.update(JOB_1);
+    subject.update(JOB_2);
+
+    verify(executor, times(1)).schedule(any(Runnable.class), eq(100L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void update_schedulesImmediateFlushWhenFull() {
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    WriteBehindJobJournal    subject  = new WriteBehindJobJournal(mock(JobDatabase.class), executor, 100, 2);
+
+    subject.update(JOB_1);
+    subject.update(JOB_2);
+
+    verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void delete_batchedWithPendingUpdates() {
+    JobDatabase              database = mock(JobDatabase.class);
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    WriteBehindJobJournal    subject  = new WriteBehindJobJournal(database, executor, 100, 10);
+
+    subject.update(JOB_2);
+    subject.delete(Collections.singletonList("1"));
+
+    verify(database, never()).updateAndDeleteJobs(anyListOf(JobSpec.class), anyListOf(String.class));
+    verify(executor, times(1)).schedule(any(Runnable.class), eq(100L), eq(TimeUnit.MILLISECONDS));
+    assertEquals(2, subject.getPendingOperationCount());
+
+    subject.flush();
+
+    verify(database).updateAndDeleteJobs(Collections.singletonList(JOB_2), Collections.singletonList("1"));
+    assertEquals(0, subject.getPendingOperationCount());
+  }
+
+  @Test
+  public void flush_failedBatchIsRetained() {
+    JobDatabase           database = mock(JobDatabase.class);
+    WriteBehindJobJournal subject  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+
+    doThrow(new IllegalStateException()).when(database).updateAndDeleteJobs(anyListOf(JobSpec.class), anyListOf(String.class));
+
+    subject.update(JOB_2);
+    subject.delete(Collections.singletonList("1"));
+
+    try {
+      subject.flush();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    assertEquals(2, subject.getPendingOperationCount());
+  }
+
+  @Test
+  public void crashMidBatch_onlyFlushedStateIsRecovered() {
+    RecordingJobDatabase  database = new RecordingJobDatabase();
+    WriteBehindJobJournal journal  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+    FastJobStorage        subject  = new FastJobStorage(database, journal);
+    JobSpec               job3     = new JobSpec("3", "f3", null, 3, 0, 0, 3, 1000, -1, -1, "", false);
+
+    subject.insertJobs(Arrays.asList(new FullSpec(JOB_1, Collections.emptyList(), Collections.emptyList()),
+                                     new FullSpec(JOB_2, Collections.emptyList(), Collections.emptyList()),
+                                     new FullSpec(job3, Collections.emptyList(), Collections.emptyList())));
+
+    subject.updateJobRunningState("1", true);
+    subject.updateJobRunningState("2", true);
+    subject.deleteJob("1");
+    subject.updateJobAfterRetry("2", false, 1, 5000);
+    subject.updateJobRunningState("3", true);
+
+    // The journal is never flushed, as if the process died here.
+    assertEquals(3, journal.getPendingOperationCount());
+
+    FastJobStorage restarted = new FastJobStorage(database, null);
+    restarted.init();
+
+    // The finished job comes back and will run again, which jobs already have to tolerate.
+    assertNotNull(restarted.getJobSpec("1"));
+    assertFalse(restarted.getJobSpec("2").isRunning());
+    assertFalse(restarted.getJobSpec("3").isRunning());
+
+    // The retry was lost, but job 2 never started again, so no attempt ran without being counted.
+    assertEquals(0, restarted.getJobSpec("2").getRunAttempt());
+    assertEquals(3, restarted.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+  }
+
+  @Test
+  public void retry_writtenBeforeJobRunsAgain() {
+    RecordingJobDatabase  database = new RecordingJobDatabase();
+    WriteBehindJobJournal journal  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+    FastJobStorage        subject  = new FastJobStorage(database, journal);
+
+    subject.insertJobs(Collections.singletonList(new FullSpec(JOB_1, Collections.emptyList(), Collections.emptyList())));
+
+    subject.updateJobRunningState("1", true);
+    subject.updateJobAfterRetry("1", false, 1, 0);
+
+    assertEquals(1, journal.getPendingOperationCount());
+    assertEquals(0, database.getAllJobSpecs().get(0).getRunAttempt());
+
+    subject.updateJobRunningState("1", true);
+
+    // The process dies during the second attempt.
+    assertEquals(0, journal.getPendingOperationCount());
+
+    FastJobStorage restarted = new FastJobStorage(database, null);
+    restarted.init();
+
+    assertEquals(1, restarted.getJobSpec("1").getRunAttempt());
+  }
+
+  @Test
+  public void storage_firstRunNotWrittenBeforeJobStarts() {
+    JobDatabase           database = mock(JobDatabase.class);
+    WriteBehindJobJournal journal  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+    FastJobStorage        subject  = new FastJobStorage(database, journal);
+
+    subject.insertJobs(Collections.singletonList(new FullSpec(JOB_1, Collections.emptyList(), Collections.emptyList())));
+    subject.updateJobRunningState("1", true);
+
+    verify(database, never()).updateAndDeleteJobs(anyListOf(JobSpec.class), anyListOf(String.class));
+    assertEquals(1, journal.getPendingOperationCount());
+  }
+
+  @Test
+  public void storage_synchronousWritesFlushJournalFirst() {
+    JobDatabase           database = mock(JobDatabase.class);
+    WriteBehindJobJournal journal  = new WriteBehindJobJournal(database, mock(ScheduledExecutorService.class), 100, 10);
+    FastJobStorage        subject  = new FastJobStorage(database, journal);
+
+    subject.insertJobs(Collections.singletonList(new FullSpec(JOB_1, Collections.emptyList(), Collections.emptyList())));
+    subject.updateJobRunningState("1", true);
+    subject.updateAllJobsToBePending();
+
+    verify(database).updateAndDeleteJobs(Collections.singletonList(JOB_1_RUNNING), Collections.emptyList());
+    verify(database).updateAllJobsToBePending();
+    assertEquals(0, journal.getPendingOperationCount());
+  }
+
+  /**
+   * Holds whatever has actually been written to it, so a storage built on top of it after a
+   * simulated crash sees only what made it to disk.
+   */
+  private static final class RecordingJobDatabase extends JobDatabase {
+
+    private final Map<String, JobSpec> jobs = new LinkedHashMap<>();
+
+    RecordingJobDatabase() {
+      super(null, null);
+    }
+
+    @Override
+    public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs) {
+      for (FullSpec fullSpec : fullSpecs) {
+        jobs.put(fullSpec.getJobSpec().getId(), fullSpec.getJobSpec());
+      }
+    }
+
+    @Override
+    public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
+      return new ArrayList<>(jobs.values());
+    }
+
+    @Override
+    public synchronized void updateAllJobsToBePending() {
+      for (JobSpec job : new ArrayList<>(jobs.values())) {
+        jobs.put(job.getId(), new JobSpec(job.getId(), job.getFactoryKey(), job.getQueueKey(), job.getCreateTime(),
+                                          job.getNextRunAttemptTime(), job.getRunAttempt(), job.getMaxAttempts(),
+                                          job.getMaxBackoff(), job.getLifespan(), job.getMaxInstances(),
+                                          job.getSerializedData(), false));
+      }
+    }
+
+    @Override
+    public synchronized void deleteJobs(@NonNull List<String> jobIds) {
+      for (String jobId : jobIds) {
+        jobs.remove(jobId);
+      }
+    }
+
+    @Override
+    public synchronized void updateAndDeleteJobs(@NonNull List<JobSpec> updates, @NonNull List<String> deleteIds) {
+      for (JobSpec update : updates) {
+        jobs.put(update.getId(), update);
+      }
+
+      deleteJobs(deleteIds);
+    }
+
+    @Override
+    public synchronized @NonNull List<ConstraintSpec> getAllConstraintSpecs() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
+      return Collections.emptyList();
+    }
+  }
+}
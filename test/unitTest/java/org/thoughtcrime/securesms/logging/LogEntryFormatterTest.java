@@ -0,0 +1,36 @@
+package org.thoughtcrime.securesms.logging;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+public final class LogEntryFormatterTest {
+
+  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
+
+  @Test
+  public void format_matches_date_format() {
+    LogEntryFormatter formatter = new LogEntryFormatter();
+    StringBuilder     builder   = new StringBuilder();
+    long[]            times     = { 0, 1, 59_999, 60_000, 1_571_234_567_890L, 1_571_234_567_890L + 1_005, 1_571_234_627_009L, 1_552_201_199_999L, 1_552_201_200_000L };
+
+    for (long time : times) {
+      builder.setLength(0);
+      formatter.format(builder, time, "I", "Tag", "message", 0, 7);
+
+      assertEquals(DATE_FORMAT.format(new Date(time)) + " I Tag: message", builder.toString());
+    }
+  }
+
+  @Test
+  public void format_message_range() {
+    StringBuilder builder = new StringBuilder();
+
+    new LogEntryFormatter().format(builder, 0, "W", "Tag", "line one\nline two", 9, 17);
+
+    assertEquals(" W Tag: line two", builder.substring(builder.indexOf(" W ")));
+  }
+}
@@ -0,0 +1,117 @@
+package org.thoughtcrime.securesms.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class LogFileTest {
+
+  private byte[] secret;
+  private File   file;
+
+  @Before
+  public void setUp() throws IOException {
+    secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+
+    file = File.createTempFile("log-", null);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void write_read_entries_across_blocks() throws IOException {
+    LogFile.Writer writer = new LogFile.Writer(secret, file, 16);
+    writer.writeEntry("first entry, longer than a single block");
+    writer.writeEntry("é中😀");
+    writer.writeEntry("");
+    writer.close();
+
+    assertEquals("first entry, longer than a single block\né中😀\n\n", new LogFile.Reader(secret, file).readAll());
+  }
+
+  @Test
+  public void write_unflushed_entries_are_not_readable() throws IOException {
+    LogFile.Writer writer = new LogFile.Writer(secret, file);
+    writer.writeEntry("flushed");
+    writer.flush();
+    writer.writeEntry("pending");
+
+    assertEquals("flushed\n", new LogFile.Reader(secret, file).readAll());
+
+    writer.close();
+
+    assertEquals("flushed\npending\n", new LogFile.Reader(secret, file).readAll());
+  }
+
+  @Test
+  public void write_appends_to_existing_file() throws IOException {
+    LogFile.Writer first = new LogFile.Writer(secret, file);
+    first.writeEntry("one");
+    first.close();
+
+    LogFile.Writer second = new LogFile.Writer(secret, file);
+    second.writeEntry("two");
+    assertEquals(file.length() + 4, second.getLogSize());
+    second.close();
+
+    assertEquals(file.length(), second.getLogSize());
+    assertEquals("one\ntwo\n", new LogFile.Reader(secret, file).readAll());
+  }
+
+  @Test
+  public void read_legacy_format() throws Exception {
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      writeLegacyEntry(outputStream, "one");
+      writeLegacyEntry(outputStream, "two");
+    }
+
+    assertFalse(LogFile.canAppend(file));
+    assertEquals("one\ntwo\n", new LogFile.Reader(secret, file).readAll());
+  }
+
+  @Test(expected = IOException.class)
+  public void write_refuses_legacy_format() throws Exception {
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      writeLegacyEntry(outputStream, "one");
+    }
+
+    new LogFile.Writer(secret, file);
+  }
+
+  @Test
+  public void canAppend_empty_file() throws IOException {
+    assertTrue(LogFile.canAppend(file));
+  }
+
+  private void writeLegacyEntry(FileOutputStream outputStream, String entry) throws Exception {
+    byte[] iv = new byte[16];
+    new SecureRandom().nextBytes(iv);
+
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(iv));
+
+    byte[] ciphertext = cipher.doFinal(entry.getBytes());
+
+    outputStream.write(iv);
+    outputStream.write(Conversions.intToByteArray(ciphertext.length));
+    outputStream.write(ciphertext);
+  }
+}
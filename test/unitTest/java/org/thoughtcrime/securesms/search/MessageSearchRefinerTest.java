@@ -0,0 +1,50 @@
+package org.thoughtcrime.securesms.search;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSearchRefinerTest {
+
+  @Test
+  public void isRefinement_longerPrefix() {
+    assertTrue(MessageSearchRefiner.isRefinement("hel", "hell"));
+    assertTrue(MessageSearchRefiner.isRefinement("hel", "hello"));
+  }
+
+  @Test
+  public void isRefinement_additionalTerm() {
+    assertTrue(MessageSearchRefiner.isRefinement("hello", "hello wor"));
+    assertTrue(MessageSearchRefiner.isRefinement("hello w", "hello wo"));
+  }
+
+  @Test
+  public void isRefinement_extraWhitespace() {
+    assertTrue(MessageSearchRefiner.isRefinement(" hel ", "hello  there"));
+  }
+
+  @Test
+  public void isRefinement_sameQuery() {
+    assertFalse(MessageSearchRefiner.isRefinement("hello", "hello"));
+    assertFalse(MessageSearchRefiner.isRefinement("hello", "hello "));
+  }
+
+  @Test
+  public void isRefinement_shorterQuery() {
+    assertFalse(MessageSearchRefiner.isRefinement("hello", "hell"));
+    assertFalse(MessageSearchRefiner.isRefinement("hello world", "hello"));
+  }
+
+  @Test
+  public void isRefinement_differentTerm() {
+    assertFalse(MessageSearchRefiner.isRefinement("hello", "help"));
+    assertFalse(MessageSearchRefiner.isRefinement("hello world", "hello there"));
+  }
+
+  @Test
+  public void isRefinement_emptyPrevious() {
+    assertFalse(MessageSearchRefiner.isRefinement("", "hello"));
+    assertFalse(MessageSearchRefiner.isRefinement("  ", "hello"));
+  }
+}
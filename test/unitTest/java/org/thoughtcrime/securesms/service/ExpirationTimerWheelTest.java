@@ -0,0 +1,154 @@
+package org.thoughtcrime.securesms.service;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ExpirationTimerWheelTest {
+
+  private static final long TICK  = 1000;
+  private static final int  SLOTS = 3600;
+  private static final long START = 1_000_000_000L;
+
+  @Test
+  public void schedule_beforeWindowExtended_isRejected() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+
+    assertFalse(wheel.schedule(1, false, START + 10));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void schedule_pastWindowEnd_isRejected() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    long                 end   = wheel.extendWindow();
+
+    assertEquals(START + TICK * SLOTS, end);
+    assertTrue(wheel.schedule(1, false, end - 1));
+    assertFalse(wheel.schedule(2, false, end));
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  public void poll_returnsOnlyExpired() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    wheel.extendWindow();
+
+    wheel.schedule(1, false, START + 500);
+    wheel.schedule(2, true, START + 1500);
+    wheel.schedule(3, false, START + 5000);
+
+    assertTrue(wheel.poll(START + 100).isEmpty());
+
+    List<ExpirationTimerWheel.Reference> expired = wheel.poll(START + 1500);
+
+    assertEquals(2, expired.size());
+    assertEquals(1, wheel.size());
+    assertEquals(START + 5000, wheel.getNextExpiration());
+  }
+
+  @Test
+  public void poll_overdueSchedule_expiresImmediately() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    wheel.extendWindow();
+    wheel.poll(START + 10_000);
+
+    wheel.schedule(1, false, START);
+
+    assertEquals(1, wheel.poll(START + 10_000).size());
+  }
+
+  @Test
+  public void schedule_duplicate_keepsSoonest() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    wheel.extendWindow();
+
+    wheel.schedule(1, false, START + 5000);
+    wheel.schedule(1, false, START + 9000);
+    wheel.schedule(1, false, START + 2000);
+
+    assertEquals(1, wheel.size());
+    assertEquals(START + 2000, wheel.getNextExpiration());
+    assertEquals(1, wheel.poll(START + 2000).size());
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void schedule_sameIdDifferentTable_areDistinct() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    wheel.extendWindow();
+
+    wheel.schedule(1, false, START + 1000);
+    wheel.schedule(1, true, START + 1000);
+
+    assertEquals(2, wheel.size());
+  }
+
+  @Test
+  public void poll_afterLongSleep_drainsEverything() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    wheel.extendWindow();
+
+    for (int i = 0; i < 100; i++) {
+      wheel.schedule(i, false, START + i * 30_000);
+    }
+
+    assertEquals(100, wheel.poll(START + TICK * SLOTS * 3).size());
+    assertEquals(Long.MAX_VALUE, wheel.getNextExpiration());
+  }
+
+  @Test
+  public void extendWindow_afterAdvance_acceptsLaterExpirations() {
+    ExpirationTimerWheel wheel = new ExpirationTimerWheel(TICK, SLOTS, START);
+    long                 first = wheel.extendWindow();
+
+    wheel.poll(START + TICK * SLOTS / 2);
+
+    long second = wheel.extendWindow();
+
+    assertEquals(first + TICK * SLOTS / 2, second);
+    assertTrue(wheel.schedule(1, false, second - 1));
+    assertEquals(1, wheel.poll(second).size());
+  }
+
+  @Test
+  public void stress_100kExpirations_eachExpiresOnceAndOnTime() {
+    ExpirationTimerWheel wheel  = new ExpirationTimerWheel(TICK, SLOTS, START);
+    Random               random = new Random(42);
+    Set<Long>            seen   = new HashSet<>();
+    int                  count  = 100_000;
+
+    wheel.extendWindow();
+
+    for (long id = 0; id < count; id++) {
+      assertTrue(wheel.schedule(id, id % 2 == 0, START + (long) (random.nextDouble() * TICK * (SLOTS - 1))));
+    }
+
+    assertEquals(count, wheel.size());
+
+    long now = START;
+
+    while (wheel.size() > 0) {
+      now += 250 + random.nextInt(2000);
+
+      for (ExpirationTimerWheel.Reference reference : wheel.poll(now)) {
+        assertTrue(reference.expiresAtMillis <= now);
+        assertTrue(now - reference.expiresAtMillis < 2250 + TICK);
+        assertTrue(seen.add(reference.id));
+      }
+
+      if (wheel.size() > 0) {
+        assertTrue(wheel.getNextExpiration() > now);
+      }
+    }
+
+    assertEquals(count, seen.size());
+  }
+}
@@ -0,0 +1,119 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ImageCompressionPlannerTest {
+
+  private static final int MIN_QUALITY  = 45;
+  private static final int MAX_QUALITY  = 90;
+  private static final int TOLERANCE    = 5;
+  private static final int MAX_ATTEMPTS = 5;
+  private static final int MAX_SIZE     = 1_000_000;
+
+  @Test
+  public void fitsAtMaxQuality() {
+    ImageCompressionPlanner planner = run(new ExponentialSize(500_000, 0.02));
+
+    assertEquals(1, planner.getAttempts());
+    assertEquals(MAX_QUALITY, planner.getFitQuality());
+  }
+
+  @Test
+  public void findsHighestQualityThatFits() {
+    double[] slopes = { 0.01, 0.02, 0.03, 0.05 };
+    int[]    sizes  = { 1_200_000, 2_000_000, 4_000_000, 6_000_000 };
+
+    for (double slope : slopes) {
+      for (int size : sizes) {
+        ExponentialSize         model   = new ExponentialSize(size, slope);
+        ImageCompressionPlanner planner = run(model);
+        int                     best    = model.highestQualityThatFits();
+
+        if (best < MIN_QUALITY) {
+          assertFalse(planner.hasFit());
+        } else {
+          assertTrue(slope + " " + size, planner.hasFit());
+          assertTrue(slope + " " + size, planner.getFitQuality() <= best);
+          assertTrue(slope + " " + size, best - planner.getFitQuality() <= TOLERANCE || model.size(planner.getFitQuality()) >= MAX_SIZE * 0.9);
+        }
+
+        assertTrue(planner.getAttempts() <= MAX_ATTEMPTS);
+      }
+    }
+  }
+
+  @Test
+  public void givesUpAfterMinQualityDoesNotFit() {
+    ImageCompressionPlanner planner = run(new ExponentialSize(50_000_000, 0.01));
+
+    assertFalse(planner.hasFit());
+    assertEquals(2, planner.getAttempts());
+  }
+
+  @Test
+  public void singleAttemptWhenQualityIsFixed() {
+    ImageCompressionPlanner planner = new ImageCompressionPlanner(MAX_SIZE, MAX_QUALITY, MAX_QUALITY, TOLERANCE, MAX_ATTEMPTS);
+
+    planner.onResult(planner.nextQuality(), 2_000_000);
+
+    assertEquals(ImageCompressionPlanner.DONE, planner.nextQuality());
+    assertFalse(planner.hasFit());
+  }
+
+  @Test
+  public void sizeThatDoesNotShrinkWithQuality() {
+    ImageCompressionPlanner planner = run(quality -> quality == MIN_QUALITY ? 100_000 : 2_000_000);
+
+    assertTrue(planner.hasFit());
+    assertTrue(planner.getAttempts() <= MAX_ATTEMPTS);
+  }
+
+  private static ImageCompressionPlanner run(SizeModel model) {
+    ImageCompressionPlanner planner = new ImageCompressionPlanner(MAX_SIZE, MIN_QUALITY, MAX_QUALITY, TOLERANCE, MAX_ATTEMPTS);
+    int                     keptFit = ImageCompressionPlanner.DONE;
+
+    for (int quality = planner.nextQuality(); quality != ImageCompressionPlanner.DONE; quality = planner.nextQuality()) {
+      assertTrue(quality >= MIN_QUALITY && quality <= MAX_QUALITY);
+
+      if (planner.onResult(quality, model.size(quality))) {
+        keptFit = quality;
+      }
+    }
+
+    assertEquals(planner.getFitQuality(), keptFit);
+
+    return planner;
+  }
+
+  private interface SizeModel {
+    int size(int quality);
+  }
+
+  private static final class ExponentialSize implements SizeModel {
+
+    private final int    sizeAtMaxQuality;
+    private final double logSizePerQuality;
+
+    private ExponentialSize(int sizeAtMaxQuality, double logSizePerQuality) {
+      this.sizeAtMaxQuality  = sizeAtMaxQuality;
+      this.logSizePerQuality = logSizePerQuality;
+    }
+
+    @Override
+    public int size(int quality) {
+      return (int) (sizeAtMaxQuality * Math.exp((quality - MAX_QUALITY) * logSizePerQuality));
+    }
+
+    int highestQualityThatFits() {
+      for (int quality = MAX_QUALITY; quality >= 0; quality--) {
+        if (size(quality) <= MAX_SIZE) return quality;
+      }
+
+      return -1;
+    }
+  }
+}